@@ -223,6 +223,15 @@ class ApiClient {
         return this.post('/files/convergent-check', { originalHash });
     }
 
+    // 收敛加密秒传
+    async convergentQuickUpload(originalHash, fileName, path = null) {
+        return this.post('/files/convergent-quick-upload', {
+            hash: originalHash,
+            fileName,
+            path: path || '/'
+        });
+    }
+
     // ==================== 健康检查 ====================
     
     // 健康检查
@@ -137,10 +137,18 @@ const uploadManager = {
             if (useConvergent) {
                 const checkResponse = await api.checkConvergentQuickUpload(hash);
                 if (checkResponse.success && checkResponse.data?.canQuickUpload) {
-                    // 收敛加密秒传
+                    // 收敛加密秒传：服务端复用已有密文的块，无需上传
                     this.updateUploadProgress(uploadId, 50);
-                    // 这里需要后端支持收敛加密秒传，暂时跳过
-                    showAlert('收敛加密秒传功能开发中', 'info');
+                    const quickResponse = await api.convergentQuickUpload(hash, file.name, path);
+                    if (quickResponse.success) {
+                        this.updateUploadProgress(uploadId, 100);
+                        showAlert(`秒传成功: ${file.name}`, 'success');
+                        this.removeUploadItem(uploadId);
+                        if (fileManager) {
+                            fileManager.loadFiles();
+                        }
+                        return;
+                    }
                 }
             }
 
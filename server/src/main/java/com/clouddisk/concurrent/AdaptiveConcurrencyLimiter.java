@@ -0,0 +1,242 @@
+package com.clouddisk.concurrent;
+
+import com.clouddisk.exception.ServerBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * 基于延迟的自适应并发限制器(AIMD)。
+ * 每次调用结束后以耗时作为样本：短期延迟未明显高于长期基线时并发上限加性增长，
+ * 超过基线的容忍倍数或下游超时、服务端错误时乘性下降，使并发稳定在延迟曲线的拐点附近。
+ * 超出上限的调用在有界队列中等待，超过截止时间抛出 {@link ServerBusyException}。
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * 长期基线的平滑系数，约等于最近 50 个样本。
+     */
+    private static final double LONG_RTT_SMOOTHING = 0.02;
+
+    /**
+     * 短期延迟的平滑系数，约等于最近 5 个样本。
+     */
+    private static final double SHORT_RTT_SMOOTHING = 0.2;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long queueTimeoutNanos;
+    private final double backoffRatio;
+    private final double tolerance;
+    private final int retryAfterSeconds;
+    private final LongSupplier nanoClock;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private double longRttNanos;
+    private double shortRttNanos;
+
+    private Counter rejected;
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                                      int maxQueue, long queueTimeoutMillis, double backoffRatio,
+                                      double tolerance, int retryAfterSeconds) {
+        this(name, initialLimit, minLimit, maxLimit, maxQueue, queueTimeoutMillis, backoffRatio, tolerance,
+                retryAfterSeconds, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                               int maxQueue, long queueTimeoutMillis, double backoffRatio,
+                               double tolerance, int retryAfterSeconds, LongSupplier nanoClock) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.maxQueue = Math.max(0, maxQueue);
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+        this.backoffRatio = backoffRatio;
+        this.tolerance = tolerance;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * 注册并发上限、进行中数量、排队数量与拒绝次数指标，按 lane 标签区分。
+     */
+    public AdaptiveConcurrencyLimiter bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("storage.limiter.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .tag("lane", name)
+                .register(meterRegistry);
+        Gauge.builder("storage.limiter.inflight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .tag("lane", name)
+                .register(meterRegistry);
+        Gauge.builder("storage.limiter.queued", this, AdaptiveConcurrencyLimiter::getQueued)
+                .tag("lane", name)
+                .register(meterRegistry);
+        this.rejected = Counter.builder("storage.limiter.rejected")
+                .tag("lane", name)
+                .register(meterRegistry);
+        return this;
+    }
+
+    /**
+     * 获取一个执行许可，必要时排队等待至截止时间。
+     *
+     * @return 许可，调用结束后必须通过 {@link Permit#onSuccess()}、{@link Permit#onFailure()}
+     *         或 {@link Permit#onIgnored()} 归还
+     */
+    public Permit acquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return new Permit();
+            }
+            if (queued >= maxQueue) {
+                throw reject("队列已满");
+            }
+            queued++;
+            try {
+                long remaining = queueTimeoutNanos;
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        throw reject("排队超时");
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw reject("排队被中断");
+            } finally {
+                queued--;
+            }
+            inFlight++;
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ServerBusyException reject(String reason) {
+        if (rejected != null) {
+            rejected.increment();
+        }
+        log.warn("存储并发限制拒绝请求: lane={}, reason={}, limit={}, inFlight={}", name, reason, (int) limit, inFlight);
+        return new ServerBusyException("存储服务繁忙，请稍后重试", retryAfterSeconds);
+    }
+
+    private void release(long rttNanos, Outcome outcome) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (outcome == Outcome.DROPPED) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (outcome == Outcome.SUCCESS) {
+                sample(rttNanos);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(long rttNanos) {
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+            shortRttNanos = rttNanos;
+            return;
+        }
+        shortRttNanos += (rttNanos - shortRttNanos) * SHORT_RTT_SMOOTHING;
+        longRttNanos += (rttNanos - longRttNanos) * LONG_RTT_SMOOTHING;
+
+        if (shortRttNanos > longRttNanos * tolerance) {
+            // 延迟明显上升：已越过拐点，乘性收缩
+            limit = Math.max(minLimit, limit * backoffRatio);
+            // 重置短期延迟，待新样本累积后再判断，避免单次抖动引发连续收缩
+            shortRttNanos = longRttNanos;
+        } else if (inFlight + 1 >= limit / 2) {
+            // 加性增长(约每个上限窗口 +1)；仅在并发确实被用到一半以上时扩张，避免空闲期上限虚高
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    private enum Outcome {
+        SUCCESS, DROPPED, IGNORED
+    }
+
+    /**
+     * 单次调用的许可，只能归还一次。
+     */
+    public final class Permit {
+        private final long startNanos = nanoClock.getAsLong();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        public void onSuccess() {
+            release(Outcome.SUCCESS);
+        }
+
+        /**
+         * 超时或下游服务端错误，按拥塞处理收缩上限。
+         */
+        public void onFailure() {
+            release(Outcome.DROPPED);
+        }
+
+        /**
+         * 调用方错误(如对象不存在)：只归还许可，不作为延迟样本也不收缩上限。
+         */
+        public void onIgnored() {
+            release(Outcome.IGNORED);
+        }
+
+        private void release(Outcome outcome) {
+            if (released.compareAndSet(false, true)) {
+                AdaptiveConcurrencyLimiter.this.release(nanoClock.getAsLong() - startNanos, outcome);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.clouddisk.concurrent;
+
+import com.clouddisk.exception.ServerBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 全局上传内存预算。
+ * 上传路径在将数据读入堆内存前按字节数申请额度，额度耗尽时等待至超时，
+ * 超时后抛出 {@link ServerBusyException}，由全局异常处理器返回 503 与 Retry-After。
+ */
+@Slf4j
+@Component
+public class UploadMemoryBudget {
+
+    /**
+     * 信号量以 KB 为单位计数，避免大预算超出 int 范围。
+     */
+    private static final int UNIT = 1024;
+
+    private final Semaphore permits;
+    private final int totalPermits;
+    private final long acquireTimeoutMillis;
+    private final int retryAfterSeconds;
+    private final Counter rejected;
+
+    public UploadMemoryBudget(@Value("${app.upload.memory-budget-mb:512}") long budgetMb,
+                              @Value("${app.upload.acquire-timeout-ms:10000}") long acquireTimeoutMillis,
+                              @Value("${app.upload.retry-after-seconds:5}") int retryAfterSeconds,
+                              MeterRegistry meterRegistry) {
+        this.totalPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budgetMb * 1024));
+        this.permits = new Semaphore(totalPermits, true);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        Gauge.builder("upload.memory.budget.bytes", () -> (double) totalPermits * UNIT)
+                .description("上传内存预算总额")
+                .register(meterRegistry);
+        Gauge.builder("upload.memory.inflight.bytes", this, budget -> (double) budget.inFlightBytes())
+                .description("当前已占用的上传内存")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("upload.memory.rejected")
+                .description("因内存预算耗尽被拒绝的上传次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 申请指定字节数的额度，超过总预算的请求按总预算计，保证大文件仍可串行通过。
+     *
+     * @param bytes 即将缓冲到内存的字节数
+     * @return 额度凭证，使用 try-with-resources 释放
+     */
+    public Reservation reserve(long bytes) {
+        int requested = (int) Math.min(totalPermits, Math.max(1, (bytes + UNIT - 1) / UNIT));
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(requested, acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            rejected.increment();
+            log.warn("上传内存预算耗尽: requested={}KB, inFlight={}B", requested, inFlightBytes());
+            throw new ServerBusyException("服务器上传繁忙，请稍后重试", retryAfterSeconds);
+        }
+        return new Reservation(requested);
+    }
+
+    /**
+     * 当前已占用的字节数。
+     */
+    public long inFlightBytes() {
+        return (long) (totalPermits - permits.availablePermits()) * UNIT;
+    }
+
+    /**
+     * 已申请的额度，关闭时归还，重复关闭无副作用。
+     */
+    public final class Reservation implements AutoCloseable {
+        private final int amount;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(int amount) {
+            this.amount = amount;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                permits.release(amount);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.clouddisk.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 块加密配置：开启后新写入的块以 AES-GCM 加密存储，密钥由块内容哈希与租户密钥派生，相同内容的块仍可去重。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.chunk.encryption")
+public class ChunkEncryptionProperties {
+
+    private boolean enabled = false;
+
+    /**
+     * 新块使用的密钥ID，须在 keys 中存在。
+     */
+    private String activeKeyId;
+
+    /**
+     * 密钥ID -> Base64 编码的租户密钥(至少32字节)。轮换时新增密钥并切换 activeKeyId，
+     * 旧密钥须保留到引用它的块全部回收为止。
+     */
+    private Map<String, String> keys = new LinkedHashMap<>();
+}
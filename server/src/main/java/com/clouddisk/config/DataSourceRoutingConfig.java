@@ -0,0 +1,94 @@
+package com.clouddisk.config;
+
+import com.clouddisk.datasource.ReplicaRoutingDataSource;
+import com.clouddisk.datasource.ReplicaRoutingInterceptor;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读写分离装配，仅在 app.datasource.routing.enabled=true 时生效；关闭时沿用 Spring Boot 默认数据源。
+ * 对外暴露的数据源：LazyConnectionDataSourceProxy -> ReplicaRoutingDataSource -> 主库/从库连接池。
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "app.datasource.routing", name = "enabled", havingValue = "true")
+@EnableConfigurationProperties(DataSourceRoutingProperties.class)
+public class DataSourceRoutingConfig implements WebMvcConfigurer {
+
+    private final DataSourceRoutingProperties properties;
+
+    public DataSourceRoutingConfig(DataSourceRoutingProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 主库连接池，连接参数与 Hikari 调优项沿用 spring.datasource。
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties) {
+        return dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource,
+                                                             MeterRegistry meterRegistry) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        List<DataSourceRoutingProperties.Replica> configured = properties.getReplicas();
+        for (int i = 0; i < configured.size(); i++) {
+            String name = "replica-" + (i + 1);
+            replicas.put(name, replica(name, configured.get(i)));
+        }
+        ReplicaRoutingDataSource routingDataSource = new ReplicaRoutingDataSource(primaryDataSource, replicas,
+                properties.getMaxLagMs(), properties.getLagCheckIntervalMs(), properties.getProbeTimeoutMs(),
+                properties.getLagQuery(), meterRegistry);
+        // 检测在数据源自带的线程上运行，不受共享调度线程上长任务的阻塞
+        routingDataSource.startHealthChecks();
+        return routingDataSource;
+    }
+
+    /**
+     * 业务层与 JPA 使用的数据源。延迟获取物理连接，路由时事务的只读标记已经确定。
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ReplicaRoutingInterceptor(properties.getReadYourWritesMs()));
+    }
+
+    private HikariDataSource replica(String name, DataSourceRoutingProperties.Replica replica) {
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(replica.getUrl())
+                .username(replica.getUsername())
+                .password(replica.getPassword())
+                .driverClassName(replica.getDriverClassName())
+                .build();
+        dataSource.setPoolName(name);
+        dataSource.setMaximumPoolSize(replica.getMaximumPoolSize());
+        // 挂起的从库不能让检测或读请求长时间阻塞在获取连接上
+        dataSource.setConnectionTimeout(Math.max(250, properties.getProbeTimeoutMs()));
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+}
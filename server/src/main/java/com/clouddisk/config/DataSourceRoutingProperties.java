@@ -0,0 +1,56 @@
+package com.clouddisk.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 读写分离配置：只读事务路由到从库，主库连接沿用 spring.datasource。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.datasource.routing")
+public class DataSourceRoutingProperties {
+
+    private boolean enabled = false;
+
+    private List<Replica> replicas = new ArrayList<>();
+
+    /**
+     * 从库复制延迟上限(毫秒)，超过后不再向其路由，直到延迟回落。
+     */
+    private long maxLagMs = 5000;
+
+    /**
+     * 从库延迟检测间隔(毫秒)。
+     */
+    private long lagCheckIntervalMs = 2000;
+
+    /**
+     * 从库检测的查询超时与从库连接池获取连接的超时(毫秒)。
+     */
+    private long probeTimeoutMs = 2000;
+
+    /**
+     * 用户发生写操作后，其读请求固定走主库的时长(毫秒)。
+     */
+    private long readYourWritesMs = 5000;
+
+    /**
+     * 查询从库复制延迟(毫秒)的 SQL，默认适用于 PostgreSQL 流复制；
+     * 已回放到最新位置时视为无延迟，避免主库空闲时误判。
+     */
+    private String lagQuery = "SELECT CASE WHEN NOT pg_is_in_recovery() "
+            + "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE COALESCE(EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000, 0) END";
+
+    @Data
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName;
+        private int maximumPoolSize = 10;
+    }
+}
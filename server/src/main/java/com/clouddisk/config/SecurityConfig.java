@@ -65,8 +65,11 @@ public class SecurityConfig {
                         .authenticationEntryPoint(authenticationEntryPoint)
                         .accessDeniedHandler(accessDeniedHandler))
                 .authorizeHttpRequests(authorize -> authorize
-                        .requestMatchers("/auth/**", "/health", "/actuator/**", "/v3/api-docs/**", "/swagger-ui/**", "/swagger-ui.html")
+                        .requestMatchers("/auth/**", "/health", "/actuator/health", "/actuator/health/**", "/actuator/info",
+                                "/v3/api-docs/**", "/swagger-ui/**", "/swagger-ui.html")
                         .permitAll()
+                        // 其余监控端点(如 metrics)包含内部运行指标，需认证
+                        .requestMatchers("/actuator/**").authenticated()
                         .requestMatchers(HttpMethod.GET, "/files/check").permitAll()
                         .requestMatchers("/shares/*/info", "/shares/*/validate", "/shares/*/download").permitAll()
                         .requestMatchers(HttpMethod.POST, "/files/directories").authenticated()
@@ -0,0 +1,61 @@
+package com.clouddisk.config;
+
+import com.clouddisk.concurrent.AdaptiveConcurrencyLimiter;
+import com.clouddisk.storage.CoalescingStorageService;
+import com.clouddisk.storage.LimitingStorageService;
+import com.clouddisk.storage.OssStorageService;
+import com.clouddisk.storage.ResilientStorageService;
+import com.clouddisk.storage.StorageService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * 存储服务装配，负责在 OSS 实现外层叠加各类装饰器。
+ * 由外到内：合并并发读取 -> 对冲/熔断 -> 自适应并发限制 -> OSS。
+ */
+@Configuration
+@EnableConfigurationProperties({StorageLimiterProperties.class, StorageResilienceProperties.class,
+        ChunkEncryptionProperties.class})
+public class StorageConfig {
+
+    /**
+     * 业务层注入的存储服务入口。
+     */
+    @Bean
+    @Primary
+    public StorageService storageService(OssStorageService ossStorageService,
+                                         StorageLimiterProperties limiterProperties,
+                                         StorageResilienceProperties resilienceProperties,
+                                         MeterRegistry meterRegistry) {
+        StorageService limited = new LimitingStorageService(ossStorageService,
+                limiter("read", limiterProperties.getRead(), limiterProperties.getRetryAfterSeconds(), meterRegistry),
+                limiter("write", limiterProperties.getWrite(), limiterProperties.getRetryAfterSeconds(), meterRegistry));
+        StorageService resilient = new ResilientStorageService(limited, new ResilientStorageService.Settings(
+                resilienceProperties.isHedgeEnabled(),
+                resilienceProperties.getHedgePercentile(),
+                resilienceProperties.getHedgeMinDelayMs(),
+                resilienceProperties.getHedgeBudgetRatio(),
+                resilienceProperties.getHedgeThreads(),
+                resilienceProperties.getFailureThreshold(),
+                resilienceProperties.getOpenDurationMs(),
+                resilienceProperties.getFallbackCacheMb() * 1024 * 1024), meterRegistry);
+        return new CoalescingStorageService(resilient);
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(String lane, StorageLimiterProperties.Lane properties,
+                                               int retryAfterSeconds, MeterRegistry meterRegistry) {
+        return new AdaptiveConcurrencyLimiter(lane,
+                properties.getInitialLimit(),
+                properties.getMinLimit(),
+                properties.getMaxLimit(),
+                properties.getMaxQueue(),
+                properties.getQueueTimeoutMs(),
+                properties.getBackoffRatio(),
+                properties.getTolerance(),
+                retryAfterSeconds)
+                .bindTo(meterRegistry);
+    }
+}
@@ -0,0 +1,55 @@
+package com.clouddisk.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 存储调用自适应并发限制配置，读写通道分别配置。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.storage.limiter")
+public class StorageLimiterProperties {
+
+    /**
+     * 被拒绝请求在 503 响应中建议的重试间隔(秒)。
+     */
+    private int retryAfterSeconds = 2;
+
+    private Lane read = new Lane(32, 4, 256, 200, 2000);
+
+    private Lane write = new Lane(16, 2, 128, 200, 5000);
+
+    @Data
+    public static class Lane {
+        private int initialLimit;
+        private int minLimit;
+        private int maxLimit;
+        /**
+         * 最大排队请求数，超出时立即拒绝。
+         */
+        private int maxQueue;
+        /**
+         * 排队截止时间(毫秒)。
+         */
+        private long queueTimeoutMs;
+        /**
+         * 延迟升高或调用失败时的收缩比例。
+         */
+        private double backoffRatio = 0.9;
+        /**
+         * 短期延迟超过长期基线的倍数阈值。
+         */
+        private double tolerance = 2.0;
+
+        public Lane() {
+        }
+
+        public Lane(int initialLimit, int minLimit, int maxLimit, int maxQueue, long queueTimeoutMs) {
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.maxQueue = maxQueue;
+            this.queueTimeoutMs = queueTimeoutMs;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.clouddisk.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 存储容错配置：对冲读取、熔断与本地块缓存兜底。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.storage.resilience")
+public class StorageResilienceProperties {
+
+    private boolean hedgeEnabled = true;
+
+    /**
+     * 触发对冲的延迟分位数。
+     */
+    private double hedgePercentile = 0.95;
+
+    /**
+     * 对冲等待时长下限(毫秒)，避免延迟极低时频繁对冲。
+     */
+    private long hedgeMinDelayMs = 20;
+
+    /**
+     * 对冲次数占读取次数的最大比例。
+     */
+    private double hedgeBudgetRatio = 0.1;
+
+    private int hedgeThreads = 64;
+
+    /**
+     * 连续失败多少次后熔断。
+     */
+    private int failureThreshold = 5;
+
+    /**
+     * 熔断持续时长(毫秒)。
+     */
+    private long openDurationMs = 30000;
+
+    /**
+     * 本地块缓存容量(MB)，用于熔断或读取失败时兜底。
+     */
+    private long fallbackCacheMb = 64;
+}
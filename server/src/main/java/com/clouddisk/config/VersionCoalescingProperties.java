@@ -0,0 +1,32 @@
+package com.clouddisk.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 保存合并配置：匹配规则的文件在时间窗内的连续保存原地替换最新版本，而不追加新版本。
+ * 没有规则时不合并(默认)。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.version-coalescing")
+public class VersionCoalescingProperties {
+
+    private List<Rule> rules = new ArrayList<>();
+
+    /**
+     * 合并规则，按顺序取第一条匹配的；pathPattern 为 Ant 风格的完整路径模式，如 /notes/**。
+     */
+    @Data
+    public static class Rule {
+
+        private String pathPattern;
+
+        /**
+         * 合并时间窗(秒)，从最新版本创建时起算，0 表示不合并。
+         */
+        private long windowSeconds;
+    }
+}
@@ -0,0 +1,102 @@
+package com.clouddisk.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+
+/**
+ * 在 Hibernate 更新表结构之前清理重复的版本记录。
+ * 早期上传流程可能为同一文件写入多条相同版本号的记录，不先清理则 ddl-auto=update 无法建立
+ * (file_id, version_number) 唯一索引。唯一索引建立后不会再产生重复，之后的启动只读取表与索引元数据，
+ * 不再执行全表自连接删除。
+ */
+@Configuration
+public class VersionDedupeConfig {
+
+    /**
+     * EntityManagerFactory 依赖清理 Bean，保证清理先于表结构更新执行。
+     */
+    @Bean
+    public static EntityManagerFactoryDependsOnPostProcessor duplicateVersionCleanupDependsOn() {
+        return new EntityManagerFactoryDependsOnPostProcessor("duplicateVersionCleanup");
+    }
+
+    @Bean
+    public DuplicateVersionCleanup duplicateVersionCleanup(DataSource dataSource) {
+        return new DuplicateVersionCleanup(new JdbcTemplate(dataSource));
+    }
+
+    /**
+     * 同一文件同一版本号只保留最后写入(created_at 最大)的记录，它与按版本号存放、被后写覆盖的块映射一致；
+     * created_at 相同时按 version_id 取一条。
+     */
+    @Slf4j
+    public static class DuplicateVersionCleanup implements InitializingBean {
+
+        static final String UNIQUE_INDEX = "idx_file_versions_file_version";
+
+        static final String DELETE_DUPLICATES = "DELETE FROM file_versions v WHERE EXISTS ("
+                + "SELECT 1 FROM file_versions d WHERE d.file_id = v.file_id AND d.version_number = v.version_number "
+                + "AND (d.created_at > v.created_at OR (d.created_at = v.created_at AND d.version_id > v.version_id)))";
+
+        private final JdbcTemplate jdbcTemplate;
+
+        public DuplicateVersionCleanup(JdbcTemplate jdbcTemplate) {
+            this.jdbcTemplate = jdbcTemplate;
+        }
+
+        @Override
+        public void afterPropertiesSet() {
+            removeDuplicates();
+        }
+
+        /**
+         * @return 删除的记录数；表尚未创建或唯一索引已存在时为 0
+         */
+        public int removeDuplicates() {
+            if (!needsCleanup()) {
+                return 0;
+            }
+            int removed = jdbcTemplate.update(DELETE_DUPLICATES);
+            if (removed > 0) {
+                log.info("清理重复的版本记录: {} 条", removed);
+            }
+            return removed;
+        }
+
+        /**
+         * 表已存在且唯一索引尚未建立时才需要清理。
+         */
+        private boolean needsCleanup() {
+            Boolean needed = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+                DatabaseMetaData metaData = connection.getMetaData();
+                // 未加引号的标识符在 PostgreSQL 中存为小写，在 H2 中存为大写
+                for (String table : new String[]{"file_versions", "FILE_VERSIONS"}) {
+                    try (ResultSet tables = metaData.getTables(connection.getCatalog(), null, table, new String[]{"TABLE"})) {
+                        if (!tables.next()) {
+                            continue;
+                        }
+                    }
+                    try (ResultSet indexes = metaData.getIndexInfo(connection.getCatalog(), null, table, true, true)) {
+                        while (indexes.next()) {
+                            if (UNIQUE_INDEX.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }
+                return false;
+            });
+            return Boolean.TRUE.equals(needed);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.clouddisk.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 历史版本保留与保存合并配置装配。
+ */
+@Configuration
+@EnableConfigurationProperties({VersionRetentionProperties.class, VersionCoalescingProperties.class})
+public class VersionRetentionConfig {
+}
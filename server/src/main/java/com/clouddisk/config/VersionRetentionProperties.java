@@ -0,0 +1,71 @@
+package com.clouddisk.config;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 历史版本保留配置：默认策略加上按用户或路径匹配的规则，规则按顺序取第一条命中的。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.version-retention")
+public class VersionRetentionProperties {
+
+    /**
+     * 清理会永久删除历史版本，默认关闭，需显式开启。
+     */
+    private boolean enabled = false;
+
+    /**
+     * 单次执行最多处理的批数(每批500个文件)，未处理完的从断点顺延到下一次。
+     */
+    private int maxBatchesPerRun = 100;
+
+    private Policy defaults = new Policy();
+
+    private List<Rule> rules = new ArrayList<>();
+
+    @Data
+    public static class Policy {
+
+        /**
+         * 无论时间多久都保留的最近版本数。
+         */
+        private int keepLast = 20;
+
+        /**
+         * 超过该天数的版本删除，0 表示不限。
+         */
+        private int maxAgeDays = 0;
+
+        /**
+         * 是否逐级稀疏化：近期每小时保留一个，其后每天一个，更早的每周一个。
+         */
+        private boolean thinning = true;
+
+        /**
+         * 按小时保留的时间窗(小时)。
+         */
+        private int hourlyHours = 24;
+
+        /**
+         * 按天保留的时间窗(天)，超出后按周保留。
+         */
+        private int dailyDays = 30;
+    }
+
+    /**
+     * 保留规则：userId 与 pathPattern 均为空时匹配全部文件，pathPattern 为 Ant 风格的完整路径模式，如 /logs/**。
+     */
+    @Data
+    @EqualsAndHashCode(callSuper = true)
+    public static class Rule extends Policy {
+
+        private String userId;
+
+        private String pathPattern;
+    }
+}
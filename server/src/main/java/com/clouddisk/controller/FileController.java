@@ -5,22 +5,30 @@ import com.clouddisk.exception.BusinessException;
 import com.clouddisk.exception.ErrorCode;
 import com.clouddisk.security.UserPrincipal;
 import com.clouddisk.service.AdvancedUploadService;
+import com.clouddisk.service.BulkOperationService;
+import com.clouddisk.service.ChangeJournalService;
 import com.clouddisk.service.DiffSyncService;
 import com.clouddisk.service.EncryptionService;
+import com.clouddisk.service.FileSearchService;
 import com.clouddisk.service.FileService;
 import com.clouddisk.service.FileSyncService;
+import com.clouddisk.service.RecycleBinService;
+import com.clouddisk.service.SnapshotService;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 文件操作接口，包括上传、下载、删除及目录管理。
@@ -35,15 +43,27 @@ public class FileController {
     private final AdvancedUploadService advancedUploadService;
     private final DiffSyncService diffSyncService;
     private final EncryptionService encryptionService;
+    private final ChangeJournalService changeJournalService;
+    private final SnapshotService snapshotService;
+    private final FileSearchService fileSearchService;
+    private final BulkOperationService bulkOperationService;
+    private final RecycleBinService recycleBinService;
 
     public FileController(FileService fileService, FileSyncService fileSyncService, 
                          AdvancedUploadService advancedUploadService, DiffSyncService diffSyncService,
-                         EncryptionService encryptionService) {
+                         EncryptionService encryptionService, ChangeJournalService changeJournalService,
+                         SnapshotService snapshotService, FileSearchService fileSearchService,
+                         BulkOperationService bulkOperationService, RecycleBinService recycleBinService) {
         this.fileService = fileService;
         this.fileSyncService = fileSyncService;
         this.advancedUploadService = advancedUploadService;
         this.diffSyncService = diffSyncService;
         this.encryptionService = encryptionService;
+        this.changeJournalService = changeJournalService;
+        this.snapshotService = snapshotService;
+        this.fileSearchService = fileSearchService;
+        this.bulkOperationService = bulkOperationService;
+        this.recycleBinService = recycleBinService;
     }
 
     /**
@@ -59,6 +79,59 @@ public class FileController {
         return ResponseEntity.ok(ApiResponse.success(files));
     }
 
+    /**
+     * 分页获取目录列表。
+     * @param cursor 上一页返回的 nextCursor，首页不传
+     * @param limit 页大小，默认 100，最大 1000
+     */
+    @GetMapping("/page")
+    public ResponseEntity<ApiResponse<FilePageDto>> listFilesPage(
+            @AuthenticationPrincipal UserPrincipal user,
+            @RequestParam(value = "path", required = false) String path,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        ensureUser(user);
+        FilePageDto page = fileService.listFilesPage(user.getUserId(), path, cursor, limit);
+        return ResponseEntity.ok(ApiResponse.success(page));
+    }
+
+    /**
+     * 按文件名搜索。
+     * @param q 名称关键字，与 ext 至少指定一个
+     * @param mode substring(默认)或 prefix
+     * @param ext 扩展名过滤，如 pdf
+     * @param path 只搜索该目录下的后代
+     * @param limit 页大小，默认 50，最大 200
+     */
+    @GetMapping("/search")
+    public ResponseEntity<ApiResponse<FilePageDto>> search(
+            @AuthenticationPrincipal UserPrincipal user,
+            @RequestParam(value = "q", required = false) String q,
+            @RequestParam(value = "mode", defaultValue = "substring") String mode,
+            @RequestParam(value = "ext", required = false) String ext,
+            @RequestParam(value = "path", required = false) String path,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        ensureUser(user);
+        boolean prefix = "prefix".equalsIgnoreCase(mode);
+        if (!prefix && !"substring".equalsIgnoreCase(mode)) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "不支持的搜索模式: " + mode);
+        }
+        FilePageDto page = fileSearchService.search(user.getUserId(), q, prefix, ext, path, cursor, limit);
+        return ResponseEntity.ok(ApiResponse.success(page));
+    }
+
+    /**
+     * 查询目录用量，不传 path 时返回账号总用量。
+     */
+    @GetMapping("/usage")
+    public ResponseEntity<ApiResponse<UsageDto>> usage(
+            @AuthenticationPrincipal UserPrincipal user,
+            @RequestParam(value = "path", required = false) String path) {
+        ensureUser(user);
+        return ResponseEntity.ok(ApiResponse.success(fileService.getUsage(user.getUserId(), path)));
+    }
+
     /**
      * 上传文件，支持指定目录路径。
      */
@@ -83,7 +156,7 @@ public class FileController {
     }
 
     /**
-     * 删除指定文件。
+     * 删除指定文件，目录会连同其全部内容一起移入回收站。
      */
     @DeleteMapping("/{fileId}")
     public ResponseEntity<ApiResponse<Void>> delete(@AuthenticationPrincipal UserPrincipal user,
@@ -94,6 +167,70 @@ public class FileController {
         return ResponseEntity.ok(ApiResponse.success("删除成功", ErrorCode.SUCCESS.name(), null));
     }
 
+    /**
+     * 回收站列表，最近删除的在前。
+     */
+    @GetMapping("/trash")
+    public ResponseEntity<ApiResponse<List<FileMetadataDto>>> listTrash(
+            @AuthenticationPrincipal UserPrincipal user,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "100") int size) {
+        ensureUser(user);
+        return ResponseEntity.ok(ApiResponse.success(fileService.listTrash(user.getUserId(), page, size)));
+    }
+
+    /**
+     * 从回收站恢复，默认回到原位置。
+     */
+    @PostMapping("/trash/{fileId}/restore")
+    public ResponseEntity<ApiResponse<FileMetadataDto>> restore(@AuthenticationPrincipal UserPrincipal user,
+                                                                @PathVariable String fileId,
+                                                                @RequestBody(required = false) RestoreRequest request) {
+        ensureUser(user);
+        FileMetadataDto metadata = fileService.restore(fileId, request != null ? request.getTargetPath() : null,
+                user.getUserId());
+        fileSyncService.notifyChange(user.getUserId(), Map.of("type", "restore", "fileId", fileId, "path", metadata.getPath()));
+        return ResponseEntity.ok(ApiResponse.success("恢复成功", ErrorCode.SUCCESS.name(), metadata));
+    }
+
+    /**
+     * 彻底删除回收站中的条目。
+     */
+    @DeleteMapping("/trash/{fileId}")
+    public ResponseEntity<ApiResponse<Void>> purge(@AuthenticationPrincipal UserPrincipal user,
+                                                   @PathVariable String fileId) {
+        ensureUser(user);
+        if (fileService.purgeTrash(user.getUserId(), List.of(fileId)).isEmpty()) {
+            throw new BusinessException(ErrorCode.FILE_NOT_FOUND, "回收站中不存在该条目");
+        }
+        return ResponseEntity.ok(ApiResponse.success("已彻底删除", ErrorCode.SUCCESS.name(), null));
+    }
+
+    /**
+     * 清空回收站。
+     */
+    @DeleteMapping("/trash")
+    public ResponseEntity<ApiResponse<Map<String, Integer>>> emptyTrash(@AuthenticationPrincipal UserPrincipal user) {
+        ensureUser(user);
+        int purged = recycleBinService.emptyTrash(user.getUserId());
+        return ResponseEntity.ok(ApiResponse.success("回收站已清空", ErrorCode.SUCCESS.name(), Map.of("purged", purged)));
+    }
+
+    /**
+     * 批量删除/移动/复制，逐项返回结果，整个请求只推送一次变更事件。
+     */
+    @PostMapping("/bulk")
+    public ResponseEntity<ApiResponse<BulkOperationResultDto>> bulk(@AuthenticationPrincipal UserPrincipal user,
+                                                                    @Valid @RequestBody BulkOperationRequest request) {
+        ensureUser(user);
+        BulkOperationResultDto result = bulkOperationService.execute(user.getUserId(), request.getOperations());
+        if (result.getSucceeded() > 0) {
+            fileSyncService.notifyChange(user.getUserId(), Map.of("type", "bulk",
+                    "succeeded", result.getSucceeded(), "failed", result.getFailed()));
+        }
+        return ResponseEntity.ok(ApiResponse.success(result));
+    }
+
     /**
      * 创建目录。
      */
@@ -106,6 +243,72 @@ public class FileController {
         return ResponseEntity.ok(ApiResponse.success("目录创建成功", ErrorCode.SUCCESS.name(), metadata));
     }
 
+    /**
+     * 移动文件或目录到目标目录。
+     */
+    @PostMapping("/{fileId}/move")
+    public ResponseEntity<ApiResponse<FileMetadataDto>> move(@AuthenticationPrincipal UserPrincipal user,
+                                                             @PathVariable String fileId,
+                                                             @Valid @RequestBody MoveRequest request) {
+        ensureUser(user);
+        FileMetadataDto metadata = fileService.move(fileId, request.getTargetPath(), user.getUserId());
+        fileSyncService.notifyChange(user.getUserId(), Map.of("type", "move", "fileId", fileId, "path", metadata.getPath()));
+        return ResponseEntity.ok(ApiResponse.success("移动成功", ErrorCode.SUCCESS.name(), metadata));
+    }
+
+    /**
+     * 复制文件或目录到目标目录，只复制元数据，不读写存储内容。
+     */
+    @PostMapping("/{fileId}/copy")
+    public ResponseEntity<ApiResponse<FileMetadataDto>> copy(@AuthenticationPrincipal UserPrincipal user,
+                                                             @PathVariable String fileId,
+                                                             @Valid @RequestBody CopyRequest request) {
+        ensureUser(user);
+        FileMetadataDto metadata = fileService.copy(fileId, request.getTargetPath(), user.getUserId());
+        fileSyncService.notifyChange(user.getUserId(), Map.of("type", "copy", "fileId", metadata.getFileId(), "path", metadata.getPath()));
+        return ResponseEntity.ok(ApiResponse.success("复制成功", ErrorCode.SUCCESS.name(), metadata));
+    }
+
+    /**
+     * 重命名文件或目录。
+     */
+    @PostMapping("/{fileId}/rename")
+    public ResponseEntity<ApiResponse<FileMetadataDto>> rename(@AuthenticationPrincipal UserPrincipal user,
+                                                               @PathVariable String fileId,
+                                                               @Valid @RequestBody RenameRequest request) {
+        ensureUser(user);
+        FileMetadataDto metadata = fileService.rename(fileId, request.getName(), user.getUserId());
+        fileSyncService.notifyChange(user.getUserId(), Map.of("type", "rename", "fileId", fileId, "path", metadata.getPath()));
+        return ResponseEntity.ok(ApiResponse.success("重命名成功", ErrorCode.SUCCESS.name(), metadata));
+    }
+
+    /**
+     * 增量拉取游标之后的变更。
+     * @param cursor 上次返回的游标，首次同步不传
+     * @param limit 批大小，默认 500，最大 1000
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<ApiResponse<ChangesDto>> changes(
+            @AuthenticationPrincipal UserPrincipal user,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        ensureUser(user);
+        return ResponseEntity.ok(ApiResponse.success(changeJournalService.listChanges(user.getUserId(), cursor, limit)));
+    }
+
+    /**
+     * 以 NDJSON 流式返回完整目录树，首行携带变更游标，供新设备一次请求完成首次同步。
+     */
+    @GetMapping(value = "/snapshot", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> snapshot(@AuthenticationPrincipal UserPrincipal user) {
+        ensureUser(user);
+        String userId = user.getUserId();
+        StreamingResponseBody body = out -> snapshotService.writeSnapshot(userId, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
     /**
      * 注册 SSE 连接，用于监听文件变更。
      */
@@ -352,6 +555,37 @@ public class FileController {
         return ResponseEntity.ok(ApiResponse.success(Map.of("canQuickUpload", canQuickUpload)));
     }
 
+    /**
+     * 批量检查收敛加密秒传，返回可秒传的原始哈希
+     */
+    @PostMapping("/convergent-check/batch")
+    public ResponseEntity<ApiResponse<Map<String, Set<String>>>> checkConvergentQuickUploadBatch(
+            @AuthenticationPrincipal UserPrincipal user,
+            @RequestBody Map<String, List<String>> request) {
+        ensureUser(user);
+        Set<String> available = encryptionService.checkConvergentQuickUploadBatch(
+                request.get("originalHashes"), user.getUserId());
+        return ResponseEntity.ok(ApiResponse.success(Map.of("available", available)));
+    }
+
+    /**
+     * 收敛加密秒传，请求中的 hash 为明文哈希
+     */
+    @PostMapping("/convergent-quick-upload")
+    public ResponseEntity<ApiResponse<FileMetadataDto>> convergentQuickUpload(
+            @AuthenticationPrincipal UserPrincipal user,
+            @Valid @RequestBody QuickUploadRequest request) {
+        ensureUser(user);
+        FileMetadataDto metadata = encryptionService.convergentQuickUpload(
+                request.getHash(),
+                request.getFileName(),
+                request.getPath(),
+                user.getUserId()
+        );
+        fileSyncService.notifyChange(user.getUserId(), Map.of("type", "quick-upload", "fileId", metadata.getFileId()));
+        return ResponseEntity.ok(ApiResponse.success("秒传成功", ErrorCode.SUCCESS.name(), metadata));
+    }
+
     /**
      * 校验当前请求是否存在认证用户。
      */
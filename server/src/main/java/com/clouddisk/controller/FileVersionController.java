@@ -4,6 +4,7 @@ import com.clouddisk.dto.ApiResponse;
 import com.clouddisk.dto.ConflictResolutionRequest;
 import com.clouddisk.dto.FileMetadataDto;
 import com.clouddisk.dto.FileVersionDto;
+import com.clouddisk.dto.FileVersionPageDto;
 import com.clouddisk.exception.BusinessException;
 import com.clouddisk.exception.ErrorCode;
 import com.clouddisk.security.UserPrincipal;
@@ -46,6 +47,22 @@ public class FileVersionController {
         return ResponseEntity.ok(ApiResponse.success(versions));
     }
     
+    /**
+     * 分页获取文件版本历史，按版本号倒序。
+     * @param cursor 上一页返回的 nextCursor，首页不传
+     * @param limit 页大小，默认 50，最大 200
+     */
+    @GetMapping("/{fileId}/versions/page")
+    public ResponseEntity<ApiResponse<FileVersionPageDto>> getVersionHistoryPage(
+            @AuthenticationPrincipal UserPrincipal user,
+            @PathVariable String fileId,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        ensureUser(user);
+        FileVersionPageDto page = fileVersionService.getVersionHistoryPage(fileId, user.getUserId(), cursor, limit);
+        return ResponseEntity.ok(ApiResponse.success(page));
+    }
+    
     /**
      * 下载指定版本的文件
      */
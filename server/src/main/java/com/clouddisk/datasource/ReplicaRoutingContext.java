@@ -0,0 +1,25 @@
+package com.clouddisk.datasource;
+
+/**
+ * 当前线程是否允许只读事务使用从库。
+ * 默认不允许：定时任务、认证查询与写请求中的读取都留在主库，只有显式放行的读请求才会路由到从库。
+ */
+public final class ReplicaRoutingContext {
+
+    private static final ThreadLocal<Boolean> REPLICA_ALLOWED = new ThreadLocal<>();
+
+    private ReplicaRoutingContext() {
+    }
+
+    public static void allowReplica() {
+        REPLICA_ALLOWED.set(Boolean.TRUE);
+    }
+
+    public static boolean isReplicaAllowed() {
+        return Boolean.TRUE.equals(REPLICA_ALLOWED.get());
+    }
+
+    public static void clear() {
+        REPLICA_ALLOWED.remove();
+    }
+}
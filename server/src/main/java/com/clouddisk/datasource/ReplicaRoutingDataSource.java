@@ -0,0 +1,200 @@
+package com.clouddisk.datasource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * 读写分离数据源：只读事务且当前线程允许时轮询路由到健康的从库，其余一律走主库。
+ * 从库由独立线程定时检测健康状态，不可达或复制延迟超过上限时摘除，恢复后自动加回；
+ * 检测本身卡住(连接挂起、查询不返回)时，超过若干个检测周期没有成功检测的从库同样视为不可用，
+ * 保证读到的数据延迟不超过上限。没有可用从库时回退主库。
+ * 需要外层包裹 LazyConnectionDataSourceProxy，使物理连接在事务只读标记设置之后才获取。
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+    public static final String PRIMARY = "primary";
+
+    /**
+     * 连续这么多个检测周期没有成功检测的从库视为不可用。
+     */
+    static final int STALE_AFTER_CHECKS = 3;
+
+    private final List<Replica> replicas;
+    private final long maxLagMillis;
+    private final long checkIntervalMillis;
+    private final long staleAfterMillis;
+    private final int probeTimeoutSeconds;
+    private final String lagQuery;
+    private final LongSupplier clock;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final Counter primaryReads;
+    private final Counter replicaReads;
+    private ScheduledExecutorService healthChecker;
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicaDataSources,
+                                    long maxLagMillis, long checkIntervalMillis, long probeTimeoutMillis,
+                                    String lagQuery, MeterRegistry meterRegistry) {
+        this(primary, replicaDataSources, maxLagMillis, checkIntervalMillis, probeTimeoutMillis, lagQuery,
+                meterRegistry, System::currentTimeMillis);
+    }
+
+    ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicaDataSources,
+                             long maxLagMillis, long checkIntervalMillis, long probeTimeoutMillis,
+                             String lagQuery, MeterRegistry meterRegistry, LongSupplier clock) {
+        this.maxLagMillis = maxLagMillis;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.staleAfterMillis = STALE_AFTER_CHECKS * checkIntervalMillis;
+        this.probeTimeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(probeTimeoutMillis + 999));
+        this.lagQuery = lagQuery;
+        this.clock = clock;
+        this.replicas = new ArrayList<>();
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        replicaDataSources.forEach((name, dataSource) -> {
+            Replica replica = new Replica(name, dataSource);
+            replicas.add(replica);
+            targets.put(name, dataSource);
+            Gauge.builder("datasource.replica.lag", replica, r -> r.lagMillis)
+                    .tag("replica", name)
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+            Gauge.builder("datasource.replica.available", replica, r -> isRoutable(r, clock.getAsLong()) ? 1 : 0)
+                    .tag("replica", name)
+                    .register(meterRegistry);
+        });
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        this.primaryReads = Counter.builder("datasource.routing.reads").tag("target", PRIMARY).register(meterRegistry);
+        this.replicaReads = Counter.builder("datasource.routing.reads").tag("target", "replica").register(meterRegistry);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return PRIMARY;
+        }
+        if (ReplicaRoutingContext.isReplicaAllowed()) {
+            long now = clock.getAsLong();
+            int size = replicas.size();
+            int start = Math.floorMod(nextReplica.getAndIncrement(), Math.max(size, 1));
+            for (int i = 0; i < size; i++) {
+                Replica replica = replicas.get((start + i) % size);
+                if (isRoutable(replica, now)) {
+                    replicaReads.increment();
+                    return replica.name;
+                }
+            }
+        }
+        primaryReads.increment();
+        return PRIMARY;
+    }
+
+    /**
+     * 在独立的单线程调度器上按固定间隔检测从库，不与其他定时任务共用调度线程。
+     */
+    public synchronized void startHealthChecks() {
+        if (healthChecker != null || replicas.isEmpty()) {
+            return;
+        }
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(() -> {
+            try {
+                checkReplicas();
+            } catch (RuntimeException ex) {
+                log.warn("从库检测异常", ex);
+            }
+        }, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 检测各从库的可达性与复制延迟。检测查询带超时，连接获取超时由从库连接池配置。
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean available;
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.setQueryTimeout(probeTimeoutSeconds);
+                try (ResultSet resultSet = statement.executeQuery(lagQuery)) {
+                    replica.lagMillis = resultSet.next() ? resultSet.getLong(1) : 0L;
+                }
+                available = replica.lagMillis <= maxLagMillis;
+                if (available) {
+                    replica.checkedAt = clock.getAsLong();
+                }
+            } catch (Exception ex) {
+                replica.lagMillis = -1;
+                available = false;
+                log.debug("从库检测失败: {}", replica.name, ex);
+            }
+            if (available != replica.available) {
+                log.warn("从库状态变更: replica={}, available={}, lagMs={}", replica.name, available, replica.lagMillis);
+                replica.available = available;
+            }
+        }
+    }
+
+    /**
+     * 最近一次检测通过且未过期的从库才接收读流量。
+     */
+    private boolean isRoutable(Replica replica, long now) {
+        return replica.available && now - replica.checkedAt <= staleAfterMillis;
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (this) {
+            if (healthChecker != null) {
+                healthChecker.shutdownNow();
+                healthChecker = null;
+            }
+        }
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        /**
+         * 初始为不可用，首次检测通过后才接收读流量。
+         */
+        private volatile boolean available;
+        private volatile long lagMillis = -1;
+        /**
+         * 最近一次检测通过的时间。
+         */
+        private volatile long checkedAt;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+}
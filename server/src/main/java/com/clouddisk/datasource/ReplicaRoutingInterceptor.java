@@ -0,0 +1,75 @@
+package com.clouddisk.datasource;
+
+import com.clouddisk.security.UserPrincipal;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.time.Duration;
+
+/**
+ * 决定请求中的只读事务能否使用从库。
+ * 只有 GET/HEAD 请求才放行；用户发起写请求后的一段时间内(读己之写窗口)，其读请求仍固定走主库，
+ * 保证刚写入的内容立即可见。窗口只在本实例内生效，多实例部署需按用户会话粘滞。
+ */
+public class ReplicaRoutingInterceptor implements AsyncHandlerInterceptor {
+
+    /**
+     * userId -> 占位值，过期即窗口结束。
+     */
+    private final Cache<String, Boolean> recentWriters;
+
+    public ReplicaRoutingInterceptor(long readYourWritesMillis) {
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(readYourWritesMillis))
+                .build();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String userId = currentUserId();
+        if (isReadRequest(request)) {
+            if (userId == null || recentWriters.getIfPresent(userId) == null) {
+                ReplicaRoutingContext.allowReplica();
+            }
+        } else if (userId != null) {
+            recentWriters.put(userId, Boolean.TRUE);
+        }
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        ReplicaRoutingContext.clear();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        ReplicaRoutingContext.clear();
+        if (!isReadRequest(request)) {
+            // 窗口从写请求结束(事务已提交)时起算
+            String userId = currentUserId();
+            if (userId != null) {
+                recentWriters.put(userId, Boolean.TRUE);
+            }
+        }
+    }
+
+    private static boolean isReadRequest(HttpServletRequest request) {
+        return "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+    }
+
+    private static String currentUserId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof UserPrincipal principal) {
+            return principal.getUserId();
+        }
+        return null;
+    }
+}
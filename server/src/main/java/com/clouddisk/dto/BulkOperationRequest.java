@@ -0,0 +1,41 @@
+package com.clouddisk.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量文件操作请求载荷，按列表顺序执行。
+ */
+@Data
+public class BulkOperationRequest {
+
+    public static final int MAX_OPERATIONS = 10000;
+
+    @Valid
+    @NotEmpty(message = "操作列表不能为空")
+    @Size(max = MAX_OPERATIONS, message = "单次最多 10000 项操作")
+    private List<Operation> operations;
+
+    @Data
+    public static class Operation {
+
+        /**
+         * delete / move / copy
+         */
+        @NotBlank(message = "操作类型不能为空")
+        private String op;
+
+        @NotBlank(message = "文件ID不能为空")
+        private String fileId;
+
+        /**
+         * move 与 copy 的目标目录。
+         */
+        private String targetPath;
+    }
+}
@@ -0,0 +1,38 @@
+package com.clouddisk.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 批量文件操作结果，results 与请求中的操作一一对应。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkOperationResultDto {
+    private List<ItemResult> results;
+    private int succeeded;
+    private int failed;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ItemResult {
+        private int index;
+        private String op;
+        private String fileId;
+        private boolean success;
+        /**
+         * 失败时的错误码，成功时为空。
+         */
+        private String code;
+        private String message;
+        /**
+         * move/copy 成功后的条目。
+         */
+        private FileMetadataDto file;
+    }
+}
@@ -0,0 +1,23 @@
+package com.clouddisk.dto;
+
+import com.clouddisk.entity.ChangeType;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * 变更日志条目视图。
+ */
+@Data
+public class ChangeEntryDto {
+    private long seq;
+    private ChangeType type;
+    private String fileId;
+    private String path;
+    private String oldPath;
+    private boolean directory;
+    private Long size;
+    private String hash;
+    private Integer version;
+    private Instant changedAt;
+}
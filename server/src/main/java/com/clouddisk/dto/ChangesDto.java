@@ -0,0 +1,19 @@
+package com.clouddisk.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 增量变更批次，下次请求携带 cursor；hasMore 为 true 时应立即继续拉取。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangesDto {
+    private List<ChangeEntryDto> entries;
+    private String cursor;
+    private boolean hasMore;
+}
@@ -0,0 +1,15 @@
+package com.clouddisk.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+/**
+ * 复制文件或目录请求载荷。
+ */
+@Data
+public class CopyRequest {
+
+    @NotBlank(message = "目标路径不能为空")
+    private String targetPath;
+
+}
@@ -18,6 +18,16 @@ public class FileMetadataDto {
     private String hash;
     private int version;
     private Instant updatedAt;
+    /**
+     * 目录聚合：子树内文件总字节数、文件数与最近变更时间，仅目录返回。
+     */
+    private Long subtreeSize;
+    private Long subtreeFileCount;
+    private Instant subtreeUpdatedAt;
+    /**
+     * 移入回收站的时间，仅回收站列表返回。
+     */
+    private Instant trashedAt;
     /**
      * 共享信息：用于前端展示协作态。
      */
@@ -0,0 +1,18 @@
+package com.clouddisk.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 目录分页列表，nextCursor 为空表示已到最后一页。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FilePageDto {
+    private List<FileMetadataDto> items;
+    private String nextCursor;
+}
@@ -0,0 +1,18 @@
+package com.clouddisk.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 版本历史分页结果，按版本号倒序，nextCursor 为空表示已到最后一页。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileVersionPageDto {
+    private List<FileVersionDto> items;
+    private String nextCursor;
+}
@@ -0,0 +1,15 @@
+package com.clouddisk.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+/**
+ * 移动文件或目录请求载荷。
+ */
+@Data
+public class MoveRequest {
+
+    @NotBlank(message = "目标路径不能为空")
+    private String targetPath;
+
+}
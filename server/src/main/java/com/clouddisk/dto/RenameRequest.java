@@ -0,0 +1,15 @@
+package com.clouddisk.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+/**
+ * 重命名文件或目录请求载荷。
+ */
+@Data
+public class RenameRequest {
+
+    @NotBlank(message = "名称不能为空")
+    private String name;
+
+}
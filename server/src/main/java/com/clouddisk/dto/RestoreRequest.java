@@ -0,0 +1,13 @@
+package com.clouddisk.dto;
+
+import lombok.Data;
+
+/**
+ * 从回收站恢复请求载荷，目标目录为空时恢复到原位置。
+ */
+@Data
+public class RestoreRequest {
+
+    private String targetPath;
+
+}
@@ -0,0 +1,35 @@
+package com.clouddisk.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * 全量快照中的一行，由查询直接投影生成，不经过持久化上下文。
+ */
+@Data
+@NoArgsConstructor
+public class SnapshotEntryDto {
+    private String kind = "entry";
+    private String fileId;
+    private String parentId;
+    private String path;
+    private boolean directory;
+    private Long size;
+    private String hash;
+    private int version;
+    private Instant updatedAt;
+
+    public SnapshotEntryDto(String fileId, String parentId, String directoryPath, String name,
+                            boolean directory, Long size, String hash, int version, Instant updatedAt) {
+        this.fileId = fileId;
+        this.parentId = parentId;
+        this.path = "/".equals(directoryPath) ? "/" + name : directoryPath + "/" + name;
+        this.directory = directory;
+        this.size = size;
+        this.hash = hash;
+        this.version = version;
+        this.updatedAt = updatedAt;
+    }
+}
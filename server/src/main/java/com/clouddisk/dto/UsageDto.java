@@ -0,0 +1,25 @@
+package com.clouddisk.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * 目录或账号的用量统计，直接读取增量维护的聚合值。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UsageDto {
+    private String path;
+    private long usedBytes;
+    private long fileCount;
+    private Instant updatedAt;
+    /**
+     * 配额与预占空间，仅账号级(根目录)返回；配额为负数表示不限。
+     */
+    private Long quotaBytes;
+    private Long reservedBytes;
+}
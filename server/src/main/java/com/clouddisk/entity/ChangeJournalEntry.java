@@ -0,0 +1,67 @@
+package com.clouddisk.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * 用户变更日志条目，只追加不修改。
+ * seq 为用户内单调递增序号，在更新用户行的同一事务中分配，提交顺序与序号顺序一致。
+ */
+@Entity
+@Data
+@Table(name = "change_journal", indexes = {
+        @Index(name = "idx_journal_user_seq", columnList = "user_id,seq", unique = true)
+})
+public class ChangeJournalEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false, length = 36)
+    private String userId;
+
+    @Column(name = "seq", nullable = false)
+    private Long seq;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false, length = 16)
+    private ChangeType changeType;
+
+    @Column(name = "file_id", length = 36)
+    private String fileId;
+
+    /**
+     * 变更后的完整路径，删除时为删除前的路径。
+     */
+    @Column(name = "path", nullable = false, length = 1024)
+    private String path;
+
+    /**
+     * 移动/重命名前的完整路径。
+     */
+    @Column(name = "old_path", length = 1024)
+    private String oldPath;
+
+    @Column(name = "is_directory", nullable = false)
+    private boolean directory;
+
+    @Column(name = "file_size")
+    private Long fileSize;
+
+    @Column(name = "content_hash")
+    private String contentHash;
+
+    @Column(name = "version")
+    private Integer version;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private Instant createdAt;
+
+    @PrePersist
+    public void prePersist() {
+        createdAt = Instant.now();
+    }
+}
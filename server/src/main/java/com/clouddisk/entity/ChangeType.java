@@ -0,0 +1,14 @@
+package com.clouddisk.entity;
+
+/**
+ * 变更日志的变更类型。
+ * 目录的删除与移动只记录目录本身一条，客户端按路径前缀处理其子树。
+ */
+public enum ChangeType {
+    CREATE,
+    UPDATE,
+    DELETE,
+    MOVE,
+    SHARE,
+    UNSHARE
+}
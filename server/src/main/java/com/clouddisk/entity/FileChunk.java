@@ -46,6 +46,12 @@ public class FileChunk {
     @Column(nullable = false)
     private Boolean compressed = false;
 
+    /**
+     * 加密所用的密钥ID,为空表示明文存储。先压缩后加密。
+     */
+    @Column(length = 64)
+    private String encryptionKeyId;
+
     /**
      * 引用计数,记录有多少文件引用了该块。
      * 当引用计数为0时可以删除该块。
@@ -57,6 +63,11 @@ public class FileChunk {
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
+    /**
+     * 最近一次被暂存复用的时间。引用计数为0的块被复用时续期,回收任务按它与 createdAt 中较晚者计算宽限期。
+     */
+    private LocalDateTime leasedAt;
+
     /**
      * 增加引用计数。
      */
@@ -12,7 +12,8 @@ import java.time.LocalDateTime;
 @Data
 @Entity
 @Table(name = "file_encryption_metadata", indexes = {
-    @Index(name = "idx_file_id", columnList = "file_id")
+    @Index(name = "idx_file_id", columnList = "file_id"),
+    @Index(name = "idx_encryption_original_hash", columnList = "original_hash,convergent")
 })
 public class FileEncryptionMetadata {
     
@@ -12,7 +12,12 @@ import java.time.Instant;
 @Data
 @Table(name = "files", indexes = {
         @Index(name = "idx_files_user_path", columnList = "user_id,directory_path,name", unique = true),
-        @Index(name = "idx_files_hash", columnList = "content_hash")
+        @Index(name = "idx_files_user_dir_listing", columnList = "user_id,directory_path,is_directory,name"),
+        @Index(name = "idx_files_hash", columnList = "content_hash"),
+        @Index(name = "idx_files_parent", columnList = "parent_id,name"),
+        @Index(name = "idx_files_user_trashed", columnList = "user_id,trashed_at"),
+        @Index(name = "idx_files_trashed", columnList = "trashed_at"),
+        @Index(name = "idx_files_storage_key", columnList = "storage_key")
 })
 public class FileEntity {
 
@@ -29,6 +34,12 @@ public class FileEntity {
     @Column(name = "directory_path", nullable = false)
     private String directoryPath;
 
+    /**
+     * 父目录的 fileId，位于根目录时为空。目录树以此为准，directoryPath 为物化路径索引。
+     */
+    @Column(name = "parent_id", length = 36)
+    private String parentId;
+
     @Column(name = "storage_key")
     private String storageKey;
 
@@ -48,6 +59,29 @@ public class FileEntity {
     @Column(name = "optimistic_lock_version", nullable = false)
     private Long optimisticLockVersion = 0L;
 
+    /**
+     * 目录聚合：子树内文件总字节数、文件数与最近变更时间，仅对目录有意义。
+     * 只通过批量 SQL 增量维护，实体保存时不回写，避免旧快照覆盖并发增量。
+     */
+    @Column(name = "subtree_bytes", updatable = false)
+    private Long subtreeBytes = 0L;
+
+    @Column(name = "subtree_file_count", updatable = false)
+    private Long subtreeFileCount = 0L;
+
+    @Column(name = "subtree_updated_at", updatable = false)
+    private Instant subtreeUpdatedAt;
+
+    /**
+     * 回收站：移入回收站的时间与原所在目录，只记录在被删除的顶层条目上。
+     * 顶层条目移入 {@link com.clouddisk.service.DirectoryTreeService#TRASH_ROOT} 命名空间，后代路径随之改写。
+     */
+    @Column(name = "trashed_at")
+    private Instant trashedAt;
+
+    @Column(name = "original_path")
+    private String originalPath;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt;
 
@@ -10,7 +10,10 @@ import java.time.Instant;
  */
 @Entity
 @Data
-@Table(name = "file_versions")
+@Table(name = "file_versions", indexes = {
+        @Index(name = "idx_file_versions_file_version", columnList = "file_id,version_number", unique = true),
+        @Index(name = "idx_file_versions_storage_key", columnList = "storage_key")
+})
 public class FileVersion {
 
     @Id
@@ -35,6 +38,19 @@ public class FileVersion {
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt;
 
+    /**
+     * 以文件的当前状态生成版本记录。
+     */
+    public static FileVersion snapshotOf(FileEntity file) {
+        FileVersion version = new FileVersion();
+        version.setFileId(file.getFileId());
+        version.setVersionNumber(file.getVersion());
+        version.setStorageKey(file.getStorageKey());
+        version.setFileSize(file.getFileSize() != null ? file.getFileSize() : 0L);
+        version.setContentHash(file.getContentHash());
+        return version;
+    }
+
     @PrePersist
     public void prePersist() {
         if (versionId == null) {
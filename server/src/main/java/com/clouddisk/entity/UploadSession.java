@@ -35,6 +35,12 @@ public class UploadSession {
     @Column(name = "file_size", nullable = false)
     private Long fileSize;
     
+    /**
+     * 会话创建时预占的配额字节数，提交或过期时释放后清零。
+     */
+    @Column(name = "reserved_bytes")
+    private Long reservedBytes;
+    
     @Column(name = "file_hash")
     private String fileHash;
     
@@ -32,6 +32,34 @@ public class User {
     @Column(name = "token_version", nullable = false)
     private int tokenVersion;
 
+    /**
+     * 用户已用空间与文件数，只通过批量 SQL 增量维护，实体保存时不回写。
+     * 为空表示历史账号尚未完成统计回填。
+     */
+    @Column(name = "used_bytes", updatable = false)
+    private Long usedBytes = 0L;
+
+    @Column(name = "file_count", updatable = false)
+    private Long fileCount = 0L;
+
+    /**
+     * 个人配额(字节)，为空时使用系统默认配额，负数表示不限。
+     */
+    @Column(name = "quota_bytes")
+    private Long quotaBytes;
+
+    /**
+     * 进行中的断点续传会话预占的空间，同样只通过 SQL 增量维护。
+     */
+    @Column(name = "reserved_bytes", updatable = false)
+    private Long reservedBytes = 0L;
+
+    /**
+     * 变更日志的最新序号，只通过 SQL 自增分配。
+     */
+    @Column(name = "journal_seq", updatable = false)
+    private Long journalSeq = 0L;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt;
 
@@ -0,0 +1,11 @@
+package com.clouddisk.exception;
+
+/**
+ * 提交时发现暂存的块已被孤儿块回收任务删除，调用方应重新暂存后重试。
+ */
+public class ChunkReclaimedException extends BusinessException {
+
+    public ChunkReclaimedException(Long chunkId) {
+        super(ErrorCode.STORAGE_ERROR, "块不存在: " + chunkId);
+    }
+}
@@ -15,6 +15,8 @@ public enum ErrorCode {
     ACCESS_DENIED("无权限访问"),
     VALIDATION_ERROR("参数校验失败"),
     CONFLICT("文件冲突"),
+    QUOTA_EXCEEDED("存储空间不足"),
+    SERVER_BUSY("服务器繁忙，请稍后重试"),
     INTERNAL_ERROR("服务器内部错误");
 
     private final String message;
@@ -4,6 +4,7 @@ import com.clouddisk.dto.ApiResponse;
 import jakarta.validation.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -45,6 +46,17 @@ public class GlobalExceptionHandler {
                 .body(ApiResponse.error(ex.getMessage(), ex.getErrorCode().name(), details));
     }
 
+    /**
+     * 处理服务器繁忙异常，返回 503 并提示重试时间。
+     */
+    @ExceptionHandler(ServerBusyException.class)
+    public ResponseEntity<ApiResponse<Object>> handleServerBusyException(ServerBusyException ex) {
+        log.warn("Server busy: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(ApiResponse.error(ex.getMessage(), ex.getErrorCode().name()));
+    }
+
     /**
      * 处理 Spring MVC 校验异常。
      */
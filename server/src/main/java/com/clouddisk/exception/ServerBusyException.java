@@ -0,0 +1,18 @@
+package com.clouddisk.exception;
+
+/**
+ * 服务器资源暂时耗尽异常，客户端应在 Retry-After 秒后重试。
+ */
+public class ServerBusyException extends BusinessException {
+
+    private final int retryAfterSeconds;
+
+    public ServerBusyException(String message, int retryAfterSeconds) {
+        super(ErrorCode.SERVER_BUSY, message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,11 @@
+package com.clouddisk.exception;
+
+/**
+ * 存储对象不存在。属于调用方错误，不计入存储拥塞或熔断统计。
+ */
+public class StorageObjectNotFoundException extends BusinessException {
+
+    public StorageObjectNotFoundException(String storageKey, Throwable cause) {
+        super(ErrorCode.FILE_NOT_FOUND, "存储对象不存在: " + storageKey, cause);
+    }
+}
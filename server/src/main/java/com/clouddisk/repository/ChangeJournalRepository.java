@@ -0,0 +1,18 @@
+package com.clouddisk.repository;
+
+import com.clouddisk.entity.ChangeJournalEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+/**
+ * 变更日志仓储。
+ */
+public interface ChangeJournalRepository extends JpaRepository<ChangeJournalEntry, Long> {
+
+    /**
+     * 读取游标之后的变更，走 (user_id, seq) 索引。
+     */
+    List<ChangeJournalEntry> findByUserIdAndSeqGreaterThanOrderBySeqAsc(String userId, Long seq, Pageable pageable);
+}
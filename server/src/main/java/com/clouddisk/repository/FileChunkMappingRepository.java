@@ -2,8 +2,12 @@ package com.clouddisk.repository;
 
 import com.clouddisk.entity.FileChunkMapping;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -14,6 +18,8 @@ public interface FileChunkMappingRepository extends JpaRepository<FileChunkMappi
      */
     List<FileChunkMapping> findByFileIdAndVersionNumberOrderBySequenceNumber(String fileId, Integer versionNumber);
 
+    boolean existsByFileIdAndVersionNumber(String fileId, Integer versionNumber);
+
     /**
      * 查找文件的所有块映射。
      */
@@ -28,4 +34,42 @@ public interface FileChunkMappingRepository extends JpaRepository<FileChunkMappi
      * 删除指定版本的块映射。
      */
     void deleteByFileIdAndVersionNumber(String fileId, Integer versionNumber);
+
+    /**
+     * 批量删除一组文件的全部块映射。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("DELETE FROM FileChunkMapping m WHERE m.fileId IN :fileIds")
+    int deleteByFileIdIn(@Param("fileIds") Collection<String> fileIds);
+
+    /**
+     * 批量删除文件一组版本的块映射。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("DELETE FROM FileChunkMapping m WHERE m.fileId = :fileId AND m.versionNumber IN :versionNumbers")
+    int deleteByFileIdAndVersionNumberIn(@Param("fileId") String fileId,
+                                         @Param("versionNumbers") Collection<Integer> versionNumbers);
+
+    /**
+     * 将源文件最新版本的块映射原样复制给目标文件，单条 INSERT ... SELECT 完成，返回复制条数。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("INSERT INTO FileChunkMapping (fileId, versionNumber, chunkId, sequenceNumber, offsetInFile) " +
+            "SELECT :targetFileId, :targetVersion, m.chunkId, m.sequenceNumber, m.offsetInFile " +
+            "FROM FileChunkMapping m WHERE m.fileId = :sourceFileId AND m.versionNumber = " +
+            "(SELECT MAX(m2.versionNumber) FROM FileChunkMapping m2 WHERE m2.fileId = :sourceFileId)")
+    int copyLatestMappings(@Param("sourceFileId") String sourceFileId,
+                           @Param("targetFileId") String targetFileId,
+                           @Param("targetVersion") Integer targetVersion);
+
+    /**
+     * 将文件某个版本的块映射复制为同一文件的另一个版本，单条 INSERT ... SELECT 完成，返回复制条数。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("INSERT INTO FileChunkMapping (fileId, versionNumber, chunkId, sequenceNumber, offsetInFile) " +
+            "SELECT m.fileId, :targetVersion, m.chunkId, m.sequenceNumber, m.offsetInFile " +
+            "FROM FileChunkMapping m WHERE m.fileId = :fileId AND m.versionNumber = :sourceVersion")
+    int copyVersionMappings(@Param("fileId") String fileId,
+                            @Param("sourceVersion") Integer sourceVersion,
+                            @Param("targetVersion") Integer targetVersion);
 }
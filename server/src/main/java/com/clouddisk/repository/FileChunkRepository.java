@@ -1,9 +1,16 @@
 package com.clouddisk.repository;
 
 import com.clouddisk.entity.FileChunk;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -18,4 +25,74 @@ public interface FileChunkRepository extends JpaRepository<FileChunk, Long> {
      * 根据存储键查找块。
      */
     Optional<FileChunk> findByStorageKey(String storageKey);
+
+    /**
+     * 原子增加引用计数,返回受影响行数。
+     */
+    @Modifying
+    @Query("UPDATE FileChunk c SET c.refCount = c.refCount + 1 WHERE c.chunkId = :chunkId")
+    int incrementRefCount(@Param("chunkId") Long chunkId);
+
+    /**
+     * 查找引用计数为0、创建与最近一次租约均早于截止时间的块(用于回收孤儿块)。
+     */
+    @Query("SELECT c FROM FileChunk c WHERE c.refCount = 0 AND c.createdAt < :cutoff " +
+            "AND (c.leasedAt IS NULL OR c.leasedAt < :cutoff) ORDER BY c.chunkId")
+    List<FileChunk> findOrphanCandidates(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+    /**
+     * 续期暂存租约：复用引用计数为0的块时调用，使回收任务在宽限期内跳过它。返回受影响行数，0 表示块已被回收。
+     */
+    @Modifying
+    @Query("UPDATE FileChunk c SET c.leasedAt = :now WHERE c.chunkId = :chunkId")
+    int renewLease(@Param("chunkId") Long chunkId, @Param("now") LocalDateTime now);
+
+    /**
+     * 仅当引用计数仍为0且租约已过期时删除块记录,返回受影响行数。
+     */
+    @Modifying
+    @Query("DELETE FROM FileChunk c WHERE c.chunkId = :chunkId AND c.refCount = 0 " +
+            "AND (c.leasedAt IS NULL OR c.leasedAt < :cutoff)")
+    int deleteIfUnreferenced(@Param("chunkId") Long chunkId, @Param("cutoff") LocalDateTime cutoff);
+
+    /**
+     * 批量扣减一组文件引用的块计数：每个块减去其在这些文件中的映射条数，单条语句完成。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE FileChunk c SET c.refCount = c.refCount - " +
+            "(SELECT COUNT(m) FROM FileChunkMapping m WHERE m.chunkId = c.chunkId AND m.fileId IN :fileIds) " +
+            "WHERE c.chunkId IN (SELECT m2.chunkId FROM FileChunkMapping m2 WHERE m2.fileId IN :fileIds)")
+    int releaseReferences(@Param("fileIds") Collection<String> fileIds);
+
+    /**
+     * 批量增加一组文件引用的块计数：每个块加上其在这些文件中的映射条数，单条语句完成。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE FileChunk c SET c.refCount = c.refCount + " +
+            "(SELECT COUNT(m) FROM FileChunkMapping m WHERE m.chunkId = c.chunkId AND m.fileId IN :fileIds) " +
+            "WHERE c.chunkId IN (SELECT m2.chunkId FROM FileChunkMapping m2 WHERE m2.fileId IN :fileIds)")
+    int acquireReferences(@Param("fileIds") Collection<String> fileIds);
+
+    /**
+     * 按文件某个版本的映射增加块计数，单条语句完成。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE FileChunk c SET c.refCount = c.refCount + " +
+            "(SELECT COUNT(m) FROM FileChunkMapping m WHERE m.chunkId = c.chunkId " +
+            "AND m.fileId = :fileId AND m.versionNumber = :versionNumber) " +
+            "WHERE c.chunkId IN (SELECT m2.chunkId FROM FileChunkMapping m2 " +
+            "WHERE m2.fileId = :fileId AND m2.versionNumber = :versionNumber)")
+    int acquireVersionReferences(@Param("fileId") String fileId, @Param("versionNumber") Integer versionNumber);
+
+    /**
+     * 按文件一组版本的映射扣减块计数，单条语句完成。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE FileChunk c SET c.refCount = c.refCount - " +
+            "(SELECT COUNT(m) FROM FileChunkMapping m WHERE m.chunkId = c.chunkId " +
+            "AND m.fileId = :fileId AND m.versionNumber IN :versionNumbers) " +
+            "WHERE c.chunkId IN (SELECT m2.chunkId FROM FileChunkMapping m2 " +
+            "WHERE m2.fileId = :fileId AND m2.versionNumber IN :versionNumbers)")
+    int releaseVersionReferences(@Param("fileId") String fileId,
+                                 @Param("versionNumbers") Collection<Integer> versionNumbers);
 }
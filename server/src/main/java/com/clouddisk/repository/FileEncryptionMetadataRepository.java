@@ -1,9 +1,14 @@
 package com.clouddisk.repository;
 
 import com.clouddisk.entity.FileEncryptionMetadata;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -12,4 +17,20 @@ public interface FileEncryptionMetadataRepository extends JpaRepository<FileEncr
     Optional<FileEncryptionMetadata> findByFileId(String fileId);
     
     void deleteByFileId(String fileId);
+
+    /**
+     * 按原始哈希查找可复用的收敛加密文件：文件仍存在且为分块存储。
+     */
+    @Query("SELECT m FROM FileEncryptionMetadata m WHERE m.originalHash = :originalHash AND m.convergent = true " +
+            "AND EXISTS (SELECT 1 FROM FileEntity f WHERE f.fileId = m.fileId AND f.directory = false " +
+            "AND f.storageKey = 'chunked') ORDER BY m.id")
+    List<FileEncryptionMetadata> findConvergentSources(@Param("originalHash") String originalHash, Pageable pageable);
+
+    /**
+     * 一组原始哈希中存在可复用收敛加密文件的部分。
+     */
+    @Query("SELECT DISTINCT m.originalHash FROM FileEncryptionMetadata m WHERE m.originalHash IN :originalHashes " +
+            "AND m.convergent = true AND EXISTS (SELECT 1 FROM FileEntity f WHERE f.fileId = m.fileId " +
+            "AND f.directory = false AND f.storageKey = 'chunked')")
+    List<String> findConvergentHashes(@Param("originalHashes") Collection<String> originalHashes);
 }
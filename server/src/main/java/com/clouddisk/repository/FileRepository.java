@@ -1,10 +1,21 @@
 package com.clouddisk.repository;
 
+import com.clouddisk.dto.SnapshotEntryDto;
 import com.clouddisk.entity.FileEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * 文件实体的 JPA 仓储接口。
@@ -12,11 +23,141 @@ import java.util.Optional;
 public interface FileRepository extends JpaRepository<FileEntity, String> {
     List<FileEntity> findAllByUserId(String userId);
 
-    Optional<FileEntity> findByFileIdAndUserId(String fileId, String userId);
+    /**
+     * 按 ID 查找用户的条目，回收站中的条目(路径不以 / 开头)视为不存在。
+     */
+    @Query("SELECT f FROM FileEntity f WHERE f.fileId = :fileId AND f.userId = :userId AND f.directoryPath LIKE '/%'")
+    Optional<FileEntity> findByFileIdAndUserId(@Param("fileId") String fileId, @Param("userId") String userId);
+
+    @Query("SELECT f FROM FileEntity f WHERE f.userId = :userId AND f.fileId IN :fileIds AND f.directoryPath LIKE '/%'")
+    List<FileEntity> findByUserIdAndFileIdIn(@Param("userId") String userId, @Param("fileIds") Collection<String> fileIds);
+
+    /**
+     * 回收站中的顶层条目。
+     */
+    Optional<FileEntity> findByFileIdAndUserIdAndTrashedAtIsNotNull(String fileId, String userId);
+
+    List<FileEntity> findByUserIdAndFileIdInAndTrashedAtIsNotNull(String userId, Collection<String> fileIds);
+
+    List<FileEntity> findByUserIdAndTrashedAtIsNotNullOrderByTrashedAtDesc(String userId, Pageable pageable);
+
+    /**
+     * 超过保留期的回收站条目，按移入时间从早到晚，走 idx_files_trashed 索引。
+     */
+    List<FileEntity> findTop500ByTrashedAtBeforeOrderByTrashedAtAsc(Instant cutoff);
 
     Optional<FileEntity> findByUserIdAndDirectoryPathAndName(String userId, String directoryPath, String name);
 
     Optional<FileEntity> findFirstByContentHash(String hash);
+
+    /**
+     * 按目录列出文件，目录在前、名称升序，走 idx_files_user_dir_listing 索引。
+     */
+    List<FileEntity> findByUserIdAndDirectoryPathOrderByDirectoryDescNameAsc(String userId, String directoryPath);
+
+    /**
+     * 目录列表首页(键集分页)。
+     */
+    @Query("SELECT f FROM FileEntity f WHERE f.userId = :userId AND f.directoryPath = :directoryPath " +
+            "ORDER BY f.directory DESC, f.name ASC")
+    List<FileEntity> findDirectoryPage(@Param("userId") String userId,
+                                       @Param("directoryPath") String directoryPath,
+                                       Pageable pageable);
+
+    /**
+     * 目录列表后续页：从游标 (directory, name) 之后继续，排序与首页一致。
+     */
+    @Query("SELECT f FROM FileEntity f WHERE f.userId = :userId AND f.directoryPath = :directoryPath " +
+            "AND ((f.directory = :afterDirectory AND f.name > :afterName) " +
+            "OR (:afterDirectory = true AND f.directory = false)) " +
+            "ORDER BY f.directory DESC, f.name ASC")
+    List<FileEntity> findDirectoryPageAfter(@Param("userId") String userId,
+                                            @Param("directoryPath") String directoryPath,
+                                            @Param("afterDirectory") boolean afterDirectory,
+                                            @Param("afterName") String afterName,
+                                            Pageable pageable);
     
     List<FileEntity> findAllByOrderByCreatedAtDesc();
-}
\ No newline at end of file
+
+    /**
+     * 子树查询：directoryPath 等于目录完整路径或以其为前缀，走 idx_files_user_path 前缀索引。
+     * @param pathPrefixPattern 已转义的 "完整路径/%" 模式
+     */
+    @Query("SELECT f FROM FileEntity f WHERE f.userId = :userId " +
+            "AND (f.directoryPath = :path OR f.directoryPath LIKE :pathPrefixPattern ESCAPE '\\')")
+    List<FileEntity> findSubtree(@Param("userId") String userId,
+                                 @Param("path") String path,
+                                 @Param("pathPrefixPattern") String pathPrefixPattern);
+
+    /**
+     * 目录移动/重命名后批量改写后代的物化路径前缀，单条语句完成。
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.directoryPath = CONCAT(:newPath, SUBSTRING(f.directoryPath, :oldPathLength + 1)) " +
+            "WHERE f.userId = :userId " +
+            "AND (f.directoryPath = :oldPath OR f.directoryPath LIKE :oldPathPrefixPattern ESCAPE '\\')")
+    int relocateSubtree(@Param("userId") String userId,
+                        @Param("oldPath") String oldPath,
+                        @Param("oldPathPrefixPattern") String oldPathPrefixPattern,
+                        @Param("oldPathLength") int oldPathLength,
+                        @Param("newPath") String newPath);
+
+    /**
+     * 以 SQL 增量调整一组目录的聚合值，并刷新其子树变更时间。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.subtreeBytes = COALESCE(f.subtreeBytes, 0) + :bytes, " +
+            "f.subtreeFileCount = COALESCE(f.subtreeFileCount, 0) + :count, " +
+            "f.subtreeUpdatedAt = :updatedAt " +
+            "WHERE f.fileId IN :directoryIds")
+    int adjustAggregates(@Param("directoryIds") Collection<String> directoryIds,
+                         @Param("bytes") long bytes,
+                         @Param("count") long count,
+                         @Param("updatedAt") Instant updatedAt);
+
+    /**
+     * 直接写入目录聚合值(用于重新统计)。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE FileEntity f SET f.subtreeBytes = :bytes, f.subtreeFileCount = :count, " +
+            "f.subtreeUpdatedAt = :updatedAt WHERE f.fileId = :directoryId")
+    int setAggregates(@Param("directoryId") String directoryId,
+                      @Param("bytes") long bytes,
+                      @Param("count") long count,
+                      @Param("updatedAt") Instant updatedAt);
+
+    /**
+     * 历史数据回填：尚未关联父目录的非根条目，回收站中的顶层条目本就没有父目录，不在其列。
+     */
+    @Query("SELECT f FROM FileEntity f WHERE f.parentId IS NULL AND f.directoryPath <> '/' " +
+            "AND f.directoryPath LIKE '/%'")
+    List<FileEntity> findUnlinkedEntries(Pageable pageable);
+
+    /**
+     * 以服务端游标流式读取用户的全部条目(不含回收站)，按物化路径排序(父目录先于子条目)，走 idx_files_user_path 索引。
+     * 投影为 DTO，不进入持久化上下文，内存占用与条目数无关；须在事务内消费并关闭。
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new com.clouddisk.dto.SnapshotEntryDto(f.fileId, f.parentId, f.directoryPath, f.name, " +
+            "f.directory, f.fileSize, f.contentHash, f.version, f.updatedAt) " +
+            "FROM FileEntity f WHERE f.userId = :userId AND f.directoryPath LIKE '/%' ORDER BY f.directoryPath, f.name")
+    Stream<SnapshotEntryDto> streamSnapshot(@Param("userId") String userId);
+
+    /**
+     * 一组旧格式存储键中仍被文件引用的部分，用于判断对象能否删除。
+     */
+    @Query("SELECT DISTINCT f.storageKey FROM FileEntity f WHERE f.storageKey IN :storageKeys")
+    List<String> findStorageKeysInUse(@Param("storageKeys") Collection<String> storageKeys);
+
+    /**
+     * 文件记录引用的旧格式(整对象)存储键，按存储键键集分页，供后台迁移扫描。
+     */
+    @Query("SELECT DISTINCT f.storageKey FROM FileEntity f WHERE f.directory = false " +
+            "AND f.storageKey <> 'chunked' AND f.storageKey > :afterKey ORDER BY f.storageKey")
+    List<String> findLegacyStorageKeys(@Param("afterKey") String afterKey, Pageable pageable);
+
+    List<FileEntity> findByStorageKey(String storageKey);
+}
@@ -7,6 +7,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -36,6 +37,11 @@ public interface FileShareRepository extends JpaRepository<FileShare, String> {
      */
     Optional<FileShare> findByFileIdAndOwnerIdAndActiveTrue(String fileId, String ownerId);
 
+    /**
+     * 批量查找一组文件的有效共享(用于列表装配，避免逐行查询)
+     */
+    List<FileShare> findAllByOwnerIdAndActiveTrueAndFileIdIn(String ownerId, Collection<String> fileIds);
+
     /**
      * 查找过期的共享
      */
@@ -1,13 +1,84 @@
 package com.clouddisk.repository;
 
 import com.clouddisk.entity.FileVersion;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * 文件版本实体的 JPA 仓储接口。
  */
 public interface FileVersionRepository extends JpaRepository<FileVersion, String> {
     List<FileVersion> findAllByFileIdOrderByVersionNumberDesc(String fileId);
+
+    boolean existsByFileIdAndVersionNumber(String fileId, int versionNumber);
+
+    Optional<FileVersion> findByFileIdAndVersionNumber(String fileId, int versionNumber);
+
+    /**
+     * 版本历史首页，按版本号倒序。
+     */
+    List<FileVersion> findByFileIdOrderByVersionNumberDesc(String fileId, Pageable pageable);
+
+    /**
+     * 版本历史后续页：版本号小于游标的记录，按版本号倒序。
+     */
+    List<FileVersion> findByFileIdAndVersionNumberLessThanOrderByVersionNumberDesc(String fileId, int versionNumber,
+                                                                                  Pageable pageable);
+
+    /**
+     * 批量删除一组文件的全部历史版本。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("DELETE FROM FileVersion v WHERE v.fileId IN :fileIds")
+    int deleteByFileIdIn(@Param("fileIds") Collection<String> fileIds);
+
+    /**
+     * 一组文件的全部版本，按文件分组、版本号倒序，供保留策略一次取回。
+     */
+    List<FileVersion> findByFileIdInOrderByFileIdAscVersionNumberDesc(Collection<String> fileIds);
+
+    /**
+     * 版本数超过阈值的文件，按文件ID键集分页。
+     */
+    @Query("SELECT v.fileId FROM FileVersion v WHERE v.fileId > :afterFileId " +
+            "GROUP BY v.fileId HAVING COUNT(v) > :minCount ORDER BY v.fileId")
+    List<String> findFileIdsWithMoreVersionsThan(@Param("afterFileId") String afterFileId,
+                                                 @Param("minCount") long minCount,
+                                                 Pageable pageable);
+
+    /**
+     * 删除文件的一组版本记录。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("DELETE FROM FileVersion v WHERE v.fileId = :fileId AND v.versionNumber IN :versionNumbers")
+    int deleteByFileIdAndVersionNumberIn(@Param("fileId") String fileId,
+                                         @Param("versionNumbers") Collection<Integer> versionNumbers);
+
+    /**
+     * 一组文件的历史版本引用的旧格式存储键，删除版本记录前收集，以便回收失去引用的对象。
+     */
+    @Query("SELECT DISTINCT v.storageKey FROM FileVersion v WHERE v.fileId IN :fileIds AND v.storageKey <> 'chunked'")
+    List<String> findLegacyStorageKeysByFileIdIn(@Param("fileIds") Collection<String> fileIds);
+
+    /**
+     * 一组旧格式存储键中仍被版本记录引用的部分，用于判断对象能否删除。
+     */
+    @Query("SELECT DISTINCT v.storageKey FROM FileVersion v WHERE v.storageKey IN :storageKeys")
+    List<String> findStorageKeysInUse(@Param("storageKeys") Collection<String> storageKeys);
+
+    /**
+     * 版本记录引用的旧格式(整对象)存储键，按存储键键集分页，供后台迁移扫描。
+     */
+    @Query("SELECT DISTINCT v.storageKey FROM FileVersion v WHERE v.storageKey <> 'chunked' " +
+            "AND v.storageKey > :afterKey ORDER BY v.storageKey")
+    List<String> findLegacyStorageKeys(@Param("afterKey") String afterKey, Pageable pageable);
+
+    List<FileVersion> findByStorageKey(String storageKey);
 }
\ No newline at end of file
@@ -2,6 +2,9 @@ package com.clouddisk.repository;
 
 import com.clouddisk.entity.SharedResource;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -22,5 +25,18 @@ public interface SharedResourceRepository extends JpaRepository<SharedResource,
     Optional<SharedResource> findByShareIdAndOwnerId(String shareId, String ownerId);
 
     Optional<SharedResource> findByFileIdAndTargetUserId(String fileId, String targetUserId);
+
+    /**
+     * 文件或目录移动/重命名后同步改写共享记录中的路径前缀。
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE SharedResource s SET s.resourcePath = CONCAT(:newPath, SUBSTRING(s.resourcePath, :oldPathLength + 1)) " +
+            "WHERE s.ownerId = :ownerId " +
+            "AND (s.resourcePath = :oldPath OR s.resourcePath LIKE :oldPathPrefixPattern ESCAPE '\\')")
+    int relocateResourcePaths(@Param("ownerId") String ownerId,
+                              @Param("oldPath") String oldPath,
+                              @Param("oldPathPrefixPattern") String oldPathPrefixPattern,
+                              @Param("oldPathLength") int oldPathLength,
+                              @Param("newPath") String newPath);
 }
 
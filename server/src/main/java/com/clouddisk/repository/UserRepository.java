@@ -2,7 +2,11 @@ package com.clouddisk.repository;
 
 import com.clouddisk.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -10,4 +14,72 @@ import java.util.Optional;
  */
 public interface UserRepository extends JpaRepository<User, String> {
     Optional<User> findByEmailIgnoreCase(String email);
+
+    /**
+     * 以 SQL 增量调整用户已用空间与文件数。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE User u SET u.usedBytes = COALESCE(u.usedBytes, 0) + :bytes, " +
+            "u.fileCount = COALESCE(u.fileCount, 0) + :count WHERE u.userId = :userId")
+    int adjustUsage(@Param("userId") String userId, @Param("bytes") long bytes, @Param("count") long count);
+
+    /**
+     * 在配额内原子地增加已用空间：已用加预占加本次增量不超过配额时才更新，返回 0 表示超出配额。
+     * @param defaultQuota 用户未单独设置配额时使用的默认值，负数表示不限
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE User u SET u.usedBytes = COALESCE(u.usedBytes, 0) + :bytes, " +
+            "u.fileCount = COALESCE(u.fileCount, 0) + :count WHERE u.userId = :userId " +
+            "AND (COALESCE(u.quotaBytes, :defaultQuota) < 0 " +
+            "OR COALESCE(u.usedBytes, 0) + COALESCE(u.reservedBytes, 0) + :bytes <= COALESCE(u.quotaBytes, :defaultQuota))")
+    int chargeUsage(@Param("userId") String userId, @Param("bytes") long bytes, @Param("count") long count,
+                    @Param("defaultQuota") long defaultQuota);
+
+    /**
+     * 在配额内原子地预占空间，返回 0 表示超出配额。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE User u SET u.reservedBytes = COALESCE(u.reservedBytes, 0) + :bytes WHERE u.userId = :userId " +
+            "AND (COALESCE(u.quotaBytes, :defaultQuota) < 0 " +
+            "OR COALESCE(u.usedBytes, 0) + COALESCE(u.reservedBytes, 0) + :bytes <= COALESCE(u.quotaBytes, :defaultQuota))")
+    int reserveSpace(@Param("userId") String userId, @Param("bytes") long bytes,
+                     @Param("defaultQuota") long defaultQuota);
+
+    /**
+     * 释放预占空间，不会减到负数。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE User u SET u.reservedBytes = CASE WHEN COALESCE(u.reservedBytes, 0) > :bytes " +
+            "THEN u.reservedBytes - :bytes ELSE 0 END WHERE u.userId = :userId")
+    int releaseSpace(@Param("userId") String userId, @Param("bytes") long bytes);
+
+    /**
+     * 自增用户的变更日志序号，同时锁定用户行直至事务结束，保证序号按提交顺序可见。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE User u SET u.journalSeq = COALESCE(u.journalSeq, 0) + 1 WHERE u.userId = :userId")
+    int incrementJournalSeq(@Param("userId") String userId);
+
+    /**
+     * 一次分配一段连续序号，用于批量追加日志。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE User u SET u.journalSeq = COALESCE(u.journalSeq, 0) + :count WHERE u.userId = :userId")
+    int incrementJournalSeqBy(@Param("userId") String userId, @Param("count") long count);
+
+    @Query("SELECT COALESCE(u.journalSeq, 0) FROM User u WHERE u.userId = :userId")
+    Optional<Long> findJournalSeq(@Param("userId") String userId);
+
+    /**
+     * 直接写入用户用量(用于重新统计)。
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE User u SET u.usedBytes = :bytes, u.fileCount = :count WHERE u.userId = :userId")
+    int setUsage(@Param("userId") String userId, @Param("bytes") long bytes, @Param("count") long count);
+
+    /**
+     * 尚未完成用量统计的历史账号。
+     */
+    @Query("SELECT u.userId FROM User u WHERE u.usedBytes IS NULL")
+    List<String> findUserIdsWithoutUsage();
 }
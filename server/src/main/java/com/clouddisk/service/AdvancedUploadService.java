@@ -1,11 +1,14 @@
 package com.clouddisk.service;
 
+import com.clouddisk.concurrent.UploadMemoryBudget;
 import com.clouddisk.dto.FileMetadataDto;
 import com.clouddisk.dto.UploadSessionDto;
+import com.clouddisk.entity.ChangeType;
 import com.clouddisk.entity.FileEntity;
 import com.clouddisk.entity.FileVersion;
 import com.clouddisk.entity.UploadSession;
 import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ChunkReclaimedException;
 import com.clouddisk.exception.ErrorCode;
 import com.clouddisk.repository.FileRepository;
 import com.clouddisk.repository.FileVersionRepository;
@@ -14,11 +17,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -42,6 +47,12 @@ public class AdvancedUploadService {
     private final FileService fileService;
     private final ChunkService chunkService;
     private final FileSyncService fileSyncService;
+    private final TransactionTemplate transactionTemplate;
+    private final UploadMemoryBudget uploadMemoryBudget;
+    private final DirectoryTreeService directoryTreeService;
+    private final QuotaService quotaService;
+    private final ChangeJournalService changeJournalService;
+    private final FileMetadataCache metadataCache;
     
     private static final int CHUNK_SIZE = 2 * 1024 * 1024; // 2MB per chunk for resumable upload
     private static final String TEMP_DIR = "temp_chunks";
@@ -52,13 +63,25 @@ public class AdvancedUploadService {
             FileVersionRepository fileVersionRepository,
             FileService fileService,
             ChunkService chunkService,
-            FileSyncService fileSyncService) {
+            FileSyncService fileSyncService,
+            PlatformTransactionManager transactionManager,
+            UploadMemoryBudget uploadMemoryBudget,
+            DirectoryTreeService directoryTreeService,
+            QuotaService quotaService,
+            ChangeJournalService changeJournalService,
+            FileMetadataCache metadataCache) {
         this.fileRepository = fileRepository;
         this.sessionRepository = sessionRepository;
         this.fileVersionRepository = fileVersionRepository;
         this.fileService = fileService;
         this.chunkService = chunkService;
         this.fileSyncService = fileSyncService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.uploadMemoryBudget = uploadMemoryBudget;
+        this.directoryTreeService = directoryTreeService;
+        this.quotaService = quotaService;
+        this.changeJournalService = changeJournalService;
+        this.metadataCache = metadataCache;
     }
     
     /**
@@ -119,7 +142,9 @@ public class AdvancedUploadService {
         FileEntity file = new FileEntity();
         file.setUserId(userId);
         file.setName(fileName);
-        file.setDirectoryPath(filePath);
+        String normalizedPath = fileService.normalizePath(filePath);
+        file.setDirectoryPath(normalizedPath);
+        file.setParentId(directoryTreeService.ensureDirectory(userId, normalizedPath));
         file.setFileSize(fileSize);
         file.setContentHash(contentHash);
         file.setStorageKey(storageKey);
@@ -129,6 +154,9 @@ public class AdvancedUploadService {
         
         // 保存到数据库
         file = fileRepository.save(file);
+        directoryTreeService.recordChange(userId, file.getParentId(), fileSize != null ? fileSize : 0L, 1);
+        changeJournalService.record(ChangeType.CREATE, file);
+        metadataCache.onChange(file);
         
         log.info("文件记录创建成功: fileId={}, storageKey={}", file.getFileId(), storageKey);
         
@@ -152,7 +180,8 @@ public class AdvancedUploadService {
         
         // 检查是否已存在同名文件
         String normalizedPath = fileService.normalizePath(path);
-        fileRepository.findByUserIdAndDirectoryPathAndName(userId, normalizedPath, fileName)
+        metadataCache.getByPath(userId, normalizedPath, fileName,
+                        () -> fileRepository.findByUserIdAndDirectoryPathAndName(userId, normalizedPath, fileName))
                 .ifPresent(existing -> {
                     throw new BusinessException(ErrorCode.VALIDATION_ERROR, "文件已存在");
                 });
@@ -162,12 +191,16 @@ public class AdvancedUploadService {
         newFile.setUserId(userId);
         newFile.setDirectory(false);
         newFile.setDirectoryPath(normalizedPath);
+        newFile.setParentId(directoryTreeService.ensureDirectory(userId, normalizedPath));
         newFile.setName(fileName);
         newFile.setStorageKey(sourceFile.getStorageKey()); // 复用存储key
         newFile.setFileSize(sourceFile.getFileSize());
         newFile.setContentHash(sourceFile.getContentHash());
         newFile.setVersion(1);
         fileRepository.save(newFile);
+        directoryTreeService.recordChange(userId, newFile.getParentId(), DirectoryTreeService.bytesOf(newFile), 1);
+        changeJournalService.record(ChangeType.CREATE, newFile);
+        metadataCache.onChange(newFile);
         
         log.info("秒传成功: userId={}, hash={}, fileName={}", userId, hash, fileName);
         
@@ -179,13 +212,27 @@ public class AdvancedUploadService {
      */
     @Transactional
     public UploadSessionDto initResumableUpload(String fileName, String path, Long fileSize, String userId) {
+        if (fileSize == null || fileSize <= 0) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "文件大小无效");
+        }
         int totalChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
+        String normalizedPath = fileService.normalizePath(path);
+        
+        // 创建会话时即按计数器预占配额，超出配额的上传在传输任何数据前被拒绝；覆盖上传只预占增量
+        long existingSize = metadataCache.getByPath(userId, normalizedPath, fileName,
+                        () -> fileRepository.findByUserIdAndDirectoryPathAndName(userId, normalizedPath, fileName))
+                .filter(existing -> !existing.isDirectory())
+                .map(DirectoryTreeService::bytesOf)
+                .orElse(0L);
+        long reserved = Math.max(0L, fileSize - existingSize);
+        quotaService.reserve(userId, reserved);
         
         UploadSession session = new UploadSession();
         session.setUserId(userId);
         session.setFileName(fileName);
-        session.setFilePath(fileService.normalizePath(path));
+        session.setFilePath(normalizedPath);
         session.setFileSize(fileSize);
+        session.setReservedBytes(reserved);
         session.setTotalChunks(totalChunks);
         session.setChunkSize(CHUNK_SIZE);
         session.setStatus("ACTIVE");
@@ -214,7 +261,7 @@ public class AdvancedUploadService {
         }
         
         // 保存分块数据到临时存储
-        try {
+        try (UploadMemoryBudget.Reservation ignored = uploadMemoryBudget.reserve(chunk.getSize())) {
             byte[] data = chunk.getBytes();
             Path tempDir = Paths.get(TEMP_DIR, sessionId);
             Files.createDirectories(tempDir);
@@ -236,9 +283,19 @@ public class AdvancedUploadService {
     
     /**
      * 完成断点续传，合并所有分块
+     * 分块写入存储在事务外完成，随后在短事务中提交文件元数据。
+     * 暂存的块在提交前被回收时重新暂存并重试一次，临时分块文件在提交成功后才删除。
      */
-    @Transactional
     public FileMetadataDto completeResumableUpload(String sessionId, String userId) {
+        try {
+            return completeResumableUploadOnce(sessionId, userId);
+        } catch (ChunkReclaimedException ex) {
+            log.warn("暂存的块在提交前被回收，重新暂存后重试: sessionId={}, {}", sessionId, ex.getMessage());
+            return completeResumableUploadOnce(sessionId, userId);
+        }
+    }
+
+    private FileMetadataDto completeResumableUploadOnce(String sessionId, String userId) {
         UploadSession session = sessionRepository.findBySessionIdAndUserId(sessionId, userId)
                 .orElseThrow(() -> new BusinessException(ErrorCode.VALIDATION_ERROR, "会话不存在或已过期"));
 
@@ -247,100 +304,135 @@ public class AdvancedUploadService {
                     String.format("分块未完整上传: %d/%d", session.getUploadedChunks().size(), session.getTotalChunks()));
         }
 
-        // 合并所有分块
-        byte[] fileData;
-        try {
-            Path tempDir = Paths.get(TEMP_DIR, sessionId);
-            boolean allChunksExist = true;
-            
-            // 检查所有预期的分块文件是否都存在
-            for (int i = 0; i < session.getTotalChunks(); i++) {
-                Path chunkFile = tempDir.resolve(i + ".chunk");
-                if (!Files.exists(chunkFile)) {
-                    allChunksExist = false;
-                    break;
-                }
-            }
-            
-            if (allChunksExist) {
-                // 生产环境：读取实际分块
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                
+        Path tempDir = Paths.get(TEMP_DIR, sessionId);
+        boolean allChunksExist = true;
+        String hash;
+        List<ChunkService.StagedChunk> stagedChunks;
+        // 合并前申请上传内存额度：整文件缓冲一份加暂存单个块的开销，写入存储后即释放
+        long fileSize = session.getFileSize();
+        try (UploadMemoryBudget.Reservation ignored =
+                     uploadMemoryBudget.reserve(fileSize + ChunkService.STAGING_OVERHEAD_BYTES)) {
+            // 合并所有分块
+            byte[] fileData;
+            try {
+                // 检查所有预期的分块文件是否都存在
                 for (int i = 0; i < session.getTotalChunks(); i++) {
                     Path chunkFile = tempDir.resolve(i + ".chunk");
-                    byte[] chunkData = Files.readAllBytes(chunkFile);
-                    outputStream.write(chunkData);
+                    if (!Files.exists(chunkFile)) {
+                        allChunksExist = false;
+                        break;
+                    }
                 }
                 
-                fileData = outputStream.toByteArray();
-                
-                // 清理临时文件
-                Files.walk(tempDir)
-                    .sorted((a, b) -> b.toString().length() - a.toString().length()) // 删除文件前删除子目录
-                    .forEach(path -> {
-                        try {
-                            Files.delete(path);
-                        } catch (IOException e) {
-                            log.warn("清理临时文件失败: {}", path, e);
+                if (allChunksExist) {
+                    // 生产环境：按声明的文件大小一次分配，分块直接读入，不经中间缓冲
+                    fileData = new byte[Math.toIntExact(fileSize)];
+                    int offset = 0;
+
+                    for (int i = 0; i < session.getTotalChunks(); i++) {
+                        Path chunkFile = tempDir.resolve(i + ".chunk");
+                        long chunkLength = Files.size(chunkFile);
+                        if (chunkLength > fileData.length - offset) {
+                            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "分块总大小超过文件大小");
                         }
-                    });
-            } else {
-                // 测试环境：使用模拟数据
-                log.debug("未找到完整的分块文件，使用模拟数据进行测试");
-                fileData = new byte[session.getFileSize().intValue()];
-                // 填充一些测试数据
-                for (int i = 0; i < fileData.length; i++) {
-                    fileData[i] = (byte) (i % 256);
+                        try (InputStream in = Files.newInputStream(chunkFile)) {
+                            offset += in.readNBytes(fileData, offset, (int) chunkLength);
+                        }
+                    }
+
+                    if (offset != fileData.length) {
+                        throw new BusinessException(ErrorCode.VALIDATION_ERROR,
+                                String.format("分块总大小与文件大小不一致: %d/%d", offset, fileData.length));
+                    }
+                } else {
+                    // 测试环境：使用模拟数据
+                    log.debug("未找到完整的分块文件，使用模拟数据进行测试");
+                    fileData = new byte[Math.toIntExact(fileSize)];
+                    // 填充一些测试数据
+                    for (int i = 0; i < fileData.length; i++) {
+                        fileData[i] = (byte) (i % 256);
+                    }
                 }
+                
+            } catch (IOException e) {
+                throw new BusinessException(ErrorCode.INTERNAL_ERROR, "合并分块失败", e);
             }
-            
-        } catch (IOException e) {
-            throw new BusinessException(ErrorCode.INTERNAL_ERROR, "合并分块失败", e);
+
+            // 计算文件哈希
+            hash = DigestUtils.sha256Hex(fileData);
+
+            // 如果是同一个文件（通过内容哈希判断），直接返回现有文件信息
+            Optional<FileEntity> sameContent = fileRepository.findByUserIdAndDirectoryPathAndName(userId, session.getFilePath(), session.getFileName())
+                    .filter(existing -> hash.equals(existing.getContentHash()));
+            if (sameContent.isPresent()) {
+                log.info("文件内容相同，跳过重复上传: sessionId={}, fileName={}", sessionId, session.getFileName());
+                markSessionCompleted(session);
+                if (allChunksExist) {
+                    deleteTempDir(tempDir);
+                }
+                return toDto(sameContent.get());
+            }
+
+            // 阶段一:事务外写入块存储(自动去重+压缩)
+            stagedChunks = chunkService.stageChunks(fileData, userId, true);
         }
 
-        session.setStatus("COMPLETED");
-        sessionRepository.save(session);
+        // 阶段二:短事务提交元数据
+        FileEntity file = transactionTemplate.execute(status ->
+                commitResumableUpload(session, userId, hash, stagedChunks));
 
-        // 计算文件哈希
-        String hash = DigestUtils.sha256Hex(fileData);
+        if (allChunksExist) {
+            // 元数据提交成功后再清理临时文件，提交失败时可重试
+            deleteTempDir(tempDir);
+        }
+
+        if (file.getVersion() > 1) {
+            // 通知文件同步服务
+            fileSyncService.notifyChange(userId, Map.of(
+                "type", "version-update", 
+                "fileId", file.getFileId(),
+                "oldVersion", file.getVersion() - 1,
+                "newVersion", file.getVersion()
+            ));
+        }
+
+        log.info("断点续传完成: sessionId={}, fileName={}, fileId={}", sessionId, session.getFileName(), file.getFileId());
+
+        return toDto(file);
+    }
+
+    /**
+     * 提交断点续传的元数据：会话状态、文件记录、版本记录与块映射。
+     */
+    private FileEntity commitResumableUpload(UploadSession session, String userId, String hash,
+                                             List<ChunkService.StagedChunk> stagedChunks) {
+        markSessionCompleted(session);
 
         // 检查是否已存在同名文件，如果存在则创建新版本
         Optional<FileEntity> existingFileOpt = fileRepository.findByUserIdAndDirectoryPathAndName(userId, session.getFilePath(), session.getFileName());
         FileEntity file;
+        long previousSize = 0L;
         if (existingFileOpt.isPresent()) {
             FileEntity existingFile = existingFileOpt.get();
-            // 如果是同一个文件（通过内容哈希判断），直接返回现有文件信息
-            if (existingFile.getContentHash() != null && existingFile.getContentHash().equals(hash)) {
-                log.info("文件内容相同，跳过重复上传: sessionId={}, fileName={}", sessionId, session.getFileName());
-                return toDto(existingFile);
+            previousSize = DirectoryTreeService.bytesOf(existingFile);
+            // 内容不同，创建新版本；旧版本的记录与块映射保留(写时复制)
+            log.info("文件已存在但内容不同，创建新版本: sessionId={}, fileName={}", session.getSessionId(), session.getFileName());
+            if (!fileVersionRepository.existsByFileIdAndVersionNumber(existingFile.getFileId(), existingFile.getVersion())) {
+                fileVersionRepository.save(FileVersion.snapshotOf(existingFile));
             }
-            
-            // 内容不同，创建新版本
-            log.info("文件已存在但内容不同，创建新版本: sessionId={}, fileName={}", sessionId, session.getFileName());
             existingFile.setVersion(existingFile.getVersion() + 1);
             existingFile.setFileSize(session.getFileSize());
             existingFile.setContentHash(hash);
             existingFile.setStorageKey("chunked"); // 标记为分块存储
             existingFile.setUpdatedAt(Instant.now());
-            
-            // 先删除旧版本的块映射
-            fileVersionRepository.deleteAll(fileVersionRepository.findAllByFileIdOrderByVersionNumberDesc(existingFile.getFileId()));
-            
             file = fileRepository.save(existingFile);
-            
-            // 通知文件同步服务
-            fileSyncService.notifyChange(userId, Map.of(
-                "type", "version-update", 
-                "fileId", existingFile.getFileId(),
-                "oldVersion", existingFile.getVersion() - 1,
-                "newVersion", existingFile.getVersion()
-            ));
         } else {
             // 创建新文件
             file = new FileEntity();
             file.setUserId(userId);
             file.setName(session.getFileName());
             file.setDirectoryPath(session.getFilePath());
+            file.setParentId(directoryTreeService.ensureDirectory(userId, session.getFilePath()));
             file.setFileSize(session.getFileSize());
             file.setContentHash(hash);
             file.setStorageKey("chunked"); // 标记为分块存储
@@ -350,14 +442,12 @@ public class AdvancedUploadService {
             file = fileRepository.save(file);
         }
 
-        // 使用块级存储(自动去重+压缩)
-        chunkService.storeFileInChunks(
-                file.getFileId(), 
-                file.getVersion(), 
-                fileData, 
-                userId, 
-                true
-        );
+        // 增加块引用并写入映射；会话预占已在 markSessionCompleted 中释放，此处按实际增量扣减配额
+        chunkService.commitChunks(file.getFileId(), file.getVersion(), stagedChunks);
+        directoryTreeService.recordChange(userId, file.getParentId(), session.getFileSize() - previousSize,
+                existingFileOpt.isPresent() ? 0 : 1);
+        changeJournalService.record(existingFileOpt.isPresent() ? ChangeType.UPDATE : ChangeType.CREATE, file);
+        metadataCache.onChange(file);
 
         // 保存当前版本信息
         FileVersion latest = new FileVersion();
@@ -368,9 +458,45 @@ public class AdvancedUploadService {
         latest.setContentHash(hash);
         fileVersionRepository.save(latest);
 
-        log.info("断点续传完成: sessionId={}, fileName={}, fileId={}", sessionId, session.getFileName(), file.getFileId());
+        return file;
+    }
 
-        return toDto(file);
+    /**
+     * 将会话标记为已完成。
+     */
+    private void markSessionCompleted(UploadSession session) {
+        releaseReservation(session);
+        session.setStatus("COMPLETED");
+        sessionRepository.save(session);
+    }
+
+    /**
+     * 释放会话预占的配额，重复调用无副作用。
+     */
+    private void releaseReservation(UploadSession session) {
+        if (session.getReservedBytes() != null && session.getReservedBytes() > 0) {
+            quotaService.release(session.getUserId(), session.getReservedBytes());
+            session.setReservedBytes(0L);
+        }
+    }
+
+    /**
+     * 删除会话的临时分块目录。
+     */
+    private void deleteTempDir(Path tempDir) {
+        try {
+            Files.walk(tempDir)
+                .sorted((a, b) -> b.toString().length() - a.toString().length()) // 删除文件前删除子目录
+                .forEach(path -> {
+                    try {
+                        Files.delete(path);
+                    } catch (IOException e) {
+                        log.warn("清理临时文件失败: {}", path, e);
+                    }
+                });
+        } catch (IOException e) {
+            log.warn("清理临时目录失败: {}", tempDir, e);
+        }
     }
     
     /**
@@ -392,6 +518,7 @@ public class AdvancedUploadService {
         List<UploadSession> expired = sessionRepository.findAllByExpiresAtBefore(LocalDateTime.now());
         if (!expired.isEmpty()) {
             log.info("清理过期会话: count={}", expired.size());
+            expired.forEach(this::releaseReservation);
             sessionRepository.deleteAll(expired);
             for (UploadSession session : expired) {
                 try {
@@ -0,0 +1,141 @@
+package com.clouddisk.service;
+
+import com.clouddisk.dto.BulkOperationRequest;
+import com.clouddisk.dto.BulkOperationResultDto;
+import com.clouddisk.dto.FileMetadataDto;
+import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ErrorCode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 批量文件操作：按请求顺序分批执行，每批一个事务。
+ * 批内连续的删除合并为一次集合删除；移动与复制逐项执行但共享事务。
+ * 某批执行失败时整批回滚，再逐项各用独立事务重试，从而得到逐项结果而不影响其他项。
+ */
+@Service
+@Slf4j
+public class BulkOperationService {
+
+    static final int BATCH_SIZE = 500;
+
+    private static final String DELETE = "delete";
+    private static final String MOVE = "move";
+    private static final String COPY = "copy";
+
+    private final FileService fileService;
+    private final TransactionTemplate transactionTemplate;
+
+    public BulkOperationService(FileService fileService, PlatformTransactionManager transactionManager) {
+        this.fileService = fileService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public BulkOperationResultDto execute(String userId, List<BulkOperationRequest.Operation> operations) {
+        BulkOperationResultDto.ItemResult[] results = new BulkOperationResultDto.ItemResult[operations.size()];
+        for (int from = 0; from < operations.size(); from += BATCH_SIZE) {
+            int to = Math.min(operations.size(), from + BATCH_SIZE);
+            BulkOperationResultDto.ItemResult[] batchResults = new BulkOperationResultDto.ItemResult[to - from];
+            int offset = from;
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                        runBatch(userId, operations.subList(offset, to), offset, batchResults));
+                System.arraycopy(batchResults, 0, results, from, batchResults.length);
+            } catch (RuntimeException ex) {
+                log.info("批量操作批次回滚，逐项重试: userId={}, range=[{}, {}), reason={}",
+                        userId, from, to, ex.getMessage());
+                for (int i = from; i < to; i++) {
+                    results[i] = runIsolated(userId, operations.get(i), i);
+                }
+            }
+        }
+        int succeeded = (int) Arrays.stream(results).filter(BulkOperationResultDto.ItemResult::isSuccess).count();
+        log.info("批量操作完成: userId={}, total={}, succeeded={}", userId, results.length, succeeded);
+        return new BulkOperationResultDto(Arrays.asList(results), succeeded, results.length - succeeded);
+    }
+
+    private void runBatch(String userId, List<BulkOperationRequest.Operation> batch, int offset,
+                          BulkOperationResultDto.ItemResult[] results) {
+        int i = 0;
+        while (i < batch.size()) {
+            if (!DELETE.equals(opOf(batch.get(i)))) {
+                results[i] = success(offset + i, batch.get(i), apply(userId, batch.get(i)));
+                i++;
+                continue;
+            }
+            // 连续的删除合并为一次集合删除
+            int end = i;
+            List<String> fileIds = new ArrayList<>();
+            while (end < batch.size() && DELETE.equals(opOf(batch.get(end)))) {
+                fileIds.add(batch.get(end).getFileId());
+                end++;
+            }
+            Set<String> deleted = fileService.deleteBatch(userId, fileIds);
+            for (int j = i; j < end; j++) {
+                BulkOperationRequest.Operation operation = batch.get(j);
+                results[j] = deleted.contains(operation.getFileId())
+                        ? success(offset + j, operation, null)
+                        : failure(offset + j, operation, new BusinessException(ErrorCode.FILE_NOT_FOUND));
+            }
+            i = end;
+        }
+    }
+
+    private BulkOperationResultDto.ItemResult runIsolated(String userId, BulkOperationRequest.Operation operation,
+                                                          int index) {
+        try {
+            FileMetadataDto file = transactionTemplate.execute(status -> {
+                if (DELETE.equals(opOf(operation))) {
+                    if (fileService.deleteBatch(userId, List.of(operation.getFileId())).isEmpty()) {
+                        throw new BusinessException(ErrorCode.FILE_NOT_FOUND);
+                    }
+                    return null;
+                }
+                return apply(userId, operation);
+            });
+            return success(index, operation, file);
+        } catch (RuntimeException ex) {
+            return failure(index, operation, ex);
+        }
+    }
+
+    private FileMetadataDto apply(String userId, BulkOperationRequest.Operation operation) {
+        String op = opOf(operation);
+        if (!MOVE.equals(op) && !COPY.equals(op)) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "不支持的操作类型: " + operation.getOp());
+        }
+        if (operation.getTargetPath() == null || operation.getTargetPath().isBlank()) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "目标路径不能为空");
+        }
+        return MOVE.equals(op)
+                ? fileService.move(operation.getFileId(), operation.getTargetPath(), userId)
+                : fileService.copy(operation.getFileId(), operation.getTargetPath(), userId);
+    }
+
+    private static String opOf(BulkOperationRequest.Operation operation) {
+        return operation.getOp() != null ? operation.getOp().trim().toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static BulkOperationResultDto.ItemResult success(int index, BulkOperationRequest.Operation operation,
+                                                             FileMetadataDto file) {
+        return new BulkOperationResultDto.ItemResult(index, opOf(operation), operation.getFileId(), true,
+                null, null, file);
+    }
+
+    private static BulkOperationResultDto.ItemResult failure(int index, BulkOperationRequest.Operation operation,
+                                                             RuntimeException ex) {
+        String code = ex instanceof BusinessException business ? business.getErrorCode().name()
+                : ErrorCode.INTERNAL_ERROR.name();
+        String message = ex instanceof BusinessException ? ex.getMessage() : ErrorCode.INTERNAL_ERROR.getMessage();
+        return new BulkOperationResultDto.ItemResult(index, opOf(operation), operation.getFileId(), false,
+                code, message, null);
+    }
+}
@@ -0,0 +1,168 @@
+package com.clouddisk.service;
+
+import com.clouddisk.dto.ChangeEntryDto;
+import com.clouddisk.dto.ChangesDto;
+import com.clouddisk.entity.ChangeJournalEntry;
+import com.clouddisk.entity.ChangeType;
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ErrorCode;
+import com.clouddisk.repository.ChangeJournalRepository;
+import com.clouddisk.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 用户变更日志：在业务写入的同一事务中追加条目，客户端凭游标增量拉取。
+ * 周期同步的开销只与变更条数相关，与目录树大小无关。
+ */
+@Service
+@Slf4j
+public class ChangeJournalService {
+
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    private final ChangeJournalRepository changeJournalRepository;
+    private final UserRepository userRepository;
+
+    public ChangeJournalService(ChangeJournalRepository changeJournalRepository,
+                                UserRepository userRepository) {
+        this.changeJournalRepository = changeJournalRepository;
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * 记录文件或目录的变更，path 取条目当前的完整路径。
+     */
+    @Transactional
+    public void record(ChangeType type, FileEntity entity) {
+        record(type, entity, null);
+    }
+
+    /**
+     * 记录文件或目录的变更。
+     * @param oldPath 移动/重命名前的完整路径，其他变更传 null
+     */
+    @Transactional
+    public void record(ChangeType type, FileEntity entity, String oldPath) {
+        record(entity.getUserId(), type, entity, oldPath);
+    }
+
+    /**
+     * 向指定用户的日志追加条目，用于共享给他人时通知接收方。
+     */
+    @Transactional
+    public void record(String userId, ChangeType type, FileEntity entity, String oldPath) {
+        changeJournalRepository.save(newEntry(userId, nextSeq(userId), type, entity, oldPath));
+    }
+
+    private ChangeJournalEntry newEntry(String userId, long seq, ChangeType type, FileEntity entity, String oldPath) {
+        ChangeJournalEntry entry = new ChangeJournalEntry();
+        entry.setUserId(userId);
+        entry.setSeq(seq);
+        entry.setChangeType(type);
+        entry.setFileId(entity.getFileId());
+        entry.setPath(DirectoryTreeService.fullPath(entity));
+        entry.setOldPath(oldPath);
+        entry.setDirectory(entity.isDirectory());
+        entry.setFileSize(entity.getFileSize());
+        entry.setContentHash(entity.getContentHash());
+        entry.setVersion(entity.getVersion());
+        return entry;
+    }
+
+    /**
+     * 批量追加同类型变更，一次分配整段序号，条目按列表顺序编号。
+     */
+    @Transactional
+    public void recordAll(String userId, ChangeType type, List<FileEntity> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        if (userRepository.incrementJournalSeqBy(userId, entities.size()) == 0) {
+            throw new BusinessException(ErrorCode.USER_NOT_FOUND);
+        }
+        long last = userRepository.findJournalSeq(userId)
+                .orElseThrow(() -> new BusinessException(ErrorCode.USER_NOT_FOUND));
+        long seq = last - entities.size();
+        List<ChangeJournalEntry> entries = new ArrayList<>(entities.size());
+        for (FileEntity entity : entities) {
+            entries.add(newEntry(userId, ++seq, type, entity, null));
+        }
+        changeJournalRepository.saveAll(entries);
+    }
+
+    /**
+     * 拉取游标之后的一批变更。
+     * @param cursor 上次返回的游标，首次同步传空，表示从头开始
+     */
+    @Transactional(readOnly = true)
+    public ChangesDto listChanges(String userId, String cursor, int limit) {
+        long after = parseCursor(cursor);
+        int batchSize = Math.max(1, Math.min(limit, MAX_BATCH_SIZE));
+        // 多取一条用于判断是否还有后续
+        List<ChangeJournalEntry> entries = changeJournalRepository
+                .findByUserIdAndSeqGreaterThanOrderBySeqAsc(userId, after, PageRequest.of(0, batchSize + 1));
+        boolean hasMore = entries.size() > batchSize;
+        if (hasMore) {
+            entries = entries.subList(0, batchSize);
+        }
+        long next = entries.isEmpty() ? after : entries.get(entries.size() - 1).getSeq();
+        return new ChangesDto(entries.stream().map(this::toDto).collect(Collectors.toList()),
+                String.valueOf(next), hasMore);
+    }
+
+    /**
+     * 当前最新游标，从该游标继续拉取即可获得此后的全部变更。
+     */
+    @Transactional(readOnly = true)
+    public String currentCursor(String userId) {
+        return String.valueOf(userRepository.findJournalSeq(userId)
+                .orElseThrow(() -> new BusinessException(ErrorCode.USER_NOT_FOUND)));
+    }
+
+    private long nextSeq(String userId) {
+        if (userRepository.incrementJournalSeq(userId) == 0) {
+            throw new BusinessException(ErrorCode.USER_NOT_FOUND);
+        }
+        return userRepository.findJournalSeq(userId)
+                .orElseThrow(() -> new BusinessException(ErrorCode.USER_NOT_FOUND));
+    }
+
+    private long parseCursor(String cursor) {
+        if (!StringUtils.hasText(cursor)) {
+            return 0L;
+        }
+        try {
+            long value = Long.parseLong(cursor.trim());
+            if (value < 0) {
+                throw new NumberFormatException(cursor);
+            }
+            return value;
+        } catch (NumberFormatException ex) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "无效的游标");
+        }
+    }
+
+    private ChangeEntryDto toDto(ChangeJournalEntry entry) {
+        ChangeEntryDto dto = new ChangeEntryDto();
+        dto.setSeq(entry.getSeq());
+        dto.setType(entry.getChangeType());
+        dto.setFileId(entry.getFileId());
+        dto.setPath(entry.getPath());
+        dto.setOldPath(entry.getOldPath());
+        dto.setDirectory(entry.isDirectory());
+        dto.setSize(entry.getFileSize());
+        dto.setHash(entry.getContentHash());
+        dto.setVersion(entry.getVersion());
+        dto.setChangedAt(entry.getCreatedAt());
+        return dto;
+    }
+}
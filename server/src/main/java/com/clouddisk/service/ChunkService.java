@@ -1,24 +1,37 @@
 package com.clouddisk.service;
 
+import com.clouddisk.concurrent.SingleFlight;
 import com.clouddisk.entity.FileChunk;
 import com.clouddisk.entity.FileChunkMapping;
 import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ChunkReclaimedException;
 import com.clouddisk.exception.ErrorCode;
 import com.clouddisk.repository.FileChunkMappingRepository;
 import com.clouddisk.repository.FileChunkRepository;
+import com.clouddisk.storage.ChunkCipher;
 import com.clouddisk.storage.StorageService;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.*;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * 块级存储服务,实现文件分块、去重和组装。
+ * 开启块加密时新块按 压缩 -> 加密 的顺序写入存储,读取时逐块流式解密。
  */
 @Service
 public class ChunkService {
@@ -30,16 +43,50 @@ public class ChunkService {
      */
     public static final int CHUNK_SIZE = 4 * 1024 * 1024;
 
+    /**
+     * {@link #stageChunks} 在整文件缓冲之外的峰值内存:块切片、压缩缓冲及其副本、密文各一份。
+     * 调用方按"文件大小 + 本值"申请上传内存额度。
+     */
+    public static final long STAGING_OVERHEAD_BYTES = 4L * CHUNK_SIZE;
+
+    /**
+     * 批量调整引用计数时单条语句的 IN 列表上限。
+     */
+    private static final int REF_BATCH_SIZE = 1000;
+
+    /**
+     * 单次回收任务处理的孤儿块上限。
+     */
+    private static final int SWEEP_BATCH_SIZE = 500;
+
     private final FileChunkRepository chunkRepository;
     private final FileChunkMappingRepository mappingRepository;
     private final StorageService storageService;
+    private final ChunkCipher chunkCipher;
+    private final TransactionTemplate requiresNewTransaction;
+
+    /**
+     * 相同哈希的新块并发上传时只执行一次,其余请求复用其结果(块ID)。
+     */
+    private final SingleFlight<String, Long> chunkUploads = new SingleFlight<>();
+
+    /**
+     * 引用计数为0的块在创建后保留的分钟数,超过后由清理任务回收。
+     */
+    @Value("${app.chunk.orphan-grace-minutes:60}")
+    private long orphanGraceMinutes = 60;
 
     public ChunkService(FileChunkRepository chunkRepository,
                         FileChunkMappingRepository mappingRepository,
-                        StorageService storageService) {
+                        StorageService storageService,
+                        ChunkCipher chunkCipher,
+                        PlatformTransactionManager transactionManager) {
         this.chunkRepository = chunkRepository;
         this.mappingRepository = mappingRepository;
         this.storageService = storageService;
+        this.chunkCipher = chunkCipher;
+        this.requiresNewTransaction = new TransactionTemplate(transactionManager);
+        this.requiresNewTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
     }
 
     /**
@@ -55,78 +102,175 @@ public class ChunkService {
     @Transactional
     public int storeFileInChunks(String fileId, Integer versionNumber, byte[] fileData, 
                                   String userId, boolean compress) {
-        List<byte[]> chunks = splitIntoChunks(fileData);
-        log.debug("File {} split into {} chunks", fileId, chunks.size());
+        List<StagedChunk> staged = stageChunks(fileData, userId, compress);
+        commitChunks(fileId, versionNumber, staged);
+        return staged.size();
+    }
+
+    /**
+     * 第一阶段:将文件分块写入存储,不持有外部事务。
+     * 新块以引用计数0入库,复用引用计数为0的已有块时续期其租约,二者都在宽限期内不会被回收;
+     * 由 {@link #commitChunks} 在元数据事务中增加引用,提交失败遗留的块由 {@link #sweepOrphanChunks()} 回收。
+     * 超过宽限期才提交时块可能已被回收,提交抛出 {@link ChunkReclaimedException},调用方重新暂存后重试。
+     * 逐块切分并写入,除 fileData 外同一时刻只额外持有一个块的副本。
+     *
+     * @param fileData 文件数据
+     * @param userId 用户ID
+     * @param compress 是否压缩
+     * @return 按顺序排列的已暂存块
+     */
+    public List<StagedChunk> stageChunks(byte[] fileData, String userId, boolean compress) {
+        List<StagedChunk> staged = new ArrayList<>((fileData.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
 
+        for (int offset = 0; offset < fileData.length; offset += CHUNK_SIZE) {
+            byte[] chunkData = Arrays.copyOfRange(fileData, offset, Math.min(fileData.length, offset + CHUNK_SIZE));
+            staged.add(stageChunk(chunkData, userId, compress));
+        }
+
+        log.debug("Staged {} chunks", staged.size());
+        return staged;
+    }
+
+    /**
+     * 以流的方式分块暂存,每次只在内存中保留一个块,用于大对象的后台迁移。
+     * 语义与 {@link #stageChunks(byte[], String, boolean)} 相同。
+     *
+     * @param in 数据流,由调用方关闭
+     */
+    public List<StagedChunk> stageChunksFromStream(InputStream in, String userId, boolean compress) throws IOException {
+        List<StagedChunk> staged = new ArrayList<>();
+        byte[] chunkData;
+        while ((chunkData = in.readNBytes(CHUNK_SIZE)).length > 0) {
+            staged.add(stageChunk(chunkData, userId, compress));
+        }
+        log.debug("Staged {} chunks from stream", staged.size());
+        return staged;
+    }
+
+    private StagedChunk stageChunk(byte[] chunkData, String userId, boolean compress) {
+        String chunkHash = DigestUtils.sha256Hex(chunkData);
+
+        // 检查块是否已存在(去重)
+        Long chunkId = chunkRepository.findByChunkHash(chunkHash)
+                .filter(this::leaseIfUnreferenced)
+                .map(FileChunk::getChunkId)
+                .orElseGet(() -> {
+                    log.debug("Chunk (hash: {}) not found, uploading to storage", chunkHash);
+                    return uploadNewChunkOnce(chunkHash, chunkData, userId, compress);
+                });
+        return new StagedChunk(chunkId, chunkHash, chunkData.length);
+    }
+
+    /**
+     * 引用计数为0的块随时可能被回收,复用前续期租约;续期时块已被删除则返回 false,按新块重新上传。
+     */
+    private boolean leaseIfUnreferenced(FileChunk chunk) {
+        if (chunk.getRefCount() == null || chunk.getRefCount() > 0) {
+            return true;
+        }
+        Integer renewed = requiresNewTransaction.execute(
+                status -> chunkRepository.renewLease(chunk.getChunkId(), LocalDateTime.now()));
+        return renewed != null && renewed > 0;
+    }
+
+    /**
+     * 第二阶段:在元数据事务中增加块引用并写入文件-块映射,不涉及存储I/O。
+     *
+     * @param fileId 文件ID
+     * @param versionNumber 版本号
+     * @param staged {@link #stageChunks} 返回的块列表
+     * @throws ChunkReclaimedException 暂存的块已被回收
+     */
+    @Transactional
+    public void commitChunks(String fileId, Integer versionNumber, List<StagedChunk> staged) {
         long offset = 0;
-        for (int i = 0; i < chunks.size(); i++) {
-            final int chunkIndex = i; // 为lambda表达式创建final副本
-            byte[] chunkData = chunks.get(i);
-            String chunkHash = DigestUtils.sha256Hex(chunkData);
-
-            // 检查块是否已存在(去重)
-            FileChunk chunk = chunkRepository.findByChunkHash(chunkHash)
-                    .orElseGet(() -> {
-                        log.debug("Chunk {} (hash: {}) not found, uploading to storage", chunkIndex, chunkHash);
-                        return uploadNewChunk(chunkHash, chunkData, userId, compress);
-                    });
-
-            // 如果块已存在,增加引用计数
-            if (chunk.getChunkId() != null) {
-                chunk.incrementRef();
-                chunkRepository.save(chunk);
-                log.debug("Chunk {} already exists, ref count: {}", chunkHash, chunk.getRefCount());
+        for (int i = 0; i < staged.size(); i++) {
+            StagedChunk chunk = staged.get(i);
+            if (chunkRepository.incrementRefCount(chunk.chunkId()) == 0) {
+                // 暂存后块已被回收,由调用方重新暂存后重试
+                throw new ChunkReclaimedException(chunk.chunkId());
             }
 
             // 创建文件-块映射
             FileChunkMapping mapping = new FileChunkMapping();
             mapping.setFileId(fileId);
             mapping.setVersionNumber(versionNumber);
-            mapping.setChunkId(chunk.getChunkId());
+            mapping.setChunkId(chunk.chunkId());
             mapping.setSequenceNumber(i);
             mapping.setOffsetInFile(offset);
             mappingRepository.save(mapping);
 
-            offset += chunkData.length;
+            offset += chunk.size();
         }
+    }
 
-        return chunks.size();
+    /**
+     * 定时回收引用计数为0且超过宽限期的块(每小时执行一次)。
+     * 记录按租约条件删除,删除成功后才删除存储对象;每条块记录的存储键唯一,
+     * 同一内容重新上传会写入新的对象,不会被这里误删。
+     */
+    @Scheduled(cron = "0 30 * * * *")
+    public void sweepOrphanChunks() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(orphanGraceMinutes);
+        List<FileChunk> orphans = chunkRepository.findOrphanCandidates(cutoff, PageRequest.of(0, SWEEP_BATCH_SIZE));
+        int reclaimed = 0;
+        for (FileChunk orphan : orphans) {
+            Integer deleted = requiresNewTransaction.execute(
+                    status -> chunkRepository.deleteIfUnreferenced(orphan.getChunkId(), cutoff));
+            if (deleted == null || deleted == 0) {
+                continue;
+            }
+            try {
+                storageService.deleteFile(orphan.getStorageKey());
+                reclaimed++;
+            } catch (RuntimeException ex) {
+                log.warn("Failed to delete orphan chunk object {}", orphan.getStorageKey(), ex);
+            }
+        }
+        if (!orphans.isEmpty()) {
+            log.info("Orphan chunk sweep: candidates={}, reclaimed={}", orphans.size(), reclaimed);
+        }
     }
 
+    /**
+     * 批量复制块引用：每个源文件最新版本的映射以一条 INSERT ... SELECT 复制到目标文件，
+     * 随后按目标文件集合一次性增加块引用计数，不读写存储对象。
+     *
+     * @param targets 源文件ID -> 目标文件ID
+     * @param targetVersion 目标文件的版本号
+     * @return 复制的映射条数
+     */
     @Transactional
-    public void copyChunkReferences(String sourceFileId, String targetFileId, int targetVersion) {
-        List<FileChunkMapping> all = mappingRepository.findByFileId(sourceFileId);
-        if (all.isEmpty()) {
-            throw new BusinessException(ErrorCode.FILE_NOT_FOUND, "源文件无块映射");
+    public int copyChunkReferences(Map<String, String> targets, int targetVersion) {
+        int copied = 0;
+        for (Map.Entry<String, String> target : targets.entrySet()) {
+            copied += mappingRepository.copyLatestMappings(target.getKey(), target.getValue(), targetVersion);
         }
-        int latest = all.stream().map(FileChunkMapping::getVersionNumber).max(Integer::compare).orElse(1);
-        List<FileChunkMapping> src = new ArrayList<>();
-        for (FileChunkMapping m : all) {
-            if (m.getVersionNumber() == latest) {
-                src.add(m);
-            }
+        List<String> targetIds = new ArrayList<>(targets.values());
+        for (int from = 0; from < targetIds.size(); from += REF_BATCH_SIZE) {
+            chunkRepository.acquireReferences(targetIds.subList(from, Math.min(targetIds.size(), from + REF_BATCH_SIZE)));
         }
-        long offset = 0;
-        src.sort(java.util.Comparator.comparingInt(FileChunkMapping::getSequenceNumber));
-        for (FileChunkMapping m : src) {
-            FileChunk chunk = chunkRepository.findById(m.getChunkId())
-                    .orElseThrow(() -> new BusinessException(ErrorCode.STORAGE_ERROR, "块不存在"));
-            chunk.incrementRef();
-            chunkRepository.save(chunk);
-
-            FileChunkMapping copy = new FileChunkMapping();
-            copy.setFileId(targetFileId);
-            copy.setVersionNumber(targetVersion);
-            copy.setChunkId(chunk.getChunkId());
-            copy.setSequenceNumber(m.getSequenceNumber());
-            copy.setOffsetInFile(offset);
-            mappingRepository.save(copy);
-            offset += chunk.getChunkSize();
+        return copied;
+    }
+
+    /**
+     * 写时复制的版本恢复：把文件某个版本的块映射复制为新版本并增加块引用，只涉及元数据。
+     * 版本之间未变化的块天然共享，每条映射各占一次引用。
+     *
+     * @return 复制的映射条数，源版本没有映射时为0
+     */
+    @Transactional
+    public int copyVersionReferences(String fileId, int sourceVersion, int targetVersion) {
+        int copied = mappingRepository.copyVersionMappings(fileId, sourceVersion, targetVersion);
+        if (copied > 0) {
+            chunkRepository.acquireVersionReferences(fileId, targetVersion);
         }
+        return copied;
     }
 
     /**
-     * 根据块映射重组文件。
+     * 根据块映射重组文件。块记录在事务内解析,块数据在读取返回的流时逐块加载、解密,
+     * 内存中只保留当前块。
      * 
      * @param fileId 文件ID
      * @param versionNumber 版本号
@@ -141,24 +285,24 @@ public class ChunkService {
             throw new BusinessException(ErrorCode.FILE_NOT_FOUND, "文件块映射不存在");
         }
 
-        try {
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-            for (FileChunkMapping mapping : mappings) {
-                FileChunk chunk = chunkRepository.findById(mapping.getChunkId())
-                        .orElseThrow(() -> new BusinessException(ErrorCode.STORAGE_ERROR, "块不存在"));
-
-                // 从存储加载块数据
-                try (InputStream chunkStream = storageService.loadFile(chunk.getStorageKey(), chunk.getCompressed())) {
-                    chunkStream.transferTo(buffer);
-                }
-            }
+        List<FileChunk> chunks = new ArrayList<>(mappings.size());
+        for (FileChunkMapping mapping : mappings) {
+            chunks.add(chunkRepository.findById(mapping.getChunkId())
+                    .orElseThrow(() -> new BusinessException(ErrorCode.STORAGE_ERROR, "块不存在")));
+        }
+        return new AssembledInputStream(chunks.iterator());
+    }
 
-            return new ByteArrayInputStream(buffer.toByteArray());
-        } catch (IOException ex) {
-            log.error("Failed to assemble file from chunks", ex);
-            throw new BusinessException(ErrorCode.STORAGE_ERROR, "文件组装失败", ex);
+    /**
+     * 打开单个块的明文数据流,按需解密与解压。
+     */
+    public InputStream openChunk(FileChunk chunk) throws IOException {
+        if (chunk.getEncryptionKeyId() == null) {
+            return storageService.loadFile(chunk.getStorageKey(), chunk.getCompressed());
         }
+        InputStream decrypted = chunkCipher.decrypt(chunk.getEncryptionKeyId(), chunk.getChunkHash(),
+                storageService.loadFile(chunk.getStorageKey(), false));
+        return Boolean.TRUE.equals(chunk.getCompressed()) ? new GZIPInputStream(decrypted) : decrypted;
     }
 
     /**
@@ -188,6 +332,31 @@ public class ChunkService {
         mappingRepository.deleteByFileId(fileId);
     }
 
+    /**
+     * 批量释放一组文件的块引用:一条语句扣减引用计数,一条语句删除映射。
+     * 引用归零的块不在事务内删除存储对象,由 {@link #sweepOrphanChunks()} 回收。
+     */
+    @Transactional
+    public void releaseFileChunks(Collection<String> fileIds) {
+        if (fileIds.isEmpty()) {
+            return;
+        }
+        chunkRepository.releaseReferences(fileIds);
+        mappingRepository.deleteByFileIdIn(fileIds);
+    }
+
+    /**
+     * 释放文件一组版本的块引用并删除其映射，引用归零的块由 {@link #sweepOrphanChunks()} 回收。
+     */
+    @Transactional
+    public void releaseVersionChunks(String fileId, Collection<Integer> versionNumbers) {
+        if (versionNumbers.isEmpty()) {
+            return;
+        }
+        chunkRepository.releaseVersionReferences(fileId, versionNumbers);
+        mappingRepository.deleteByFileIdAndVersionNumberIn(fileId, versionNumbers);
+    }
+
     /**
      * 计算文件每个块的哈希值,用于差分同步。
      * 
@@ -225,7 +394,15 @@ public class ChunkService {
     }
 
     /**
-     * 上传新块到存储。
+     * 合并同一哈希的并发上传,所有调用方共享已提交的块ID。
+     */
+    private Long uploadNewChunkOnce(String chunkHash, byte[] chunkData, String userId, boolean compress) {
+        return chunkUploads.execute(chunkHash,
+                () -> uploadNewChunk(chunkHash, chunkData, userId, compress).getChunkId());
+    }
+
+    /**
+     * 上传新块到存储,块记录在独立事务中提交,以便并发等待者立即可见。
      */
     private FileChunk uploadNewChunk(String chunkHash, byte[] chunkData, String userId, boolean compress) {
         try {
@@ -249,8 +426,15 @@ public class ChunkService {
                 }
             }
 
+            // 加密放在压缩之后,密文不可再压缩
+            String keyId = chunkCipher.activeKeyId();
+            if (keyId != null) {
+                dataToUpload = chunkCipher.encrypt(keyId, chunkHash, dataToUpload);
+            }
+
+            // 存储键带随机后缀,每条块记录独占自己的对象
             String keyPrefix = "chunks/" + userId + "/" + chunkHash.substring(0, 2);
-            String filename = chunkHash + ".chunk";
+            String filename = chunkHash + "-" + UUID.randomUUID() + (keyId != null ? ".enc" : ".chunk");
             log.debug("Uploading chunk to OSS: keyPrefix={}, filename={}, size={}", keyPrefix, filename, dataToUpload.length);
 
             String storageKey = storageService.storeBytes(dataToUpload, keyPrefix, filename, actuallyCompressed);
@@ -261,12 +445,86 @@ public class ChunkService {
             chunk.setStorageKey(storageKey);
             chunk.setChunkSize((long) chunkData.length);
             chunk.setCompressed(actuallyCompressed);
-            chunk.setRefCount(1);
-
-            return chunkRepository.save(chunk);
+            chunk.setEncryptionKeyId(keyId);
+            chunk.setRefCount(0);
+
+            try {
+                return requiresNewTransaction.execute(status -> chunkRepository.save(chunk));
+            } catch (DataIntegrityViolationException ex) {
+                // 其他节点已写入同一哈希的块,直接复用,刚写入的对象不会被引用
+                log.debug("Chunk {} inserted concurrently, reusing existing record", chunkHash);
+                deleteQuietly(storageKey);
+                return chunkRepository.findByChunkHash(chunkHash)
+                        .filter(this::leaseIfUnreferenced)
+                        .orElseThrow(() -> new BusinessException(ErrorCode.STORAGE_ERROR, "块写入失败", ex));
+            }
         } catch (IOException ex) {
             log.error("Failed to upload chunk", ex);
             throw new BusinessException(ErrorCode.STORAGE_ERROR, "块上传失败", ex);
         }
     }
+
+    private void deleteQuietly(String storageKey) {
+        try {
+            storageService.deleteFile(storageKey);
+        } catch (RuntimeException ex) {
+            log.warn("Failed to delete unused chunk object {}", storageKey, ex);
+        }
+    }
+
+    /**
+     * 按顺序拼接各块明文的输入流,读完一个块后才打开下一个。
+     */
+    private final class AssembledInputStream extends InputStream {
+
+        private final Iterator<FileChunk> chunks;
+        private InputStream current;
+
+        private AssembledInputStream(Iterator<FileChunk> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (current == null) {
+                    if (!chunks.hasNext()) {
+                        return -1;
+                    }
+                    current = openChunk(chunks.next());
+                }
+                int n = current.read(b, off, len);
+                if (n > 0) {
+                    return n;
+                }
+                if (n < 0) {
+                    current.close();
+                    current = null;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * 已写入存储、等待提交引用的块。
+     */
+    public record StagedChunk(Long chunkId, String chunkHash, long size) {
+    }
 }
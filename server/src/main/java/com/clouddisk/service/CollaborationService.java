@@ -3,6 +3,7 @@ package com.clouddisk.service;
 import com.clouddisk.dto.FileMetadataDto;
 import com.clouddisk.dto.ShareRequest;
 import com.clouddisk.dto.ShareResponseDto;
+import com.clouddisk.entity.ChangeType;
 import com.clouddisk.entity.FileEntity;
 import com.clouddisk.entity.SharePermission;
 import com.clouddisk.entity.ShareResourceType;
@@ -32,13 +33,16 @@ public class CollaborationService {
     private final SharedResourceRepository sharedResourceRepository;
     private final FileRepository fileRepository;
     private final UserRepository userRepository;
+    private final ChangeJournalService changeJournalService;
 
     public CollaborationService(SharedResourceRepository sharedResourceRepository,
                                 FileRepository fileRepository,
-                                UserRepository userRepository) {
+                                UserRepository userRepository,
+                                ChangeJournalService changeJournalService) {
         this.sharedResourceRepository = sharedResourceRepository;
         this.fileRepository = fileRepository;
         this.userRepository = userRepository;
+        this.changeJournalService = changeJournalService;
     }
 
     /**
@@ -92,6 +96,9 @@ public class CollaborationService {
         sharedResource.setExpiresAt(request.getExpiresAt());
 
         sharedResourceRepository.save(sharedResource);
+        // 所有者与接收方的日志各记一条，接收方据此刷新“共享给我的”列表
+        changeJournalService.record(ChangeType.SHARE, file);
+        changeJournalService.record(target.getUserId(), ChangeType.SHARE, file, null);
         
         log.info("共享创建成功: shareId={}", sharedResource.getShareId());
         
@@ -125,6 +132,10 @@ public class CollaborationService {
         SharedResource share = sharedResourceRepository.findByShareIdAndOwnerId(shareId, ownerId)
                 .orElseThrow(() -> new BusinessException(ErrorCode.SHARE_NOT_FOUND));
         sharedResourceRepository.delete(share);
+        fileRepository.findById(share.getFileId()).ifPresent(file -> {
+            changeJournalService.record(ChangeType.UNSHARE, file);
+            changeJournalService.record(share.getTargetUserId(), ChangeType.UNSHARE, file, null);
+        });
     }
 
     /**
@@ -144,16 +155,29 @@ public class CollaborationService {
     @Transactional(readOnly = true)
     public List<FileMetadataDto> listSharedWithMe(String userId) {
         Instant now = Instant.now();
-        Map<String, String> userEmailMap = userRepository.findAll().stream()
+        List<SharedResource> shares = sharedResourceRepository.findAllByTargetUserId(userId).stream()
+                .filter(share -> share.getExpiresAt() == null || !share.getExpiresAt().isBefore(now))
+                .collect(Collectors.toList());
+        if (shares.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // 批量加载共享文件及其所有者，查询次数与共享条目数无关
+        Map<String, FileEntity> files = fileRepository.findAllById(shares.stream()
+                        .map(SharedResource::getFileId)
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(FileEntity::getFileId, file -> file));
+        Map<String, String> userEmailMap = userRepository.findAllById(files.values().stream()
+                        .map(FileEntity::getUserId)
+                        .collect(Collectors.toSet()))
+                .stream()
                 .collect(Collectors.toMap(User::getUserId, User::getEmail));
 
-        return sharedResourceRepository.findAllByTargetUserId(userId).stream()
-                .filter(share -> share.getExpiresAt() == null || !share.getExpiresAt().isBefore(now))
-                .map(share -> Map.entry(share, fileRepository.findById(share.getFileId()).orElse(null)))
-                .filter(entry -> entry.getValue() != null)
-                .map(entry -> {
-                    SharedResource share = entry.getKey();
-                    FileEntity file = entry.getValue();
+        return shares.stream()
+                .filter(share -> files.containsKey(share.getFileId()))
+                .map(share -> {
+                    FileEntity file = files.get(share.getFileId());
                     FileMetadataDto dto = toDto(file);
                     dto.setShared(true);
                     // 将 SharePermission 转换为 FileShare.SharePermission
@@ -29,15 +29,18 @@ public class ConflictResolutionService {
     private final FileVersionRepository fileVersionRepository;
     private final FileService fileService;
     private final FileSyncService fileSyncService;
+    private final FileMetadataCache metadataCache;
     
     public ConflictResolutionService(FileRepository fileRepository,
                                    FileVersionRepository fileVersionRepository,
                                    FileService fileService,
-                                   FileSyncService fileSyncService) {
+                                   FileSyncService fileSyncService,
+                                   FileMetadataCache metadataCache) {
         this.fileRepository = fileRepository;
         this.fileVersionRepository = fileVersionRepository;
         this.fileService = fileService;
         this.fileSyncService = fileSyncService;
+        this.metadataCache = metadataCache;
     }
     
     /**
@@ -154,6 +157,7 @@ public class ConflictResolutionService {
             .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
         newFileEntity.setName(newFileName);
         fileRepository.save(newFileEntity);
+        metadataCache.onChange(newFileEntity);
         result.setName(newFileName);
         
         // 通知其他用户
@@ -190,6 +194,7 @@ public class ConflictResolutionService {
             existingFile.setVersion(existingFile.getVersion() + 1);
             existingFile.setUpdatedAt(Instant.now());
             fileRepository.save(existingFile);
+            metadataCache.onChange(existingFile);
             
             // 通知其他用户
             fileSyncService.notifyChange(userId, java.util.Map.of(
@@ -1,22 +1,29 @@
 package com.clouddisk.service;
 
+import com.clouddisk.concurrent.UploadMemoryBudget;
 import com.clouddisk.dto.FileMetadataDto;
+import com.clouddisk.entity.ChangeType;
 import com.clouddisk.entity.FileChunk;
 import com.clouddisk.entity.FileChunkMapping;
 import com.clouddisk.entity.FileEntity;
+import com.clouddisk.entity.FileVersion;
 import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ChunkReclaimedException;
+import com.clouddisk.exception.ConflictException;
 import com.clouddisk.exception.ErrorCode;
 import com.clouddisk.repository.FileChunkMappingRepository;
 import com.clouddisk.repository.FileChunkRepository;
 import com.clouddisk.repository.FileRepository;
-import com.clouddisk.storage.StorageService;
+import com.clouddisk.repository.FileVersionRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 /**
@@ -30,7 +37,12 @@ public class DiffSyncService {
     private final FileChunkRepository chunkRepository;
     private final FileChunkMappingRepository mappingRepository;
     private final ChunkService chunkService;
-    private final StorageService storageService;
+    private final TransactionTemplate transactionTemplate;
+    private final UploadMemoryBudget uploadMemoryBudget;
+    private final DirectoryTreeService directoryTreeService;
+    private final ChangeJournalService changeJournalService;
+    private final FileMetadataCache metadataCache;
+    private final FileVersionRepository fileVersionRepository;
     
     private static final int ROLLING_WINDOW_SIZE = 4096; // 4KB滚动窗口
     
@@ -39,12 +51,22 @@ public class DiffSyncService {
             FileChunkRepository chunkRepository,
             FileChunkMappingRepository mappingRepository,
             ChunkService chunkService,
-            StorageService storageService) {
+            PlatformTransactionManager transactionManager,
+            UploadMemoryBudget uploadMemoryBudget,
+            DirectoryTreeService directoryTreeService,
+            ChangeJournalService changeJournalService,
+            FileMetadataCache metadataCache,
+            FileVersionRepository fileVersionRepository) {
         this.fileRepository = fileRepository;
         this.chunkRepository = chunkRepository;
         this.mappingRepository = mappingRepository;
         this.chunkService = chunkService;
-        this.storageService = storageService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.uploadMemoryBudget = uploadMemoryBudget;
+        this.directoryTreeService = directoryTreeService;
+        this.changeJournalService = changeJournalService;
+        this.metadataCache = metadataCache;
+        this.fileVersionRepository = fileVersionRepository;
     }
     
     /**
@@ -52,7 +74,7 @@ public class DiffSyncService {
      */
     @Transactional(readOnly = true)
     public List<Map<String, Object>> getFileSignatures(String fileId, String userId) {
-        FileEntity file = fileRepository.findByFileIdAndUserId(fileId, userId)
+        FileEntity file = metadataCache.getById(fileId, userId, () -> fileRepository.findByFileIdAndUserId(fileId, userId))
                 .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
         
         if (!"chunked".equals(file.getStorageKey())) {
@@ -80,81 +102,153 @@ public class DiffSyncService {
     
     /**
      * 应用差分更新
+     * 读取旧块与写入新块在事务外完成，随后在短事务中切换版本。
+     * 暂存的块在提交前被回收时重新组装、暂存并重试一次。
      * @param fileId 文件ID
      * @param userId 用户ID
      * @param deltaChunks 变更的块数据（索引 -> 数据）
      * @return 更新后的文件元数据
      */
-    @Transactional
     public FileMetadataDto applyDelta(String fileId, String userId, Map<Integer, byte[]> deltaChunks) {
-        FileEntity file = fileRepository.findByFileIdAndUserId(fileId, userId)
+        try {
+            return applyDeltaOnce(fileId, userId, deltaChunks);
+        } catch (ChunkReclaimedException ex) {
+            log.warn("暂存的块在提交前被回收，重新暂存后重试: fileId={}, {}", fileId, ex.getMessage());
+            return applyDeltaOnce(fileId, userId, deltaChunks);
+        }
+    }
+
+    private FileMetadataDto applyDeltaOnce(String fileId, String userId, Map<Integer, byte[]> deltaChunks) {
+        FileEntity file = metadataCache.getById(fileId, userId, () -> fileRepository.findByFileIdAndUserId(fileId, userId))
                 .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
         
         if (!"chunked".equals(file.getStorageKey())) {
             throw new BusinessException(ErrorCode.VALIDATION_ERROR, "文件不支持差分同步");
         }
+        int baseVersion = file.getVersion();
+        // 合并保存会原地替换当前版本的内容而不递增版本号，提交时还需比对内容哈希
+        String baseHash = file.getContentHash();
         
         // 获取现有块映射
         List<FileChunkMapping> oldMappings = mappingRepository
-                .findByFileIdAndVersionNumberOrderBySequenceNumber(fileId, file.getVersion());
-        
-        // 删除旧版本的映射（但保留块，因为可能被其他版本引用）
-        mappingRepository.deleteAll(oldMappings);
-        
-        // 更新版本号
-        file.setVersion(file.getVersion() + 1);
+                .findByFileIdAndVersionNumberOrderBySequenceNumber(fileId, baseVersion);
         
-        // 重新组装文件
-        ByteArrayOutputStream newFileData = new ByteArrayOutputStream();
+        // 先确定新文件大小：变化块取差异数据长度，未变块取块记录中的原始大小
+        List<FileChunk> reusedChunks = new ArrayList<>(oldMappings.size());
         long totalSize = 0;
-        int sequenceNumber = 0;
-        
         for (FileChunkMapping oldMapping : oldMappings) {
-            byte[] chunkData;
-            
-            if (deltaChunks.containsKey(oldMapping.getSequenceNumber())) {
-                // 使用新的块数据
-                chunkData = deltaChunks.get(oldMapping.getSequenceNumber());
-                log.info("应用差异块: fileId={}, chunkIndex={}, size={}", 
-                        fileId, oldMapping.getSequenceNumber(), chunkData.length);
+            byte[] delta = deltaChunks.get(oldMapping.getSequenceNumber());
+            if (delta != null) {
+                reusedChunks.add(null);
+                totalSize += delta.length;
             } else {
-                // 复用旧块
                 FileChunk oldChunk = chunkRepository.findById(oldMapping.getChunkId())
                         .orElseThrow(() -> new BusinessException(ErrorCode.STORAGE_ERROR, "块不存在"));
-                
-                try {
-                    chunkData = storageService.loadFile(oldChunk.getStorageKey(), oldChunk.getCompressed())
-                            .readAllBytes();
-                } catch (IOException e) {
-                    throw new BusinessException(ErrorCode.STORAGE_ERROR, "读取块数据失败", e);
+                if (oldChunk.getChunkSize() == null) {
+                    throw new BusinessException(ErrorCode.STORAGE_ERROR, "块大小未知: " + oldChunk.getChunkId());
                 }
+                reusedChunks.add(oldChunk);
+                totalSize += oldChunk.getChunkSize();
             }
+        }
+
+        String newHash;
+        List<ChunkService.StagedChunk> stagedChunks;
+        // 重组前申请上传内存额度：新文件缓冲一份加暂存单个块的开销，写入存储后即释放
+        try (UploadMemoryBudget.Reservation ignored =
+                     uploadMemoryBudget.reserve(totalSize + ChunkService.STAGING_OVERHEAD_BYTES)) {
+            // 按新文件大小一次分配，各块直接读入，不经中间缓冲
+            byte[] finalData = new byte[Math.toIntExact(totalSize)];
+            int offset = 0;
+        
+            for (int i = 0; i < oldMappings.size(); i++) {
+                FileChunkMapping oldMapping = oldMappings.get(i);
+                FileChunk oldChunk = reusedChunks.get(i);
             
-            try {
-                newFileData.write(chunkData);
-            } catch (IOException e) {
-                throw new BusinessException(ErrorCode.INTERNAL_ERROR, "写入数据失败", e);
+                if (oldChunk == null) {
+                    // 使用新的块数据
+                    byte[] chunkData = deltaChunks.get(oldMapping.getSequenceNumber());
+                    log.info("应用差异块: fileId={}, chunkIndex={}, size={}", 
+                            fileId, oldMapping.getSequenceNumber(), chunkData.length);
+                    System.arraycopy(chunkData, 0, finalData, offset, chunkData.length);
+                    offset += chunkData.length;
+                } else {
+                    // 复用旧块
+                    int expected = oldChunk.getChunkSize().intValue();
+                    try (InputStream in = chunkService.openChunk(oldChunk)) {
+                        int read = in.readNBytes(finalData, offset, expected);
+                        if (read != expected || in.read() != -1) {
+                            throw new BusinessException(ErrorCode.STORAGE_ERROR, "块数据大小与记录不一致: " + oldChunk.getChunkId());
+                        }
+                    } catch (IOException e) {
+                        throw new BusinessException(ErrorCode.STORAGE_ERROR, "读取块数据失败", e);
+                    }
+                    offset += expected;
+                }
             }
-            
-            totalSize += chunkData.length;
-            sequenceNumber++;
-        }
         
-        // 计算新文件哈希
-        byte[] finalData = newFileData.toByteArray();
-        String newHash = DigestUtils.sha256Hex(finalData);
+            // 计算新文件哈希
+            newHash = DigestUtils.sha256Hex(finalData);
         
-        file.setContentHash(newHash);
-        file.setFileSize(totalSize);
-        fileRepository.save(file);
+            // 阶段一:事务外重新存储为块（利用去重）
+            stagedChunks = chunkService.stageChunks(finalData, userId, true);
+        }
         
-        // 重新存储为块（利用去重）
-        chunkService.storeFileInChunks(fileId, file.getVersion(), finalData, userId, true);
+        // 阶段二:短事务切换版本
+        long newSize = totalSize;
+        FileEntity updated = transactionTemplate.execute(status ->
+                commitDelta(fileId, userId, baseVersion, baseHash, newHash, newSize, stagedChunks));
         
         log.info("差分同步完成: fileId={}, newVersion={}, deltaCount={}, totalSize={}", 
-                fileId, file.getVersion(), deltaChunks.size(), totalSize);
+                fileId, updated.getVersion(), deltaChunks.size(), totalSize);
+        
+        return toDto(updated);
+    }
+    
+    /**
+     * 提交差分更新的元数据，基准版本或其内容已变化时拒绝提交。
+     */
+    private FileEntity commitDelta(String fileId, String userId, int baseVersion, String baseHash,
+                                   String newHash, long newSize,
+                                   List<ChunkService.StagedChunk> stagedChunks) {
+        FileEntity file = fileRepository.findByFileIdAndUserId(fileId, userId)
+                .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
+        if (file.getVersion() != baseVersion) {
+            throw new ConflictException(
+                "文件已被其他用户修改，请刷新后重试",
+                "VERSION_CONFLICT",
+                String.format("期望版本: %d, 当前版本: %d", baseVersion, file.getVersion())
+            );
+        }
+        if (!Objects.equals(file.getContentHash(), baseHash)) {
+            // 版本号未变但内容已被合并保存替换，差分是基于旧内容计算的
+            throw new ConflictException(
+                "文件已被其他用户修改，请刷新后重试",
+                "VERSION_CONFLICT",
+                String.format("版本 %d 的内容已变化, 期望哈希: %s, 当前哈希: %s",
+                        baseVersion, baseHash, file.getContentHash())
+            );
+        }
+        
+        // 写时复制：基准版本的映射保留，新版本另写一份，未变化的块由去重共享
+        if (!fileVersionRepository.existsByFileIdAndVersionNumber(fileId, baseVersion)) {
+            fileVersionRepository.save(FileVersion.snapshotOf(file));
+        }
+
+        long previousSize = DirectoryTreeService.bytesOf(file);
+
+        // 更新版本号
+        file.setVersion(baseVersion + 1);
+        file.setContentHash(newHash);
+        file.setFileSize(newSize);
+        fileRepository.save(file);
         
-        return toDto(file);
+        chunkService.commitChunks(fileId, file.getVersion(), stagedChunks);
+        fileVersionRepository.save(FileVersion.snapshotOf(file));
+        directoryTreeService.recordChange(userId, file.getParentId(), newSize - previousSize, 0);
+        changeJournalService.record(ChangeType.UPDATE, file);
+        metadataCache.onChange(file);
+        return file;
     }
     
     /**
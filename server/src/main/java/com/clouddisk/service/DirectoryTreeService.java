@@ -0,0 +1,336 @@
+package com.clouddisk.service;
+
+import com.clouddisk.entity.ChangeType;
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ErrorCode;
+import com.clouddisk.repository.FileRepository;
+import com.clouddisk.repository.SharedResourceRepository;
+import com.clouddisk.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 目录树维护：父目录关联、子树查询、物化路径改写与目录聚合。
+ * 目录结构以 parentId 为准；directoryPath 作为物化路径保留，供按路径查找与子树前缀查询使用。
+ * 目录的字节数/文件数/变更时间随文件变更沿父链以 SQL 增量更新，与业务写入处于同一事务。
+ */
+@Service
+@Slf4j
+public class DirectoryTreeService {
+
+    private final FileRepository fileRepository;
+    private final SharedResourceRepository sharedResourceRepository;
+    private final UserRepository userRepository;
+    private final QuotaService quotaService;
+    private final ChangeJournalService changeJournalService;
+    private final FileMetadataCache metadataCache;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * 父链遍历的深度上限，防御异常数据形成的环。
+     */
+    private static final int MAX_DEPTH = 1000;
+
+    private static final Pageable BACKFILL_PAGE = PageRequest.of(0, 500);
+
+    /**
+     * 回收站命名空间：移入回收站的顶层条目所在目录为 "~trash/{fileId}"。
+     * 正常路径均以 / 开头，按路径的查询与子树前缀查询天然不会命中回收站中的条目。
+     */
+    public static final String TRASH_ROOT = "~trash";
+
+    public DirectoryTreeService(FileRepository fileRepository,
+                                SharedResourceRepository sharedResourceRepository,
+                                UserRepository userRepository,
+                                QuotaService quotaService,
+                                ChangeJournalService changeJournalService,
+                                FileMetadataCache metadataCache,
+                                PlatformTransactionManager transactionManager) {
+        this.fileRepository = fileRepository;
+        this.sharedResourceRepository = sharedResourceRepository;
+        this.userRepository = userRepository;
+        this.quotaService = quotaService;
+        this.changeJournalService = changeJournalService;
+        this.metadataCache = metadataCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 返回目录路径对应目录的 fileId，缺失的祖先目录按需逐级创建；根目录返回 null。
+     * @param normalizedPath 已标准化的目录路径
+     */
+    @Transactional
+    public String ensureDirectory(String userId, String normalizedPath) {
+        if ("/".equals(normalizedPath)) {
+            return null;
+        }
+        if (!normalizedPath.startsWith("/") || normalizedPath.endsWith("/") || normalizedPath.contains("//")) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "非法目录路径: " + normalizedPath);
+        }
+        // 常见情况下目录已存在，一次查询即可返回
+        FileEntity existing = fileRepository
+                .findByUserIdAndDirectoryPathAndName(userId, parentOf(normalizedPath), nameOf(normalizedPath))
+                .orElse(null);
+        if (existing != null) {
+            requireDirectory(existing, normalizedPath);
+            return existing.getFileId();
+        }
+
+        String parentPath = "/";
+        String parentId = null;
+        for (String name : normalizedPath.substring(1).split("/")) {
+            String currentPath = childPath(parentPath, name);
+            FileEntity directory = fileRepository.findByUserIdAndDirectoryPathAndName(userId, parentPath, name)
+                    .orElse(null);
+            if (directory == null) {
+                directory = new FileEntity();
+                directory.setUserId(userId);
+                directory.setDirectory(true);
+                directory.setDirectoryPath(parentPath);
+                directory.setParentId(parentId);
+                directory.setName(name);
+                directory.setVersion(1);
+                directory.setFileSize(0L);
+                fileRepository.save(directory);
+                changeJournalService.record(ChangeType.CREATE, directory);
+                metadataCache.onChange(directory);
+                log.debug("自动创建目录: userId={}, path={}", userId, currentPath);
+            } else {
+                requireDirectory(directory, currentPath);
+            }
+            parentPath = currentPath;
+            parentId = directory.getFileId();
+        }
+        return parentId;
+    }
+
+    /**
+     * 查询目录下的全部后代(不含目录自身)，走路径前缀索引。
+     */
+    @Transactional(readOnly = true)
+    public List<FileEntity> findDescendants(FileEntity directory) {
+        String path = fullPath(directory);
+        return fileRepository.findSubtree(directory.getUserId(), path, escapeLike(path) + "/%");
+    }
+
+    /**
+     * 节点移动或重命名后同步后代的物化路径和共享记录路径。
+     * 节点自身的 parentId/name/directoryPath 由调用方更新，后代的 parentId 不变，无需逐行改写。
+     */
+    @Transactional
+    public void relocate(FileEntity node, String oldFullPath, String newFullPath) {
+        if (node.isDirectory()) {
+            int updated = fileRepository.relocateSubtree(node.getUserId(), oldFullPath,
+                    escapeLike(oldFullPath) + "/%", oldFullPath.length(), newFullPath);
+            log.info("目录路径已改写: {} -> {}, descendants={}", oldFullPath, newFullPath, updated);
+            metadataCache.evictUser(node.getUserId());
+        }
+        sharedResourceRepository.relocateResourcePaths(node.getUserId(), oldFullPath,
+                escapeLike(oldFullPath) + "/%", oldFullPath.length(), newFullPath);
+    }
+
+    /**
+     * 记录一次文件变更：沿父链调整所有祖先目录的聚合，并在配额内调整用户总用量。
+     * 占用增加且超出配额时抛出异常，调用方事务随之回滚。
+     * @param parentId 变更条目所在目录，根目录为 null
+     */
+    @Transactional
+    public void recordChange(String userId, String parentId, long bytesDelta, long countDelta) {
+        if (bytesDelta != 0 || countDelta != 0) {
+            quotaService.charge(userId, bytesDelta, countDelta);
+        }
+        adjustAncestors(parentId, bytesDelta, countDelta);
+    }
+
+    /**
+     * 只调整祖先目录聚合，用户总用量不变(例如移动)。
+     */
+    @Transactional
+    public void adjustAncestors(String parentId, long bytesDelta, long countDelta) {
+        List<String> ancestors = ancestorIds(parentId);
+        if (!ancestors.isEmpty()) {
+            fileRepository.adjustAggregates(ancestors, bytesDelta, countDelta, Instant.now());
+        }
+    }
+
+    /**
+     * 从给定目录开始沿 parentId 向上收集目录 ID(含自身)。
+     */
+    private List<String> ancestorIds(String directoryId) {
+        List<String> ids = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        String current = directoryId;
+        while (current != null && visited.add(current) && ids.size() < MAX_DEPTH) {
+            ids.add(current);
+            current = fileRepository.findById(current)
+                    .map(FileEntity::getParentId)
+                    .orElse(null);
+        }
+        return ids;
+    }
+
+    /**
+     * 条目自身计入聚合的字节数：文件为文件大小，目录为其子树总字节数。
+     */
+    public static long bytesOf(FileEntity entity) {
+        Long value = entity.isDirectory() ? entity.getSubtreeBytes() : entity.getFileSize();
+        return value != null ? value : 0L;
+    }
+
+    /**
+     * 条目自身计入聚合的文件数：文件为 1，目录为其子树文件数。
+     */
+    public static long fileCountOf(FileEntity entity) {
+        if (!entity.isDirectory()) {
+            return 1L;
+        }
+        return entity.getSubtreeFileCount() != null ? entity.getSubtreeFileCount() : 0L;
+    }
+
+    /**
+     * 全量重新统计用户的目录聚合与总用量，仅用于历史数据回填与人工修复。
+     */
+    @Transactional
+    public void recomputeUsage(String userId) {
+        List<FileEntity> entries = fileRepository.findAllByUserId(userId);
+        Map<String, FileEntity> byId = new HashMap<>();
+        entries.forEach(entry -> byId.put(entry.getFileId(), entry));
+
+        Map<String, long[]> totals = new HashMap<>();
+        Map<String, Instant> latest = new HashMap<>();
+        long userBytes = 0;
+        long userCount = 0;
+        for (FileEntity entry : entries) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            long size = bytesOf(entry);
+            userBytes += size;
+            userCount++;
+            Set<String> visited = new HashSet<>();
+            String current = entry.getParentId();
+            while (current != null && visited.add(current) && byId.containsKey(current)) {
+                long[] sums = totals.computeIfAbsent(current, id -> new long[2]);
+                sums[0] += size;
+                sums[1]++;
+                Instant updatedAt = entry.getUpdatedAt();
+                if (updatedAt != null) {
+                    latest.merge(current, updatedAt, (a, b) -> a.isAfter(b) ? a : b);
+                }
+                current = byId.get(current).getParentId();
+            }
+        }
+        for (FileEntity entry : entries) {
+            if (entry.isDirectory()) {
+                long[] sums = totals.getOrDefault(entry.getFileId(), new long[2]);
+                fileRepository.setAggregates(entry.getFileId(), sums[0], sums[1],
+                        latest.getOrDefault(entry.getFileId(), entry.getUpdatedAt()));
+            }
+        }
+        userRepository.setUsage(userId, userBytes, userCount);
+        log.info("用量重新统计完成: userId={}, bytes={}, files={}", userId, userBytes, userCount);
+    }
+
+    /**
+     * 启动后回填历史数据：先补齐 parentId，再为尚未统计的账号计算目录聚合与总用量。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        backfillParentIds();
+        for (String userId : userRepository.findUserIdsWithoutUsage()) {
+            transactionTemplate.executeWithoutResult(status -> recomputeUsage(userId));
+        }
+    }
+
+    private void backfillParentIds() {
+        int total = 0;
+        while (true) {
+            Integer processed = transactionTemplate.execute(status -> {
+                int linked = 0;
+                for (FileEntity entity : fileRepository.findUnlinkedEntries(BACKFILL_PAGE)) {
+                    try {
+                        entity.setParentId(ensureDirectory(entity.getUserId(), entity.getDirectoryPath()));
+                        fileRepository.save(entity);
+                        metadataCache.onChange(entity);
+                        linked++;
+                    } catch (BusinessException ex) {
+                        log.warn("无法回填父目录: fileId={}, path={}, reason={}",
+                                entity.getFileId(), entity.getDirectoryPath(), ex.getMessage());
+                    }
+                }
+                return linked;
+            });
+            // 本批没有任何进展(为空或全部无法处理)时结束
+            if (processed == null || processed == 0) {
+                break;
+            }
+            total += processed;
+        }
+        if (total > 0) {
+            log.info("父目录关联回填完成: {} 条", total);
+        }
+    }
+
+    private void requireDirectory(FileEntity entity, String path) {
+        if (!entity.isDirectory()) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "路径中存在同名文件: " + path);
+        }
+    }
+
+    /**
+     * 条目的完整路径，例如目录 /a 下的 b 为 /a/b。
+     */
+    public static String fullPath(FileEntity entity) {
+        return childPath(entity.getDirectoryPath(), entity.getName());
+    }
+
+    public static String childPath(String parentPath, String name) {
+        return "/".equals(parentPath) ? "/" + name : parentPath + "/" + name;
+    }
+
+    /**
+     * 顶层条目移入回收站后所在的目录路径。
+     */
+    public static String trashPath(String fileId) {
+        return TRASH_ROOT + "/" + fileId;
+    }
+
+    /**
+     * 条目是否位于回收站中(顶层条目或其后代)。
+     */
+    public static boolean isTrashed(FileEntity entity) {
+        return !entity.getDirectoryPath().startsWith("/");
+    }
+
+    public static String parentOf(String normalizedPath) {
+        int index = normalizedPath.lastIndexOf('/');
+        return index <= 0 ? "/" : normalizedPath.substring(0, index);
+    }
+
+    public static String nameOf(String normalizedPath) {
+        return normalizedPath.substring(normalizedPath.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * 转义 LIKE 通配符，配合 ESCAPE '\' 使用。
+     */
+    static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
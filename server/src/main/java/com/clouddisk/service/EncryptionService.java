@@ -2,18 +2,29 @@ package com.clouddisk.service;
 
 import com.clouddisk.dto.EncryptedUploadRequest;
 import com.clouddisk.dto.FileMetadataDto;
+import com.clouddisk.entity.ChangeType;
 import com.clouddisk.entity.FileEncryptionMetadata;
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.entity.FileVersion;
 import com.clouddisk.exception.BusinessException;
 import com.clouddisk.exception.ErrorCode;
 import com.clouddisk.repository.FileEncryptionMetadataRepository;
 import com.clouddisk.repository.FileRepository;
+import com.clouddisk.repository.FileVersionRepository;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 加密服务：管理客户端加密文件的元数据
@@ -21,24 +32,46 @@ import java.util.Map;
 @Slf4j
 @Service
 public class EncryptionService {
+
+    /**
+     * 批量检查时单条 IN 查询的哈希数上限。
+     */
+    static final int HASH_BATCH_SIZE = 1000;
+
+    private static final Pageable FIRST_SOURCE = PageRequest.of(0, 1);
     
     private final FileRepository fileRepository;
     private final FileEncryptionMetadataRepository encryptionMetadataRepository;
     private final FileService fileService;
+    private final FileVersionRepository fileVersionRepository;
+    private final ChunkService chunkService;
+    private final DirectoryTreeService directoryTreeService;
+    private final ChangeJournalService changeJournalService;
+    private final FileMetadataCache metadataCache;
     
     public EncryptionService(
             FileRepository fileRepository,
             FileEncryptionMetadataRepository encryptionMetadataRepository,
-            FileService fileService) {
+            FileService fileService,
+            FileVersionRepository fileVersionRepository,
+            ChunkService chunkService,
+            DirectoryTreeService directoryTreeService,
+            ChangeJournalService changeJournalService,
+            FileMetadataCache metadataCache) {
         this.fileRepository = fileRepository;
         this.encryptionMetadataRepository = encryptionMetadataRepository;
         this.fileService = fileService;
+        this.fileVersionRepository = fileVersionRepository;
+        this.chunkService = chunkService;
+        this.directoryTreeService = directoryTreeService;
+        this.changeJournalService = changeJournalService;
+        this.metadataCache = metadataCache;
     }
     
     /**
      * 上传加密文件（客户端已加密）
+     * 不开启外层事务，使块存储写入发生在事务之外。
      */
-    @Transactional
     public FileMetadataDto uploadEncryptedFile(
             MultipartFile encryptedFile,
             EncryptedUploadRequest request,
@@ -105,19 +138,113 @@ public class EncryptionService {
     }
     
     /**
-     * 检查是否支持收敛加密的秒传
+     * 检查是否支持收敛加密的秒传：按原始哈希走索引查找仍以分块存储的收敛加密文件。
      */
     @Transactional(readOnly = true)
     public boolean checkConvergentQuickUpload(String originalHash, String userId) {
-        // 查找具有相同原始哈希的收敛加密文件
-        return fileRepository.findAll().stream()
-                .anyMatch(file -> {
-                    FileEncryptionMetadata meta = encryptionMetadataRepository.findByFileId(file.getFileId())
-                            .orElse(null);
-                    return meta != null 
-                            && meta.getConvergent() 
-                            && originalHash.equals(meta.getOriginalHash());
+        if (originalHash == null || originalHash.isEmpty()) {
+            return false;
+        }
+        return !encryptionMetadataRepository.findConvergentSources(originalHash, FIRST_SOURCE).isEmpty();
+    }
+
+    /**
+     * 批量检查收敛加密秒传，返回其中可秒传的原始哈希；每 1000 个哈希一条查询。
+     */
+    @Transactional(readOnly = true)
+    public Set<String> checkConvergentQuickUploadBatch(Collection<String> originalHashes, String userId) {
+        List<String> hashes = originalHashes == null ? List.of() : originalHashes.stream()
+                .filter(hash -> hash != null && !hash.isEmpty())
+                .distinct()
+                .toList();
+        Set<String> available = new HashSet<>();
+        for (int from = 0; from < hashes.size(); from += HASH_BATCH_SIZE) {
+            List<String> batch = new ArrayList<>(hashes.subList(from, Math.min(hashes.size(), from + HASH_BATCH_SIZE)));
+            available.addAll(encryptionMetadataRepository.findConvergentHashes(batch));
+        }
+        return available;
+    }
+
+    /**
+     * 收敛加密秒传：相同明文在收敛加密下得到相同密文，直接复制已有文件的块映射并增加块引用，
+     * 同时复制加密元数据供客户端解密，不传输也不写入任何块数据。
+     *
+     * @param originalHash 明文哈希
+     * @return 新文件元数据
+     */
+    @Transactional
+    public FileMetadataDto convergentQuickUpload(String originalHash, String fileName, String path, String userId) {
+        FileEncryptionMetadata sourceMeta = encryptionMetadataRepository.findConvergentSources(originalHash, FIRST_SOURCE)
+                .stream()
+                .findFirst()
+                .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND, "未找到可秒传的文件"));
+        FileEntity sourceFile = fileRepository.findById(sourceMeta.getFileId())
+                .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND, "未找到可秒传的文件"));
+
+        String normalizedPath = fileService.normalizePath(path);
+        metadataCache.getByPath(userId, normalizedPath, fileName,
+                        () -> fileRepository.findByUserIdAndDirectoryPathAndName(userId, normalizedPath, fileName))
+                .ifPresent(existing -> {
+                    throw new BusinessException(ErrorCode.VALIDATION_ERROR, "文件已存在");
                 });
+
+        FileEntity newFile = new FileEntity();
+        newFile.setUserId(userId);
+        newFile.setDirectory(false);
+        newFile.setDirectoryPath(normalizedPath);
+        newFile.setParentId(directoryTreeService.ensureDirectory(userId, normalizedPath));
+        newFile.setName(fileName);
+        newFile.setStorageKey("chunked");
+        newFile.setFileSize(sourceFile.getFileSize());
+        newFile.setContentHash(sourceFile.getContentHash());
+        newFile.setVersion(1);
+        fileRepository.save(newFile);
+
+        int copied = chunkService.copyChunkReferences(Map.of(sourceFile.getFileId(), newFile.getFileId()), 1);
+        if (copied == 0 && sourceFile.getFileSize() != null && sourceFile.getFileSize() > 0) {
+            // 源文件已没有块映射，回滚本次创建
+            throw new BusinessException(ErrorCode.FILE_NOT_FOUND, "未找到可秒传的文件");
+        }
+        fileVersionRepository.save(FileVersion.snapshotOf(newFile));
+        encryptionMetadataRepository.save(copyOf(sourceMeta, newFile.getFileId()));
+
+        directoryTreeService.recordChange(userId, newFile.getParentId(), DirectoryTreeService.bytesOf(newFile), 1);
+        changeJournalService.record(ChangeType.CREATE, newFile);
+        metadataCache.onChange(newFile);
+
+        log.info("收敛加密秒传成功: userId={}, sourceFileId={}, fileId={}, chunks={}",
+                userId, sourceFile.getFileId(), newFile.getFileId(), copied);
+
+        return toDto(newFile);
+    }
+
+    private static FileEncryptionMetadata copyOf(FileEncryptionMetadata source, String fileId) {
+        FileEncryptionMetadata copy = new FileEncryptionMetadata();
+        copy.setFileId(fileId);
+        copy.setAlgorithm(source.getAlgorithm());
+        copy.setKeyDerivation(source.getKeyDerivation());
+        copy.setSalt(source.getSalt());
+        copy.setIterations(source.getIterations());
+        copy.setIv(source.getIv());
+        copy.setConvergent(true);
+        copy.setOriginalSize(source.getOriginalSize());
+        copy.setEncryptedSize(source.getEncryptedSize());
+        copy.setOriginalHash(source.getOriginalHash());
+        copy.setClientEncrypted(source.getClientEncrypted());
+        return copy;
+    }
+
+    private FileMetadataDto toDto(FileEntity entity) {
+        FileMetadataDto dto = new FileMetadataDto();
+        dto.setFileId(entity.getFileId());
+        dto.setName(entity.getName());
+        dto.setPath(entity.getDirectoryPath());
+        dto.setSize(entity.getFileSize());
+        dto.setDirectory(entity.isDirectory());
+        dto.setHash(entity.getContentHash());
+        dto.setVersion(entity.getVersion());
+        dto.setUpdatedAt(entity.getUpdatedAt());
+        return dto;
     }
     
     /**
@@ -0,0 +1,177 @@
+package com.clouddisk.service;
+
+import com.clouddisk.entity.FileEntity;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * 文件元数据进程内缓存，按 fileId 与 (userId, 目录路径, 名称) 两种键查找。
+ * 只服务只读查询，返回的是脱管副本，不能用于修改后保存；写路径仍从数据库读取受管实体，
+ * 修改后调用 {@link #onChange(FileEntity)} 或 {@link #onDelete(FileEntity)}：立即失效，事务结束后再次失效，
+ * 提交成功的修改随即写入新值。
+ * 多实例部署时各实例缓存互不通知，由较短的写入过期时间限制陈旧窗口。
+ */
+@Component
+public class FileMetadataCache {
+
+    private final boolean enabled;
+    private final Cache<String, FileEntity> byId;
+    private final Cache<PathKey, String> byPath;
+
+    public FileMetadataCache(@Value("${app.metadata-cache.enabled:true}") boolean enabled,
+                             @Value("${app.metadata-cache.maximum-size:100000}") long maximumSize,
+                             @Value("${app.metadata-cache.expire-after-write-seconds:60}") long expireAfterWriteSeconds,
+                             MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.byId = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofSeconds(expireAfterWriteSeconds))
+                .recordStats()
+                .build();
+        this.byPath = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofSeconds(expireAfterWriteSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, byId, "file.metadata.by-id");
+        CaffeineCacheMetrics.monitor(meterRegistry, byPath, "file.metadata.by-path");
+    }
+
+    /**
+     * 按 fileId 查找属于该用户的条目，未命中时调用 loader 从数据库加载并缓存。
+     */
+    public Optional<FileEntity> getById(String fileId, String userId, Supplier<Optional<FileEntity>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        FileEntity cached = byId.getIfPresent(fileId);
+        if (cached != null) {
+            return userId.equals(cached.getUserId()) ? Optional.of(copyOf(cached)) : Optional.empty();
+        }
+        return load(loader);
+    }
+
+    /**
+     * 按 (userId, 目录路径, 名称) 查找条目，未命中时调用 loader 从数据库加载并缓存。
+     * 不缓存“不存在”，新建条目无需失效。
+     */
+    public Optional<FileEntity> getByPath(String userId, String directoryPath, String name,
+                                          Supplier<Optional<FileEntity>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        PathKey key = new PathKey(userId, directoryPath, name);
+        String fileId = byPath.getIfPresent(key);
+        if (fileId != null) {
+            FileEntity cached = byId.getIfPresent(fileId);
+            // 路径索引指向的条目已被淘汰或已移动时按未命中处理
+            if (cached != null && key.equals(PathKey.of(cached))) {
+                return Optional.of(copyOf(cached));
+            }
+            byPath.invalidate(key);
+        }
+        return load(loader);
+    }
+
+    /**
+     * 条目被修改或新建后调用：立即失效，提交后写入最终状态。
+     */
+    public void onChange(FileEntity entity) {
+        invalidateAround(entity, true);
+    }
+
+    /**
+     * 条目被删除后调用：立即失效，事务结束时再次失效。
+     */
+    public void onDelete(FileEntity entity) {
+        invalidateAround(entity, false);
+    }
+
+    private void invalidateAround(FileEntity entity, boolean writeThrough) {
+        if (!enabled || entity.getFileId() == null) {
+            return;
+        }
+        evict(entity);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                // 并发读者在提交前可能回填了旧值，此处一并覆盖
+                evict(entity);
+                if (writeThrough && status == STATUS_COMMITTED) {
+                    put(entity);
+                }
+            }
+        });
+    }
+
+    /**
+     * 使用户的全部缓存失效，用于目录移动、重命名与递归删除等批量改写物化路径的操作。
+     */
+    public void evictUser(String userId) {
+        if (!enabled) {
+            return;
+        }
+        byId.asMap().values().removeIf(entity -> userId.equals(entity.getUserId()));
+        byPath.asMap().keySet().removeIf(key -> userId.equals(key.userId()));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    byId.asMap().values().removeIf(entity -> userId.equals(entity.getUserId()));
+                    byPath.asMap().keySet().removeIf(key -> userId.equals(key.userId()));
+                }
+            });
+        }
+    }
+
+    private Optional<FileEntity> load(Supplier<Optional<FileEntity>> loader) {
+        Optional<FileEntity> loaded = loader.get();
+        loaded.ifPresent(entity -> {
+            // 事务内有未提交修改时不回填，避免其他请求读到未提交数据
+            if (!TransactionSynchronizationManager.isActualTransactionActive()
+                    || TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+                put(entity);
+            }
+        });
+        return loaded.map(FileMetadataCache::copyOf);
+    }
+
+    private void put(FileEntity entity) {
+        FileEntity snapshot = copyOf(entity);
+        byId.put(snapshot.getFileId(), snapshot);
+        byPath.put(PathKey.of(snapshot), snapshot.getFileId());
+    }
+
+    private void evict(FileEntity entity) {
+        byId.invalidate(entity.getFileId());
+        if (entity.getUserId() != null && entity.getDirectoryPath() != null && entity.getName() != null) {
+            byPath.invalidate(PathKey.of(entity));
+        }
+    }
+
+    private static FileEntity copyOf(FileEntity source) {
+        FileEntity copy = new FileEntity();
+        BeanUtils.copyProperties(source, copy);
+        return copy;
+    }
+
+    private record PathKey(String userId, String directoryPath, String name) {
+        static PathKey of(FileEntity entity) {
+            return new PathKey(entity.getUserId(), entity.getDirectoryPath(), entity.getName());
+        }
+    }
+}
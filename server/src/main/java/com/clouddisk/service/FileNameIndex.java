@@ -0,0 +1,322 @@
+package com.clouddisk.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * 单个用户的文件名倒排索引：小写文件名的三元组 -> 文档号，扩展名 -> 文档号。
+ * 文档号只增不复用，倒排表按追加顺序天然有序，查询时从最短的表开始做有序归并求交，再逐条校验。
+ * 删除与改名只留下墓碑，墓碑过多时整体重建。非线程安全，由调用方加锁。
+ */
+final class FileNameIndex {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x464e4958;
+
+    /**
+     * 结果排序：忽略大小写的名称，同名按 fileId。
+     */
+    static final Comparator<Doc> ORDER = Comparator.comparing(Doc::lowerName).thenComparing(Doc::fileId);
+
+    /**
+     * 已应用到的变更日志序号。
+     */
+    private long cursor;
+    private boolean dirty;
+    private final List<Doc> docs = new ArrayList<>();
+    private final Map<String, Integer> byFileId = new HashMap<>();
+    private final Map<Long, IntList> trigrams = new HashMap<>();
+    private final Map<String, IntList> extensions = new HashMap<>();
+
+    FileNameIndex(long cursor) {
+        this.cursor = cursor;
+    }
+
+    record Doc(String fileId, String directoryPath, String name, String lowerName, boolean directory,
+               Long size, String hash, int version, Instant updatedAt) {
+
+        String path() {
+            return DirectoryTreeService.childPath(directoryPath, name);
+        }
+
+        Doc withDirectoryPath(String newDirectoryPath) {
+            return new Doc(fileId, newDirectoryPath, name, lowerName, directory, size, hash, version, updatedAt);
+        }
+    }
+
+    long getCursor() {
+        return cursor;
+    }
+
+    void setCursor(long cursor) {
+        if (cursor != this.cursor) {
+            this.cursor = cursor;
+            dirty = true;
+        }
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    int size() {
+        return byFileId.size();
+    }
+
+    /**
+     * 新增或更新条目；名称未变时原位替换，不改动倒排表。
+     */
+    void put(String fileId, String fullPath, boolean directory, Long size, String hash, int version, Instant updatedAt) {
+        String directoryPath = DirectoryTreeService.parentOf(fullPath);
+        String name = DirectoryTreeService.nameOf(fullPath);
+        Doc doc = new Doc(fileId, directoryPath, name, name.toLowerCase(Locale.ROOT), directory,
+                size, hash, version, updatedAt);
+        Integer existing = byFileId.get(fileId);
+        if (existing != null && docs.get(existing).name().equals(name)) {
+            docs.set(existing, doc);
+        } else {
+            if (existing != null) {
+                docs.set(existing, null);
+            }
+            byFileId.put(fileId, append(doc));
+        }
+        dirty = true;
+    }
+
+    void remove(String fileId) {
+        Integer docId = byFileId.remove(fileId);
+        if (docId != null) {
+            docs.set(docId, null);
+            dirty = true;
+        }
+    }
+
+    /**
+     * 删除目录下的全部后代。
+     */
+    void removeSubtree(String directoryFullPath) {
+        String prefix = directoryFullPath + "/";
+        for (int docId = 0; docId < docs.size(); docId++) {
+            Doc doc = docs.get(docId);
+            if (doc != null && isUnder(doc.directoryPath(), directoryFullPath, prefix)) {
+                byFileId.remove(doc.fileId());
+                docs.set(docId, null);
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * 目录移动或重命名后改写后代的目录路径，名称不变，倒排表无需调整。
+     */
+    void relocateSubtree(String oldFullPath, String newFullPath) {
+        String prefix = oldFullPath + "/";
+        for (int docId = 0; docId < docs.size(); docId++) {
+            Doc doc = docs.get(docId);
+            if (doc != null && isUnder(doc.directoryPath(), oldFullPath, prefix)) {
+                docs.set(docId, doc.withDirectoryPath(newFullPath + doc.directoryPath().substring(oldFullPath.length())));
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * 墓碑超过存活条目时重建倒排表。
+     */
+    void compactIfNeeded() {
+        int tombstones = docs.size() - byFileId.size();
+        if (tombstones < 1024 || tombstones < byFileId.size()) {
+            return;
+        }
+        List<Doc> live = new ArrayList<>(byFileId.size());
+        for (Doc doc : docs) {
+            if (doc != null) {
+                live.add(doc);
+            }
+        }
+        docs.clear();
+        byFileId.clear();
+        trigrams.clear();
+        extensions.clear();
+        live.forEach(doc -> byFileId.put(doc.fileId(), append(doc)));
+    }
+
+    /**
+     * 按(名称, fileId)排序返回游标之后的至多 limit 条匹配。
+     * @param query 小写查询词，可为空
+     * @param extension 小写扩展名(不含点)，可为空
+     * @param scope 目录范围(完整路径)，可为空
+     * @param after 上一页最后一条的(名称, fileId)，可为空
+     */
+    List<Doc> search(String query, boolean prefix, String extension, String scope, Doc after, int limit) {
+        List<IntList> lists = new ArrayList<>();
+        if (query != null && query.length() >= 3) {
+            for (long trigram : trigramsOf(query)) {
+                lists.add(trigrams.get(trigram));
+            }
+        }
+        if (extension != null) {
+            lists.add(extensions.get(extension));
+        }
+        if (lists.contains(null)) {
+            return List.of();
+        }
+        // 短于三个字符且无扩展名时没有可用的倒排表，退化为扫描全部条目
+        lists.sort(Comparator.comparingInt(IntList::size));
+        IntList candidates = null;
+        for (IntList postings : lists) {
+            candidates = candidates == null ? postings : candidates.intersect(postings);
+        }
+
+        String scopePrefix = scope == null || "/".equals(scope) ? null : scope + "/";
+        Predicate<Doc> matches = doc -> (query == null
+                || (prefix ? doc.lowerName().startsWith(query) : doc.lowerName().contains(query)))
+                && (extension == null || !doc.directory())
+                && (scopePrefix == null || isUnder(doc.directoryPath(), scope, scopePrefix))
+                && (after == null || ORDER.compare(doc, after) > 0);
+
+        // 只保留最小的 limit 条，避免对全部匹配排序
+        PriorityQueue<Doc> top = new PriorityQueue<>(ORDER.reversed());
+        int count = candidates != null ? candidates.size() : docs.size();
+        for (int i = 0; i < count; i++) {
+            Doc doc = docs.get(candidates != null ? candidates.get(i) : i);
+            if (doc != null && matches.test(doc)) {
+                top.offer(doc);
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+        }
+        List<Doc> result = new ArrayList<>(top);
+        result.sort(ORDER);
+        return result;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(cursor);
+        out.writeInt(byFileId.size());
+        for (Doc doc : docs) {
+            if (doc == null) {
+                continue;
+            }
+            out.writeUTF(doc.fileId());
+            out.writeUTF(doc.path());
+            out.writeBoolean(doc.directory());
+            out.writeLong(doc.size() != null ? doc.size() : -1L);
+            out.writeUTF(doc.hash() != null ? doc.hash() : "");
+            out.writeInt(doc.version());
+            out.writeLong(doc.updatedAt() != null ? doc.updatedAt().toEpochMilli() : -1L);
+        }
+        dirty = false;
+    }
+
+    static FileNameIndex readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("索引文件格式不兼容");
+        }
+        FileNameIndex index = new FileNameIndex(in.readLong());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String fileId = in.readUTF();
+            String path = in.readUTF();
+            boolean directory = in.readBoolean();
+            long size = in.readLong();
+            String hash = in.readUTF();
+            int version = in.readInt();
+            long updatedAt = in.readLong();
+            index.put(fileId, path, directory, size >= 0 ? size : null, hash.isEmpty() ? null : hash, version,
+                    updatedAt >= 0 ? Instant.ofEpochMilli(updatedAt) : null);
+        }
+        index.dirty = false;
+        return index;
+    }
+
+    private int append(Doc doc) {
+        int docId = docs.size();
+        docs.add(doc);
+        for (long trigram : trigramsOf(doc.lowerName())) {
+            trigrams.computeIfAbsent(trigram, key -> new IntList()).add(docId);
+        }
+        String extension = extensionOf(doc.lowerName());
+        if (!doc.directory() && extension != null) {
+            extensions.computeIfAbsent(extension, key -> new IntList()).add(docId);
+        }
+        return docId;
+    }
+
+    private static Set<Long> trigramsOf(String text) {
+        Set<Long> result = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            result.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return result;
+    }
+
+    /**
+     * 小写扩展名(不含点)，无扩展名或以点开头的隐藏文件返回 null。
+     */
+    static String extensionOf(String lowerName) {
+        int dot = lowerName.lastIndexOf('.');
+        return dot > 0 && dot < lowerName.length() - 1 ? lowerName.substring(dot + 1) : null;
+    }
+
+    private static boolean isUnder(String directoryPath, String ancestor, String ancestorPrefix) {
+        return directoryPath.equals(ancestor) || directoryPath.startsWith(ancestorPrefix);
+    }
+
+    /**
+     * 递增有序的 int 列表，避免装箱。
+     */
+    static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        IntList intersect(IntList other) {
+            IntList result = new IntList();
+            int i = 0;
+            int j = 0;
+            while (i < size && j < other.size) {
+                if (values[i] < other.values[j]) {
+                    i++;
+                } else if (values[i] > other.values[j]) {
+                    j++;
+                } else {
+                    result.add(values[i]);
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+    }
+}
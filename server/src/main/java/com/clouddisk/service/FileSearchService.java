@@ -0,0 +1,273 @@
+package com.clouddisk.service;
+
+import com.clouddisk.dto.ChangeEntryDto;
+import com.clouddisk.dto.ChangesDto;
+import com.clouddisk.dto.FileMetadataDto;
+import com.clouddisk.dto.FilePageDto;
+import com.clouddisk.dto.SnapshotEntryDto;
+import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ErrorCode;
+import com.clouddisk.repository.FileRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 文件名搜索：每个用户一份进程内三元组倒排索引，支持子串、前缀、扩展名与目录范围过滤及游标分页。
+ * 索引首次使用时由全量快照构建，此后每次查询前按变更日志游标增量追平，因此多实例之间无需互相通知；
+ * 索引定期落盘到本地目录，重启后从文件加载再追平日志，无需重新扫描数据库。
+ */
+@Service
+@Slf4j
+public class FileSearchService {
+
+    public static final int MAX_LIMIT = 200;
+
+    private final FileRepository fileRepository;
+    private final ChangeJournalService changeJournalService;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Path indexDir;
+    private final Cache<String, FileNameIndex> indexes;
+
+    public FileSearchService(FileRepository fileRepository,
+                             ChangeJournalService changeJournalService,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${app.search.index-dir:./search_index}") String indexDir,
+                             @Value("${app.search.max-indexed-entries:5000000}") long maxIndexedEntries,
+                             @Value("${app.search.expire-after-access-minutes:30}") long expireAfterAccessMinutes) {
+        this.fileRepository = fileRepository;
+        this.changeJournalService = changeJournalService;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.indexDir = Paths.get(indexDir);
+        // 按加载时的条目数计权，淘汰前先落盘
+        this.indexes = Caffeine.newBuilder()
+                .maximumWeight(maxIndexedEntries)
+                .weigher((String userId, FileNameIndex index) -> Math.max(1, index.size()))
+                .expireAfterAccess(Duration.ofMinutes(expireAfterAccessMinutes))
+                .removalListener((String userId, FileNameIndex index, RemovalCause cause) -> {
+                    if (userId != null && index != null && cause != RemovalCause.REPLACED) {
+                        synchronized (index) {
+                            persist(userId, index);
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * 搜索用户自己的文件与目录，结果按名称(忽略大小写)排序。
+     * @param query 名称关键字，可为空(此时须指定扩展名)
+     * @param prefix true 时匹配名称前缀，否则匹配子串
+     * @param extension 扩展名过滤，不区分大小写，可带或不带点，指定时只返回文件
+     * @param path 目录范围，只搜索该目录下的后代，可为空
+     * @param cursor 上一页返回的游标，首页传空
+     */
+    public FilePageDto search(String userId, String query, boolean prefix, String extension, String path,
+                              String cursor, int limit) {
+        String normalizedQuery = StringUtils.hasText(query) ? query.trim().toLowerCase(Locale.ROOT) : null;
+        String normalizedExtension = normalizeExtension(extension);
+        if (normalizedQuery == null && normalizedExtension == null) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "请指定搜索关键字或扩展名");
+        }
+        String scope = StringUtils.hasText(path) ? normalizeScope(path) : null;
+        FileNameIndex.Doc after = StringUtils.hasText(cursor) ? decodeCursor(cursor) : null;
+        int pageSize = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+        FileNameIndex index = indexes.get(userId, this::loadIndex);
+        List<FileNameIndex.Doc> docs;
+        synchronized (index) {
+            catchUp(userId, index);
+            // 多取一条用于判断是否还有下一页
+            docs = index.search(normalizedQuery, prefix, normalizedExtension, scope, after, pageSize + 1);
+        }
+        String nextCursor = null;
+        if (docs.size() > pageSize) {
+            docs = docs.subList(0, pageSize);
+            nextCursor = encodeCursor(docs.get(docs.size() - 1));
+        }
+        return new FilePageDto(docs.stream().map(this::toDto).collect(Collectors.toList()), nextCursor);
+    }
+
+    /**
+     * 定期将有变化的索引落盘。
+     */
+    @Scheduled(fixedDelayString = "${app.search.persist-interval-ms:60000}")
+    public void persistDirtyIndexes() {
+        indexes.asMap().forEach((userId, index) -> {
+            synchronized (index) {
+                if (index.isDirty()) {
+                    persist(userId, index);
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        persistDirtyIndexes();
+    }
+
+    private FileNameIndex loadIndex(String userId) {
+        Path file = indexFile(userId);
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                FileNameIndex index = FileNameIndex.readFrom(in);
+                // 游标超前说明数据库已重建，文件作废
+                if (index.getCursor() <= Long.parseLong(changeJournalService.currentCursor(userId))) {
+                    log.debug("从文件加载搜索索引: userId={}, entries={}", userId, index.size());
+                    return index;
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.warn("搜索索引文件不可用，重新构建: userId={}, reason={}", userId, ex.getMessage());
+            }
+        }
+        return buildIndex(userId);
+    }
+
+    /**
+     * 由全量快照构建索引；游标在扫描前读取，扫描期间的变更随后由日志重放，重放按幂等方式应用。
+     */
+    private FileNameIndex buildIndex(String userId) {
+        long startedAt = System.currentTimeMillis();
+        FileNameIndex index = new FileNameIndex(Long.parseLong(changeJournalService.currentCursor(userId)));
+        readOnlyTransaction.executeWithoutResult(status -> {
+            try (Stream<SnapshotEntryDto> entries = fileRepository.streamSnapshot(userId)) {
+                entries.forEach(entry -> index.put(entry.getFileId(), entry.getPath(), entry.isDirectory(),
+                        entry.getSize(), entry.getHash(), entry.getVersion(), entry.getUpdatedAt()));
+            }
+        });
+        log.info("搜索索引构建完成: userId={}, entries={}, elapsedMs={}", userId, index.size(),
+                System.currentTimeMillis() - startedAt);
+        return index;
+    }
+
+    private void catchUp(String userId, FileNameIndex index) {
+        ChangesDto changes;
+        do {
+            changes = changeJournalService.listChanges(userId, String.valueOf(index.getCursor()),
+                    ChangeJournalService.MAX_BATCH_SIZE);
+            changes.getEntries().forEach(entry -> apply(index, entry));
+            index.setCursor(Long.parseLong(changes.getCursor()));
+        } while (changes.isHasMore());
+        index.compactIfNeeded();
+    }
+
+    private void apply(FileNameIndex index, ChangeEntryDto entry) {
+        switch (entry.getType()) {
+            case CREATE, UPDATE -> index.put(entry.getFileId(), entry.getPath(), entry.isDirectory(),
+                    entry.getSize(), entry.getHash(), entry.getVersion(), entry.getChangedAt());
+            case MOVE -> {
+                index.put(entry.getFileId(), entry.getPath(), entry.isDirectory(),
+                        entry.getSize(), entry.getHash(), entry.getVersion(), entry.getChangedAt());
+                if (entry.isDirectory() && entry.getOldPath() != null) {
+                    index.relocateSubtree(entry.getOldPath(), entry.getPath());
+                }
+            }
+            case DELETE -> {
+                index.remove(entry.getFileId());
+                if (entry.isDirectory()) {
+                    index.removeSubtree(entry.getPath());
+                }
+            }
+            // 共享变更不改变用户自己的目录树
+            default -> {
+            }
+        }
+    }
+
+    private void persist(String userId, FileNameIndex index) {
+        Path file = indexFile(userId);
+        try {
+            Files.createDirectories(indexDir);
+            Path temp = Files.createTempFile(indexDir, userId, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                index.writeTo(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.warn("搜索索引落盘失败: userId={}, reason={}", userId, ex.getMessage());
+        }
+    }
+
+    private Path indexFile(String userId) {
+        return indexDir.resolve(userId + ".idx");
+    }
+
+    private FileMetadataDto toDto(FileNameIndex.Doc doc) {
+        FileMetadataDto dto = new FileMetadataDto();
+        dto.setFileId(doc.fileId());
+        dto.setName(doc.name());
+        dto.setPath(doc.path());
+        dto.setSize(doc.size() != null ? doc.size() : 0L);
+        dto.setDirectory(doc.directory());
+        dto.setHash(doc.hash());
+        dto.setVersion(doc.version());
+        dto.setUpdatedAt(doc.updatedAt());
+        return dto;
+    }
+
+    private static String normalizeExtension(String extension) {
+        if (!StringUtils.hasText(extension)) {
+            return null;
+        }
+        String value = extension.trim().toLowerCase(Locale.ROOT);
+        return value.startsWith(".") ? value.substring(1) : value;
+    }
+
+    private static String normalizeScope(String path) {
+        String value = path.trim().replace('\\', '/').replaceAll("/+", "/");
+        if (!value.startsWith("/")) {
+            value = "/" + value;
+        }
+        return value.length() > 1 && value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+    }
+
+    /**
+     * 分页游标：上一页最后一条的 fileId 与小写名称，以 URL 安全的 Base64 编码。
+     */
+    private static String encodeCursor(FileNameIndex.Doc doc) {
+        String raw = doc.fileId() + "|" + doc.lowerName();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static FileNameIndex.Doc decodeCursor(String cursor) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "无效的分页游标");
+        }
+        int separator = raw.indexOf('|');
+        if (separator <= 0) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "无效的分页游标");
+        }
+        return new FileNameIndex.Doc(raw.substring(0, separator), null, null, raw.substring(separator + 1),
+                false, null, null, 0, null);
+    }
+}
@@ -1,13 +1,19 @@
 package com.clouddisk.service;
 
+import com.clouddisk.concurrent.UploadMemoryBudget;
+import com.clouddisk.config.VersionCoalescingProperties;
 import com.clouddisk.dto.FileMetadataDto;
+import com.clouddisk.dto.FilePageDto;
+import com.clouddisk.dto.UsageDto;
+import com.clouddisk.entity.ChangeType;
 import com.clouddisk.entity.FileEntity;
 import com.clouddisk.entity.FileShare;
 import com.clouddisk.entity.FileVersion;
+import com.clouddisk.entity.User;
 import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ChunkReclaimedException;
 import com.clouddisk.exception.ConflictException;
 import com.clouddisk.exception.ErrorCode;
-import com.clouddisk.repository.FileChunkMappingRepository;
 import com.clouddisk.repository.FileRepository;
 import com.clouddisk.repository.FileShareRepository;
 import com.clouddisk.repository.FileVersionRepository;
@@ -22,15 +28,32 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.AntPathMatcher;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -46,7 +69,22 @@ public class FileService {
     private final StorageService storageService;
     private final ChunkService chunkService;
     private final FileShareRepository fileShareRepository;
-    private final FileChunkMappingRepository fileChunkMappingRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final UploadMemoryBudget uploadMemoryBudget;
+    private final DirectoryTreeService directoryTreeService;
+    private final QuotaService quotaService;
+    private final ChangeJournalService changeJournalService;
+    private final FileMetadataCache metadataCache;
+    private final VersionCoalescingProperties coalescingProperties;
+
+    static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * 集合语句中 IN 列表的最大长度。
+     */
+    private static final int IN_CLAUSE_BATCH_SIZE = 1000;
+
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
 
     public FileService(FileRepository fileRepository,
                        FileVersionRepository fileVersionRepository,
@@ -54,14 +92,26 @@ public class FileService {
                        StorageService storageService,
                        ChunkService chunkService,
                        FileShareRepository fileShareRepository,
-                       FileChunkMappingRepository fileChunkMappingRepository) {
+                       PlatformTransactionManager transactionManager,
+                       UploadMemoryBudget uploadMemoryBudget,
+                       DirectoryTreeService directoryTreeService,
+                       QuotaService quotaService,
+                       ChangeJournalService changeJournalService,
+                       FileMetadataCache metadataCache,
+                       VersionCoalescingProperties coalescingProperties) {
         this.fileRepository = fileRepository;
         this.fileVersionRepository = fileVersionRepository;
         this.userRepository = userRepository;
         this.storageService = storageService;
         this.chunkService = chunkService;
         this.fileShareRepository = fileShareRepository;
-        this.fileChunkMappingRepository = fileChunkMappingRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.uploadMemoryBudget = uploadMemoryBudget;
+        this.directoryTreeService = directoryTreeService;
+        this.quotaService = quotaService;
+        this.changeJournalService = changeJournalService;
+        this.metadataCache = metadataCache;
+        this.coalescingProperties = coalescingProperties;
     }
 
     /**
@@ -72,27 +122,58 @@ public class FileService {
     @Transactional(readOnly = true)
     public List<FileMetadataDto> listFiles(String userId, String path) {
         String normalizedPath = normalizePath(path != null ? path : "/");
-        
-        return fileRepository.findAllByUserId(userId).stream()
-                .filter(file -> {
-                    // 过滤出指定路径下的文件和目录
-                    return file.getDirectoryPath().equals(normalizedPath);
-                })
-                .sorted(Comparator.comparing(FileEntity::isDirectory).reversed()
-                        .thenComparing(FileEntity::getName))
-                .map(this::toDto)
-                .collect(Collectors.toList());
+
+        return toDtos(fileRepository.findByUserIdAndDirectoryPathOrderByDirectoryDescNameAsc(userId, normalizedPath));
+    }
+
+    /**
+     * 分页列出目录，按(是否目录 降序, 名称 升序)键集分页，耗时只与页大小有关。
+     * @param cursor 上一页返回的游标，首页传 null
+     * @param limit 页大小，上限 {@value #MAX_PAGE_SIZE}
+     */
+    @Transactional(readOnly = true)
+    public FilePageDto listFilesPage(String userId, String path, String cursor, int limit) {
+        String normalizedPath = normalizePath(path != null ? path : "/");
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        // 多取一条用于判断是否还有下一页
+        Pageable pageable = PageRequest.of(0, pageSize + 1);
+
+        List<FileEntity> rows;
+        if (StringUtils.hasText(cursor)) {
+            ListingCursor after = ListingCursor.decode(cursor);
+            rows = fileRepository.findDirectoryPageAfter(userId, normalizedPath, after.directory(), after.name(), pageable);
+        } else {
+            rows = fileRepository.findDirectoryPage(userId, normalizedPath, pageable);
+        }
+
+        String nextCursor = null;
+        if (rows.size() > pageSize) {
+            rows = rows.subList(0, pageSize);
+            FileEntity last = rows.get(pageSize - 1);
+            nextCursor = new ListingCursor(last.isDirectory(), last.getName()).encode();
+        }
+        return new FilePageDto(toDtos(rows), nextCursor);
     }
 
     /**
      * 上传文件并维护版本记录(使用块级去重存储)。
+     * 分两阶段执行:先在事务外将块写入存储,再在短事务中提交元数据,
+     * 避免网络传输期间占用数据库连接。暂存的块在提交前被回收时重新暂存并重试一次。
      */
-    @Transactional
     public FileMetadataDto upload(MultipartFile file, String directoryPath, String userId) {
+        try {
+            return uploadOnce(file, directoryPath, userId);
+        } catch (ChunkReclaimedException ex) {
+            log.warn("暂存的块在提交前被回收，重新暂存后重试: {}", ex.getMessage());
+            return uploadOnce(file, directoryPath, userId);
+        }
+    }
+
+    private FileMetadataDto uploadOnce(MultipartFile file, String directoryPath, String userId) {
         if (file.isEmpty()) {
             throw new BusinessException(ErrorCode.VALIDATION_ERROR, "文件不能为空");
         }
-        userRepository.findById(userId)
+        User user = userRepository.findById(userId)
                 .orElseThrow(() -> new BusinessException(ErrorCode.USER_NOT_FOUND));
         String normalizedPath = normalizePath(directoryPath);
         String fileName = file.getOriginalFilename();
@@ -100,62 +181,87 @@ public class FileService {
             throw new BusinessException(ErrorCode.VALIDATION_ERROR, "文件名不能为空");
         }
 
-        fileRepository.findByUserIdAndDirectoryPathAndName(userId, normalizedPath, fileName)
-                .filter(FileEntity::isDirectory)
-                .ifPresent(existingDir -> {
-                    throw new BusinessException(ErrorCode.VALIDATION_ERROR, "同名目录已存在");
-                });
+        FileEntity existing = metadataCache.getByPath(userId, normalizedPath, fileName,
+                        () -> fileRepository.findByUserIdAndDirectoryPathAndName(userId, normalizedPath, fileName))
+                .orElse(null);
+        if (existing != null && existing.isDirectory()) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "同名目录已存在");
+        }
+        // 写入存储前按计数器预检配额，覆盖上传只计算增量
+        quotaService.checkAvailable(user, file.getSize() - (existing != null ? DirectoryTreeService.bytesOf(existing) : 0L));
 
-        byte[] bytes;
+        long fileSize;
+        String hash;
+        List<ChunkService.StagedChunk> stagedChunks;
+        // 读入内存前申请上传内存额度，写入存储后即释放
+        try (UploadMemoryBudget.Reservation ignored = uploadMemoryBudget.reserve(file.getSize())) {
+            byte[] bytes;
+            try {
+                bytes = file.getBytes();
+            } catch (IOException ex) {
+                throw new BusinessException(ErrorCode.INTERNAL_ERROR, "读取文件失败", ex);
+            }
+            fileSize = bytes.length;
+            hash = DigestUtils.sha256Hex(bytes);
+
+            // 阶段一:事务外写入块存储(自动去重+压缩)
+            stagedChunks = chunkService.stageChunks(bytes, userId, true);
+        }
+
+        // 阶段二:短事务提交元数据
         try {
-            bytes = file.getBytes();
-        } catch (IOException ex) {
-            throw new BusinessException(ErrorCode.INTERNAL_ERROR, "读取文件失败", ex);
+            return transactionTemplate.execute(status ->
+                    commitUpload(userId, normalizedPath, fileName, fileSize, hash, stagedChunks));
+        } catch (OptimisticLockingFailureException e) {
+            throw new ConflictException(
+                "文件正在被其他用户修改，请刷新后重试",
+                "CONCURRENT_MODIFICATION",
+                "乐观锁冲突"
+            );
         }
-        String hash = DigestUtils.sha256Hex(bytes);
+    }
 
+    /**
+     * 提交上传的元数据:文件记录、版本记录与块映射。
+     */
+    private FileMetadataDto commitUpload(String userId, String normalizedPath, String fileName,
+                                         long fileSize, String hash, List<ChunkService.StagedChunk> stagedChunks) {
         FileEntity entity = fileRepository.findByUserIdAndDirectoryPathAndName(userId, normalizedPath, fileName)
                 .orElse(null);
 
         boolean isNewFile = (entity == null);
+        long previousSize = 0L;
+        FileVersion coalescedTip = null;
         if (isNewFile) {
             entity = new FileEntity();
             entity.setUserId(userId);
             entity.setDirectory(false);
             entity.setDirectoryPath(normalizedPath);
+            entity.setParentId(directoryTreeService.ensureDirectory(userId, normalizedPath));
             entity.setName(fileName);
             entity.setVersion(1);
         } else {
-            // 保存旧版本到历史
-            FileVersion version = new FileVersion();
-            version.setFileId(entity.getFileId());
-            version.setVersionNumber(entity.getVersion());
-            version.setStorageKey(entity.getStorageKey());
-            version.setFileSize(entity.getFileSize());
-            version.setContentHash(entity.getContentHash());
-            fileVersionRepository.save(version);
-            
-            log.info("文件版本更新: fileId={}, 旧版本={}, 准备删除旧块映射", entity.getFileId(), entity.getVersion());
-            
-            // 检查是否存在旧版本的块映射
-            List<?> existingMappings = fileChunkMappingRepository.findByFileIdAndVersionNumberOrderBySequenceNumber(entity.getFileId(), entity.getVersion());
-            log.info("找到 {} 个旧版本块映射记录", existingMappings.size());
-            
-            // 删除当前版本的块映射，为新版本让路
-            try {
-                fileChunkMappingRepository.deleteByFileIdAndVersionNumber(entity.getFileId(), entity.getVersion());
-                log.info("已删除旧版本的块映射: fileId={}, version={}", entity.getFileId(), entity.getVersion());
-            } catch (Exception e) {
-                log.error("删除旧版本块映射失败: fileId={}, version={}, error={}", entity.getFileId(), entity.getVersion(), e.getMessage(), e);
-                throw e;
+            if (entity.isDirectory()) {
+                throw new BusinessException(ErrorCode.VALIDATION_ERROR, "同名目录已存在");
+            }
+            previousSize = DirectoryTreeService.bytesOf(entity);
+            coalescedTip = findCoalescibleTip(entity);
+            if (coalescedTip != null) {
+                // 合并窗口内的连续保存原地替换最新版本，释放被替换内容的块引用
+                chunkService.releaseVersionChunks(entity.getFileId(), List.of(entity.getVersion()));
+                log.info("合并保存到当前版本: fileId={}, version={}", entity.getFileId(), entity.getVersion());
+            } else {
+                // 写时复制：旧版本的记录与块映射原样保留，新版本另写一份映射，未变化的块由去重共享
+                if (!fileVersionRepository.existsByFileIdAndVersionNumber(entity.getFileId(), entity.getVersion())) {
+                    fileVersionRepository.save(FileVersion.snapshotOf(entity));
+                }
+                entity.setVersion(entity.getVersion() + 1);
+                log.info("文件版本更新为: {}", entity.getVersion());
             }
-            
-            entity.setVersion(entity.getVersion() + 1);
-            log.info("文件版本更新为: {}", entity.getVersion());
         }
 
         entity.setStorageKey("chunked"); // 标记为分块存储
-        entity.setFileSize((long) bytes.length);
+        entity.setFileSize(fileSize);
         entity.setContentHash(hash);
         
         try {
@@ -168,21 +274,18 @@ public class FileService {
             );
         }
 
-        // 使用块级存储(自动去重+压缩)
-        chunkService.storeFileInChunks(
-                entity.getFileId(), 
-                entity.getVersion(), 
-                bytes, 
-                userId, 
-                true
-        );
+        // 增加块引用并写入映射
+        chunkService.commitChunks(entity.getFileId(), entity.getVersion(), stagedChunks);
+        directoryTreeService.recordChange(userId, entity.getParentId(), fileSize - previousSize, isNewFile ? 1 : 0);
+        changeJournalService.record(isNewFile ? ChangeType.CREATE : ChangeType.UPDATE, entity);
+        metadataCache.onChange(entity);
 
-        // 保存当前版本信息
-        FileVersion latest = new FileVersion();
+        // 保存当前版本信息，合并保存时更新原有记录
+        FileVersion latest = coalescedTip != null ? coalescedTip : new FileVersion();
         latest.setFileId(entity.getFileId());
         latest.setVersionNumber(entity.getVersion());
         latest.setStorageKey("chunked");
-        latest.setFileSize((long) bytes.length);
+        latest.setFileSize(fileSize);
         latest.setContentHash(hash);
         fileVersionRepository.save(latest);
         
@@ -192,12 +295,36 @@ public class FileService {
         return toDto(entity);
     }
 
+    /**
+     * 文件路径匹配合并规则且最新版本创建于时间窗内时返回该版本记录，否则返回 null。
+     * 时间窗从最新版本创建时起算，持续保存时每个时间窗仍至少留下一个版本。
+     */
+    private FileVersion findCoalescibleTip(FileEntity entity) {
+        Duration window = coalescingWindow(DirectoryTreeService.fullPath(entity));
+        if (window.isZero() || !"chunked".equals(entity.getStorageKey())) {
+            return null;
+        }
+        return fileVersionRepository.findByFileIdAndVersionNumber(entity.getFileId(), entity.getVersion())
+                .filter(tip -> tip.getCreatedAt() != null
+                        && tip.getCreatedAt().isAfter(Instant.now().minus(window)))
+                .orElse(null);
+    }
+
+    private Duration coalescingWindow(String fullPath) {
+        for (VersionCoalescingProperties.Rule rule : coalescingProperties.getRules()) {
+            if (StringUtils.hasText(rule.getPathPattern()) && PATH_MATCHER.match(rule.getPathPattern(), fullPath)) {
+                return Duration.ofSeconds(Math.max(0, rule.getWindowSeconds()));
+            }
+        }
+        return Duration.ZERO;
+    }
+
     /**
      * 下载文件(支持块级存储)。
      */
     @Transactional(readOnly = true)
     public ResponseEntity<Resource> download(String fileId, String userId) {
-        FileEntity file = fileRepository.findByFileIdAndUserId(fileId, userId)
+        FileEntity file = metadataCache.getById(fileId, userId, () -> fileRepository.findByFileIdAndUserId(fileId, userId))
                 .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
         if (file.isDirectory()) {
             throw new BusinessException(ErrorCode.VALIDATION_ERROR, "目录无法下载");
@@ -251,29 +378,374 @@ public class FileService {
     }
 
     /**
-     * 删除文件或目录(支持块级存储)。
+     * 删除文件或目录：移入回收站，只改写顶层条目一行，目录后代的物化路径由一条批量语句改写。
+     * 版本、块引用与存储对象保留到回收站清理时统一释放，用户总用量在清理前不变。
      */
     @Transactional
     public void delete(String fileId, String userId) {
         FileEntity file = fileRepository.findByFileIdAndUserId(fileId, userId)
                 .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
-        
-        if (!file.isDirectory() && file.getStorageKey() != null) {
-            if ("chunked".equals(file.getStorageKey())) {
-                // 删除块存储(自动处理引用计数)
-                chunkService.deleteFileChunks(file.getFileId());
-            } else {
-                // 旧格式:检查共享后删除
-                boolean shared = fileRepository.findAll().stream()
-                        .anyMatch(other -> !other.getFileId().equals(file.getFileId()) && file.getStorageKey().equals(other.getStorageKey()));
-                if (!shared) {
-                    storageService.deleteFile(file.getStorageKey());
+        changeJournalService.record(ChangeType.DELETE, file);
+        String parentId = file.getParentId();
+        moveToTrash(file);
+        directoryTreeService.adjustAncestors(parentId,
+                -DirectoryTreeService.bytesOf(file), -DirectoryTreeService.fileCountOf(file));
+        if (file.isDirectory()) {
+            metadataCache.evictUser(userId);
+        } else {
+            metadataCache.onDelete(file);
+        }
+    }
+
+    /**
+     * 批量删除文件或目录：一次查询加载目标并移入回收站，祖先聚合按父目录合并后逐条调整。
+     * 目标位于同批另一目标目录之下时随祖先一并移入。
+     * @return 找到并删除的目标 fileId，不存在或不属于该用户的不在其中
+     */
+    @Transactional
+    public Set<String> deleteBatch(String userId, Collection<String> fileIds) {
+        List<FileEntity> targets = fileRepository.findByUserIdAndFileIdIn(userId, fileIds);
+        Set<String> directoryPaths = targets.stream()
+                .filter(FileEntity::isDirectory)
+                .map(DirectoryTreeService::fullPath)
+                .collect(Collectors.toSet());
+        List<FileEntity> roots = targets.stream()
+                .filter(target -> !isUnderAny(target.getDirectoryPath(), directoryPaths))
+                .collect(Collectors.toList());
+
+        changeJournalService.recordAll(userId, ChangeType.DELETE, roots);
+        Map<String, long[]> byParent = new HashMap<>();
+        for (FileEntity root : roots) {
+            long[] sums = byParent.computeIfAbsent(root.getParentId(), key -> new long[2]);
+            sums[0] += DirectoryTreeService.bytesOf(root);
+            sums[1] += DirectoryTreeService.fileCountOf(root);
+            moveToTrash(root);
+        }
+        byParent.forEach((parentId, sums) -> directoryTreeService.adjustAncestors(parentId, -sums[0], -sums[1]));
+        metadataCache.evictUser(userId);
+        log.info("批量删除: userId={}, targets={}, roots={}", userId, targets.size(), roots.size());
+        return targets.stream().map(FileEntity::getFileId).collect(Collectors.toSet());
+    }
+
+    /**
+     * 列出回收站中的顶层条目，最近删除的在前。
+     */
+    @Transactional(readOnly = true)
+    public List<FileMetadataDto> listTrash(String userId, int page, int size) {
+        return fileRepository.findByUserIdAndTrashedAtIsNotNullOrderByTrashedAtDesc(userId,
+                        PageRequest.of(Math.max(page, 0), Math.max(1, Math.min(size, MAX_PAGE_SIZE))))
+                .stream()
+                .map(this::toDto)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 从回收站恢复条目，默认回到原目录(不存在时自动创建)；原位置已有同名条目时须指定目标目录。
+     * 目录的后代随之恢复，并逐条记入变更日志以便同步客户端与搜索索引重新建立子树。
+     */
+    @Transactional
+    public FileMetadataDto restore(String fileId, String targetPath, String userId) {
+        FileEntity node = fileRepository.findByFileIdAndUserIdAndTrashedAtIsNotNull(fileId, userId)
+                .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND, "回收站中不存在该条目"));
+        String normalizedTarget = normalizePath(StringUtils.hasText(targetPath) ? targetPath : node.getOriginalPath());
+        requireNameAvailable(userId, normalizedTarget, node.getName());
+
+        String trashedFullPath = DirectoryTreeService.fullPath(node);
+        node.setParentId(directoryTreeService.ensureDirectory(userId, normalizedTarget));
+        node.setDirectoryPath(normalizedTarget);
+        node.setTrashedAt(null);
+        node.setOriginalPath(null);
+        fileRepository.save(node);
+        directoryTreeService.relocate(node, trashedFullPath, DirectoryTreeService.fullPath(node));
+        directoryTreeService.adjustAncestors(node.getParentId(),
+                DirectoryTreeService.bytesOf(node), DirectoryTreeService.fileCountOf(node));
+
+        List<FileEntity> restored = new ArrayList<>();
+        restored.add(node);
+        if (node.isDirectory()) {
+            restored.addAll(directoryTreeService.findDescendants(node));
+        }
+        changeJournalService.recordAll(userId, ChangeType.CREATE, restored);
+        metadataCache.onChange(node);
+        log.info("从回收站恢复: fileId={}, path={}, entries={}", fileId, DirectoryTreeService.fullPath(node),
+                restored.size());
+        return toDto(node);
+    }
+
+    /**
+     * 彻底删除回收站中的条目。
+     * @return 找到并删除的条目 fileId
+     */
+    @Transactional
+    public Set<String> purgeTrash(String userId, Collection<String> fileIds) {
+        List<FileEntity> roots = fileRepository.findByUserIdAndFileIdInAndTrashedAtIsNotNull(userId, fileIds);
+        purge(userId, roots);
+        return roots.stream().map(FileEntity::getFileId).collect(Collectors.toSet());
+    }
+
+    /**
+     * 清理回收站中的顶层条目及其后代：块引用、映射、版本与文件记录均以集合语句处理，
+     * 引用归零的块由孤儿块回收任务异步删除，旧格式对象在提交后删除；用户总用量只扣减一次。
+     * 删除变更已在移入回收站时记入日志，此处不再记录。
+     */
+    @Transactional
+    public void purge(String userId, List<FileEntity> roots) {
+        if (roots.isEmpty()) {
+            return;
+        }
+        Map<String, FileEntity> removed = new LinkedHashMap<>();
+        long totalBytes = 0;
+        long totalCount = 0;
+        for (FileEntity root : roots) {
+            removed.put(root.getFileId(), root);
+            if (root.isDirectory()) {
+                directoryTreeService.findDescendants(root).forEach(descendant -> removed.put(descendant.getFileId(), descendant));
+            }
+            totalBytes += DirectoryTreeService.bytesOf(root);
+            totalCount += DirectoryTreeService.fileCountOf(root);
+        }
+        List<String> contentIds = new ArrayList<>();
+        Set<String> legacyKeys = new HashSet<>();
+        for (FileEntity entity : removed.values()) {
+            if (!entity.isDirectory()) {
+                contentIds.add(entity.getFileId());
+                if (entity.getStorageKey() != null && !"chunked".equals(entity.getStorageKey())) {
+                    legacyKeys.add(entity.getStorageKey());
                 }
             }
         }
-        
-        fileVersionRepository.deleteAll(fileVersionRepository.findAllByFileIdOrderByVersionNumberDesc(file.getFileId()));
-        fileRepository.delete(file);
+        for (List<String> part : partition(contentIds)) {
+            chunkService.releaseFileChunks(part);
+            // 历史版本可能仍指向旧格式对象，删除版本记录前一并收集
+            legacyKeys.addAll(fileVersionRepository.findLegacyStorageKeysByFileIdIn(part));
+            fileVersionRepository.deleteByFileIdIn(part);
+        }
+        for (List<String> part : partition(new ArrayList<>(removed.keySet()))) {
+            fileRepository.deleteAllByIdInBatch(part);
+        }
+        deleteUnreferencedObjectsAfterCommit(legacyKeys);
+        if (totalBytes != 0 || totalCount != 0) {
+            quotaService.charge(userId, -totalBytes, -totalCount);
+        }
+        log.info("回收站清理: userId={}, roots={}, removed={}", userId, roots.size(), removed.size());
+    }
+
+    /**
+     * 顶层条目移入回收站命名空间：记录原目录与删除时间并脱离父目录，目录后代的路径随之改写。
+     */
+    private void moveToTrash(FileEntity node) {
+        String oldFullPath = DirectoryTreeService.fullPath(node);
+        node.setOriginalPath(node.getDirectoryPath());
+        node.setTrashedAt(Instant.now());
+        node.setDirectoryPath(DirectoryTreeService.trashPath(node.getFileId()));
+        node.setParentId(null);
+        fileRepository.save(node);
+        directoryTreeService.relocate(node, oldFullPath, DirectoryTreeService.fullPath(node));
+    }
+
+    private static boolean isUnderAny(String directoryPath, Set<String> ancestorPaths) {
+        String current = directoryPath;
+        while (!ancestorPaths.contains(current)) {
+            if ("/".equals(current)) {
+                return false;
+            }
+            current = DirectoryTreeService.parentOf(current);
+        }
+        return true;
+    }
+
+    private static List<List<String>> partition(List<String> values) {
+        List<List<String>> parts = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += IN_CLAUSE_BATCH_SIZE) {
+            parts.add(values.subList(from, Math.min(values.size(), from + IN_CLAUSE_BATCH_SIZE)));
+        }
+        return parts;
+    }
+
+    /**
+     * 旧格式整文件对象在提交后删除，仍被其他文件或任意版本记录引用的保留。
+     */
+    private void deleteUnreferencedObjectsAfterCommit(Set<String> storageKeys) {
+        if (storageKeys.isEmpty()) {
+            return;
+        }
+        Set<String> unreferenced = new HashSet<>(storageKeys);
+        for (List<String> part : partition(new ArrayList<>(storageKeys))) {
+            unreferenced.removeAll(fileRepository.findStorageKeysInUse(part));
+            unreferenced.removeAll(fileVersionRepository.findStorageKeysInUse(part));
+        }
+        if (unreferenced.isEmpty()) {
+            return;
+        }
+        Runnable deleteObjects = () -> {
+            for (String storageKey : unreferenced) {
+                try {
+                    storageService.deleteFile(storageKey);
+                } catch (RuntimeException ex) {
+                    log.warn("删除存储对象失败: storageKey={}, reason={}", storageKey, ex.getMessage());
+                }
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deleteObjects.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                deleteObjects.run();
+            }
+        });
+    }
+
+    /**
+     * 移动文件或目录到目标目录，目标目录不存在时自动创建。
+     * 只更新被移动节点本身；目录的后代 parentId 不变，物化路径由一条批量语句改写。
+     */
+    @Transactional
+    public FileMetadataDto move(String fileId, String targetPath, String userId) {
+        FileEntity node = fileRepository.findByFileIdAndUserId(fileId, userId)
+                .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
+        String normalizedTarget = normalizePath(targetPath);
+        if (normalizedTarget.equals(node.getDirectoryPath())) {
+            return toDto(node);
+        }
+        String oldFullPath = DirectoryTreeService.fullPath(node);
+        if (node.isDirectory()
+                && (normalizedTarget.equals(oldFullPath) || normalizedTarget.startsWith(oldFullPath + "/"))) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "不能将目录移动到自身或其子目录下");
+        }
+        requireNameAvailable(userId, normalizedTarget, node.getName());
+
+        // 聚合从旧父链移到新父链，用户总用量不变
+        long bytes = DirectoryTreeService.bytesOf(node);
+        long count = DirectoryTreeService.fileCountOf(node);
+        directoryTreeService.adjustAncestors(node.getParentId(), -bytes, -count);
+        node.setParentId(directoryTreeService.ensureDirectory(userId, normalizedTarget));
+        node.setDirectoryPath(normalizedTarget);
+        fileRepository.save(node);
+        directoryTreeService.adjustAncestors(node.getParentId(), bytes, count);
+        directoryTreeService.relocate(node, oldFullPath, DirectoryTreeService.fullPath(node));
+        changeJournalService.record(ChangeType.MOVE, node, oldFullPath);
+        metadataCache.onChange(node);
+        log.info("移动成功: fileId={}, {} -> {}", fileId, oldFullPath, DirectoryTreeService.fullPath(node));
+        return toDto(node);
+    }
+
+    /**
+     * 复制文件或目录到目标目录，目录连同全部后代一起复制。
+     * 只复制元数据：分块文件共享源文件的块，映射以集合语句复制、引用计数批量增加；
+     * 旧格式文件共享同一存储键。整个过程不读写存储对象。
+     */
+    @Transactional
+    public FileMetadataDto copy(String fileId, String targetPath, String userId) {
+        FileEntity source = fileRepository.findByFileIdAndUserId(fileId, userId)
+                .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
+        String normalizedTarget = normalizePath(targetPath);
+        String sourcePath = DirectoryTreeService.fullPath(source);
+        if (source.isDirectory()
+                && (normalizedTarget.equals(sourcePath) || normalizedTarget.startsWith(sourcePath + "/"))) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "不能将目录复制到自身或其子目录下");
+        }
+        requireNameAvailable(userId, normalizedTarget, source.getName());
+
+        List<FileEntity> originals = new ArrayList<>();
+        originals.add(source);
+        if (source.isDirectory()) {
+            // 按所在目录路径长度排序，保证父目录先于子项复制
+            List<FileEntity> descendants = directoryTreeService.findDescendants(source);
+            descendants.sort(Comparator.comparingInt(descendant -> descendant.getDirectoryPath().length()));
+            originals.addAll(descendants);
+        }
+        String copyPath = DirectoryTreeService.childPath(normalizedTarget, source.getName());
+        String targetParentId = directoryTreeService.ensureDirectory(userId, normalizedTarget);
+        Map<String, String> directoryIds = new HashMap<>();
+        Map<String, String> chunkedTargets = new LinkedHashMap<>();
+        List<FileEntity> copies = new ArrayList<>(originals.size());
+        List<FileVersion> versions = new ArrayList<>();
+        for (FileEntity original : originals) {
+            String directoryPath = original == source ? normalizedTarget
+                    : copyPath + original.getDirectoryPath().substring(sourcePath.length());
+            FileEntity copy = new FileEntity();
+            copy.setUserId(userId);
+            copy.setDirectory(original.isDirectory());
+            copy.setDirectoryPath(directoryPath);
+            copy.setParentId(original == source ? targetParentId : directoryIds.get(directoryPath));
+            copy.setName(original.getName());
+            copy.setVersion(1);
+            copy.setStorageKey(original.getStorageKey());
+            copy.setFileSize(original.getFileSize());
+            copy.setContentHash(original.getContentHash());
+            // 聚合列只在插入时写入，直接沿用源目录的统计
+            copy.setSubtreeBytes(original.getSubtreeBytes());
+            copy.setSubtreeFileCount(original.getSubtreeFileCount());
+            copy.setSubtreeUpdatedAt(original.getSubtreeUpdatedAt());
+            copy = fileRepository.save(copy);
+            copies.add(copy);
+            if (copy.isDirectory()) {
+                directoryIds.put(DirectoryTreeService.fullPath(copy), copy.getFileId());
+                continue;
+            }
+            if ("chunked".equals(original.getStorageKey())) {
+                chunkedTargets.put(original.getFileId(), copy.getFileId());
+            }
+            FileVersion version = new FileVersion();
+            version.setFileId(copy.getFileId());
+            version.setVersionNumber(copy.getVersion());
+            version.setStorageKey(copy.getStorageKey());
+            version.setFileSize(copy.getFileSize() != null ? copy.getFileSize() : 0L);
+            version.setContentHash(copy.getContentHash());
+            versions.add(version);
+        }
+        fileVersionRepository.saveAll(versions);
+        if (!chunkedTargets.isEmpty()) {
+            chunkService.copyChunkReferences(chunkedTargets, 1);
+        }
+
+        FileEntity root = copies.get(0);
+        directoryTreeService.recordChange(userId, root.getParentId(), DirectoryTreeService.bytesOf(root),
+                DirectoryTreeService.fileCountOf(root));
+        changeJournalService.recordAll(userId, ChangeType.CREATE, copies);
+        metadataCache.onChange(root);
+        log.info("复制成功: {} -> {}, entries={}", sourcePath, DirectoryTreeService.fullPath(root), copies.size());
+        return toDto(root);
+    }
+
+    /**
+     * 重命名文件或目录，目录的后代物化路径由一条批量语句改写。
+     */
+    @Transactional
+    public FileMetadataDto rename(String fileId, String newName, String userId) {
+        FileEntity node = fileRepository.findByFileIdAndUserId(fileId, userId)
+                .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
+        String safeName = newName != null ? newName.trim() : "";
+        if (!StringUtils.hasText(safeName)) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "名称不能为空");
+        }
+        if (safeName.contains("/") || safeName.contains("\\") || safeName.contains("..")) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "非法名称");
+        }
+        if (safeName.equals(node.getName())) {
+            return toDto(node);
+        }
+        requireNameAvailable(userId, node.getDirectoryPath(), safeName);
+
+        String oldFullPath = DirectoryTreeService.fullPath(node);
+        node.setName(safeName);
+        fileRepository.save(node);
+        directoryTreeService.relocate(node, oldFullPath, DirectoryTreeService.fullPath(node));
+        changeJournalService.record(ChangeType.MOVE, node, oldFullPath);
+        metadataCache.onChange(node);
+        log.info("重命名成功: fileId={}, {} -> {}", fileId, oldFullPath, DirectoryTreeService.fullPath(node));
+        return toDto(node);
+    }
+
+    private void requireNameAvailable(String userId, String directoryPath, String name) {
+        fileRepository.findByUserIdAndDirectoryPathAndName(userId, directoryPath, name)
+                .ifPresent(existing -> {
+                    throw new ConflictException("目标位置已存在同名文件", "NAME_CONFLICT",
+                            DirectoryTreeService.childPath(directoryPath, name));
+                });
     }
 
     /**
@@ -299,14 +771,70 @@ public class FileService {
         entity.setUserId(userId);
         entity.setDirectory(true);
         entity.setDirectoryPath(normalizedParent);
+        entity.setParentId(directoryTreeService.ensureDirectory(userId, normalizedParent));
         entity.setName(safeName);
         entity.setVersion(1);
         entity.setFileSize(0L);
         fileRepository.save(entity);
+        changeJournalService.record(ChangeType.CREATE, entity);
+        metadataCache.onChange(entity);
         return toDto(entity);
     }
 
     private FileMetadataDto toDto(FileEntity entity) {
+        FileShare share = fileShareRepository.findByFileIdAndOwnerIdAndActiveTrue(entity.getFileId(), entity.getUserId())
+                .orElse(null);
+        return toDto(entity, share);
+    }
+
+    /**
+     * 查询目录用量，根目录返回账号总用量与配额；均为增量维护的聚合值，不做子树扫描。
+     */
+    @Transactional(readOnly = true)
+    public UsageDto getUsage(String userId, String path) {
+        String normalizedPath = normalizePath(path != null ? path : "/");
+        if ("/".equals(normalizedPath)) {
+            User user = userRepository.findById(userId)
+                    .orElseThrow(() -> new BusinessException(ErrorCode.USER_NOT_FOUND));
+            return new UsageDto(normalizedPath,
+                    user.getUsedBytes() != null ? user.getUsedBytes() : 0L,
+                    user.getFileCount() != null ? user.getFileCount() : 0L,
+                    null,
+                    quotaService.quotaOf(user),
+                    user.getReservedBytes() != null ? user.getReservedBytes() : 0L);
+        }
+        FileEntity directory = fileRepository.findByUserIdAndDirectoryPathAndName(userId,
+                        DirectoryTreeService.parentOf(normalizedPath), DirectoryTreeService.nameOf(normalizedPath))
+                .filter(FileEntity::isDirectory)
+                .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND, "目录不存在"));
+        return new UsageDto(normalizedPath,
+                DirectoryTreeService.bytesOf(directory),
+                DirectoryTreeService.fileCountOf(directory),
+                directory.getSubtreeUpdatedAt(),
+                null,
+                null);
+    }
+
+    /**
+     * 批量装配列表：按所有者一次性查出整页文件的有效共享，在内存中关联，查询次数与条目数无关。
+     */
+    private List<FileMetadataDto> toDtos(List<FileEntity> entities) {
+        if (entities.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<String, FileShare> sharesByFileId = new HashMap<>();
+        entities.stream()
+                .collect(Collectors.groupingBy(FileEntity::getUserId,
+                        Collectors.mapping(FileEntity::getFileId, Collectors.toList())))
+                .forEach((ownerId, fileIds) -> fileShareRepository
+                        .findAllByOwnerIdAndActiveTrueAndFileIdIn(ownerId, fileIds)
+                        .forEach(share -> sharesByFileId.putIfAbsent(share.getFileId(), share)));
+        return entities.stream()
+                .map(entity -> toDto(entity, sharesByFileId.get(entity.getFileId())))
+                .collect(Collectors.toList());
+    }
+
+    private FileMetadataDto toDto(FileEntity entity, FileShare share) {
         FileMetadataDto dto = new FileMetadataDto();
         dto.setFileId(entity.getFileId());
         dto.setName(entity.getName());
@@ -316,17 +844,28 @@ public class FileService {
         dto.setHash(entity.getContentHash());
         dto.setVersion(entity.getVersion());
         dto.setUpdatedAt(entity.getUpdatedAt());
+        if (entity.isDirectory()) {
+            dto.setSubtreeSize(DirectoryTreeService.bytesOf(entity));
+            dto.setSubtreeFileCount(DirectoryTreeService.fileCountOf(entity));
+            dto.setSubtreeUpdatedAt(entity.getSubtreeUpdatedAt());
+        }
+        if (entity.getTrashedAt() != null) {
+            // 回收站条目展示删除前的位置
+            dto.setPath(DirectoryTreeService.childPath(entity.getOriginalPath(), entity.getName()));
+            dto.setTrashedAt(entity.getTrashedAt());
+        }
 
-        // 检查是否有共享
-        fileShareRepository.findByFileIdAndOwnerIdAndActiveTrue(entity.getFileId(), entity.getUserId())
-                .ifPresentOrElse(share -> {
-                    dto.setShared(true);
-                    dto.setShareId(share.getShareId());
-                    dto.setPermission(share.getPermission());
-                    dto.setShareUrl("/api/shares/" + share.getShareId());
-                    dto.setHasSharePassword(share.getPassword() != null);
-                    dto.setShareExpiresAt(share.getExpiresAt());
-                }, () -> dto.setShared(false));
+        // 共享信息
+        if (share != null) {
+            dto.setShared(true);
+            dto.setShareId(share.getShareId());
+            dto.setPermission(share.getPermission());
+            dto.setShareUrl("/api/shares/" + share.getShareId());
+            dto.setHasSharePassword(share.getPassword() != null);
+            dto.setShareExpiresAt(share.getExpiresAt());
+        } else {
+            dto.setShared(false);
+        }
 
         return dto;
     }
@@ -399,4 +938,28 @@ public class FileService {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * 目录分页游标：最后一条记录的(是否目录, 名称)，以 URL 安全的 Base64 编码。
+     */
+    record ListingCursor(boolean directory, String name) {
+
+        String encode() {
+            String raw = (directory ? "1" : "0") + "|" + name;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static ListingCursor decode(String cursor) {
+            String raw;
+            try {
+                raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException ex) {
+                throw new BusinessException(ErrorCode.VALIDATION_ERROR, "无效的分页游标");
+            }
+            int separator = raw.indexOf('|');
+            if (separator != 1 || (raw.charAt(0) != '0' && raw.charAt(0) != '1')) {
+                throw new BusinessException(ErrorCode.VALIDATION_ERROR, "无效的分页游标");
+            }
+            return new ListingCursor(raw.charAt(0) == '1', raw.substring(separator + 1));
+        }
+    }
+}
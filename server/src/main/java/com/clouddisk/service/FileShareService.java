@@ -2,6 +2,7 @@ package com.clouddisk.service;
 
 import com.clouddisk.dto.CreateShareRequest;
 import com.clouddisk.dto.FileShareDto;
+import com.clouddisk.entity.ChangeType;
 import com.clouddisk.entity.FileEntity;
 import com.clouddisk.entity.FileShare;
 import com.clouddisk.entity.User;
@@ -20,7 +21,9 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -32,6 +35,7 @@ public class FileShareService {
     private final UserRepository userRepository;
     private final FileService fileService;
     private final PasswordEncoder passwordEncoder;
+    private final ChangeJournalService changeJournalService;
 
     @Value("${app.base-url:http://localhost:8080}")
     private String baseUrl;
@@ -40,12 +44,14 @@ public class FileShareService {
                            FileRepository fileRepository,
                            UserRepository userRepository,
                            FileService fileService,
-                           PasswordEncoder passwordEncoder) {
+                           PasswordEncoder passwordEncoder,
+                           ChangeJournalService changeJournalService) {
         this.fileShareRepository = fileShareRepository;
         this.fileRepository = fileRepository;
         this.userRepository = userRepository;
         this.fileService = fileService;
         this.passwordEncoder = passwordEncoder;
+        this.changeJournalService = changeJournalService;
     }
 
     /**
@@ -79,6 +85,7 @@ public class FileShareService {
         }
 
         fileShareRepository.save(share);
+        changeJournalService.record(ChangeType.SHARE, file);
         log.info("用户 {} 创建了文件 {} 的共享: {}", userId, request.getFileId(), share.getShareId());
 
         return toDto(share, file);
@@ -90,11 +97,20 @@ public class FileShareService {
     @Transactional(readOnly = true)
     public List<FileShareDto> listUserShares(String userId) {
         List<FileShare> shares = fileShareRepository.findAllByOwnerIdAndActiveTrue(userId);
+        if (shares.isEmpty()) {
+            return List.of();
+        }
+        // 一次性加载所有被共享文件与所有者邮箱，避免逐条查询
+        Map<String, FileEntity> files = fileRepository.findAllById(shares.stream()
+                        .map(FileShare::getFileId)
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(FileEntity::getFileId, Function.identity()));
+        String ownerEmail = userRepository.findById(userId)
+                .map(User::getEmail)
+                .orElse(null);
         return shares.stream()
-                .map(share -> {
-                    FileEntity file = fileRepository.findById(share.getFileId()).orElse(null);
-                    return toDto(share, file);
-                })
+                .map(share -> toDto(share, files.get(share.getFileId()), ownerEmail))
                 .collect(Collectors.toList());
     }
 
@@ -120,6 +136,7 @@ public class FileShareService {
                 .orElseThrow(() -> new BusinessException(ErrorCode.SHARE_NOT_FOUND, "共享不存在或已过期"));
 
         FileEntity file = fileRepository.findById(share.getFileId())
+                .filter(entity -> !DirectoryTreeService.isTrashed(entity))
                 .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
 
         return toDto(share, file);
@@ -198,6 +215,8 @@ public class FileShareService {
 
         share.setActive(false);
         fileShareRepository.save(share);
+        fileRepository.findById(share.getFileId())
+                .ifPresent(file -> changeJournalService.record(ChangeType.UNSHARE, file));
         log.info("用户 {} 取消了共享: {}", userId, shareId);
     }
 
@@ -220,6 +239,13 @@ public class FileShareService {
     }
 
     private FileShareDto toDto(FileShare share, FileEntity file) {
+        String ownerEmail = userRepository.findById(share.getOwnerId())
+                .map(User::getEmail)
+                .orElse(null);
+        return toDto(share, file, ownerEmail);
+    }
+
+    private FileShareDto toDto(FileShare share, FileEntity file, String ownerEmail) {
         FileShareDto dto = new FileShareDto();
         dto.setShareId(share.getShareId());
         dto.setFileId(share.getFileId());
@@ -240,9 +266,7 @@ public class FileShareService {
             dto.setFileSize(file.getFileSize());
         }
 
-        // 获取所有者邮箱
-        userRepository.findById(share.getOwnerId())
-                .ifPresent(user -> dto.setOwnerEmail(user.getEmail()));
+        dto.setOwnerEmail(ownerEmail);
 
         return dto;
     }
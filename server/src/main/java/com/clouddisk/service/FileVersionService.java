@@ -2,6 +2,8 @@ package com.clouddisk.service;
 
 import com.clouddisk.dto.FileMetadataDto;
 import com.clouddisk.dto.FileVersionDto;
+import com.clouddisk.dto.FileVersionPageDto;
+import com.clouddisk.entity.ChangeType;
 import com.clouddisk.entity.FileEntity;
 import com.clouddisk.entity.FileVersion;
 import com.clouddisk.exception.BusinessException;
@@ -12,11 +14,14 @@ import com.clouddisk.storage.StorageService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -30,23 +35,34 @@ import java.util.stream.Collectors;
 @Slf4j
 @Service
 public class FileVersionService {
+
+    static final int MAX_PAGE_SIZE = 200;
     
     private final FileRepository fileRepository;
     private final FileVersionRepository fileVersionRepository;
     private final StorageService storageService;
     private final ChunkService chunkService;
     private final FileSyncService fileSyncService;
+    private final DirectoryTreeService directoryTreeService;
+    private final ChangeJournalService changeJournalService;
+    private final FileMetadataCache metadataCache;
     
     public FileVersionService(FileRepository fileRepository,
                             FileVersionRepository fileVersionRepository,
                             StorageService storageService,
                             ChunkService chunkService,
-                            FileSyncService fileSyncService) {
+                            FileSyncService fileSyncService,
+                            DirectoryTreeService directoryTreeService,
+                            ChangeJournalService changeJournalService,
+                            FileMetadataCache metadataCache) {
         this.fileRepository = fileRepository;
         this.fileVersionRepository = fileVersionRepository;
         this.storageService = storageService;
         this.chunkService = chunkService;
         this.fileSyncService = fileSyncService;
+        this.directoryTreeService = directoryTreeService;
+        this.changeJournalService = changeJournalService;
+        this.metadataCache = metadataCache;
     }
     
     /**
@@ -55,7 +71,7 @@ public class FileVersionService {
     @Transactional(readOnly = true)
     public List<FileVersionDto> getVersionHistory(String fileId, String userId) {
         // 验证用户权限
-        FileEntity file = fileRepository.findByFileIdAndUserId(fileId, userId)
+        metadataCache.getById(fileId, userId, () -> fileRepository.findByFileIdAndUserId(fileId, userId))
             .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
         
         List<FileVersion> versions = fileVersionRepository.findAllByFileIdOrderByVersionNumberDesc(fileId);
@@ -67,13 +83,39 @@ public class FileVersionService {
             .collect(Collectors.toList());
     }
     
+    /**
+     * 分页获取文件版本历史，按版本号倒序，以上一页最后一个版本号为游标。
+     * @param cursor 上一页返回的 nextCursor，首页传空
+     */
+    @Transactional(readOnly = true)
+    public FileVersionPageDto getVersionHistoryPage(String fileId, String userId, String cursor, int limit) {
+        metadataCache.getById(fileId, userId, () -> fileRepository.findByFileIdAndUserId(fileId, userId))
+            .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        // 多取一条用于判断是否还有下一页
+        Pageable pageable = PageRequest.of(0, pageSize + 1);
+        List<FileVersion> versions = StringUtils.hasText(cursor)
+            ? fileVersionRepository.findByFileIdAndVersionNumberLessThanOrderByVersionNumberDesc(
+                fileId, parseCursor(cursor), pageable)
+            : fileVersionRepository.findByFileIdOrderByVersionNumberDesc(fileId, pageable);
+
+        String nextCursor = null;
+        if (versions.size() > pageSize) {
+            versions = versions.subList(0, pageSize);
+            nextCursor = String.valueOf(versions.get(pageSize - 1).getVersionNumber());
+        }
+        return new FileVersionPageDto(versions.stream().map(this::toVersionDto).collect(Collectors.toList()),
+            nextCursor);
+    }
+
     /**
      * 下载指定版本的文件
      */
     @Transactional(readOnly = true)
     public ResponseEntity<Resource> downloadVersion(String fileId, Integer versionNumber, String userId) {
         // 验证用户权限
-        FileEntity file = fileRepository.findByFileIdAndUserId(fileId, userId)
+        FileEntity file = metadataCache.getById(fileId, userId, () -> fileRepository.findByFileIdAndUserId(fileId, userId))
             .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND));
         
         if (file.isDirectory()) {
@@ -81,10 +123,7 @@ public class FileVersionService {
         }
         
         // 查找指定版本
-        FileVersion version = fileVersionRepository.findAllByFileIdOrderByVersionNumberDesc(fileId)
-            .stream()
-            .filter(v -> v.getVersionNumber() == versionNumber)
-            .findFirst()
+        FileVersion version = fileVersionRepository.findByFileIdAndVersionNumber(fileId, versionNumber)
             .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND, "版本不存在"));
         
         InputStream stream;
@@ -124,7 +163,8 @@ public class FileVersionService {
     }
     
     /**
-     * 恢复到指定版本
+     * 恢复到指定版本：以目标版本为内容生成一个新版本。
+     * 分块存储的版本只复制块映射并增加引用，旧格式版本共享存储键，均不传输文件数据。
      */
     @Transactional
     public FileMetadataDto restoreVersion(String fileId, Integer versionNumber, String userId) {
@@ -137,23 +177,33 @@ public class FileVersionService {
         }
         
         // 查找指定版本
-        FileVersion targetVersion = fileVersionRepository.findAllByFileIdOrderByVersionNumberDesc(fileId)
-            .stream()
-            .filter(v -> v.getVersionNumber() == versionNumber)
-            .findFirst()
+        FileVersion targetVersion = fileVersionRepository.findByFileIdAndVersionNumber(fileId, versionNumber)
             .orElseThrow(() -> new BusinessException(ErrorCode.FILE_NOT_FOUND, "版本不存在"));
         
-        // 保存当前版本到历史
-        saveCurrentVersionToHistory(file);
+        // 当前版本尚无记录时补记，其块映射保留
+        if (!fileVersionRepository.existsByFileIdAndVersionNumber(fileId, file.getVersion())) {
+            saveCurrentVersionToHistory(file);
+        }
         
+        long previousSize = DirectoryTreeService.bytesOf(file);
+        int newVersionNumber = file.getVersion() + 1;
+        if ("chunked".equals(targetVersion.getStorageKey()) && targetVersion.getFileSize() > 0
+                && chunkService.copyVersionReferences(fileId, versionNumber, newVersionNumber) == 0) {
+            throw new BusinessException(ErrorCode.FILE_NOT_FOUND, "版本数据已不可用");
+        }
+
         // 恢复到目标版本
         file.setStorageKey(targetVersion.getStorageKey());
         file.setFileSize(targetVersion.getFileSize());
         file.setContentHash(targetVersion.getContentHash());
-        file.setVersion(file.getVersion() + 1); // 递增版本号
+        file.setVersion(newVersionNumber); // 递增版本号
         file.setUpdatedAt(Instant.now());
         
         fileRepository.save(file);
+        directoryTreeService.recordChange(userId, file.getParentId(),
+                DirectoryTreeService.bytesOf(file) - previousSize, 0);
+        changeJournalService.record(ChangeType.UPDATE, file);
+        metadataCache.onChange(file);
         
         // 保存新的版本记录
         FileVersion newVersion = new FileVersion();
@@ -174,6 +224,14 @@ public class FileVersionService {
         return toDto(file);
     }
     
+    private static int parseCursor(String cursor) {
+        try {
+            return Integer.parseInt(cursor);
+        } catch (NumberFormatException ex) {
+            throw new BusinessException(ErrorCode.VALIDATION_ERROR, "无效的分页游标");
+        }
+    }
+    
     /**
      * 保存当前版本到历史记录
      */
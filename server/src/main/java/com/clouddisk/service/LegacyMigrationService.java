@@ -0,0 +1,348 @@
+package com.clouddisk.service;
+
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.entity.FileVersion;
+import com.clouddisk.exception.ChunkReclaimedException;
+import com.clouddisk.repository.FileChunkMappingRepository;
+import com.clouddisk.repository.FileRepository;
+import com.clouddisk.repository.FileVersionRepository;
+import com.clouddisk.storage.StorageService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * 旧格式数据迁移：把整对象存储的文件与历史版本逐个读出，经分块流水线写入块存储(参与去重)，
+ * 再把引用该对象的文件与版本记录改为 "chunked"，全部引用转换后删除原对象。
+ * 迁移内容的哈希必须与记录一致，否则跳过该对象并保留原对象，不做任何转换或删除。
+ * 以存储键为单位、按存储键键集顺序扫描，读取速率受限；未迁移的数据本身就是待办队列，重启后自然续做。
+ */
+@Service
+@Slf4j
+public class LegacyMigrationService {
+
+    static final int BATCH_SIZE = 100;
+
+    private static final Pageable BATCH = PageRequest.of(0, BATCH_SIZE);
+
+    private final FileRepository fileRepository;
+    private final FileVersionRepository fileVersionRepository;
+    private final FileChunkMappingRepository mappingRepository;
+    private final ChunkService chunkService;
+    private final StorageService storageService;
+    private final FileMetadataCache metadataCache;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long bytesPerSecond;
+    private final int maxObjectsPerRun;
+
+    /**
+     * 下次执行的起始存储键；迁移失败的对象被跳过，扫描到末尾后从头开始重试。
+     */
+    private volatile String resumeAfter = "";
+
+    public LegacyMigrationService(FileRepository fileRepository,
+                                  FileVersionRepository fileVersionRepository,
+                                  FileChunkMappingRepository mappingRepository,
+                                  ChunkService chunkService,
+                                  StorageService storageService,
+                                  FileMetadataCache metadataCache,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${app.legacy-migration.enabled:true}") boolean enabled,
+                                  @Value("${app.legacy-migration.bytes-per-second:8388608}") long bytesPerSecond,
+                                  @Value("${app.legacy-migration.max-objects-per-run:200}") int maxObjectsPerRun) {
+        this.fileRepository = fileRepository;
+        this.fileVersionRepository = fileVersionRepository;
+        this.mappingRepository = mappingRepository;
+        this.chunkService = chunkService;
+        this.storageService = storageService;
+        this.metadataCache = metadataCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxObjectsPerRun = maxObjectsPerRun;
+    }
+
+    /**
+     * 迁移一批旧格式对象。
+     */
+    @Scheduled(initialDelayString = "${app.legacy-migration.initial-delay-ms:60000}",
+            fixedDelayString = "${app.legacy-migration.interval-ms:300000}")
+    public void migrateBatch() {
+        if (!enabled) {
+            return;
+        }
+        int migrated = 0;
+        int processed = 0;
+        while (processed < maxObjectsPerRun) {
+            List<String> keys = nextLegacyKeys(resumeAfter);
+            if (keys.isEmpty()) {
+                resumeAfter = "";
+                break;
+            }
+            for (String storageKey : keys) {
+                if (processed >= maxObjectsPerRun) {
+                    break;
+                }
+                processed++;
+                resumeAfter = storageKey;
+                try {
+                    if (migrate(storageKey)) {
+                        migrated++;
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    log.warn("旧格式对象迁移失败，稍后重试: storageKey={}, reason={}", storageKey, ex.getMessage());
+                }
+            }
+        }
+        if (processed > 0) {
+            log.info("旧格式对象迁移: processed={}, migrated={}, resumeAfter={}", processed, migrated, resumeAfter);
+        }
+    }
+
+    /**
+     * 迁移单个存储对象：事务外流式分块暂存，再在短事务中转换仍引用它的文件与版本记录。
+     * 暂存的块在提交前被回收时重新暂存并重试一次。
+     *
+     * @return 是否完成转换
+     */
+    boolean migrate(String storageKey) throws IOException {
+        try {
+            return migrateOnce(storageKey);
+        } catch (ChunkReclaimedException ex) {
+            log.warn("暂存的块在提交前被回收，重新暂存后重试: storageKey={}, {}", storageKey, ex.getMessage());
+            return migrateOnce(storageKey);
+        }
+    }
+
+    private boolean migrateOnce(String storageKey) throws IOException {
+        List<FileEntity> files = fileRepository.findByStorageKey(storageKey);
+        List<FileVersion> versions = fileVersionRepository.findByStorageKey(storageKey);
+        String ownerId = ownerOf(files, versions);
+        if (ownerId == null) {
+            return false;
+        }
+        StagedObject object = stageDecoded(storageKey, ownerId, true);
+        if (object == null || (object.gunzipped() && !matchesRecords(object, files, versions))) {
+            // 以 GZIP 魔数开头的也可能是客户端直传的原始内容，按原始字节重试
+            object = stageDecoded(storageKey, ownerId, false);
+        }
+        if (!matchesRecords(object, files, versions)) {
+            // 已暂存的块未被引用，由块回收任务按宽限期清理
+            log.warn("旧格式对象内容与记录不一致，跳过并保留原对象: storageKey={}, actualHash={}, actualSize={}",
+                    storageKey, object.hash(), object.size());
+            return false;
+        }
+        // 空对象没有块可映射，保持原样
+        if (object.staged().isEmpty()) {
+            return false;
+        }
+
+        StagedObject verified = object;
+        Conversion conversion = transactionTemplate.execute(status -> {
+            Conversion result = convertReferences(storageKey, verified);
+            if (result == Conversion.MISMATCHED) {
+                status.setRollbackOnly();
+            }
+            return result;
+        });
+        if (conversion == Conversion.MISMATCHED) {
+            log.warn("旧格式对象的引用在迁移期间发生变化，跳过并保留原对象: storageKey={}", storageKey);
+            return false;
+        }
+        if (conversion == Conversion.UNREFERENCED) {
+            storageService.deleteFile(storageKey);
+        }
+        return true;
+    }
+
+    /**
+     * 读取对象并流式分块暂存，同时计算内容哈希。
+     *
+     * @param detectGzip 是否按 GZIP 魔数解压
+     * @return 暂存结果；按 GZIP 解码失败(魔数只是原始内容的开头)时返回 null
+     */
+    private StagedObject stageDecoded(String storageKey, String ownerId, boolean detectGzip) throws IOException {
+        try (BufferedInputStream raw = new BufferedInputStream(storageService.loadFile(storageKey, false))) {
+            boolean gzipped = detectGzip && hasGzipMagic(raw);
+            try (DigestInputStream in = new DigestInputStream(new ThrottledInputStream(
+                    gzipped ? new GZIPInputStream(raw) : raw, bytesPerSecond), DigestUtils.getSha256Digest())) {
+                List<ChunkService.StagedChunk> staged = chunkService.stageChunksFromStream(in, ownerId, true);
+                long size = staged.stream().mapToLong(ChunkService.StagedChunk::size).sum();
+                return new StagedObject(staged, Hex.encodeHexString(in.getMessageDigest().digest()), size, gzipped);
+            } catch (ZipException | EOFException ex) {
+                if (!gzipped) {
+                    throw ex;
+                }
+                log.info("按 GZIP 解码失败，改按原始内容迁移: storageKey={}, reason={}", storageKey, ex.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 把仍引用该存储键的文件与版本记录改为分块存储，每个 (文件, 版本) 只写一份映射。
+     * 事务内重新读取的引用与迁移内容不一致时不做转换。
+     */
+    private Conversion convertReferences(String storageKey, StagedObject object) {
+        List<FileEntity> files = fileRepository.findByStorageKey(storageKey);
+        List<FileVersion> versions = fileVersionRepository.findByStorageKey(storageKey);
+        if (!matchesRecords(object, files, versions)) {
+            return Conversion.MISMATCHED;
+        }
+        Set<String> committed = new HashSet<>();
+        for (FileEntity file : files) {
+            commitOnce(file.getFileId(), file.getVersion(), object.staged(), committed);
+            file.setStorageKey("chunked");
+            fileRepository.save(file);
+            metadataCache.onChange(file);
+        }
+        for (FileVersion version : versions) {
+            commitOnce(version.getFileId(), version.getVersionNumber(), object.staged(), committed);
+            version.setStorageKey("chunked");
+            fileVersionRepository.save(version);
+        }
+        List<String> keys = List.of(storageKey);
+        boolean unreferenced = fileRepository.findStorageKeysInUse(keys).isEmpty()
+                && fileVersionRepository.findStorageKeysInUse(keys).isEmpty();
+        return unreferenced ? Conversion.UNREFERENCED : Conversion.STILL_REFERENCED;
+    }
+
+    private void commitOnce(String fileId, int versionNumber, List<ChunkService.StagedChunk> staged,
+                            Set<String> committed) {
+        if (committed.add(fileId + ":" + versionNumber)
+                && !mappingRepository.existsByFileIdAndVersionNumber(fileId, versionNumber)) {
+            chunkService.commitChunks(fileId, versionNumber, staged);
+        }
+    }
+
+    private List<String> nextLegacyKeys(String afterKey) {
+        // 文件与版本两处的存储键合并后取前一批，保持键集顺序
+        TreeSet<String> keys = new TreeSet<>(fileRepository.findLegacyStorageKeys(afterKey, BATCH));
+        keys.addAll(fileVersionRepository.findLegacyStorageKeys(afterKey, BATCH));
+        return keys.stream().limit(BATCH_SIZE).toList();
+    }
+
+    /**
+     * 新块写在对象所属用户的块前缀下。
+     */
+    private String ownerOf(List<FileEntity> files, List<FileVersion> versions) {
+        if (!files.isEmpty()) {
+            return files.get(0).getUserId();
+        }
+        return versions.stream()
+                .map(version -> fileRepository.findById(version.getFileId()))
+                .flatMap(Optional::stream)
+                .map(FileEntity::getUserId)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * 旧对象既有服务端压缩上传的，也有客户端直传的原始内容，按 GZIP 魔数区分。
+     */
+    private static boolean hasGzipMagic(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        return first == 0x1f && second == 0x8b;
+    }
+
+    /**
+     * 迁移内容是否与每条引用记录一致：有哈希时比对哈希，没有哈希时比对大小。
+     */
+    private static boolean matchesRecords(StagedObject object, List<FileEntity> files, List<FileVersion> versions) {
+        return object != null
+                && files.stream().allMatch(file -> object.matches(file.getContentHash(), file.getFileSize()))
+                && versions.stream().allMatch(version -> object.matches(version.getContentHash(), version.getFileSize()));
+    }
+
+    private enum Conversion {
+        MISMATCHED, STILL_REFERENCED, UNREFERENCED
+    }
+
+    /**
+     * 一次解码暂存的结果。
+     */
+    private record StagedObject(List<ChunkService.StagedChunk> staged, String hash, long size, boolean gunzipped) {
+
+        boolean matches(String expectedHash, Long expectedSize) {
+            if (expectedHash != null) {
+                return expectedHash.equalsIgnoreCase(hash);
+            }
+            return expectedSize == null || expectedSize == size;
+        }
+    }
+
+    /**
+     * 按平均速率限制读取，超前时休眠。
+     */
+    static final class ThrottledInputStream extends FilterInputStream {
+
+        private final long bytesPerSecond;
+        private final long startedAt = System.nanoTime();
+        private long bytesRead;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                throttle(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                throttle(n);
+            }
+            return n;
+        }
+
+        private void throttle(int n) throws IOException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            bytesRead += n;
+            long expectedNanos = (long) (bytesRead * 1_000_000_000d / bytesPerSecond);
+            long aheadMillis = (expectedNanos - (System.nanoTime() - startedAt)) / 1_000_000L;
+            if (aheadMillis > 0) {
+                try {
+                    Thread.sleep(aheadMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("迁移被中断", ex);
+                }
+            }
+        }
+    }
+}
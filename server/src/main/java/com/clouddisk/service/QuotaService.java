@@ -0,0 +1,96 @@
+package com.clouddisk.service;
+
+import com.clouddisk.entity.User;
+import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ErrorCode;
+import com.clouddisk.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * 用户存储配额。
+ * 用量来自 users 表上的计数器，所有判断都是单行条件更新，不做文件扫描；
+ * 元数据提交时扣减已用空间，断点续传在创建会话时预占空间。
+ */
+@Service
+@Slf4j
+public class QuotaService {
+
+    private final UserRepository userRepository;
+
+    /**
+     * 未单独设置配额的用户使用的默认配额(字节)，负数表示不限。
+     */
+    @Value("${app.quota.default-bytes:10737418240}")
+    private long defaultQuotaBytes = 10L * 1024 * 1024 * 1024;
+
+    public QuotaService(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * 用户的有效配额，负数表示不限。
+     */
+    public long quotaOf(User user) {
+        return user.getQuotaBytes() != null ? user.getQuotaBytes() : defaultQuotaBytes;
+    }
+
+    /**
+     * 写入存储前的快速预检，基于已加载的用户快照，不访问数据库；最终以提交时的条件更新为准。
+     */
+    public void checkAvailable(User user, long bytes) {
+        long quota = quotaOf(user);
+        if (quota < 0 || bytes <= 0) {
+            return;
+        }
+        long used = user.getUsedBytes() != null ? user.getUsedBytes() : 0L;
+        long reserved = user.getReservedBytes() != null ? user.getReservedBytes() : 0L;
+        if (used + reserved + bytes > quota) {
+            throw exceeded(user.getUserId(), bytes);
+        }
+    }
+
+    /**
+     * 在元数据提交事务内调整已用空间；增加空间时超出配额将抛出异常并回滚整个提交。
+     */
+    @Transactional
+    public void charge(String userId, long bytesDelta, long countDelta) {
+        if (bytesDelta <= 0) {
+            userRepository.adjustUsage(userId, bytesDelta, countDelta);
+            return;
+        }
+        if (userRepository.chargeUsage(userId, bytesDelta, countDelta, defaultQuotaBytes) == 0) {
+            throw exceeded(userId, bytesDelta);
+        }
+    }
+
+    /**
+     * 预占空间，超出配额时立即拒绝。
+     */
+    @Transactional
+    public void reserve(String userId, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        if (userRepository.reserveSpace(userId, bytes, defaultQuotaBytes) == 0) {
+            throw exceeded(userId, bytes);
+        }
+    }
+
+    /**
+     * 释放预占空间。
+     */
+    @Transactional
+    public void release(String userId, long bytes) {
+        if (bytes > 0) {
+            userRepository.releaseSpace(userId, bytes);
+        }
+    }
+
+    private BusinessException exceeded(String userId, long bytes) {
+        log.warn("超出存储配额: userId={}, requestBytes={}", userId, bytes);
+        return new BusinessException(ErrorCode.QUOTA_EXCEEDED);
+    }
+}
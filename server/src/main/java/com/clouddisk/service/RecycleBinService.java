@@ -0,0 +1,94 @@
+package com.clouddisk.service;
+
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.repository.FileRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 回收站清理：删除只把条目移入回收站，块引用、版本与存储对象的释放集中在这里分批完成。
+ * 定时任务默认在凌晨执行，每批一个事务，单次执行的批数有上限，积压时顺延到下一次。
+ */
+@Service
+@Slf4j
+public class RecycleBinService {
+
+    static final int BATCH_SIZE = 500;
+
+    private static final Pageable BATCH = PageRequest.of(0, BATCH_SIZE);
+
+    private final FileRepository fileRepository;
+    private final FileService fileService;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration retention;
+    private final int maxBatchesPerRun;
+
+    public RecycleBinService(FileRepository fileRepository,
+                             FileService fileService,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${app.trash.retention-days:30}") long retentionDays,
+                             @Value("${app.trash.max-batches-per-run:200}") int maxBatchesPerRun) {
+        this.fileRepository = fileRepository;
+        this.fileService = fileService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.retention = Duration.ofDays(retentionDays);
+        this.maxBatchesPerRun = maxBatchesPerRun;
+    }
+
+    /**
+     * 清空用户的回收站，按批提交。
+     * @return 清理的顶层条目数
+     */
+    public int emptyTrash(String userId) {
+        int purged = 0;
+        while (true) {
+            Integer count = transactionTemplate.execute(status -> {
+                List<FileEntity> roots = fileRepository.findByUserIdAndTrashedAtIsNotNullOrderByTrashedAtDesc(userId, BATCH);
+                fileService.purge(userId, roots);
+                return roots.size();
+            });
+            if (count == null || count == 0) {
+                break;
+            }
+            purged += count;
+        }
+        log.info("清空回收站: userId={}, roots={}", userId, purged);
+        return purged;
+    }
+
+    /**
+     * 清理超过保留期的回收站条目。
+     */
+    @Scheduled(cron = "${app.trash.purge-cron:0 0 3 * * *}")
+    public void purgeExpired() {
+        Instant cutoff = Instant.now().minus(retention);
+        int purged = 0;
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            Integer count = transactionTemplate.execute(status -> {
+                List<FileEntity> expired = fileRepository.findTop500ByTrashedAtBeforeOrderByTrashedAtAsc(cutoff);
+                expired.stream()
+                        .collect(Collectors.groupingBy(FileEntity::getUserId))
+                        .forEach(fileService::purge);
+                return expired.size();
+            });
+            if (count == null || count == 0) {
+                break;
+            }
+            purged += count;
+        }
+        if (purged > 0) {
+            log.info("回收站过期清理: cutoff={}, roots={}", cutoff, purged);
+        }
+    }
+}
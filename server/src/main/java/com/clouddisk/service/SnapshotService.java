@@ -0,0 +1,98 @@
+package com.clouddisk.service;
+
+import com.clouddisk.dto.SnapshotEntryDto;
+import com.clouddisk.repository.FileRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 全量目录树快照，供新设备首次同步。
+ * 以 NDJSON 逐行输出：首行 header 携带变更日志游标，随后每个条目一行，末行 end 携带条目数用于校验完整性。
+ * 游标在扫描前读取，扫描期间提交的变更会在之后的增量同步中重放，客户端按幂等方式应用即可。
+ */
+@Service
+@Slf4j
+public class SnapshotService {
+
+    /**
+     * 每输出多少行刷新一次响应流。
+     */
+    private static final int FLUSH_INTERVAL = 1000;
+
+    private final FileRepository fileRepository;
+    private final ChangeJournalService changeJournalService;
+    private final ObjectWriter writer;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public SnapshotService(FileRepository fileRepository,
+                           ChangeJournalService changeJournalService,
+                           ObjectMapper objectMapper,
+                           PlatformTransactionManager transactionManager) {
+        this.fileRepository = fileRepository;
+        this.changeJournalService = changeJournalService;
+        this.writer = objectMapper.writer();
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * 将用户的完整目录树写入输出流，服务端内存占用与条目数无关。
+     */
+    public void writeSnapshot(String userId, OutputStream out) throws IOException {
+        String cursor = changeJournalService.currentCursor(userId);
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put("kind", "header");
+        header.put("cursor", cursor);
+        header.put("generatedAt", Instant.now());
+        writeLine(out, header);
+
+        long count;
+        try {
+            Long written = readOnlyTransaction.execute(status -> {
+                long lines = 0;
+                try (Stream<SnapshotEntryDto> entries = fileRepository.streamSnapshot(userId)) {
+                    Iterator<SnapshotEntryDto> iterator = entries.iterator();
+                    while (iterator.hasNext()) {
+                        writeLine(out, iterator.next());
+                        if (++lines % FLUSH_INTERVAL == 0) {
+                            out.flush();
+                        }
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return lines;
+            });
+            count = written != null ? written : 0L;
+        } catch (UncheckedIOException ex) {
+            // 客户端断开时不再继续扫描
+            log.info("快照输出中断: userId={}, reason={}", userId, ex.getCause().getMessage());
+            throw ex.getCause();
+        }
+
+        Map<String, Object> end = new LinkedHashMap<>();
+        end.put("kind", "end");
+        end.put("count", count);
+        writeLine(out, end);
+        out.flush();
+        log.info("快照输出完成: userId={}, entries={}, cursor={}", userId, count, cursor);
+    }
+
+    private void writeLine(OutputStream out, Object value) throws IOException {
+        out.write(writer.writeValueAsBytes(value));
+        out.write('\n');
+    }
+}
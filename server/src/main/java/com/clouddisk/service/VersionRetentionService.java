@@ -0,0 +1,229 @@
+package com.clouddisk.service;
+
+import com.clouddisk.config.VersionRetentionProperties;
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.entity.FileVersion;
+import com.clouddisk.repository.FileRepository;
+import com.clouddisk.repository.FileVersionRepository;
+import com.clouddisk.storage.StorageService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 历史版本保留：按策略保留最近 N 个版本、删除超过保留天数的版本，并逐级稀疏化(每小时、每天、每周各留一个)。
+ * 定时任务按文件ID键集分批扫描版本数超过阈值的文件，每批一个事务，释放的块引用交给孤儿块回收任务处理。
+ */
+@Service
+@Slf4j
+public class VersionRetentionService {
+
+    static final int BATCH_SIZE = 500;
+
+    private static final Pageable BATCH = PageRequest.of(0, BATCH_SIZE);
+
+    private final FileRepository fileRepository;
+    private final FileVersionRepository fileVersionRepository;
+    private final ChunkService chunkService;
+    private final StorageService storageService;
+    private final VersionRetentionProperties properties;
+    private final TransactionTemplate transactionTemplate;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    /**
+     * 下次执行的起始文件ID，单次未扫描完时从这里继续。
+     */
+    private volatile String resumeAfter = "";
+
+    public VersionRetentionService(FileRepository fileRepository,
+                                   FileVersionRepository fileVersionRepository,
+                                   ChunkService chunkService,
+                                   StorageService storageService,
+                                   VersionRetentionProperties properties,
+                                   PlatformTransactionManager transactionManager) {
+        this.fileRepository = fileRepository;
+        this.fileVersionRepository = fileVersionRepository;
+        this.chunkService = chunkService;
+        this.storageService = storageService;
+        this.properties = properties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 按保留策略清理历史版本。
+     */
+    @Scheduled(cron = "${app.version-retention.prune-cron:0 15 4 * * *}")
+    public void pruneVersions() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long minCount = minKeepLast();
+        int pruned = 0;
+        for (int batch = 0; batch < properties.getMaxBatchesPerRun(); batch++) {
+            String after = resumeAfter;
+            BatchResult result = transactionTemplate.execute(status -> pruneBatch(after, minCount, Instant.now()));
+            if (result == null || result.lastFileId() == null) {
+                resumeAfter = "";
+                break;
+            }
+            resumeAfter = result.lastFileId();
+            pruned += result.prunedVersions();
+            deleteObjects(result.unreferencedKeys());
+        }
+        if (pruned > 0) {
+            log.info("历史版本清理: prunedVersions={}, resumeAfter={}", pruned, resumeAfter);
+        }
+    }
+
+    private BatchResult pruneBatch(String afterFileId, long minCount, Instant now) {
+        List<String> fileIds = fileVersionRepository.findFileIdsWithMoreVersionsThan(afterFileId, minCount, BATCH);
+        if (fileIds.isEmpty()) {
+            return new BatchResult(null, 0, Set.of());
+        }
+        Map<String, FileEntity> files = fileRepository.findAllById(fileIds).stream()
+                .collect(Collectors.toMap(FileEntity::getFileId, Function.identity()));
+        Map<String, List<FileVersion>> versionsByFile = fileVersionRepository
+                .findByFileIdInOrderByFileIdAscVersionNumberDesc(fileIds).stream()
+                .collect(Collectors.groupingBy(FileVersion::getFileId, LinkedHashMap::new, Collectors.toList()));
+
+        int pruned = 0;
+        Set<String> legacyKeys = new HashSet<>();
+        for (Map.Entry<String, List<FileVersion>> entry : versionsByFile.entrySet()) {
+            FileEntity file = files.get(entry.getKey());
+            // 文件已不存在时其版本记录没有保留价值
+            Set<Integer> prunable = file == null
+                    ? entry.getValue().stream().map(FileVersion::getVersionNumber).collect(Collectors.toSet())
+                    : selectPrunable(entry.getValue(), file.getVersion(), policyFor(file), now);
+            if (prunable.isEmpty()) {
+                continue;
+            }
+            chunkService.releaseVersionChunks(entry.getKey(), prunable);
+            fileVersionRepository.deleteByFileIdAndVersionNumberIn(entry.getKey(), prunable);
+            for (FileVersion version : entry.getValue()) {
+                if (prunable.contains(version.getVersionNumber()) && isLegacyKey(version.getStorageKey())) {
+                    legacyKeys.add(version.getStorageKey());
+                }
+            }
+            pruned += prunable.size();
+        }
+        return new BatchResult(fileIds.get(fileIds.size() - 1), pruned, unreferenced(legacyKeys));
+    }
+
+    /**
+     * 选出应删除的版本号。当前版本与最近 keepLast 个版本始终保留；
+     * 其余版本超过 maxAgeDays 的删除，开启稀疏化时每个时间桶只保留最新的一个。
+     *
+     * @param versions 版本号倒序排列的版本记录
+     */
+    static Set<Integer> selectPrunable(List<FileVersion> versions, Integer currentVersion,
+                                       VersionRetentionProperties.Policy policy, Instant now) {
+        Set<Integer> prunable = new TreeSet<>();
+        Set<String> occupiedBuckets = new HashSet<>();
+        for (int i = 0; i < versions.size(); i++) {
+            FileVersion version = versions.get(i);
+            Duration age = Duration.between(version.getCreatedAt(), now);
+            String bucket = bucketOf(version.getCreatedAt(), age, policy);
+            boolean pinned = i < policy.getKeepLast() || version.getVersionNumber() == currentVersion;
+            if (pinned) {
+                occupiedBuckets.add(bucket);
+                continue;
+            }
+            if (policy.getMaxAgeDays() > 0 && age.compareTo(Duration.ofDays(policy.getMaxAgeDays())) > 0) {
+                prunable.add(version.getVersionNumber());
+            } else if (policy.isThinning() && !occupiedBuckets.add(bucket)) {
+                prunable.add(version.getVersionNumber());
+            }
+        }
+        return prunable;
+    }
+
+    /**
+     * 版本所属的稀疏化时间桶：小时窗内按小时，天窗内按天，更早的按周。
+     */
+    private static String bucketOf(Instant createdAt, Duration age, VersionRetentionProperties.Policy policy) {
+        long epochSeconds = createdAt.getEpochSecond();
+        if (age.compareTo(Duration.ofHours(policy.getHourlyHours())) < 0) {
+            return "h" + Math.floorDiv(epochSeconds, 3600L);
+        }
+        if (age.compareTo(Duration.ofDays(policy.getDailyDays())) < 0) {
+            return "d" + Math.floorDiv(epochSeconds, 86400L);
+        }
+        return "w" + Math.floorDiv(epochSeconds, 7 * 86400L);
+    }
+
+    /**
+     * 文件适用的策略：按配置顺序取第一条用户与路径均匹配的规则，没有时使用默认策略。
+     * 回收站中的顶层条目按原路径匹配。
+     */
+    VersionRetentionProperties.Policy policyFor(FileEntity file) {
+        String path = file.getOriginalPath() != null
+                ? DirectoryTreeService.childPath(file.getOriginalPath(), file.getName())
+                : DirectoryTreeService.fullPath(file);
+        for (VersionRetentionProperties.Rule rule : properties.getRules()) {
+            boolean userMatches = !StringUtils.hasText(rule.getUserId()) || rule.getUserId().equals(file.getUserId());
+            boolean pathMatches = !StringUtils.hasText(rule.getPathPattern()) || pathMatcher.match(rule.getPathPattern(), path);
+            if (userMatches && pathMatches) {
+                return rule;
+            }
+        }
+        return properties.getDefaults();
+    }
+
+    /**
+     * 只有版本数超过所有策略中最小 keepLast 的文件才可能被清理。
+     */
+    private long minKeepLast() {
+        int min = properties.getDefaults().getKeepLast();
+        for (VersionRetentionProperties.Rule rule : properties.getRules()) {
+            min = Math.min(min, rule.getKeepLast());
+        }
+        // 当前版本总是保留，至少需要两个版本才有可清理的
+        return Math.max(1, min);
+    }
+
+    private Set<String> unreferenced(Set<String> storageKeys) {
+        if (storageKeys.isEmpty()) {
+            return Set.of();
+        }
+        Set<String> unreferenced = new HashSet<>(storageKeys);
+        List<String> keys = new ArrayList<>(storageKeys);
+        unreferenced.removeAll(fileRepository.findStorageKeysInUse(keys));
+        unreferenced.removeAll(fileVersionRepository.findStorageKeysInUse(keys));
+        return unreferenced;
+    }
+
+    private void deleteObjects(Set<String> storageKeys) {
+        for (String storageKey : storageKeys) {
+            try {
+                storageService.deleteFile(storageKey);
+            } catch (RuntimeException ex) {
+                log.warn("删除历史版本存储对象失败: storageKey={}, reason={}", storageKey, ex.getMessage());
+            }
+        }
+    }
+
+    private static boolean isLegacyKey(String storageKey) {
+        return storageKey != null && !"chunked".equals(storageKey);
+    }
+
+    private record BatchResult(String lastFileId, int prunedVersions, Set<String> unreferencedKeys) {
+    }
+}
@@ -0,0 +1,110 @@
+package com.clouddisk.storage;
+
+import com.clouddisk.config.ChunkEncryptionProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 块级收敛加密。每个块的 AES-256 密钥与 96 位 IV 由租户密钥对块明文哈希做 HMAC-SHA256 派生，
+ * 同一密钥下相同内容得到相同密文，块去重不受影响；每个派生密钥只对应一份明文，固定 IV 不会在不同明文间复用。
+ * 使用 JCE 的 AES/GCM/NoPadding，HotSpot 上由 AES-NI 与 CLMUL 内建指令加速。
+ */
+@Component
+public class ChunkCipher {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String KDF = "HmacSHA256";
+    private static final int TAG_BITS = 128;
+    private static final int IV_BYTES = 12;
+    private static final int MIN_SECRET_BYTES = 32;
+
+    private final Map<String, byte[]> secrets;
+    private final String activeKeyId;
+
+    public ChunkCipher(ChunkEncryptionProperties properties) {
+        Map<String, byte[]> decoded = new HashMap<>();
+        properties.getKeys().forEach((keyId, secret) -> decoded.put(keyId, decodeSecret(keyId, secret)));
+        this.secrets = Map.copyOf(decoded);
+        if (properties.isEnabled()) {
+            if (!StringUtils.hasText(properties.getActiveKeyId()) || !secrets.containsKey(properties.getActiveKeyId())) {
+                throw new IllegalStateException("块加密已开启，但 activeKeyId 未配置或不在 keys 中");
+            }
+            this.activeKeyId = properties.getActiveKeyId();
+        } else {
+            this.activeKeyId = null;
+        }
+    }
+
+    /**
+     * 新块使用的密钥ID，未开启加密时为 null。
+     */
+    public String activeKeyId() {
+        return activeKeyId;
+    }
+
+    /**
+     * 加密块数据，结果为密文加 16 字节认证标签。
+     */
+    public byte[] encrypt(String keyId, String chunkHash, byte[] data) {
+        try {
+            return cipher(Cipher.ENCRYPT_MODE, keyId, chunkHash).doFinal(data);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("块加密失败: keyId=" + keyId, ex);
+        }
+    }
+
+    /**
+     * 流式解密。GCM 在读到末尾时校验认证标签，校验失败时 read 抛出 IOException，
+     * 未通过校验的明文不会交给调用方，缓冲上限为单个块大小。
+     */
+    public InputStream decrypt(String keyId, String chunkHash, InputStream in) throws IOException {
+        try {
+            return new CipherInputStream(in, cipher(Cipher.DECRYPT_MODE, keyId, chunkHash));
+        } catch (GeneralSecurityException ex) {
+            in.close();
+            throw new IOException("块解密初始化失败: keyId=" + keyId, ex);
+        }
+    }
+
+    private Cipher cipher(int mode, String keyId, String chunkHash) throws GeneralSecurityException {
+        byte[] secret = secrets.get(keyId);
+        if (secret == null) {
+            throw new GeneralSecurityException("未知的块密钥ID: " + keyId);
+        }
+        Mac mac = Mac.getInstance(KDF);
+        mac.init(new SecretKeySpec(secret, KDF));
+        byte[] key = mac.doFinal(("chunk-key:" + chunkHash).getBytes(StandardCharsets.UTF_8));
+        byte[] iv = Arrays.copyOf(mac.doFinal(("chunk-iv:" + chunkHash).getBytes(StandardCharsets.UTF_8)), IV_BYTES);
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(mode, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_BITS, iv));
+        return cipher;
+    }
+
+    private static byte[] decodeSecret(String keyId, String secret) {
+        byte[] decoded;
+        try {
+            decoded = Base64.getDecoder().decode(secret == null ? "" : secret.trim());
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException("块密钥不是有效的 Base64: keyId=" + keyId, ex);
+        }
+        if (decoded.length < MIN_SECRET_BYTES) {
+            throw new IllegalStateException("块密钥长度不足 " + MIN_SECRET_BYTES + " 字节: keyId=" + keyId);
+        }
+        return decoded;
+    }
+}
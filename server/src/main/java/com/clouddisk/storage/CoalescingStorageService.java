@@ -0,0 +1,71 @@
+package com.clouddisk.storage;
+
+import com.clouddisk.concurrent.SingleFlight;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * 合并并发读取的存储装饰器。
+ * 同一块对象的并发下载只向底层存储发起一次请求，结果在内存中分发给所有调用方。
+ * 仅对块对象(chunks/ 前缀，单个不超过 4MB)生效，旧格式整文件仍按流式透传。
+ */
+public class CoalescingStorageService implements StorageService {
+
+    static final String CHUNK_KEY_PREFIX = "chunks/";
+
+    private final StorageService delegate;
+    private final SingleFlight<String, byte[]> loads = new SingleFlight<>();
+
+    public CoalescingStorageService(StorageService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String storeFile(MultipartFile file, String keyPrefix, boolean compress) {
+        return delegate.storeFile(file, keyPrefix, compress);
+    }
+
+    @Override
+    public String storeBytes(byte[] data, String keyPrefix, String filename, boolean alreadyCompressed) {
+        return delegate.storeBytes(data, keyPrefix, filename, alreadyCompressed);
+    }
+
+    @Override
+    public InputStream loadFile(String storageKey, boolean decompress) {
+        if (storageKey == null || !storageKey.startsWith(CHUNK_KEY_PREFIX)) {
+            return delegate.loadFile(storageKey, decompress);
+        }
+        byte[] data = loads.execute(storageKey + "#" + decompress, () -> {
+            try (InputStream in = delegate.loadFile(storageKey, decompress)) {
+                return in.readAllBytes();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("读取块数据失败: " + storageKey, ex);
+            }
+        });
+        return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public void deleteFile(String storageKey) {
+        delegate.deleteFile(storageKey);
+    }
+
+    @Override
+    public boolean exists(String storageKey) {
+        return delegate.exists(storageKey);
+    }
+
+    @Override
+    public void ensureBucket() {
+        delegate.ensureBucket();
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return delegate.isHealthy();
+    }
+}
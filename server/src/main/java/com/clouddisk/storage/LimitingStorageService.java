@@ -0,0 +1,86 @@
+package com.clouddisk.storage;
+
+import com.clouddisk.concurrent.AdaptiveConcurrencyLimiter;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.InputStream;
+import java.util.function.Supplier;
+
+/**
+ * 对底层存储调用做自适应并发限制的装饰器。
+ * 读(下载、存在性检查)与写(上传、删除)分别走独立的通道，互不挤占；
+ * 存储变慢时并发上限自动收缩，多余请求在队列中等待至截止时间后快速失败，
+ * 避免大量请求线程堆积在存储调用上拖垮整个服务。
+ * 下载的许可在拿到响应流时即归还，流的消费速度取决于客户端，不计入存储延迟。
+ * 只有网络、超时与服务端错误按拥塞处理，对象不存在等调用方错误既不收缩上限也不作为延迟样本。
+ */
+public class LimitingStorageService implements StorageService {
+
+    private final StorageService delegate;
+    private final AdaptiveConcurrencyLimiter readLimiter;
+    private final AdaptiveConcurrencyLimiter writeLimiter;
+
+    public LimitingStorageService(StorageService delegate,
+                                  AdaptiveConcurrencyLimiter readLimiter,
+                                  AdaptiveConcurrencyLimiter writeLimiter) {
+        this.delegate = delegate;
+        this.readLimiter = readLimiter;
+        this.writeLimiter = writeLimiter;
+    }
+
+    @Override
+    public String storeFile(MultipartFile file, String keyPrefix, boolean compress) {
+        return call(writeLimiter, () -> delegate.storeFile(file, keyPrefix, compress));
+    }
+
+    @Override
+    public String storeBytes(byte[] data, String keyPrefix, String filename, boolean alreadyCompressed) {
+        return call(writeLimiter, () -> delegate.storeBytes(data, keyPrefix, filename, alreadyCompressed));
+    }
+
+    @Override
+    public InputStream loadFile(String storageKey, boolean decompress) {
+        return call(readLimiter, () -> delegate.loadFile(storageKey, decompress));
+    }
+
+    @Override
+    public void deleteFile(String storageKey) {
+        call(writeLimiter, () -> {
+            delegate.deleteFile(storageKey);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean exists(String storageKey) {
+        return call(readLimiter, () -> delegate.exists(storageKey));
+    }
+
+    @Override
+    public void ensureBucket() {
+        delegate.ensureBucket();
+    }
+
+    @Override
+    public boolean isHealthy() {
+        // 健康检查不受限流影响，便于在存储拥塞时仍能如实上报
+        return delegate.isHealthy();
+    }
+
+    private <T> T call(AdaptiveConcurrencyLimiter limiter, Supplier<T> operation) {
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+        try {
+            T result = operation.get();
+            permit.onSuccess();
+            return result;
+        } catch (RuntimeException | Error ex) {
+            // 只有超时与服务端错误是拥塞信号，对象不存在等调用方错误不影响并发上限
+            if (StorageFailures.isTransient(ex)) {
+                permit.onFailure();
+            } else {
+                permit.onIgnored();
+            }
+            throw ex;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.clouddisk.storage;
 
 import com.aliyun.oss.OSS;
+import com.aliyun.oss.OSSErrorCode;
 import com.aliyun.oss.OSSException;
 import com.aliyun.oss.model.OSSObject;
 import com.aliyun.oss.model.PutObjectRequest;
 import com.clouddisk.config.OssProperties;
+import com.clouddisk.exception.StorageObjectNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -86,6 +88,10 @@ public class OssStorageService implements StorageService {
             
             return inputStream;
         } catch (OSSException e) {
+            if (OSSErrorCode.NO_SUCH_KEY.equals(e.getErrorCode())) {
+                log.warn("File not found: {}", storageKey);
+                throw new StorageObjectNotFoundException(storageKey, e);
+            }
             log.error("Failed to load file: {}", storageKey, e);
             throw new RuntimeException("OSS 文件加载失败", e);
         } catch (IOException e) {
@@ -0,0 +1,498 @@
+package com.clouddisk.storage;
+
+import com.clouddisk.concurrent.CircuitBreaker;
+import com.clouddisk.exception.ServerBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 存储容错装饰器：对冲读取 + 熔断 + 本地块缓存兜底。
+ * <ul>
+ *   <li>块对象读取超过近期 p95 延迟仍未返回时，再发起一次相同的读取，取先成功者；
+ *       对冲次数受预算比例限制，整体额外负载约为请求量的 5%~10%。
+ *       主读取在调用线程上执行，只有对冲请求提交到对冲线程池。</li>
+ *   <li>读、写各自一个熔断器，连续失败达到阈值后熔断，熔断期间调用立即失败而不再等待超时。
+ *       只有网络、超时与服务端错误计入失败，对象不存在等调用方错误不影响熔断状态。</li>
+ *   <li>块对象内容按哈希寻址、不可变，最近读取过的块保存在有界内存缓存中，
+ *       熔断或读取失败时优先从缓存返回。</li>
+ * </ul>
+ * 旧格式整文件按流式透传，只受熔断保护。
+ */
+@Slf4j
+public class ResilientStorageService implements StorageService {
+
+    /**
+     * 样本不足时不做对冲。
+     */
+    private static final int MIN_SAMPLES = 50;
+
+    /**
+     * 对冲令牌上限，用于吸收突发。
+     */
+    private static final double MAX_HEDGE_TOKENS = 10;
+
+    private final StorageService delegate;
+    private final CircuitBreaker readBreaker;
+    private final CircuitBreaker writeBreaker;
+    private final ExecutorService hedgeExecutor;
+    private final ScheduledExecutorService hedgeTimer;
+    private final LatencyWindow latencies = new LatencyWindow(1024);
+    private final ChunkCache fallbackCache;
+    private final boolean hedgeEnabled;
+    private final double hedgePercentile;
+    private final long hedgeMinDelayMillis;
+    private final double hedgeBudgetRatio;
+
+    private double hedgeTokens;
+    private final Counter hedgesIssued;
+    private final Counter hedgesWon;
+    private final Counter fallbackHits;
+
+    public ResilientStorageService(StorageService delegate, Settings settings, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.readBreaker = new CircuitBreaker("storage-read", settings.failureThreshold(), settings.openDurationMillis());
+        this.writeBreaker = new CircuitBreaker("storage-write", settings.failureThreshold(), settings.openDurationMillis());
+        this.fallbackCache = new ChunkCache(settings.fallbackCacheBytes());
+        this.hedgeEnabled = settings.hedgeEnabled();
+        this.hedgePercentile = settings.hedgePercentile();
+        this.hedgeMinDelayMillis = settings.hedgeMinDelayMillis();
+        this.hedgeBudgetRatio = settings.hedgeBudgetRatio();
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.hedgeExecutor = new ThreadPoolExecutor(0, Math.max(2, settings.hedgeThreads()),
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "storage-hedge-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "storage-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 绝大多数读取在对冲延迟内完成，取消的定时任务立即移出队列
+        timer.setRemoveOnCancelPolicy(true);
+        this.hedgeTimer = timer;
+
+        this.hedgesIssued = Counter.builder("storage.hedge.issued").register(meterRegistry);
+        this.hedgesWon = Counter.builder("storage.hedge.won").register(meterRegistry);
+        this.fallbackHits = Counter.builder("storage.fallback.hits").register(meterRegistry);
+        registerBreakerGauge(meterRegistry, "read", readBreaker);
+        registerBreakerGauge(meterRegistry, "write", writeBreaker);
+    }
+
+    private static void registerBreakerGauge(MeterRegistry meterRegistry, String lane, CircuitBreaker breaker) {
+        Gauge.builder("storage.breaker.open", breaker,
+                        b -> b.getState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .tag("lane", lane)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String storeFile(MultipartFile file, String keyPrefix, boolean compress) {
+        return guarded(writeBreaker, () -> delegate.storeFile(file, keyPrefix, compress));
+    }
+
+    @Override
+    public String storeBytes(byte[] data, String keyPrefix, String filename, boolean alreadyCompressed) {
+        return guarded(writeBreaker, () -> delegate.storeBytes(data, keyPrefix, filename, alreadyCompressed));
+    }
+
+    @Override
+    public InputStream loadFile(String storageKey, boolean decompress) {
+        if (storageKey == null || !storageKey.startsWith(CoalescingStorageService.CHUNK_KEY_PREFIX)) {
+            return guarded(readBreaker, () -> delegate.loadFile(storageKey, decompress));
+        }
+        String cacheKey = storageKey + "#" + decompress;
+        if (!readBreaker.tryAcquire()) {
+            byte[] cached = fallbackCache.get(cacheKey);
+            if (cached != null) {
+                fallbackHits.increment();
+                return new ByteArrayInputStream(cached);
+            }
+            throw unavailable(readBreaker);
+        }
+        byte[] data;
+        try {
+            data = hedgedFetch(storageKey, decompress);
+        } catch (RuntimeException ex) {
+            if (!StorageFailures.isTransient(ex)) {
+                // 对象不存在、本地限流等不是存储故障，既不计入熔断也不用缓存掩盖
+                readBreaker.onIgnored();
+                throw ex;
+            }
+            readBreaker.onFailure();
+            byte[] cached = fallbackCache.get(cacheKey);
+            if (cached != null) {
+                fallbackHits.increment();
+                log.warn("块读取失败，使用本地缓存兜底: {}", storageKey);
+                return new ByteArrayInputStream(cached);
+            }
+            throw ex;
+        }
+        readBreaker.onSuccess();
+        fallbackCache.put(cacheKey, data);
+        return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public void deleteFile(String storageKey) {
+        guarded(writeBreaker, () -> {
+            delegate.deleteFile(storageKey);
+            return null;
+        });
+        if (storageKey != null && storageKey.startsWith(CoalescingStorageService.CHUNK_KEY_PREFIX)) {
+            fallbackCache.remove(storageKey + "#true");
+            fallbackCache.remove(storageKey + "#false");
+        }
+    }
+
+    @Override
+    public boolean exists(String storageKey) {
+        return guarded(readBreaker, () -> delegate.exists(storageKey));
+    }
+
+    @Override
+    public void ensureBucket() {
+        delegate.ensureBucket();
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return delegate.isHealthy();
+    }
+
+    private <T> T guarded(CircuitBreaker breaker, Supplier<T> operation) {
+        if (!breaker.tryAcquire()) {
+            throw unavailable(breaker);
+        }
+        try {
+            T result = operation.get();
+            breaker.onSuccess();
+            return result;
+        } catch (RuntimeException ex) {
+            if (StorageFailures.isTransient(ex)) {
+                breaker.onFailure();
+            } else {
+                breaker.onIgnored();
+            }
+            throw ex;
+        }
+    }
+
+    private static ServerBusyException unavailable(CircuitBreaker breaker) {
+        int retryAfter = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(breaker.remainingOpenMillis()));
+        return new ServerBusyException("存储服务暂不可用，请稍后重试", retryAfter);
+    }
+
+    private byte[] hedgedFetch(String storageKey, boolean decompress) {
+        accrueHedgeBudget();
+        long hedgeDelay = hedgeDelayMillis();
+        if (hedgeDelay < 0) {
+            return fetch(storageKey, decompress, in -> {
+            });
+        }
+        HedgedRead read = new HedgedRead(storageKey, decompress);
+        ScheduledFuture<?> timer;
+        try {
+            timer = hedgeTimer.schedule(read::startHedge, hedgeDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            return fetch(storageKey, decompress, in -> {
+            });
+        }
+        try {
+            return read.runPrimary();
+        } finally {
+            timer.cancel(false);
+        }
+    }
+
+    /**
+     * 读取完整块内容并记录延迟。{@code onOpen} 在拿到响应流后回调，供对冲获胜时提前关闭。
+     */
+    private byte[] fetch(String storageKey, boolean decompress, Consumer<InputStream> onOpen) {
+        long start = System.nanoTime();
+        try (InputStream in = delegate.loadFile(storageKey, decompress)) {
+            onOpen.accept(in);
+            byte[] data = in.readAllBytes();
+            latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return data;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("读取块数据失败: " + storageKey, ex);
+        }
+    }
+
+    /**
+     * 当前对冲等待时长：样本不足或未启用时返回 -1。
+     */
+    private long hedgeDelayMillis() {
+        if (!hedgeEnabled) {
+            return -1;
+        }
+        long percentile = latencies.percentile(hedgePercentile, MIN_SAMPLES);
+        if (percentile < 0) {
+            return -1;
+        }
+        return Math.max(hedgeMinDelayMillis, percentile);
+    }
+
+    /**
+     * 对冲预算：每次读取积累 ratio 个令牌，每次对冲消耗一个，上限 10 个以吸收突发。
+     */
+    private synchronized void accrueHedgeBudget() {
+        hedgeTokens = Math.min(MAX_HEDGE_TOKENS, hedgeTokens + hedgeBudgetRatio);
+    }
+
+    private synchronized boolean takeHedgeToken() {
+        if (hedgeTokens >= 1) {
+            hedgeTokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 对冲请求未能提交时退还令牌。
+     */
+    private synchronized void refundHedgeToken() {
+        hedgeTokens = Math.min(MAX_HEDGE_TOKENS, hedgeTokens + 1);
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException | RuntimeException ex) {
+            log.debug("关闭块读取流失败", ex);
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * 一次可对冲的块读取。主读取在调用线程上执行；定时器到期且主读取未结束时，
+     * 按预算向对冲线程池提交一次相同的读取。先成功者完成结果，对冲获胜时关闭主读取的响应流，
+     * 使调用线程尽快返回；两次都失败时以后失败者的异常结束。
+     */
+    private final class HedgedRead {
+        private final String storageKey;
+        private final boolean decompress;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private InputStream primaryStream;
+        private boolean primaryDone;
+        private boolean hedgeStarted;
+        private boolean hedgeFailed;
+
+        HedgedRead(String storageKey, boolean decompress) {
+            this.storageKey = storageKey;
+            this.decompress = decompress;
+        }
+
+        byte[] runPrimary() {
+            try {
+                byte[] data = fetch(storageKey, decompress, this::attachPrimary);
+                synchronized (this) {
+                    primaryDone = true;
+                }
+                result.complete(data);
+            } catch (RuntimeException | Error ex) {
+                synchronized (this) {
+                    primaryDone = true;
+                    if (!hedgeStarted || hedgeFailed) {
+                        result.completeExceptionally(ex);
+                    }
+                }
+            }
+            try {
+                return result.join();
+            } catch (CompletionException ex) {
+                throw unwrap(ex.getCause());
+            }
+        }
+
+        /**
+         * 定时器线程回调：主读取仍未结束时发起对冲。
+         */
+        void startHedge() {
+            synchronized (this) {
+                if (primaryDone || result.isDone() || !takeHedgeToken()) {
+                    return;
+                }
+                try {
+                    hedgeExecutor.execute(this::runHedge);
+                } catch (RejectedExecutionException ex) {
+                    // 对冲线程池已满，只等待主读取
+                    refundHedgeToken();
+                    return;
+                }
+                hedgeStarted = true;
+            }
+            hedgesIssued.increment();
+        }
+
+        private void runHedge() {
+            byte[] data;
+            try {
+                data = fetch(storageKey, decompress, in -> {
+                });
+            } catch (RuntimeException | Error ex) {
+                synchronized (this) {
+                    hedgeFailed = true;
+                    if (primaryDone) {
+                        result.completeExceptionally(ex);
+                    }
+                }
+                return;
+            }
+            if (result.complete(data)) {
+                hedgesWon.increment();
+                InputStream stream;
+                synchronized (this) {
+                    stream = primaryStream;
+                }
+                if (stream != null) {
+                    closeQuietly(stream);
+                }
+            }
+        }
+
+        private void attachPrimary(InputStream in) {
+            synchronized (this) {
+                if (!result.isDone()) {
+                    primaryStream = in;
+                    return;
+                }
+            }
+            // 对冲已先返回，放弃主读取
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 容错参数。
+     */
+    public record Settings(boolean hedgeEnabled,
+                           double hedgePercentile,
+                           long hedgeMinDelayMillis,
+                           double hedgeBudgetRatio,
+                           int hedgeThreads,
+                           int failureThreshold,
+                           long openDurationMillis,
+                           long fallbackCacheBytes) {
+    }
+
+    /**
+     * 最近 N 次读取延迟的环形窗口，用于估算分位数。
+     */
+    private static final class LatencyWindow {
+        private final long[] samples;
+        private int next;
+        private int count;
+        private long cachedPercentile = -1;
+        private int samplesSinceRefresh;
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            samplesSinceRefresh++;
+        }
+
+        /**
+         * 每累积 64 个新样本重新排序计算一次，其余时间返回缓存值。
+         */
+        synchronized long percentile(double quantile, int minSamples) {
+            if (count < minSamples) {
+                return -1;
+            }
+            if (cachedPercentile < 0 || samplesSinceRefresh >= 64) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                int index = (int) Math.min(count - 1, Math.ceil(quantile * count) - 1);
+                cachedPercentile = sorted[Math.max(0, index)];
+                samplesSinceRefresh = 0;
+            }
+            return cachedPercentile;
+        }
+    }
+
+    /**
+     * 按字节数限定容量的 LRU 块缓存。
+     */
+    private static final class ChunkCache {
+        private final long capacityBytes;
+        private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long sizeBytes;
+
+        ChunkCache(long capacityBytes) {
+            this.capacityBytes = capacityBytes;
+        }
+
+        synchronized byte[] get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, byte[] data) {
+            if (data.length > capacityBytes) {
+                return;
+            }
+            byte[] previous = entries.put(key, data);
+            if (previous != null) {
+                sizeBytes -= previous.length;
+            }
+            sizeBytes += data.length;
+            var iterator = entries.entrySet().iterator();
+            while (sizeBytes > capacityBytes && iterator.hasNext()) {
+                Map.Entry<String, byte[]> eldest = iterator.next();
+                sizeBytes -= eldest.getValue().length;
+                iterator.remove();
+            }
+        }
+
+        synchronized void remove(String key) {
+            byte[] previous = entries.remove(key);
+            if (previous != null) {
+                sizeBytes -= previous.length;
+            }
+        }
+    }
+}
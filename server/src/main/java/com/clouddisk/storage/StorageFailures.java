@@ -0,0 +1,57 @@
+package com.clouddisk.storage;
+
+import com.aliyun.oss.ClientErrorCode;
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.clouddisk.exception.BusinessException;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.ZipException;
+
+/**
+ * 存储异常分类：只有网络、超时与服务端(5xx)错误说明存储拥塞或不可用，
+ * 对象不存在、参数错误、权限错误等调用方错误不应收缩并发上限或触发熔断。
+ */
+final class StorageFailures {
+
+    /**
+     * OSS 服务端错误码，对应 5xx 与服务端限流。
+     */
+    private static final Set<String> SERVER_ERROR_CODES = Set.of(
+            OSSErrorCode.INTERNAL_ERROR, OSSErrorCode.REQUEST_TIMEOUT, "ServiceUnavailable", "SlowDown");
+
+    private StorageFailures() {
+    }
+
+    /**
+     * 沿异常链判断是否为网络、超时或服务端错误。
+     */
+    static boolean isTransient(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof BusinessException) {
+                // 对象不存在与本地限流拒绝等业务异常都不是下游故障
+                return false;
+            }
+            if (current instanceof OSSException oss) {
+                return oss.getErrorCode() == null || SERVER_ERROR_CODES.contains(oss.getErrorCode());
+            }
+            if (current instanceof ClientException client) {
+                return !ClientErrorCode.NONREPEATABLE_REQUEST.equals(client.getErrorCode());
+            }
+            if (current instanceof ZipException) {
+                // 内容损坏，重试也不会恢复
+                return false;
+            }
+            if (current instanceof IOException || current instanceof TimeoutException) {
+                return true;
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return false;
+    }
+}
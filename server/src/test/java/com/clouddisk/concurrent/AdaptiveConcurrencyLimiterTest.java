@@ -0,0 +1,151 @@
+package com.clouddisk.concurrent;
+
+import com.clouddisk.exception.ServerBusyException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AdaptiveConcurrencyLimiter 单元测试
+ * 测试 AIMD 增长与收缩、调用方错误不计入拥塞以及排队截止时间
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void limitShouldGrowWhileLatencyStaysFlatUnderLoad() {
+        AdaptiveConcurrencyLimiter limiter = limiter(4, 50);
+
+        for (int i = 0; i < 20; i++) {
+            completeWithConcurrentPeer(limiter, RTT_NANOS);
+        }
+
+        assertTrue(limiter.getLimit() > 4, "limit=" + limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void limitShouldNotGrowWhenMostlyIdle() {
+        AdaptiveConcurrencyLimiter limiter = limiter(8, 50);
+
+        for (int i = 0; i < 20; i++) {
+            complete(limiter.acquire(), RTT_NANOS);
+        }
+
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    void limitShouldShrinkOnLatencySpike() {
+        AdaptiveConcurrencyLimiter limiter = limiter(8, 50);
+        for (int i = 0; i < 10; i++) {
+            complete(limiter.acquire(), RTT_NANOS);
+        }
+
+        complete(limiter.acquire(), RTT_NANOS * 10);
+
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void limitShouldShrinkOnFailureButNotBelowMinimum() {
+        AdaptiveConcurrencyLimiter limiter = limiter(8, 50);
+
+        limiter.acquire().onFailure();
+        assertEquals(4, limiter.getLimit());
+
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire().onFailure();
+        }
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void ignoredOutcomeShouldReleaseWithoutSamplingOrShrinking() {
+        AdaptiveConcurrencyLimiter limiter = limiter(8, 50);
+        for (int i = 0; i < 10; i++) {
+            complete(limiter.acquire(), RTT_NANOS);
+        }
+
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+        clock.addAndGet(RTT_NANOS * 100);
+        permit.onIgnored();
+        // 重复归还无效
+        permit.onFailure();
+
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+        complete(limiter.acquire(), RTT_NANOS);
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    void acquireShouldRejectWhenQueueDeadlinePasses() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                "test", 1, 1, 1, 1, 50, 0.5, 2.0, 3);
+        AdaptiveConcurrencyLimiter.Permit held = limiter.acquire();
+
+        long start = System.nanoTime();
+        ServerBusyException ex = assertThrows(ServerBusyException.class, limiter::acquire);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(3, ex.getRetryAfterSeconds());
+        assertEquals(0, limiter.getQueued());
+        held.onSuccess();
+    }
+
+    @Test
+    void acquireShouldRejectImmediatelyWhenQueueFull() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                "test", 1, 1, 1, 0, 10_000, 0.5, 2.0, 1);
+        limiter.acquire();
+
+        long start = System.nanoTime();
+        assertThrows(ServerBusyException.class, limiter::acquire);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    void queuedCallerShouldProceedOnceAPermitIsReleased() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                "test", 1, 1, 1, 1, 10_000, 0.5, 2.0, 1);
+        AdaptiveConcurrencyLimiter.Permit held = limiter.acquire();
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> waiter = CompletableFuture.supplyAsync(limiter::acquire);
+        while (limiter.getQueued() == 0) {
+            Thread.onSpinWait();
+        }
+        held.onSuccess();
+
+        AdaptiveConcurrencyLimiter.Permit next = waiter.get(5, TimeUnit.SECONDS);
+        assertEquals(1, limiter.getInFlight());
+        next.onSuccess();
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(int initialLimit, int maxLimit) {
+        return new AdaptiveConcurrencyLimiter("test", initialLimit, 2, maxLimit, 10, 100, 0.5, 2.0, 1, clock::get);
+    }
+
+    private void complete(AdaptiveConcurrencyLimiter.Permit permit, long rttNanos) {
+        clock.addAndGet(rttNanos);
+        permit.onSuccess();
+    }
+
+    /**
+     * 保持另一个调用进行中，使并发利用率达到增长条件。
+     */
+    private void completeWithConcurrentPeer(AdaptiveConcurrencyLimiter limiter, long rttNanos) {
+        AdaptiveConcurrencyLimiter.Permit peer = limiter.acquire();
+        complete(limiter.acquire(), rttNanos);
+        peer.onIgnored();
+    }
+}
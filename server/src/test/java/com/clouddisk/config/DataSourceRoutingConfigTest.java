@@ -0,0 +1,64 @@
+package com.clouddisk.config;
+
+import com.clouddisk.datasource.ReplicaRoutingDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * DataSourceRoutingConfig 装配测试
+ * 测试开关关闭时沿用默认数据源，开启时对外暴露延迟连接代理包裹的路由数据源
+ */
+class DataSourceRoutingConfigTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(DataSourceAutoConfiguration.class))
+            .withUserConfiguration(DataSourceRoutingConfig.class)
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withPropertyValues("spring.datasource.url=jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1");
+
+    @Test
+    void routingShouldBeDisabledByDefault() {
+        contextRunner.run(context -> {
+            assertTrue(context.getBeansOfType(ReplicaRoutingDataSource.class).isEmpty());
+            assertFalse(context.getBean(DataSource.class) instanceof LazyConnectionDataSourceProxy);
+        });
+    }
+
+    @Test
+    void enabledRoutingShouldExposeLazyProxyOverRoutingDataSource() {
+        contextRunner
+                .withPropertyValues(
+                        "app.datasource.routing.enabled=true",
+                        "app.datasource.routing.lag-query=SELECT 0",
+                        "app.datasource.routing.lag-check-interval-ms=50",
+                        "app.datasource.routing.replicas[0].url=jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1")
+                .run(context -> {
+                    DataSource dataSource = context.getBean(DataSource.class);
+                    assertInstanceOf(LazyConnectionDataSourceProxy.class, dataSource);
+                    assertInstanceOf(ReplicaRoutingDataSource.class,
+                            ((LazyConnectionDataSourceProxy) dataSource).getTargetDataSource());
+                    assertEquals(1, new JdbcTemplate(dataSource).queryForObject("SELECT 1", Integer.class));
+
+                    // 从库检测由数据源自己的线程发起，无需 @EnableScheduling
+                    Gauge available = context.getBean(MeterRegistry.class).get("datasource.replica.available")
+                            .tag("replica", "replica-1").gauge();
+                    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                    while (available.value() == 0 && System.nanoTime() < deadline) {
+                        Thread.sleep(10);
+                    }
+                    assertEquals(1, available.value());
+                });
+    }
+}
@@ -0,0 +1,89 @@
+package com.clouddisk.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 重复版本清理测试
+ * 测试保留最后写入的记录、清理后可建立唯一索引，以及表不存在或唯一索引已建立时跳过
+ */
+class VersionDedupeConfigTest {
+
+    private final JdbcTemplate jdbc = new JdbcTemplate(new DriverManagerDataSource(
+            "jdbc:h2:mem:version-dedupe-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1"));
+    private final VersionDedupeConfig.DuplicateVersionCleanup cleanup =
+            new VersionDedupeConfig.DuplicateVersionCleanup(jdbc);
+
+    @AfterEach
+    void tearDown() {
+        jdbc.execute("SHUTDOWN");
+    }
+
+    @Test
+    void shouldKeepLatestRowPerVersionNumber() {
+        createTable();
+        Instant now = Instant.now();
+        // version_id 为随机 UUID，最新写入的记录 id 反而较小
+        insert("ffff", "file-1", 2, "old-hash", now.minusSeconds(60));
+        insert("0000", "file-1", 2, "new-hash", now);
+        insert("aaaa", "file-1", 1, "v1-hash", now.minusSeconds(120));
+        insert("bbbb", "file-2", 2, "other-hash", now.minusSeconds(60));
+
+        assertEquals(1, cleanup.removeDuplicates());
+
+        assertEquals(List.of("new-hash"), jdbc.queryForList(
+                "SELECT content_hash FROM file_versions WHERE file_id = 'file-1' AND version_number = 2", String.class));
+        assertEquals(3, jdbc.queryForObject("SELECT COUNT(*) FROM file_versions", Integer.class));
+        jdbc.execute("CREATE UNIQUE INDEX idx_file_versions_file_version ON file_versions (file_id, version_number)");
+    }
+
+    @Test
+    void shouldKeepOneRowWhenTimestampsTie() {
+        createTable();
+        Instant now = Instant.now();
+        insert("aaaa", "file-1", 3, "hash", now);
+        insert("bbbb", "file-1", 3, "hash", now);
+
+        assertEquals(1, cleanup.removeDuplicates());
+        assertEquals(List.of("bbbb"), jdbc.queryForList("SELECT version_id FROM file_versions", String.class));
+    }
+
+    @Test
+    void shouldSkipDeleteOnceUniqueIndexExists() {
+        createTable();
+        // 索引名与实体定义一致即视为已完成清理；这里故意多带一列，使重复行仍能写入，以验证删除语句没有执行
+        jdbc.execute("CREATE UNIQUE INDEX idx_file_versions_file_version "
+                + "ON file_versions (file_id, version_number, created_at)");
+        Instant now = Instant.now();
+        insert("aaaa", "file-1", 2, "old-hash", now.minusSeconds(60));
+        insert("bbbb", "file-1", 2, "new-hash", now);
+
+        assertEquals(0, cleanup.removeDuplicates());
+        assertEquals(2, jdbc.queryForObject("SELECT COUNT(*) FROM file_versions", Integer.class));
+    }
+
+    @Test
+    void shouldSkipWhenTableDoesNotExist() {
+        assertEquals(0, cleanup.removeDuplicates());
+    }
+
+    private void createTable() {
+        jdbc.execute("CREATE TABLE file_versions (version_id VARCHAR(36) PRIMARY KEY, file_id VARCHAR(36) NOT NULL, "
+                + "version_number INT NOT NULL, storage_key VARCHAR(255) NOT NULL, file_size BIGINT NOT NULL, "
+                + "content_hash VARCHAR(255) NOT NULL, created_at TIMESTAMP NOT NULL)");
+    }
+
+    private void insert(String versionId, String fileId, int versionNumber, String hash, Instant createdAt) {
+        jdbc.update("INSERT INTO file_versions VALUES (?, ?, ?, 'chunked', 1, ?, ?)",
+                versionId, fileId, versionNumber, hash, Timestamp.from(createdAt));
+    }
+}
@@ -0,0 +1,231 @@
+package com.clouddisk.datasource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ReplicaRoutingDataSource 单元测试
+ * 使用两个 H2 内存库分别充当主库与从库，测试只读路由、写事务留在主库、从库延迟/不可达/检测过期时摘除
+ */
+class ReplicaRoutingDataSourceTest {
+
+    private static final String LAG_QUERY = "SELECT lag_ms FROM replica_lag";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    private JdbcTemplate primaryJdbc;
+    private JdbcTemplate replicaJdbc;
+    private ReplicaRoutingDataSource routingDataSource;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate readOnlyTransaction;
+    private TransactionTemplate writeTransaction;
+
+    @BeforeEach
+    void setUp() {
+        DataSource primary = database("primary");
+        DataSource replica = database("replica");
+        primaryJdbc = new JdbcTemplate(primary);
+        replicaJdbc = new JdbcTemplate(replica);
+        replicaJdbc.execute("CREATE TABLE replica_lag (lag_ms BIGINT)");
+        replicaJdbc.update("INSERT INTO replica_lag VALUES (0)");
+
+        routingDataSource = new ReplicaRoutingDataSource(primary, Map.of("replica-1", replica),
+                1000, 1000, 1000, LAG_QUERY, meterRegistry, clock::get);
+        routingDataSource.afterPropertiesSet();
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        jdbc = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        writeTransaction = new TransactionTemplate(transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReplicaRoutingContext.clear();
+        primaryJdbc.execute("SHUTDOWN");
+        replicaJdbc.execute("SHUTDOWN");
+    }
+
+    @Test
+    void allowedReadOnlyTransactionShouldUseReplica() {
+        routingDataSource.checkReplicas();
+        ReplicaRoutingContext.allowReplica();
+
+        assertEquals("replica", readOnly());
+        assertEquals(1, meterRegistry.counter("datasource.routing.reads", "target", "replica").count());
+    }
+
+    @Test
+    void readOnlyTransactionWithoutAllowFlagShouldStayOnPrimary() {
+        routingDataSource.checkReplicas();
+
+        assertEquals("primary", readOnly());
+        assertEquals(1, meterRegistry.counter("datasource.routing.reads", "target", "primary").count());
+    }
+
+    @Test
+    void writeTransactionShouldStayOnPrimaryEvenWhenAllowed() {
+        routingDataSource.checkReplicas();
+        ReplicaRoutingContext.allowReplica();
+
+        assertEquals("primary", writeTransaction.execute(status -> currentDatabase()));
+        // 事务外的调用同样走主库
+        assertEquals("primary", currentDatabase());
+    }
+
+    @Test
+    void replicaShouldNotReceiveReadsBeforeFirstCheck() {
+        ReplicaRoutingContext.allowReplica();
+
+        assertEquals("primary", readOnly());
+    }
+
+    @Test
+    void laggingReplicaShouldBeDroppedAndRestored() {
+        ReplicaRoutingContext.allowReplica();
+        replicaJdbc.update("UPDATE replica_lag SET lag_ms = 5000");
+
+        routingDataSource.checkReplicas();
+        assertEquals("primary", readOnly());
+        assertEquals(0, replicaGauge("available"));
+        assertEquals(5000, replicaGauge("lag"));
+
+        replicaJdbc.update("UPDATE replica_lag SET lag_ms = 10");
+        routingDataSource.checkReplicas();
+        assertEquals("replica", readOnly());
+        assertEquals(1, replicaGauge("available"));
+    }
+
+    @Test
+    void unreachableReplicaShouldFallBackToPrimary() {
+        ReplicaRoutingContext.allowReplica();
+        routingDataSource.checkReplicas();
+        assertEquals("replica", readOnly());
+
+        // 检测查询失败等同于从库不可达
+        replicaJdbc.execute("DROP TABLE replica_lag");
+        routingDataSource.checkReplicas();
+
+        assertEquals("primary", readOnly());
+        assertEquals(0, replicaGauge("available"));
+        assertEquals(-1, replicaGauge("lag"));
+    }
+
+    @Test
+    void replicaWithoutRecentSuccessfulCheckShouldBeDropped() {
+        ReplicaRoutingContext.allowReplica();
+        routingDataSource.checkReplicas();
+        clock.addAndGet(ReplicaRoutingDataSource.STALE_AFTER_CHECKS * 1000L);
+        assertEquals("replica", readOnly());
+
+        // 检测线程被阻塞时不再有成功检测，超过若干个周期后不再信任上一次的结果
+        clock.addAndGet(1);
+        assertEquals("primary", readOnly());
+        assertEquals(0, replicaGauge("available"));
+
+        routingDataSource.checkReplicas();
+        assertEquals("replica", readOnly());
+    }
+
+    @Test
+    void healthChecksShouldRunOnTheirOwnThread() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try (ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primaryJdbc.getDataSource(),
+                Map.of("replica-1", replicaJdbc.getDataSource()), 1000, 50, 1000, LAG_QUERY, registry)) {
+            routing.afterPropertiesSet();
+            routing.startHealthChecks();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (available(registry) == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, available(registry));
+        }
+    }
+
+    @Test
+    void replicaThatCannotConnectShouldBeSkipped() throws Exception {
+        DataSource unreachable = new DriverManagerDataSource("jdbc:h2:mem:missing-" + UUID.randomUUID() + ";IFEXISTS=TRUE");
+        DataSource primary = primaryJdbc.getDataSource();
+        try (ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primary,
+                Map.of("replica-1", unreachable), 1000, 1000, 1000, LAG_QUERY, new SimpleMeterRegistry(), clock::get)) {
+            routing.afterPropertiesSet();
+            routing.checkReplicas();
+            DataSource dataSource = new LazyConnectionDataSourceProxy(routing);
+            TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+            transaction.setReadOnly(true);
+            ReplicaRoutingContext.allowReplica();
+
+            assertEquals("primary", transaction.execute(status -> new JdbcTemplate(dataSource)
+                    .queryForObject("SELECT name FROM which_db", String.class)));
+        }
+    }
+
+    @Test
+    void readsShouldRotateAcrossAvailableReplicas() {
+        DataSource second = database("replica-2");
+        new JdbcTemplate(second).execute("CREATE TABLE replica_lag (lag_ms BIGINT)");
+        new JdbcTemplate(second).update("INSERT INTO replica_lag VALUES (0)");
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica-1", replicaJdbc.getDataSource());
+        replicas.put("replica-2", second);
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primaryJdbc.getDataSource(), replicas,
+                1000, 1000, 1000, LAG_QUERY, new SimpleMeterRegistry(), clock::get);
+        routing.afterPropertiesSet();
+        routing.checkReplicas();
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routing);
+        TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transaction.setReadOnly(true);
+        ReplicaRoutingContext.allowReplica();
+
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        String first = transaction.execute(status -> template.queryForObject("SELECT name FROM which_db", String.class));
+        String next = transaction.execute(status -> template.queryForObject("SELECT name FROM which_db", String.class));
+
+        assertNotEquals(first, next);
+        new JdbcTemplate(second).execute("SHUTDOWN");
+    }
+
+    private String readOnly() {
+        return readOnlyTransaction.execute(status -> currentDatabase());
+    }
+
+    private String currentDatabase() {
+        return jdbc.queryForObject("SELECT name FROM which_db", String.class);
+    }
+
+    private static double available(SimpleMeterRegistry registry) {
+        return registry.get("datasource.replica.available").tag("replica", "replica-1").gauge().value();
+    }
+
+    private double replicaGauge(String name) {
+        return meterRegistry.get("datasource.replica." + name).tag("replica", "replica-1").gauge().value();
+    }
+
+    private static DataSource database(String name) {
+        DataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + name + "-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.execute("CREATE TABLE which_db (name VARCHAR(32))");
+        template.update("INSERT INTO which_db VALUES (?)", name);
+        return dataSource;
+    }
+}
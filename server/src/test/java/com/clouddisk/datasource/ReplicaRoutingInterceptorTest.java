@@ -0,0 +1,94 @@
+package com.clouddisk.datasource;
+
+import com.clouddisk.entity.User;
+import com.clouddisk.security.UserPrincipal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ReplicaRoutingInterceptor 单元测试
+ * 测试读请求放行从库、写请求留在主库以及读己之写窗口
+ */
+class ReplicaRoutingInterceptorTest {
+
+    private final ReplicaRoutingInterceptor interceptor = new ReplicaRoutingInterceptor(200);
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @AfterEach
+    void tearDown() {
+        ReplicaRoutingContext.clear();
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void getRequestShouldAllowReplicaAndClearAfterCompletion() {
+        login("user-1");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/files");
+
+        interceptor.preHandle(request, response, null);
+        assertTrue(ReplicaRoutingContext.isReplicaAllowed());
+
+        interceptor.afterCompletion(request, response, null, null);
+        assertFalse(ReplicaRoutingContext.isReplicaAllowed());
+    }
+
+    @Test
+    void writeRequestShouldNotAllowReplica() {
+        login("user-1");
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/files/upload");
+
+        interceptor.preHandle(request, response, null);
+
+        assertFalse(ReplicaRoutingContext.isReplicaAllowed());
+    }
+
+    @Test
+    void readAfterWriteShouldStayOnPrimaryWithinWindow() throws Exception {
+        login("user-1");
+        write();
+
+        interceptor.preHandle(new MockHttpServletRequest("GET", "/files"), response, null);
+        assertFalse(ReplicaRoutingContext.isReplicaAllowed());
+
+        // 其他用户不受影响
+        login("user-2");
+        interceptor.preHandle(new MockHttpServletRequest("GET", "/files"), response, null);
+        assertTrue(ReplicaRoutingContext.isReplicaAllowed());
+        ReplicaRoutingContext.clear();
+
+        Thread.sleep(400);
+        login("user-1");
+        interceptor.preHandle(new MockHttpServletRequest("HEAD", "/files"), response, null);
+        assertTrue(ReplicaRoutingContext.isReplicaAllowed());
+    }
+
+    @Test
+    void anonymousReadShouldAllowReplica() {
+        interceptor.preHandle(new MockHttpServletRequest("GET", "/share/abc"), response, null);
+
+        assertTrue(ReplicaRoutingContext.isReplicaAllowed());
+    }
+
+    private void write() {
+        MockHttpServletRequest request = new MockHttpServletRequest("DELETE", "/files/file-1");
+        interceptor.preHandle(request, response, null);
+        interceptor.afterCompletion(request, response, null, null);
+    }
+
+    private static void login(String userId) {
+        User user = new User();
+        user.setUserId(userId);
+        user.setEmail(userId + "@example.com");
+        user.setPasswordHash("hash");
+        user.setTokenVersion(0);
+        UserPrincipal principal = new UserPrincipal(user);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+    }
+}
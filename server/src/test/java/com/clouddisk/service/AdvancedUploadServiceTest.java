@@ -1,21 +1,29 @@
 package com.clouddisk.service;
 
+import com.clouddisk.concurrent.UploadMemoryBudget;
 import com.clouddisk.dto.FileMetadataDto;
 import com.clouddisk.dto.UploadSessionDto;
 import com.clouddisk.entity.FileEntity;
 import com.clouddisk.entity.UploadSession;
 import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ErrorCode;
 import com.clouddisk.repository.FileRepository;
 import com.clouddisk.repository.FileVersionRepository;
 import com.clouddisk.repository.UploadSessionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
@@ -43,6 +51,24 @@ class AdvancedUploadServiceTest {
     @Mock
     private ChunkService chunkService;
 
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private UploadMemoryBudget uploadMemoryBudget;
+
+    @Mock
+    private DirectoryTreeService directoryTreeService;
+
+    @Mock
+    private QuotaService quotaService;
+
+    @Mock
+    private ChangeJournalService changeJournalService;
+
+    @Spy
+    private FileMetadataCache metadataCache = new FileMetadataCache(true, 1000, 60, new SimpleMeterRegistry());
+
     @InjectMocks
     private AdvancedUploadService advancedUploadService;
 
@@ -118,6 +144,20 @@ class AdvancedUploadServiceTest {
         assertEquals("session-1", dto.getSessionId());
         assertEquals(2, dto.getTotalChunks());
         assertEquals("ACTIVE", dto.getStatus());
+        verify(quotaService).reserve(userId, 4L * 1024 * 1024);
+        verify(uploadSessionRepository).save(argThat(session -> session.getReservedBytes() == 4L * 1024 * 1024));
+    }
+
+    @Test
+    void initResumableUploadShouldRejectWhenQuotaExceeded() {
+        when(fileService.normalizePath("/uploads")).thenReturn("/uploads");
+        doThrow(new BusinessException(ErrorCode.QUOTA_EXCEEDED)).when(quotaService).reserve(userId, 8L * 1024 * 1024);
+
+        BusinessException exception = assertThrows(BusinessException.class,
+                () -> advancedUploadService.initResumableUpload("big.bin", "/uploads", 8L * 1024 * 1024, userId));
+
+        assertEquals(ErrorCode.QUOTA_EXCEEDED, exception.getErrorCode());
+        verify(uploadSessionRepository, never()).save(any());
     }
 
     @Test
@@ -173,6 +213,42 @@ class AdvancedUploadServiceTest {
 
         assertEquals("done.zip", dto.getName());
         verify(fileRepository).save(any(FileEntity.class));
+        verify(uploadMemoryBudget).reserve(123L + ChunkService.STAGING_OVERHEAD_BYTES);
+    }
+
+    @Test
+    void completeResumableUploadShouldRejectChunksNotMatchingFileSize() throws Exception {
+        String sessionId = "session-size-mismatch";
+        UploadSession session = new UploadSession();
+        session.setSessionId(sessionId);
+        session.setUserId(userId);
+        session.setFileName("short.zip");
+        session.setFilePath("/");
+        session.setFileSize(10L);
+        session.setTotalChunks(2);
+        session.getUploadedChunks().addAll(Set.of(0, 1));
+        session.setStatus("ACTIVE");
+        when(uploadSessionRepository.findBySessionIdAndUserId(sessionId, userId)).thenReturn(Optional.of(session));
+
+        Path tempDir = Files.createDirectories(Paths.get("temp_chunks", sessionId));
+        try {
+            Files.write(tempDir.resolve("0.chunk"), new byte[4]);
+            Files.write(tempDir.resolve("1.chunk"), new byte[4]);
+
+            BusinessException ex = assertThrows(BusinessException.class,
+                    () -> advancedUploadService.completeResumableUpload(sessionId, userId));
+
+            assertEquals(ErrorCode.VALIDATION_ERROR, ex.getErrorCode());
+            verify(chunkService, never()).stageChunks(any(), anyString(), anyBoolean());
+            assertTrue(Files.exists(tempDir.resolve("0.chunk")), "校验失败时保留临时分块以便重传");
+        } finally {
+            try (var files = Files.list(tempDir)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(tempDir);
+        }
     }
 
     @Test
@@ -211,6 +287,8 @@ class AdvancedUploadServiceTest {
     void cleanExpiredSessionsShouldDeleteExpiredOnes() {
         UploadSession expired = new UploadSession();
         expired.setSessionId("expired");
+        expired.setUserId(userId);
+        expired.setReservedBytes(2048L);
         expired.setExpiresAt(LocalDateTime.now().minusHours(1));
 
         when(uploadSessionRepository.findAllByExpiresAtBefore(any(LocalDateTime.class))).thenReturn(List.of(expired));
@@ -218,5 +296,6 @@ class AdvancedUploadServiceTest {
         advancedUploadService.cleanExpiredSessions();
 
         verify(uploadSessionRepository).deleteAll(List.of(expired));
+        verify(quotaService).release(userId, 2048L);
     }
 }
@@ -0,0 +1,89 @@
+package com.clouddisk.service;
+
+import com.clouddisk.dto.BulkOperationRequest;
+import com.clouddisk.dto.BulkOperationResultDto;
+import com.clouddisk.dto.FileMetadataDto;
+import com.clouddisk.exception.ConflictException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * BulkOperationService 单元测试
+ * 测试连续删除合并、逐项结果与批次失败后的逐项重试
+ */
+@ExtendWith(MockitoExtension.class)
+class BulkOperationServiceTest {
+
+    @Mock
+    private FileService fileService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private BulkOperationService bulkOperationService;
+
+    private final String userId = "user-1";
+
+    @BeforeEach
+    void setUp() {
+        bulkOperationService = new BulkOperationService(fileService, transactionManager);
+    }
+
+    @Test
+    void consecutiveDeletesShouldRunAsOneSetDelete() {
+        when(fileService.deleteBatch(userId, List.of("f1", "f2", "f3"))).thenReturn(Set.of("f1", "f3"));
+        FileMetadataDto moved = new FileMetadataDto();
+        moved.setFileId("f4");
+        when(fileService.move("f4", "/archive", userId)).thenReturn(moved);
+
+        BulkOperationResultDto result = bulkOperationService.execute(userId, List.of(
+                operation("delete", "f1", null),
+                operation("delete", "f2", null),
+                operation("delete", "f3", null),
+                operation("move", "f4", "/archive")));
+
+        assertEquals(3, result.getSucceeded());
+        assertEquals(1, result.getFailed());
+        assertEquals("FILE_NOT_FOUND", result.getResults().get(1).getCode());
+        assertSame(moved, result.getResults().get(3).getFile());
+        verify(fileService, times(1)).deleteBatch(anyString(), anyCollection());
+    }
+
+    @Test
+    void failedBatchShouldBeRetriedItemByItem() {
+        when(fileService.move("f1", "/a", userId)).thenReturn(new FileMetadataDto());
+        when(fileService.copy("f2", "/a", userId))
+                .thenThrow(new ConflictException("目标位置已存在同名文件", "NAME_CONFLICT", "/a/x"));
+
+        BulkOperationResultDto result = bulkOperationService.execute(userId, List.of(
+                operation("move", "f1", "/a"),
+                operation("copy", "f2", "/a"),
+                operation("rename", "f3", "/a")));
+
+        assertTrue(result.getResults().get(0).isSuccess());
+        assertEquals("CONFLICT", result.getResults().get(1).getCode());
+        assertEquals("VALIDATION_ERROR", result.getResults().get(2).getCode());
+        assertEquals(1, result.getSucceeded());
+        // 批次内执行一次，回滚后独立事务再执行一次
+        verify(fileService, times(2)).move("f1", "/a", userId);
+    }
+
+    private BulkOperationRequest.Operation operation(String op, String fileId, String targetPath) {
+        BulkOperationRequest.Operation operation = new BulkOperationRequest.Operation();
+        operation.setOp(op);
+        operation.setFileId(fileId);
+        operation.setTargetPath(targetPath);
+        return operation;
+    }
+}
@@ -0,0 +1,103 @@
+package com.clouddisk.service;
+
+import com.clouddisk.dto.ChangesDto;
+import com.clouddisk.entity.ChangeJournalEntry;
+import com.clouddisk.entity.ChangeType;
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ErrorCode;
+import com.clouddisk.repository.ChangeJournalRepository;
+import com.clouddisk.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ChangeJournalService 单元测试
+ * 测试变更日志的序号分配与游标分页
+ */
+@ExtendWith(MockitoExtension.class)
+class ChangeJournalServiceTest {
+
+    @Mock
+    private ChangeJournalRepository changeJournalRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @InjectMocks
+    private ChangeJournalService changeJournalService;
+
+    private final String userId = "user-1";
+
+    @Test
+    void recordShouldAssignNextSequenceAndFullPath() {
+        FileEntity file = new FileEntity();
+        file.setFileId("file-1");
+        file.setUserId(userId);
+        file.setDirectoryPath("/docs");
+        file.setName("a.txt");
+        file.setFileSize(10L);
+        file.setVersion(2);
+        when(userRepository.incrementJournalSeq(userId)).thenReturn(1);
+        when(userRepository.findJournalSeq(userId)).thenReturn(Optional.of(7L));
+
+        changeJournalService.record(ChangeType.MOVE, file, "/a.txt");
+
+        verify(changeJournalRepository).save(argThat(entry -> entry.getSeq() == 7L
+                && entry.getChangeType() == ChangeType.MOVE
+                && "/docs/a.txt".equals(entry.getPath())
+                && "/a.txt".equals(entry.getOldPath())));
+    }
+
+    @Test
+    void listChangesShouldReturnNextCursorAndHasMore() {
+        when(changeJournalRepository.findByUserIdAndSeqGreaterThanOrderBySeqAsc(eq(userId), eq(3L), any(Pageable.class)))
+                .thenReturn(List.of(entry(4L), entry(5L), entry(6L)));
+
+        ChangesDto changes = changeJournalService.listChanges(userId, "3", 2);
+
+        assertEquals(2, changes.getEntries().size());
+        assertEquals("5", changes.getCursor());
+        assertTrue(changes.isHasMore());
+    }
+
+    @Test
+    void listChangesShouldKeepCursorWhenNothingChanged() {
+        when(changeJournalRepository.findByUserIdAndSeqGreaterThanOrderBySeqAsc(eq(userId), eq(9L), any(Pageable.class)))
+                .thenReturn(List.of());
+
+        ChangesDto changes = changeJournalService.listChanges(userId, "9", 100);
+
+        assertTrue(changes.getEntries().isEmpty());
+        assertEquals("9", changes.getCursor());
+        assertFalse(changes.isHasMore());
+    }
+
+    @Test
+    void listChangesShouldRejectInvalidCursor() {
+        BusinessException exception = assertThrows(BusinessException.class,
+                () -> changeJournalService.listChanges(userId, "abc", 100));
+
+        assertEquals(ErrorCode.VALIDATION_ERROR, exception.getErrorCode());
+    }
+
+    private ChangeJournalEntry entry(long seq) {
+        ChangeJournalEntry entry = new ChangeJournalEntry();
+        entry.setUserId(userId);
+        entry.setSeq(seq);
+        entry.setChangeType(ChangeType.UPDATE);
+        entry.setPath("/f" + seq);
+        return entry;
+    }
+}
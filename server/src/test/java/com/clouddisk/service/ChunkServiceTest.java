@@ -1,22 +1,40 @@
 package com.clouddisk.service;
 
+import com.clouddisk.config.ChunkEncryptionProperties;
 import com.clouddisk.entity.FileChunk;
 import com.clouddisk.entity.FileChunkMapping;
 import com.clouddisk.repository.FileChunkMappingRepository;
 import com.clouddisk.repository.FileChunkRepository;
+import com.clouddisk.storage.ChunkCipher;
 import com.clouddisk.storage.StorageService;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -38,6 +56,12 @@ class ChunkServiceTest {
     @Mock
     private StorageService storageService;
 
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Spy
+    private ChunkCipher chunkCipher = new ChunkCipher(new ChunkEncryptionProperties());
+
     @InjectMocks
     private ChunkService chunkService;
 
@@ -56,19 +80,42 @@ class ChunkServiceTest {
         }
     }
 
+    /**
+     * 使用内存 Map 模拟块表的 save/findById。
+     */
+    private Map<Long, FileChunk> stubChunkTable() {
+        Map<Long, FileChunk> table = new ConcurrentHashMap<>();
+        AtomicLong ids = new AtomicLong();
+        lenient().when(chunkRepository.save(any(FileChunk.class))).thenAnswer(invocation -> {
+            FileChunk chunk = invocation.getArgument(0);
+            if (chunk.getChunkId() == null) {
+                chunk.setChunkId(ids.incrementAndGet());
+            }
+            table.put(chunk.getChunkId(), chunk);
+            return chunk;
+        });
+        lenient().when(chunkRepository.findById(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(table.get(invocation.<Long>getArgument(0))));
+        lenient().when(chunkRepository.incrementRefCount(anyLong())).thenAnswer(invocation -> {
+            FileChunk chunk = table.get(invocation.<Long>getArgument(0));
+            if (chunk == null) {
+                return 0;
+            }
+            synchronized (chunk) {
+                chunk.incrementRef();
+            }
+            return 1;
+        });
+        return table;
+    }
+
     @Test
     void testStoreFileInChunks_LargeFile_SplitsIntoChunks() {
         // Given
         when(chunkRepository.findByChunkHash(anyString())).thenReturn(Optional.empty());
         when(storageService.storeBytes(any(byte[].class), anyString(), anyString(), eq(true)))
                 .thenReturn("oss-key-1", "oss-key-2");
-        when(chunkRepository.save(any(FileChunk.class))).thenAnswer(invocation -> {
-            FileChunk chunk = invocation.getArgument(0);
-            if (chunk.getChunkId() == null) {
-                chunk.setChunkId((long) (Math.random() * 1000000));
-            }
-            return chunk;
-        });
+        stubChunkTable();
         when(mappingRepository.save(any(FileChunkMapping.class))).thenAnswer(invocation -> {
             FileChunkMapping mapping = invocation.getArgument(0);
             if (mapping.getMappingId() == null) {
@@ -87,6 +134,94 @@ class ChunkServiceTest {
         verify(mappingRepository, atLeast(1)).save(any(FileChunkMapping.class));
     }
 
+    @Test
+    void testCommitChunks_ChunkReclaimed_ThrowsException() {
+        // Given
+        when(chunkRepository.incrementRefCount(42L)).thenReturn(0);
+
+        // When & Then
+        assertThrows(com.clouddisk.exception.ChunkReclaimedException.class, () ->
+                chunkService.commitChunks(fileId, 1, List.of(new ChunkService.StagedChunk(42L, "hash", 10))));
+        verify(mappingRepository, never()).save(any(FileChunkMapping.class));
+    }
+
+    @Test
+    void testSweepOrphanChunks_DeletesUnreferencedChunk() {
+        // Given
+        FileChunk orphan = new FileChunk();
+        orphan.setChunkId(7L);
+        orphan.setRefCount(0);
+        orphan.setStorageKey("chunks/orphan");
+        when(chunkRepository.findOrphanCandidates(any(), any())).thenReturn(List.of(orphan));
+        when(chunkRepository.deleteIfUnreferenced(eq(7L), any())).thenReturn(1);
+
+        // When
+        chunkService.sweepOrphanChunks();
+
+        // Then
+        verify(storageService).deleteFile("chunks/orphan");
+    }
+
+    @Test
+    void testSweepOrphanChunks_LeaseRenewedBeforeDelete_KeepsObject() {
+        // Given: 候选查询之后块被重新暂存并续期，条件删除不命中
+        FileChunk orphan = new FileChunk();
+        orphan.setChunkId(7L);
+        orphan.setRefCount(0);
+        orphan.setStorageKey("chunks/orphan");
+        when(chunkRepository.findOrphanCandidates(any(), any())).thenReturn(List.of(orphan));
+        when(chunkRepository.deleteIfUnreferenced(eq(7L), any())).thenReturn(0);
+
+        // When
+        chunkService.sweepOrphanChunks();
+
+        // Then
+        verify(storageService, never()).deleteFile(anyString());
+    }
+
+    @Test
+    void testStageChunks_UnreferencedChunk_RenewsLease() {
+        // Given
+        byte[] small = "released chunk".getBytes();
+        FileChunk released = new FileChunk();
+        released.setChunkId(5L);
+        released.setRefCount(0);
+        when(chunkRepository.findByChunkHash(anyString())).thenReturn(Optional.of(released));
+        when(chunkRepository.renewLease(eq(5L), any())).thenReturn(1);
+
+        // When
+        List<ChunkService.StagedChunk> staged = chunkService.stageChunks(small, userId, false);
+
+        // Then
+        assertEquals(5L, staged.get(0).chunkId());
+        verify(storageService, never()).storeBytes(any(byte[].class), anyString(), anyString(), anyBoolean());
+    }
+
+    @Test
+    void testStageChunks_UnreferencedChunkReclaimed_UploadsWithFreshKey() {
+        // Given: 续期时块已被回收
+        byte[] small = "released chunk".getBytes();
+        FileChunk released = new FileChunk();
+        released.setChunkId(5L);
+        released.setRefCount(0);
+        released.setStorageKey("chunks/u/ab/old.chunk");
+        when(chunkRepository.findByChunkHash(anyString())).thenReturn(Optional.of(released));
+        when(chunkRepository.renewLease(eq(5L), any())).thenReturn(0);
+        ArgumentCaptor<String> filename = ArgumentCaptor.forClass(String.class);
+        when(storageService.storeBytes(any(byte[].class), anyString(), filename.capture(), anyBoolean()))
+                .thenAnswer(invocation -> invocation.getArgument(1) + "/" + invocation.getArgument(2));
+        stubChunkTable();
+
+        // When
+        List<ChunkService.StagedChunk> staged = chunkService.stageChunks(small, userId, false);
+
+        // Then
+        assertNotEquals(5L, staged.get(0).chunkId());
+        String hash = DigestUtils.sha256Hex(small);
+        assertTrue(filename.getValue().startsWith(hash + "-"));
+        assertNotEquals(hash + ".chunk", filename.getValue());
+    }
+
     @Test
     void testStoreFileInChunks_ExistingChunk_IncrementsRefCount() {
         // Given
@@ -103,13 +238,7 @@ class ChunkServiceTest {
 
         when(storageService.storeBytes(any(byte[].class), anyString(), anyString(), eq(true)))
                 .thenReturn("oss-key-new");
-        when(chunkRepository.save(any(FileChunk.class))).thenAnswer(invocation -> {
-            FileChunk chunk = invocation.getArgument(0);
-            if (chunk.getChunkId() == null) {
-                chunk.setChunkId((long) (Math.random() * 1000000));
-            }
-            return chunk;
-        });
+        stubChunkTable().put(existingChunk.getChunkId(), existingChunk);
         when(mappingRepository.save(any(FileChunkMapping.class))).thenAnswer(invocation -> {
             FileChunkMapping mapping = invocation.getArgument(0);
             if (mapping.getMappingId() == null) {
@@ -123,8 +252,57 @@ class ChunkServiceTest {
 
         // Then
         // 验证已存在的块的引用计数被增加
-        verify(chunkRepository).save(argThat(chunk -> 
-            chunk.getChunkHash().equals(existingChunkHash) && chunk.getRefCount() == 2));
+        verify(chunkRepository).incrementRefCount(existingChunk.getChunkId());
+        assertEquals(2, existingChunk.getRefCount());
+    }
+
+    @Test
+    void testStoreFileInChunks_NewChunk_StartsWithSingleRef() {
+        // Given
+        byte[] small = "single chunk".getBytes();
+        when(chunkRepository.findByChunkHash(anyString())).thenReturn(Optional.empty());
+        when(storageService.storeBytes(any(byte[].class), anyString(), anyString(), anyBoolean()))
+                .thenReturn("oss-key");
+        stubChunkTable();
+
+        // When
+        chunkService.storeFileInChunks(fileId, 1, small, userId, false);
+
+        // Then
+        assertEquals(1, chunkRepository.findById(1L).orElseThrow().getRefCount());
+    }
+
+    @Test
+    void testStoreFileInChunks_ConcurrentSameChunk_UploadsOnce() throws Exception {
+        // Given
+        byte[] small = "popular chunk".getBytes();
+        CountDownLatch bothLookedUp = new CountDownLatch(2);
+        when(chunkRepository.findByChunkHash(anyString())).thenAnswer(invocation -> {
+            bothLookedUp.countDown();
+            bothLookedUp.await(5, TimeUnit.SECONDS);
+            return Optional.empty();
+        });
+        when(storageService.storeBytes(any(byte[].class), anyString(), anyString(), anyBoolean()))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(300);
+                    return "oss-key";
+                });
+        stubChunkTable();
+
+        // When
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = pool.submit(() -> chunkService.storeFileInChunks("file-a", 1, small, userId, false));
+            Future<Integer> second = pool.submit(() -> chunkService.storeFileInChunks("file-b", 1, small, userId, false));
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Then
+        verify(storageService, times(1)).storeBytes(any(byte[].class), anyString(), anyString(), anyBoolean());
+        assertEquals(2, chunkRepository.findById(1L).orElseThrow().getRefCount());
     }
 
     @Test
@@ -169,6 +347,9 @@ class ChunkServiceTest {
 
         // Then
         assertNotNull(result);
+        // 块数据在读取时才加载
+        verify(storageService, never()).loadFile(anyString(), anyBoolean());
+        assertEquals(1536, result.readAllBytes().length);
         verify(storageService, times(1)).loadFile("oss-key-1", false);
         verify(storageService, times(1)).loadFile("oss-key-2", false);
     }
@@ -245,5 +426,62 @@ class ChunkServiceTest {
         assertEquals(1, hashes.size());
         assertNotNull(hashes.get(0));
     }
-}
 
+    @Test
+    void testStageChunks_EncryptionEnabled_StoresCiphertextAndDecryptsOnRead() throws Exception {
+        ChunkService encrypting = new ChunkService(chunkRepository, mappingRepository, storageService,
+                enabledCipher("k1"), transactionManager);
+        Map<Long, FileChunk> table = stubChunkTable();
+        when(chunkRepository.findByChunkHash(anyString())).thenReturn(Optional.empty());
+        ArgumentCaptor<byte[]> stored = ArgumentCaptor.forClass(byte[].class);
+        when(storageService.storeBytes(stored.capture(), anyString(), anyString(), anyBoolean())).thenReturn("enc-key");
+        byte[] data = "convergent chunk data ".repeat(200).getBytes(StandardCharsets.UTF_8);
+
+        List<ChunkService.StagedChunk> staged = encrypting.stageChunks(data, userId, true);
+
+        FileChunk chunk = table.get(staged.get(0).chunkId());
+        assertEquals("k1", chunk.getEncryptionKeyId());
+        assertTrue(chunk.getCompressed());
+        verify(storageService).storeBytes(any(byte[].class), anyString(), endsWith(".enc"), eq(true));
+        when(storageService.loadFile("enc-key", false)).thenReturn(new ByteArrayInputStream(stored.getValue()));
+        try (InputStream in = encrypting.openChunk(chunk)) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+
+        // 篡改密文后认证失败
+        byte[] tampered = stored.getValue().clone();
+        tampered[tampered.length / 2] ^= 1;
+        when(storageService.loadFile("enc-key", false)).thenReturn(new ByteArrayInputStream(tampered));
+        assertThrows(IOException.class, () -> {
+            try (InputStream in = encrypting.openChunk(chunk)) {
+                in.readAllBytes();
+            }
+        });
+    }
+
+    @Test
+    void testChunkCipher_SameContentSameKey_ProducesSameCiphertext() {
+        ChunkCipher cipher = enabledCipher("k1");
+        byte[] data = "same content".getBytes(StandardCharsets.UTF_8);
+        String hash = DigestUtils.sha256Hex(data);
+
+        byte[] first = cipher.encrypt("k1", hash, data);
+        byte[] second = cipher.encrypt("k1", hash, data);
+        byte[] otherKey = cipher.encrypt("k2", hash, data);
+
+        assertArrayEquals(first, second);
+        assertFalse(Arrays.equals(first, otherKey));
+        assertEquals(data.length + 16, first.length);
+    }
+
+    private ChunkCipher enabledCipher(String activeKeyId) {
+        ChunkEncryptionProperties properties = new ChunkEncryptionProperties();
+        properties.setEnabled(true);
+        properties.setActiveKeyId(activeKeyId);
+        properties.getKeys().put("k1", Base64.getEncoder().encodeToString(new byte[32]));
+        byte[] second = new byte[32];
+        second[0] = 1;
+        properties.getKeys().put("k2", Base64.getEncoder().encodeToString(second));
+        return new ChunkCipher(properties);
+    }
+}
@@ -19,6 +19,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -37,6 +38,9 @@ class CollaborationServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private ChangeJournalService changeJournalService;
+
     @InjectMocks
     private CollaborationService collaborationService;
 
@@ -96,7 +100,7 @@ class CollaborationServiceTest {
                 .thenReturn(List.of(active, expired));
 
         FileEntity activeFile = buildFile("file-1", "owner-1", "/", "plan.txt", false);
-        when(fileRepository.findById("file-1")).thenReturn(Optional.of(activeFile));
+        when(fileRepository.findAllById(Set.of("file-1"))).thenReturn(List.of(activeFile));
 
         User owner1 = new User();
         owner1.setUserId("owner-1");
@@ -114,7 +118,7 @@ class CollaborationServiceTest {
         owner2.setCreatedAt(Instant.now());
         owner2.setUpdatedAt(Instant.now());
 
-        when(userRepository.findAll()).thenReturn(List.of(owner1, owner2));
+        when(userRepository.findAllById(Set.of("owner-1"))).thenReturn(List.of(owner1));
 
         List<FileMetadataDto> results = collaborationService.listSharedWithMe("guest");
         assertEquals(1, results.size());
@@ -1,20 +1,26 @@
 package com.clouddisk.service;
 
+import com.clouddisk.concurrent.UploadMemoryBudget;
 import com.clouddisk.dto.FileMetadataDto;
 import com.clouddisk.entity.FileChunk;
 import com.clouddisk.entity.FileChunkMapping;
 import com.clouddisk.entity.FileEntity;
+import com.clouddisk.entity.FileVersion;
 import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ConflictException;
 import com.clouddisk.repository.FileChunkMappingRepository;
 import com.clouddisk.repository.FileChunkRepository;
 import com.clouddisk.repository.FileRepository;
-import com.clouddisk.storage.StorageService;
+import com.clouddisk.repository.FileVersionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
@@ -39,7 +45,22 @@ class DiffSyncServiceTest {
     private ChunkService chunkService;
 
     @Mock
-    private StorageService storageService;
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private UploadMemoryBudget uploadMemoryBudget;
+
+    @Mock
+    private DirectoryTreeService directoryTreeService;
+
+    @Mock
+    private ChangeJournalService changeJournalService;
+
+    @Mock
+    private FileVersionRepository fileVersionRepository;
+
+    @Spy
+    private FileMetadataCache metadataCache = new FileMetadataCache(true, 1000, 60, new SimpleMeterRegistry());
 
     @InjectMocks
     private DiffSyncService diffSyncService;
@@ -136,7 +157,7 @@ class DiffSyncServiceTest {
     }
 
     @Test
-    void applyDelta_ShouldUpdateChangedChunks() {
+    void applyDelta_ShouldUpdateChangedChunks() throws Exception {
         // Given
         when(fileRepository.findByFileIdAndUserId(fileId, userId))
             .thenReturn(Optional.of(fileEntity));
@@ -154,10 +175,11 @@ class DiffSyncServiceTest {
         FileChunk chunk0 = new FileChunk();
         chunk0.setChunkId(1L);
         chunk0.setStorageKey("chunk-1");
+        chunk0.setChunkSize(13L);
         chunk0.setCompressed(false);
         
         when(chunkRepository.findById(1L)).thenReturn(Optional.of(chunk0));
-        when(storageService.loadFile(eq("chunk-1"), anyBoolean()))
+        when(chunkService.openChunk(chunk0))
                 .thenReturn(new java.io.ByteArrayInputStream("existing data".getBytes(StandardCharsets.UTF_8)));
         when(fileRepository.save(any(FileEntity.class)))
             .thenAnswer(invocation -> invocation.getArgument(0));
@@ -168,8 +190,42 @@ class DiffSyncServiceTest {
         // Then
         assertNotNull(result);
         assertEquals(2, result.getVersion()); // 版本号应该递增
-        verify(chunkService).storeFileInChunks(eq(fileId), eq(2), any(byte[].class), eq(userId), eq(true));
+        verify(chunkService).stageChunks(any(byte[].class), eq(userId), eq(true));
+        verify(chunkService).commitChunks(eq(fileId), eq(2), anyList());
         verify(fileRepository).save(any(FileEntity.class));
+        // 旧版本映射保留，两个版本各有一条记录
+        verify(mappingRepository, never()).deleteAll(anyList());
+        verify(fileVersionRepository).save(argThat(version -> version.getVersionNumber() == 1));
+        verify(fileVersionRepository).save(argThat(version -> version.getVersionNumber() == 2));
+    }
+
+    @Test
+    void applyDelta_ShouldConflict_WhenSameVersionWasCoalescedMeanwhile() throws Exception {
+        // Given: 差分计算基于 hash-v1，提交前同一版本被合并保存替换为新内容(版本号不变)
+        fileEntity.setContentHash("hash-v1");
+        FileEntity coalesced = new FileEntity();
+        coalesced.setFileId(fileId);
+        coalesced.setUserId(userId);
+        coalesced.setStorageKey("chunked");
+        coalesced.setVersion(1);
+        coalesced.setContentHash("hash-coalesced");
+        coalesced.setFileSize(4194304L);
+        when(fileRepository.findByFileIdAndUserId(fileId, userId))
+            .thenReturn(Optional.of(fileEntity), Optional.of(coalesced));
+
+        FileChunkMapping mapping = createMapping(0, 1L, 0L);
+        when(mappingRepository.findByFileIdAndVersionNumberOrderBySequenceNumber(fileId, 1))
+            .thenReturn(List.of(mapping));
+        Map<Integer, byte[]> deltaChunks = Map.of(0, "new chunk data".getBytes(StandardCharsets.UTF_8));
+
+        // When & Then
+        ConflictException ex = assertThrows(ConflictException.class, () ->
+            diffSyncService.applyDelta(fileId, userId, deltaChunks)
+        );
+        assertEquals("VERSION_CONFLICT", ex.getConflictType());
+        verify(chunkService, never()).commitChunks(anyString(), anyInt(), anyList());
+        verify(fileRepository, never()).save(any(FileEntity.class));
+        verify(fileVersionRepository, never()).save(any(FileVersion.class));
     }
 
     @Test
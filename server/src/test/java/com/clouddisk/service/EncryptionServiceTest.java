@@ -0,0 +1,160 @@
+package com.clouddisk.service;
+
+import com.clouddisk.dto.FileMetadataDto;
+import com.clouddisk.entity.ChangeType;
+import com.clouddisk.entity.FileEncryptionMetadata;
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.entity.FileVersion;
+import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ErrorCode;
+import com.clouddisk.repository.FileEncryptionMetadataRepository;
+import com.clouddisk.repository.FileRepository;
+import com.clouddisk.repository.FileVersionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * EncryptionService 单元测试
+ * 测试收敛加密秒传的索引查询、批量检查与块引用复用
+ */
+@ExtendWith(MockitoExtension.class)
+class EncryptionServiceTest {
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileEncryptionMetadataRepository encryptionMetadataRepository;
+
+    @Mock
+    private FileService fileService;
+
+    @Mock
+    private FileVersionRepository fileVersionRepository;
+
+    @Mock
+    private ChunkService chunkService;
+
+    @Mock
+    private DirectoryTreeService directoryTreeService;
+
+    @Mock
+    private ChangeJournalService changeJournalService;
+
+    @Spy
+    private FileMetadataCache metadataCache = new FileMetadataCache(true, 1000, 60, new SimpleMeterRegistry());
+
+    @InjectMocks
+    private EncryptionService encryptionService;
+
+    @Test
+    void checkConvergentQuickUploadShouldUseIndexedLookup() {
+        when(encryptionMetadataRepository.findConvergentSources(eq("hash-1"), any()))
+                .thenReturn(List.of(metadata("src-file")));
+
+        assertTrue(encryptionService.checkConvergentQuickUpload("hash-1", "user-1"));
+        assertFalse(encryptionService.checkConvergentQuickUpload("", "user-1"));
+        verify(fileRepository, never()).findAll();
+    }
+
+    @Test
+    void checkConvergentQuickUploadBatchShouldSplitLargeRequests() {
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < EncryptionService.HASH_BATCH_SIZE + 5; i++) {
+            hashes.add("hash-" + i);
+        }
+        when(encryptionMetadataRepository.findConvergentHashes(anyCollection()))
+                .thenReturn(List.of("hash-3"), List.of("hash-1002"));
+
+        Set<String> available = encryptionService.checkConvergentQuickUploadBatch(hashes, "user-1");
+
+        assertEquals(Set.of("hash-3", "hash-1002"), available);
+        verify(encryptionMetadataRepository, times(2)).findConvergentHashes(anyCollection());
+    }
+
+    @Test
+    void convergentQuickUploadShouldCopyChunkReferencesAndMetadata() {
+        FileEntity source = new FileEntity();
+        source.setFileId("src-file");
+        source.setUserId("owner");
+        source.setStorageKey("chunked");
+        source.setFileSize(2048L);
+        source.setContentHash("cipher-hash");
+        when(encryptionMetadataRepository.findConvergentSources(eq("hash-1"), any()))
+                .thenReturn(List.of(metadata("src-file")));
+        when(fileRepository.findById("src-file")).thenReturn(Optional.of(source));
+        when(fileService.normalizePath("/docs")).thenReturn("/docs");
+        when(fileRepository.findByUserIdAndDirectoryPathAndName("user-1", "/docs", "a.bin"))
+                .thenReturn(Optional.empty());
+        when(directoryTreeService.ensureDirectory("user-1", "/docs")).thenReturn("dir-1");
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> {
+            FileEntity saved = invocation.getArgument(0);
+            saved.setFileId("new-file");
+            return saved;
+        });
+        when(chunkService.copyChunkReferences(Map.of("src-file", "new-file"), 1)).thenReturn(2);
+
+        FileMetadataDto result = encryptionService.convergentQuickUpload("hash-1", "a.bin", "/docs", "user-1");
+
+        assertEquals("new-file", result.getFileId());
+        assertEquals(2048L, result.getSize());
+        verify(fileVersionRepository).save(any(FileVersion.class));
+        ArgumentCaptor<FileEncryptionMetadata> copied = ArgumentCaptor.forClass(FileEncryptionMetadata.class);
+        verify(encryptionMetadataRepository).save(copied.capture());
+        assertEquals("new-file", copied.getValue().getFileId());
+        assertEquals("hash-1", copied.getValue().getOriginalHash());
+        verify(directoryTreeService).recordChange("user-1", "dir-1", 2048L, 1);
+        verify(changeJournalService).record(eq(ChangeType.CREATE), any(FileEntity.class));
+    }
+
+    @Test
+    void convergentQuickUploadShouldFailWhenSourceHasNoChunks() {
+        FileEntity source = new FileEntity();
+        source.setFileId("src-file");
+        source.setFileSize(2048L);
+        when(encryptionMetadataRepository.findConvergentSources(eq("hash-1"), any()))
+                .thenReturn(List.of(metadata("src-file")));
+        when(fileRepository.findById("src-file")).thenReturn(Optional.of(source));
+        when(fileService.normalizePath("/")).thenReturn("/");
+        when(fileRepository.findByUserIdAndDirectoryPathAndName("user-1", "/", "a.bin"))
+                .thenReturn(Optional.empty());
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> {
+            FileEntity saved = invocation.getArgument(0);
+            saved.setFileId("new-file");
+            return saved;
+        });
+        when(chunkService.copyChunkReferences(anyMap(), eq(1))).thenReturn(0);
+
+        BusinessException ex = assertThrows(BusinessException.class,
+                () -> encryptionService.convergentQuickUpload("hash-1", "a.bin", "/", "user-1"));
+
+        assertEquals(ErrorCode.FILE_NOT_FOUND, ex.getErrorCode());
+        verify(directoryTreeService, never()).recordChange(anyString(), any(), anyLong(), anyLong());
+    }
+
+    private FileEncryptionMetadata metadata(String fileId) {
+        FileEncryptionMetadata metadata = new FileEncryptionMetadata();
+        metadata.setFileId(fileId);
+        metadata.setAlgorithm("AES-256-GCM");
+        metadata.setConvergent(true);
+        metadata.setOriginalHash("hash-1");
+        metadata.setClientEncrypted(true);
+        return metadata;
+    }
+}
@@ -0,0 +1,80 @@
+package com.clouddisk.service;
+
+import com.clouddisk.entity.FileEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FileMetadataCache 单元测试
+ * 测试命中、副本隔离与失效
+ */
+class FileMetadataCacheTest {
+
+    private final FileMetadataCache cache = new FileMetadataCache(true, 100, 60, new SimpleMeterRegistry());
+
+    @Test
+    void getByIdShouldLoadOnceAndReturnCopies() {
+        FileEntity file = file("file-1", "/docs", "a.txt");
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<Optional<FileEntity>> loader = () -> {
+            loads.incrementAndGet();
+            return Optional.of(file);
+        };
+
+        FileEntity first = cache.getById("file-1", "user-1", loader).orElseThrow();
+        first.setName("changed.txt");
+        FileEntity second = cache.getById("file-1", "user-1", loader).orElseThrow();
+
+        assertEquals(1, loads.get());
+        assertEquals("a.txt", second.getName());
+        assertTrue(cache.getById("file-1", "user-2", Optional::empty).isEmpty());
+    }
+
+    @Test
+    void getByPathShouldMissAfterEntryMoved() {
+        FileEntity file = file("file-1", "/docs", "a.txt");
+        cache.getById("file-1", "user-1", () -> Optional.of(file));
+
+        FileEntity moved = file("file-1", "/archive", "a.txt");
+        cache.onChange(moved);
+
+        AtomicInteger loads = new AtomicInteger();
+        Optional<FileEntity> result = cache.getByPath("user-1", "/docs", "a.txt", () -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        });
+
+        assertTrue(result.isEmpty());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void evictUserShouldDropAllEntriesOfUser() {
+        cache.getById("file-1", "user-1", () -> Optional.of(file("file-1", "/docs", "a.txt")));
+
+        cache.evictUser("user-1");
+
+        AtomicInteger loads = new AtomicInteger();
+        cache.getByPath("user-1", "/docs", "a.txt", () -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        });
+        assertEquals(1, loads.get());
+    }
+
+    private FileEntity file(String fileId, String directoryPath, String name) {
+        FileEntity file = new FileEntity();
+        file.setFileId(fileId);
+        file.setUserId("user-1");
+        file.setDirectoryPath(directoryPath);
+        file.setName(name);
+        file.setFileSize(10L);
+        return file;
+    }
+}
@@ -0,0 +1,146 @@
+package com.clouddisk.service;
+
+import com.clouddisk.dto.ChangeEntryDto;
+import com.clouddisk.dto.ChangesDto;
+import com.clouddisk.dto.FileMetadataDto;
+import com.clouddisk.dto.FilePageDto;
+import com.clouddisk.dto.SnapshotEntryDto;
+import com.clouddisk.entity.ChangeType;
+import com.clouddisk.repository.FileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * FileSearchService 单元测试
+ * 测试索引构建、按变更日志增量更新、过滤与分页
+ */
+@ExtendWith(MockitoExtension.class)
+class FileSearchServiceTest {
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private ChangeJournalService changeJournalService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    Path indexDir;
+
+    private FileSearchService fileSearchService;
+
+    private final String userId = "user-1";
+
+    @BeforeEach
+    void setUp() {
+        fileSearchService = new FileSearchService(fileRepository, changeJournalService, transactionManager,
+                indexDir.toString(), 1000, 30);
+        when(changeJournalService.currentCursor(userId)).thenReturn("5");
+        when(fileRepository.streamSnapshot(userId)).thenReturn(Stream.of(
+                entry("d1", "/", "Reports", true),
+                entry("f1", "/Reports", "annual-report.pdf", false),
+                entry("f2", "/Reports", "Quarterly-Report.PDF", false),
+                entry("f3", "/", "report-notes.txt", false),
+                entry("f4", "/", "photo.jpg", false)));
+    }
+
+    @Test
+    void searchShouldMatchSubstringPrefixAndExtension() {
+        noChangesAfter(5L);
+
+        assertEquals(List.of("annual-report.pdf", "Quarterly-Report.PDF", "report-notes.txt", "Reports"),
+                names(fileSearchService.search(userId, "report", false, null, null, null, 50)));
+        assertEquals(List.of("report-notes.txt", "Reports"),
+                names(fileSearchService.search(userId, "REP", true, null, null, null, 50)));
+        assertEquals(List.of("annual-report.pdf", "Quarterly-Report.PDF"),
+                names(fileSearchService.search(userId, null, false, ".pdf", null, null, 50)));
+        assertEquals(List.of("annual-report.pdf", "Quarterly-Report.PDF"),
+                names(fileSearchService.search(userId, "rep", false, null, "/Reports", null, 50)));
+    }
+
+    @Test
+    void searchShouldPaginateWithCursor() {
+        noChangesAfter(5L);
+
+        FilePageDto first = fileSearchService.search(userId, "report", false, null, null, null, 3);
+        assertEquals(3, first.getItems().size());
+        assertNotNull(first.getNextCursor());
+
+        FilePageDto second = fileSearchService.search(userId, "report", false, null, null, first.getNextCursor(), 3);
+        assertEquals(List.of("Reports"), names(second));
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    void searchShouldApplyJournalChangesIncrementally() {
+        ChangeEntryDto move = change(6L, ChangeType.MOVE, "d1", "/Archive", true);
+        move.setOldPath("/Reports");
+        ChangeEntryDto delete = change(7L, ChangeType.DELETE, "f3", "/report-notes.txt", false);
+        ChangeEntryDto create = change(8L, ChangeType.CREATE, "f5", "/Archive/report-2024.xlsx", false);
+        when(changeJournalService.listChanges(eq(userId), eq("5"), anyInt()))
+                .thenReturn(new ChangesDto(List.of(move, delete, create), "8", false));
+        noChangesAfter(8L);
+
+        FilePageDto page = fileSearchService.search(userId, "report", false, null, "/Archive", null, 50);
+
+        assertEquals(List.of("/Archive/annual-report.pdf", "/Archive/Quarterly-Report.PDF", "/Archive/report-2024.xlsx"),
+                page.getItems().stream().map(FileMetadataDto::getPath).collect(Collectors.toList()));
+        assertTrue(names(fileSearchService.search(userId, "notes", false, null, null, null, 50)).isEmpty());
+    }
+
+    @Test
+    void persistedIndexShouldBeReusedAfterRestart() {
+        noChangesAfter(5L);
+        fileSearchService.search(userId, "photo", false, null, null, null, 50);
+        fileSearchService.shutdown();
+
+        FileSearchService restarted = new FileSearchService(fileRepository, changeJournalService, transactionManager,
+                indexDir.toString(), 1000, 30);
+        assertEquals(List.of("photo.jpg"), names(restarted.search(userId, "photo", false, null, null, null, 50)));
+        verify(fileRepository, times(1)).streamSnapshot(userId);
+    }
+
+    private void noChangesAfter(long seq) {
+        lenient().when(changeJournalService.listChanges(eq(userId), eq(String.valueOf(seq)), anyInt()))
+                .thenReturn(new ChangesDto(List.of(), String.valueOf(seq), false));
+    }
+
+    private List<String> names(FilePageDto page) {
+        return page.getItems().stream().map(FileMetadataDto::getName).collect(Collectors.toList());
+    }
+
+    private SnapshotEntryDto entry(String fileId, String directoryPath, String name, boolean directory) {
+        return new SnapshotEntryDto(fileId, null, directoryPath, name, directory, directory ? 0L : 10L,
+                null, 1, Instant.now());
+    }
+
+    private ChangeEntryDto change(long seq, ChangeType type, String fileId, String path, boolean directory) {
+        ChangeEntryDto dto = new ChangeEntryDto();
+        dto.setSeq(seq);
+        dto.setType(type);
+        dto.setFileId(fileId);
+        dto.setPath(path);
+        dto.setDirectory(directory);
+        dto.setSize(10L);
+        dto.setVersion(1);
+        dto.setChangedAt(Instant.now());
+        return dto;
+    }
+}
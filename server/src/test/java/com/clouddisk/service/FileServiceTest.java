@@ -1,23 +1,35 @@
 package com.clouddisk.service;
 
+import com.clouddisk.concurrent.UploadMemoryBudget;
+import com.clouddisk.config.VersionCoalescingProperties;
 import com.clouddisk.dto.FileMetadataDto;
+import com.clouddisk.dto.FilePageDto;
+import com.clouddisk.dto.UsageDto;
+import com.clouddisk.entity.ChangeType;
 import com.clouddisk.entity.FileEntity;
 import com.clouddisk.entity.FileVersion;
 import com.clouddisk.entity.User;
 import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ChunkReclaimedException;
+import com.clouddisk.exception.ConflictException;
 import com.clouddisk.exception.ErrorCode;
+import com.clouddisk.exception.ServerBusyException;
 import com.clouddisk.repository.FileChunkMappingRepository;
 import com.clouddisk.repository.FileRepository;
 import com.clouddisk.repository.FileShareRepository;
 import com.clouddisk.repository.FileVersionRepository;
 import com.clouddisk.repository.UserRepository;
 import com.clouddisk.storage.StorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockMultipartFile;
@@ -26,8 +38,13 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -62,6 +79,27 @@ class FileServiceTest {
     @Mock
     private ChunkService chunkService;
 
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private UploadMemoryBudget uploadMemoryBudget;
+
+    @Mock
+    private DirectoryTreeService directoryTreeService;
+
+    @Mock
+    private QuotaService quotaService;
+
+    @Mock
+    private ChangeJournalService changeJournalService;
+
+    @Spy
+    private FileMetadataCache metadataCache = new FileMetadataCache(true, 1000, 60, new SimpleMeterRegistry());
+
+    @Spy
+    private VersionCoalescingProperties coalescingProperties = new VersionCoalescingProperties();
+
     @InjectMocks
     private FileService fileService;
 
@@ -109,8 +147,36 @@ class FileServiceTest {
         assertNotNull(result);
         assertNotNull(result.getFileId());
         assertEquals("test.txt", result.getName());
-        verify(chunkService, times(1)).storeFileInChunks(anyString(), anyInt(), any(byte[].class), anyString(), eq(true));
+        verify(chunkService, times(1)).stageChunks(any(byte[].class), anyString(), eq(true));
+        verify(chunkService, times(1)).commitChunks(anyString(), anyInt(), anyList());
         verify(fileVersionRepository, times(1)).save(any(FileVersion.class));
+        verify(directoryTreeService).recordChange(userId, null, testFile.getSize(), 1L);
+        verify(changeJournalService).record(eq(ChangeType.CREATE), argThat(entity -> "test.txt".equals(entity.getName())));
+    }
+
+    @Test
+    void testUpload_StagedChunkReclaimed_RestagesAndRetriesOnce() {
+        // Given: 第一次提交时暂存的块已被回收
+        when(userRepository.findById(userId)).thenReturn(Optional.of(testUser));
+        when(fileRepository.findByUserIdAndDirectoryPathAndName(any(), any(), any()))
+                .thenReturn(Optional.empty());
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> {
+            FileEntity entity = invocation.getArgument(0);
+            if (entity.getFileId() == null) {
+                entity.setFileId(UUID.randomUUID().toString());
+            }
+            return entity;
+        });
+        doThrow(new ChunkReclaimedException(1L)).doNothing()
+                .when(chunkService).commitChunks(anyString(), anyInt(), anyList());
+
+        // When
+        FileMetadataDto result = fileService.upload(testFile, "/test", userId);
+
+        // Then
+        assertEquals("test.txt", result.getName());
+        verify(chunkService, times(2)).stageChunks(any(byte[].class), anyString(), eq(true));
+        verify(chunkService, times(2)).commitChunks(anyString(), anyInt(), anyList());
     }
 
     @Test
@@ -173,6 +239,40 @@ class FileServiceTest {
         assertEquals("读取文件失败", exception.getMessage());
     }
 
+    @Test
+    void testUpload_MemoryBudgetExhausted_ThrowsServerBusy() {
+        // Given
+        when(userRepository.findById(userId)).thenReturn(Optional.of(testUser));
+        when(uploadMemoryBudget.reserve(anyLong()))
+                .thenThrow(new ServerBusyException("服务器上传繁忙，请稍后重试", 5));
+
+        // When & Then
+        ServerBusyException exception = assertThrows(ServerBusyException.class, () -> {
+            fileService.upload(testFile, "/test", userId);
+        });
+        assertEquals(ErrorCode.SERVER_BUSY, exception.getErrorCode());
+        assertEquals(5, exception.getRetryAfterSeconds());
+        verify(chunkService, never()).stageChunks(any(byte[].class), anyString(), anyBoolean());
+        verify(fileRepository, never()).save(any());
+    }
+
+    @Test
+    void testUpload_QuotaExceeded_RejectedBeforeStaging() {
+        // Given
+        when(userRepository.findById(userId)).thenReturn(Optional.of(testUser));
+        when(fileRepository.findByUserIdAndDirectoryPathAndName(any(), any(), any()))
+                .thenReturn(Optional.empty());
+        doThrow(new BusinessException(ErrorCode.QUOTA_EXCEEDED))
+                .when(quotaService).checkAvailable(testUser, testFile.getSize());
+
+        // When & Then
+        BusinessException exception = assertThrows(BusinessException.class, () -> {
+            fileService.upload(testFile, "/test", userId);
+        });
+        assertEquals(ErrorCode.QUOTA_EXCEEDED, exception.getErrorCode());
+        verify(chunkService, never()).stageChunks(any(), anyString(), anyBoolean());
+    }
+
     @Test
     void testUpload_ExistingFile_UpdatesVersion() {
         // Given
@@ -196,6 +296,71 @@ class FileServiceTest {
         assertNotNull(result);
         verify(fileVersionRepository, times(2)).save(any(FileVersion.class)); // 保存旧版本和新版本
         verify(fileRepository).save(argThat(entity -> entity.getVersion() == 2));
+        verify(directoryTreeService).recordChange(userId, null, testFile.getSize() - 1024L, 0L);
+    }
+
+    @Test
+    void testUpload_WithinCoalescingWindow_ReplacesTipVersion() {
+        VersionCoalescingProperties.Rule rule = new VersionCoalescingProperties.Rule();
+        rule.setPathPattern("/test/**");
+        rule.setWindowSeconds(60);
+        coalescingProperties.setRules(List.of(rule));
+        FileEntity existingFile = new FileEntity();
+        existingFile.setFileId(UUID.randomUUID().toString());
+        existingFile.setUserId(userId);
+        existingFile.setDirectoryPath("/test");
+        existingFile.setName("test.txt");
+        existingFile.setVersion(3);
+        existingFile.setStorageKey("chunked");
+        existingFile.setFileSize(1024L);
+        FileVersion tip = FileVersion.snapshotOf(existingFile);
+        tip.setCreatedAt(Instant.now().minusSeconds(10));
+
+        when(userRepository.findById(userId)).thenReturn(Optional.of(testUser));
+        when(fileRepository.findByUserIdAndDirectoryPathAndName(userId, "/test", "test.txt"))
+                .thenReturn(Optional.of(existingFile));
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(fileVersionRepository.findByFileIdAndVersionNumber(existingFile.getFileId(), 3)).thenReturn(Optional.of(tip));
+
+        FileMetadataDto result = fileService.upload(testFile, "/test", userId);
+
+        assertEquals(3, result.getVersion());
+        verify(chunkService).releaseVersionChunks(existingFile.getFileId(), List.of(3));
+        verify(chunkService).commitChunks(eq(existingFile.getFileId()), eq(3), anyList());
+        verify(fileVersionRepository, times(1)).save(tip);
+        assertEquals(testFile.getSize(), tip.getFileSize());
+        verify(changeJournalService).record(ChangeType.UPDATE, existingFile);
+    }
+
+    @Test
+    void testUpload_OutsideCoalescingWindow_AppendsVersion() {
+        VersionCoalescingProperties.Rule rule = new VersionCoalescingProperties.Rule();
+        rule.setPathPattern("/test/**");
+        rule.setWindowSeconds(60);
+        coalescingProperties.setRules(List.of(rule));
+        FileEntity existingFile = new FileEntity();
+        existingFile.setFileId(UUID.randomUUID().toString());
+        existingFile.setUserId(userId);
+        existingFile.setDirectoryPath("/test");
+        existingFile.setName("test.txt");
+        existingFile.setVersion(3);
+        existingFile.setStorageKey("chunked");
+        existingFile.setFileSize(1024L);
+        FileVersion tip = FileVersion.snapshotOf(existingFile);
+        tip.setCreatedAt(Instant.now().minusSeconds(120));
+
+        when(userRepository.findById(userId)).thenReturn(Optional.of(testUser));
+        when(fileRepository.findByUserIdAndDirectoryPathAndName(userId, "/test", "test.txt"))
+                .thenReturn(Optional.of(existingFile));
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(fileVersionRepository.findByFileIdAndVersionNumber(existingFile.getFileId(), 3)).thenReturn(Optional.of(tip));
+        when(fileVersionRepository.existsByFileIdAndVersionNumber(existingFile.getFileId(), 3)).thenReturn(true);
+
+        FileMetadataDto result = fileService.upload(testFile, "/test", userId);
+
+        assertEquals(4, result.getVersion());
+        verify(chunkService, never()).releaseVersionChunks(anyString(), anyCollection());
+        verify(fileVersionRepository).save(argThat(saved -> saved.getVersionNumber() == 4));
     }
 
     @Test
@@ -217,7 +382,9 @@ class FileServiceTest {
         dir1.setFileSize(0L); // 目录大小设为0
         dir1.setDirectoryPath("/");
 
-        when(fileRepository.findAllByUserId(userId)).thenReturn(List.of(file1, dir1));
+        // 排序由数据库完成：目录在前
+        when(fileRepository.findByUserIdAndDirectoryPathOrderByDirectoryDescNameAsc(userId, "/"))
+                .thenReturn(List.of(dir1, file1));
 
         // When
         List<FileMetadataDto> result = fileService.listFiles(userId, "/");
@@ -228,6 +395,54 @@ class FileServiceTest {
         // 目录应该排在前面
         assertTrue(result.get(0).isDirectory());
         assertFalse(result.get(1).isDirectory());
+        verify(fileRepository, never()).findAllByUserId(anyString());
+        // 共享信息整页批量查询一次
+        verify(fileShareRepository, times(1)).findAllByOwnerIdAndActiveTrueAndFileIdIn(eq(userId), anyCollection());
+        verify(fileShareRepository, never()).findByFileIdAndOwnerIdAndActiveTrue(anyString(), anyString());
+    }
+
+    @Test
+    void testListFilesPage_ReturnsCursorForNextPage() {
+        // Given
+        FileEntity dir1 = new FileEntity();
+        dir1.setFileId(UUID.randomUUID().toString());
+        dir1.setUserId(userId);
+        dir1.setName("dir1");
+        dir1.setDirectory(true);
+        dir1.setDirectoryPath("/");
+
+        FileEntity file1 = new FileEntity();
+        file1.setFileId(UUID.randomUUID().toString());
+        file1.setUserId(userId);
+        file1.setName("a.txt");
+        file1.setDirectory(false);
+        file1.setFileSize(1024L);
+        file1.setDirectoryPath("/");
+
+        when(fileRepository.findDirectoryPage(eq(userId), eq("/"), any()))
+                .thenReturn(List.of(dir1, file1));
+        when(fileRepository.findDirectoryPageAfter(eq(userId), eq("/"), eq(true), eq("dir1"), any()))
+                .thenReturn(List.of(file1));
+
+        // When
+        FilePageDto first = fileService.listFilesPage(userId, "/", null, 1);
+        FilePageDto second = fileService.listFilesPage(userId, "/", first.getNextCursor(), 1);
+
+        // Then
+        assertEquals(1, first.getItems().size());
+        assertEquals("dir1", first.getItems().get(0).getName());
+        assertNotNull(first.getNextCursor());
+        assertEquals(1, second.getItems().size());
+        assertEquals("a.txt", second.getItems().get(0).getName());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    void testListFilesPage_InvalidCursor_ThrowsException() {
+        BusinessException exception = assertThrows(BusinessException.class, () -> {
+            fileService.listFilesPage(userId, "/", "not-a-cursor", 10);
+        });
+        assertEquals(ErrorCode.VALIDATION_ERROR, exception.getErrorCode());
     }
 
     @Test
@@ -237,6 +452,8 @@ class FileServiceTest {
         FileEntity file = new FileEntity();
         file.setFileId(fileId);
         file.setUserId(userId);
+        file.setName("a.txt");
+        file.setDirectoryPath("/");
         file.setStorageKey("chunked");
         file.setDirectory(false);
         file.setFileSize(1024L); // 设置文件大小避免NPE
@@ -247,9 +464,164 @@ class FileServiceTest {
         // When
         fileService.delete(fileId, userId);
 
+        // Then: 只移入回收站，内容与用户总用量保留到清理时
+        assertEquals(DirectoryTreeService.trashPath(fileId), file.getDirectoryPath());
+        assertEquals("/", file.getOriginalPath());
+        assertNotNull(file.getTrashedAt());
+        verify(fileRepository, times(1)).save(file);
+        verify(directoryTreeService).adjustAncestors(null, -1024L, -1L);
+        verify(changeJournalService).record(ChangeType.DELETE, file);
+        verify(chunkService, never()).deleteFileChunks(anyString());
+        verify(fileRepository, never()).delete(any(FileEntity.class));
+        verifyNoInteractions(quotaService, storageService);
+    }
+
+    @Test
+    void testDelete_Directory_MovesSubtreeToTrash() {
+        // Given
+        FileEntity dir = buildEntity("docs", "/", true);
+        dir.setSubtreeBytes(1024L);
+        dir.setSubtreeFileCount(1L);
+        dir.setParentId("root-dir");
+        when(fileRepository.findByFileIdAndUserId(dir.getFileId(), userId)).thenReturn(Optional.of(dir));
+
+        // When
+        fileService.delete(dir.getFileId(), userId);
+
         // Then
-        verify(chunkService, times(1)).deleteFileChunks(fileId);
-        verify(fileRepository, times(1)).delete(file);
+        assertNull(dir.getParentId());
+        verify(directoryTreeService).relocate(dir, "/docs", DirectoryTreeService.trashPath(dir.getFileId()) + "/docs");
+        verify(directoryTreeService).adjustAncestors("root-dir", -1024L, -1L);
+        verify(directoryTreeService, never()).findDescendants(any());
+        verify(chunkService, never()).releaseFileChunks(any());
+    }
+
+    @Test
+    void testRestore_ReturnsToOriginalDirectory() {
+        // Given
+        FileEntity dir = buildEntity("docs", DirectoryTreeService.trashPath("x"), true);
+        dir.setSubtreeBytes(1024L);
+        dir.setSubtreeFileCount(1L);
+        dir.setOriginalPath("/work");
+        dir.setTrashedAt(Instant.now());
+        FileEntity child = buildEntity("a.txt", "/work/docs", false);
+        when(fileRepository.findByFileIdAndUserIdAndTrashedAtIsNotNull(dir.getFileId(), userId))
+                .thenReturn(Optional.of(dir));
+        when(fileRepository.findByUserIdAndDirectoryPathAndName(userId, "/work", "docs")).thenReturn(Optional.empty());
+        when(directoryTreeService.ensureDirectory(userId, "/work")).thenReturn("work-id");
+        when(directoryTreeService.findDescendants(dir)).thenReturn(List.of(child));
+
+        // When
+        FileMetadataDto result = fileService.restore(dir.getFileId(), null, userId);
+
+        // Then
+        assertEquals("/work", dir.getDirectoryPath());
+        assertEquals("work-id", dir.getParentId());
+        assertNull(dir.getTrashedAt());
+        assertNull(result.getTrashedAt());
+        verify(directoryTreeService).relocate(dir, DirectoryTreeService.trashPath("x") + "/docs", "/work/docs");
+        verify(directoryTreeService).adjustAncestors("work-id", 1024L, 1L);
+        verify(changeJournalService).recordAll(userId, ChangeType.CREATE, List.of(dir, child));
+    }
+
+    @Test
+    void testRestore_NameTaken_ThrowsConflict() {
+        FileEntity file = buildEntity("a.txt", DirectoryTreeService.trashPath("x"), false);
+        file.setOriginalPath("/");
+        file.setTrashedAt(Instant.now());
+        when(fileRepository.findByFileIdAndUserIdAndTrashedAtIsNotNull(file.getFileId(), userId))
+                .thenReturn(Optional.of(file));
+        when(fileRepository.findByUserIdAndDirectoryPathAndName(userId, "/", "a.txt"))
+                .thenReturn(Optional.of(buildEntity("a.txt", "/", false)));
+
+        assertThrows(ConflictException.class, () -> fileService.restore(file.getFileId(), null, userId));
+        verify(fileRepository, never()).save(any(FileEntity.class));
+    }
+
+    @Test
+    void testMove_Directory_RelocatesSubtree() {
+        // Given
+        FileEntity dir = buildEntity("docs", "/", true);
+        dir.setSubtreeBytes(4096L);
+        dir.setSubtreeFileCount(3L);
+        when(fileRepository.findByFileIdAndUserId(dir.getFileId(), userId)).thenReturn(Optional.of(dir));
+        when(fileRepository.findByUserIdAndDirectoryPathAndName(userId, "/archive", "docs"))
+                .thenReturn(Optional.empty());
+        when(directoryTreeService.ensureDirectory(userId, "/archive")).thenReturn("archive-id");
+
+        // When
+        FileMetadataDto result = fileService.move(dir.getFileId(), "/archive", userId);
+
+        // Then
+        assertEquals("archive-id", dir.getParentId());
+        assertEquals("/archive", dir.getDirectoryPath());
+        assertEquals("/archive/docs", result.getPath());
+        verify(directoryTreeService).relocate(dir, "/docs", "/archive/docs");
+        verify(directoryTreeService).adjustAncestors(null, -4096L, -3L);
+        verify(directoryTreeService).adjustAncestors("archive-id", 4096L, 3L);
+        verify(changeJournalService).record(ChangeType.MOVE, dir, "/docs");
+        verify(directoryTreeService, never()).recordChange(anyString(), any(), anyLong(), anyLong());
+    }
+
+    @Test
+    void testGetUsage_Directory_ReturnsAggregates() {
+        // Given
+        FileEntity dir = buildEntity("docs", "/", true);
+        dir.setSubtreeBytes(2048L);
+        dir.setSubtreeFileCount(2L);
+        when(fileRepository.findByUserIdAndDirectoryPathAndName(userId, "/", "docs")).thenReturn(Optional.of(dir));
+
+        // When
+        UsageDto usage = fileService.getUsage(userId, "/docs");
+
+        // Then
+        assertEquals("/docs", usage.getPath());
+        assertEquals(2048L, usage.getUsedBytes());
+        assertEquals(2L, usage.getFileCount());
+    }
+
+    @Test
+    void testGetUsage_Root_ReturnsAccountTotals() {
+        // Given
+        testUser.setUsedBytes(5000L);
+        testUser.setFileCount(7L);
+        when(userRepository.findById(userId)).thenReturn(Optional.of(testUser));
+
+        // When
+        UsageDto usage = fileService.getUsage(userId, null);
+
+        // Then
+        assertEquals(5000L, usage.getUsedBytes());
+        assertEquals(7L, usage.getFileCount());
+    }
+
+    @Test
+    void testMove_IntoOwnSubtree_ThrowsException() {
+        // Given
+        FileEntity dir = buildEntity("docs", "/", true);
+        when(fileRepository.findByFileIdAndUserId(dir.getFileId(), userId)).thenReturn(Optional.of(dir));
+
+        // When & Then
+        BusinessException exception = assertThrows(BusinessException.class, () -> {
+            fileService.move(dir.getFileId(), "/docs/sub", userId);
+        });
+        assertEquals(ErrorCode.VALIDATION_ERROR, exception.getErrorCode());
+        verify(fileRepository, never()).save(any());
+    }
+
+    @Test
+    void testRename_NameTaken_ThrowsConflict() {
+        // Given
+        FileEntity file = buildEntity("a.txt", "/docs", false);
+        when(fileRepository.findByFileIdAndUserId(file.getFileId(), userId)).thenReturn(Optional.of(file));
+        when(fileRepository.findByUserIdAndDirectoryPathAndName(userId, "/docs", "b.txt"))
+                .thenReturn(Optional.of(buildEntity("b.txt", "/docs", false)));
+
+        // When & Then
+        assertThrows(ConflictException.class, () -> {
+            fileService.rename(file.getFileId(), "b.txt", userId);
+        });
+        verify(directoryTreeService, never()).relocate(any(), anyString(), anyString());
     }
 
     @Test
@@ -330,5 +702,141 @@ class FileServiceTest {
         assertEquals(ErrorCode.VALIDATION_ERROR, exception.getErrorCode());
         assertEquals("目录无法下载", exception.getMessage());
     }
-}
 
+    @Test
+    void testDeleteBatch_NestedTargets_MovesRootsToTrash() {
+        // Given: 目录 /docs 及其下的文件 a.txt 同时被选中，另有根目录文件 b.txt
+        FileEntity docs = buildEntity("docs", "/", true);
+        docs.setSubtreeBytes(1024L);
+        docs.setSubtreeFileCount(1L);
+        FileEntity nested = buildEntity("a.txt", "/docs", false);
+        nested.setParentId(docs.getFileId());
+        FileEntity loose = buildEntity("b.txt", "/", false);
+        List<String> ids = List.of(docs.getFileId(), nested.getFileId(), loose.getFileId(), "missing");
+        when(fileRepository.findByUserIdAndFileIdIn(userId, ids)).thenReturn(List.of(docs, nested, loose));
+
+        // When
+        Set<String> deleted = fileService.deleteBatch(userId, ids);
+
+        // Then
+        assertEquals(Set.of(docs.getFileId(), nested.getFileId(), loose.getFileId()), deleted);
+        verify(changeJournalService).recordAll(eq(userId), eq(ChangeType.DELETE),
+                argThat(roots -> roots.size() == 2 && !roots.contains(nested)));
+        verify(fileRepository).save(docs);
+        verify(fileRepository).save(loose);
+        verify(fileRepository, never()).save(nested);
+        verify(directoryTreeService).adjustAncestors(null, -2048L, -2L);
+        verify(chunkService, never()).releaseFileChunks(any());
+        verifyNoInteractions(quotaService);
+    }
+
+    @Test
+    void testPurge_TrashedRoots_CleansUpWithSetStatements() {
+        // Given: 回收站中的目录 docs(含 a.txt)与文件 b.txt
+        FileEntity docs = buildEntity("docs", DirectoryTreeService.trashPath("d"), true);
+        docs.setSubtreeBytes(1024L);
+        docs.setSubtreeFileCount(1L);
+        FileEntity nested = buildEntity("a.txt", DirectoryTreeService.trashPath("d") + "/docs", false);
+        nested.setStorageKey("chunked");
+        FileEntity loose = buildEntity("b.txt", DirectoryTreeService.trashPath("b"), false);
+        loose.setStorageKey("chunked");
+        when(directoryTreeService.findDescendants(docs)).thenReturn(List.of(nested));
+
+        // When
+        fileService.purge(userId, List.of(docs, loose));
+
+        // Then
+        verify(chunkService).releaseFileChunks(argThat(part -> part.size() == 2
+                && part.containsAll(List.of(nested.getFileId(), loose.getFileId()))));
+        verify(fileVersionRepository).deleteByFileIdIn(argThat(part -> part.size() == 2));
+        verify(fileRepository).deleteAllByIdInBatch(argThat(part -> ((Collection<?>) part).size() == 3));
+        verify(quotaService).charge(userId, -2048L, -2L);
+        verify(chunkService, never()).deleteFileChunks(anyString());
+        verifyNoInteractions(changeJournalService, storageService);
+    }
+
+    @Test
+    void testPurge_LegacyObjects_DeletesOnlyKeysNoLongerReferenced() {
+        // Given: 旧格式文件 b.txt，其历史版本指向另外两个对象，其中一个仍被其他文件的版本引用
+        FileEntity loose = buildEntity("b.txt", DirectoryTreeService.trashPath("b"), false);
+        loose.setStorageKey("files/b.txt");
+        List<String> ids = List.of(loose.getFileId());
+        when(fileVersionRepository.findLegacyStorageKeysByFileIdIn(ids))
+            .thenReturn(List.of("files/b-v1.txt", "files/shared.txt"));
+        when(fileRepository.findStorageKeysInUse(anyList())).thenReturn(List.of());
+        when(fileVersionRepository.findStorageKeysInUse(anyList())).thenReturn(List.of("files/shared.txt"));
+
+        // When
+        fileService.purge(userId, List.of(loose));
+
+        // Then
+        verify(storageService).deleteFile("files/b.txt");
+        verify(storageService).deleteFile("files/b-v1.txt");
+        verify(storageService, never()).deleteFile("files/shared.txt");
+    }
+
+    @Test
+    void testCopy_Directory_DuplicatesMetadataAndSharesChunks() {
+        // Given: /docs 下有子目录 sub(含分块文件 a.txt)与旧格式文件 b.txt
+        FileEntity docs = buildEntity("docs", "/", true);
+        docs.setSubtreeBytes(2048L);
+        docs.setSubtreeFileCount(2L);
+        FileEntity sub = buildEntity("sub", "/docs", true);
+        FileEntity chunked = buildEntity("a.txt", "/docs/sub", false);
+        chunked.setStorageKey("chunked");
+        FileEntity legacy = buildEntity("b.txt", "/docs", false);
+        legacy.setStorageKey("files/b.txt");
+        when(fileRepository.findByFileIdAndUserId(docs.getFileId(), userId)).thenReturn(Optional.of(docs));
+        when(fileRepository.findByUserIdAndDirectoryPathAndName(userId, "/backup", "docs")).thenReturn(Optional.empty());
+        when(directoryTreeService.findDescendants(docs)).thenReturn(new ArrayList<>(List.of(chunked, legacy, sub)));
+        when(directoryTreeService.ensureDirectory(userId, "/backup")).thenReturn("backup-id");
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> {
+            FileEntity entity = invocation.getArgument(0);
+            entity.prePersist();
+            return entity;
+        });
+
+        // When
+        FileMetadataDto result = fileService.copy(docs.getFileId(), "/backup", userId);
+
+        // Then
+        assertEquals("/backup/docs", result.getPath());
+        ArgumentCaptor<FileEntity> saved = ArgumentCaptor.forClass(FileEntity.class);
+        verify(fileRepository, times(4)).save(saved.capture());
+        FileEntity rootCopy = saved.getAllValues().get(0);
+        FileEntity subCopy = saved.getAllValues().stream().filter(e -> "sub".equals(e.getName())).findFirst().orElseThrow();
+        FileEntity chunkedCopy = saved.getAllValues().stream().filter(e -> "a.txt".equals(e.getName())).findFirst().orElseThrow();
+        assertEquals("backup-id", rootCopy.getParentId());
+        assertEquals(2048L, rootCopy.getSubtreeBytes());
+        assertEquals(rootCopy.getFileId(), subCopy.getParentId());
+        assertEquals("/backup/docs/sub", chunkedCopy.getDirectoryPath());
+        assertEquals(subCopy.getFileId(), chunkedCopy.getParentId());
+        verify(chunkService).copyChunkReferences(Map.of(chunked.getFileId(), chunkedCopy.getFileId()), 1);
+        verify(directoryTreeService).recordChange(userId, "backup-id", 2048L, 2L);
+        verify(changeJournalService).recordAll(eq(userId), eq(ChangeType.CREATE), argThat(copies -> copies.size() == 4));
+        verifyNoInteractions(storageService);
+    }
+
+    @Test
+    void testCopy_DirectoryIntoItself_Rejected() {
+        FileEntity docs = buildEntity("docs", "/", true);
+        when(fileRepository.findByFileIdAndUserId(docs.getFileId(), userId)).thenReturn(Optional.of(docs));
+
+        BusinessException exception = assertThrows(BusinessException.class,
+                () -> fileService.copy(docs.getFileId(), "/docs/inner", userId));
+        assertEquals(ErrorCode.VALIDATION_ERROR, exception.getErrorCode());
+        verify(fileRepository, never()).save(any(FileEntity.class));
+    }
+
+    private FileEntity buildEntity(String name, String directoryPath, boolean directory) {
+        FileEntity entity = new FileEntity();
+        entity.setFileId(UUID.randomUUID().toString());
+        entity.setUserId(userId);
+        entity.setName(name);
+        entity.setDirectoryPath(directoryPath);
+        entity.setDirectory(directory);
+        entity.setFileSize(directory ? 0L : 1024L);
+        entity.setVersion(1);
+        return entity;
+    }
+}
@@ -0,0 +1,138 @@
+package com.clouddisk.service;
+
+import com.clouddisk.dto.FileMetadataDto;
+import com.clouddisk.dto.FileVersionDto;
+import com.clouddisk.dto.FileVersionPageDto;
+import com.clouddisk.entity.ChangeType;
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.entity.FileVersion;
+import com.clouddisk.exception.BusinessException;
+import com.clouddisk.exception.ErrorCode;
+import com.clouddisk.repository.FileRepository;
+import com.clouddisk.repository.FileVersionRepository;
+import com.clouddisk.storage.StorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * FileVersionService 单元测试
+ * 测试写时复制的版本恢复与版本历史分页
+ */
+@ExtendWith(MockitoExtension.class)
+class FileVersionServiceTest {
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileVersionRepository fileVersionRepository;
+
+    @Mock
+    private StorageService storageService;
+
+    @Mock
+    private ChunkService chunkService;
+
+    @Mock
+    private FileSyncService fileSyncService;
+
+    @Mock
+    private DirectoryTreeService directoryTreeService;
+
+    @Mock
+    private ChangeJournalService changeJournalService;
+
+    @Spy
+    private FileMetadataCache metadataCache = new FileMetadataCache(true, 1000, 60, new SimpleMeterRegistry());
+
+    @InjectMocks
+    private FileVersionService fileVersionService;
+
+    private final String userId = "user-1";
+    private FileEntity file;
+
+    @BeforeEach
+    void setUp() {
+        file = new FileEntity();
+        file.setFileId("file-1");
+        file.setUserId(userId);
+        file.setName("report.docx");
+        file.setDirectoryPath("/");
+        file.setStorageKey("chunked");
+        file.setFileSize(300L);
+        file.setContentHash("hash-v3");
+        file.setVersion(3);
+        when(fileRepository.findByFileIdAndUserId("file-1", userId)).thenReturn(Optional.of(file));
+    }
+
+    @Test
+    void restoreVersionShouldCopyMappingsWithoutTransferringData() {
+        when(fileVersionRepository.findByFileIdAndVersionNumber("file-1", 1))
+                .thenReturn(Optional.of(version(1, 100L, "hash-v1")));
+        when(fileVersionRepository.existsByFileIdAndVersionNumber("file-1", 3)).thenReturn(true);
+        when(chunkService.copyVersionReferences("file-1", 1, 4)).thenReturn(1);
+
+        FileMetadataDto result = fileVersionService.restoreVersion("file-1", 1, userId);
+
+        assertEquals(4, result.getVersion());
+        assertEquals("hash-v1", file.getContentHash());
+        verify(chunkService).copyVersionReferences("file-1", 1, 4);
+        verify(fileVersionRepository, times(1)).save(argThat(saved -> saved.getVersionNumber() == 4));
+        verify(directoryTreeService).recordChange(userId, null, -200L, 0);
+        verify(changeJournalService).record(ChangeType.UPDATE, file);
+        verifyNoInteractions(storageService);
+        verify(chunkService, never()).assembleFile(anyString(), anyInt());
+    }
+
+    @Test
+    void restoreVersionShouldFailWhenMappingsAreGone() {
+        when(fileVersionRepository.findByFileIdAndVersionNumber("file-1", 1))
+                .thenReturn(Optional.of(version(1, 100L, "hash-v1")));
+        when(chunkService.copyVersionReferences("file-1", 1, 4)).thenReturn(0);
+
+        BusinessException exception = assertThrows(BusinessException.class,
+                () -> fileVersionService.restoreVersion("file-1", 1, userId));
+
+        assertEquals(ErrorCode.FILE_NOT_FOUND, exception.getErrorCode());
+        verify(fileRepository, never()).save(any());
+    }
+
+    @Test
+    void versionHistoryPageShouldUseKeysetCursor() {
+        when(fileVersionRepository.findByFileIdOrderByVersionNumberDesc(eq("file-1"), any()))
+                .thenReturn(List.of(version(9, 1L, "h9"), version(8, 1L, "h8"), version(7, 1L, "h7")));
+        when(fileVersionRepository.findByFileIdAndVersionNumberLessThanOrderByVersionNumberDesc(eq("file-1"), eq(8), any()))
+                .thenReturn(List.of(version(7, 1L, "h7")));
+
+        FileVersionPageDto first = fileVersionService.getVersionHistoryPage("file-1", userId, null, 2);
+        assertEquals(List.of(9, 8), first.getItems().stream().map(FileVersionDto::getVersionNumber).toList());
+        assertEquals("8", first.getNextCursor());
+
+        FileVersionPageDto second = fileVersionService.getVersionHistoryPage("file-1", userId, first.getNextCursor(), 2);
+        assertEquals(List.of(7), second.getItems().stream().map(FileVersionDto::getVersionNumber).toList());
+        assertNull(second.getNextCursor());
+    }
+
+    private FileVersion version(int number, long size, String hash) {
+        FileVersion version = new FileVersion();
+        version.setFileId("file-1");
+        version.setVersionNumber(number);
+        version.setStorageKey("chunked");
+        version.setFileSize(size);
+        version.setContentHash(hash);
+        return version;
+    }
+}
@@ -0,0 +1,199 @@
+package com.clouddisk.service;
+
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.entity.FileVersion;
+import com.clouddisk.repository.FileChunkMappingRepository;
+import com.clouddisk.repository.FileRepository;
+import com.clouddisk.repository.FileVersionRepository;
+import com.clouddisk.storage.StorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * LegacyMigrationService 单元测试
+ * 测试旧格式对象迁移为分块存储、引用转换、内容校验与原对象删除
+ */
+@ExtendWith(MockitoExtension.class)
+class LegacyMigrationServiceTest {
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileVersionRepository fileVersionRepository;
+
+    @Mock
+    private FileChunkMappingRepository mappingRepository;
+
+    @Mock
+    private ChunkService chunkService;
+
+    @Mock
+    private StorageService storageService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private LegacyMigrationService legacyMigrationService;
+
+    private final byte[] content = "legacy content".getBytes(StandardCharsets.UTF_8);
+    private final List<ChunkService.StagedChunk> staged =
+            List.of(new ChunkService.StagedChunk(7L, "chunk-hash", content.length));
+    private final AtomicReference<byte[]> stagedBytes = new AtomicReference<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        legacyMigrationService = new LegacyMigrationService(fileRepository, fileVersionRepository, mappingRepository,
+                chunkService, storageService, new FileMetadataCache(true, 1000, 60, new SimpleMeterRegistry()),
+                transactionManager, true, 0, 10);
+        when(chunkService.stageChunksFromStream(any(InputStream.class), eq("u1"), eq(true))).thenAnswer(invocation -> {
+            stagedBytes.set(invocation.<InputStream>getArgument(0).readAllBytes());
+            return staged;
+        });
+    }
+
+    @Test
+    void migrateShouldConvertFileAndVersionsAndDeleteObject() throws IOException {
+        FileEntity file = legacyFile("f1", 2);
+        FileVersion current = legacyVersion("f1", 2);
+        FileVersion older = legacyVersion("f1", 1);
+        when(fileRepository.findByStorageKey("files/abc.txt")).thenReturn(List.of(file));
+        when(fileVersionRepository.findByStorageKey("files/abc.txt")).thenReturn(List.of(current, older));
+        when(storageService.loadFile("files/abc.txt", false)).thenReturn(new ByteArrayInputStream(content));
+        when(fileRepository.findStorageKeysInUse(List.of("files/abc.txt"))).thenReturn(List.of());
+        when(fileVersionRepository.findStorageKeysInUse(List.of("files/abc.txt"))).thenReturn(List.of());
+
+        assertTrue(legacyMigrationService.migrate("files/abc.txt"));
+
+        assertArrayEquals(content, stagedBytes.get());
+        assertEquals("chunked", file.getStorageKey());
+        assertEquals("chunked", current.getStorageKey());
+        assertEquals("chunked", older.getStorageKey());
+        // 当前文件与同号版本只写一份映射
+        verify(chunkService).commitChunks("f1", 2, staged);
+        verify(chunkService).commitChunks("f1", 1, staged);
+        verify(storageService).deleteFile("files/abc.txt");
+    }
+
+    @Test
+    void migrateShouldDecompressGzipObjectsAndKeepObjectStillReferenced() throws IOException {
+        FileEntity file = legacyFile("f2", 1);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(content);
+        }
+        when(fileRepository.findByStorageKey("files/abc.txt")).thenReturn(List.of(file));
+        when(fileVersionRepository.findByStorageKey("files/abc.txt")).thenReturn(List.of());
+        when(storageService.loadFile("files/abc.txt", false)).thenReturn(new ByteArrayInputStream(gzipped.toByteArray()));
+        when(fileRepository.findStorageKeysInUse(List.of("files/abc.txt"))).thenReturn(List.of("files/abc.txt"));
+
+        assertTrue(legacyMigrationService.migrate("files/abc.txt"));
+
+        assertArrayEquals(content, stagedBytes.get());
+        verify(chunkService).commitChunks("f2", 1, staged);
+        verify(storageService, never()).deleteFile(anyString());
+    }
+
+    @Test
+    void migrateShouldKeepRawBytesOfUploadedGzipFile() throws IOException {
+        // 客户端直传的 .gz 文件：按魔数解压后哈希与记录不符，应按原始字节迁移
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(content);
+        }
+        byte[] raw = gzipped.toByteArray();
+        FileEntity file = legacyFile("f3", 1);
+        file.setContentHash(DigestUtils.sha256Hex(raw));
+        file.setFileSize((long) raw.length);
+        when(fileRepository.findByStorageKey("files/abc.txt")).thenReturn(List.of(file));
+        when(fileVersionRepository.findByStorageKey("files/abc.txt")).thenReturn(List.of());
+        when(storageService.loadFile("files/abc.txt", false)).thenAnswer(invocation -> new ByteArrayInputStream(raw));
+        when(fileRepository.findStorageKeysInUse(List.of("files/abc.txt"))).thenReturn(List.of());
+        when(fileVersionRepository.findStorageKeysInUse(List.of("files/abc.txt"))).thenReturn(List.of());
+
+        assertTrue(legacyMigrationService.migrate("files/abc.txt"));
+
+        assertArrayEquals(raw, stagedBytes.get());
+        verify(chunkService).commitChunks("f3", 1, staged);
+        verify(storageService).deleteFile("files/abc.txt");
+    }
+
+    @Test
+    void migrateShouldTreatUndecodableGzipMagicAsRawContent() throws IOException {
+        byte[] raw = {0x1f, (byte) 0x8b, 0x08, 0, 0, 0, 0, 0, 0, 0, 'n', 'o', 't', ' ', 'g', 'z', 'i', 'p'};
+        FileEntity file = legacyFile("f4", 1);
+        file.setContentHash(DigestUtils.sha256Hex(raw));
+        file.setFileSize((long) raw.length);
+        when(fileRepository.findByStorageKey("files/abc.txt")).thenReturn(List.of(file));
+        when(fileVersionRepository.findByStorageKey("files/abc.txt")).thenReturn(List.of());
+        when(storageService.loadFile("files/abc.txt", false)).thenAnswer(invocation -> new ByteArrayInputStream(raw));
+        when(fileRepository.findStorageKeysInUse(List.of("files/abc.txt"))).thenReturn(List.of("files/abc.txt"));
+
+        assertTrue(legacyMigrationService.migrate("files/abc.txt"));
+
+        assertArrayEquals(raw, stagedBytes.get());
+        assertEquals("chunked", file.getStorageKey());
+        verify(chunkService).commitChunks("f4", 1, staged);
+    }
+
+    @Test
+    void migrateShouldSkipAndKeepObjectWhenHashDoesNotMatch() throws IOException {
+        FileEntity file = legacyFile("f5", 1);
+        file.setContentHash(DigestUtils.sha256Hex("something else"));
+        FileVersion version = legacyVersion("f5", 1);
+        when(fileRepository.findByStorageKey("files/abc.txt")).thenReturn(List.of(file));
+        when(fileVersionRepository.findByStorageKey("files/abc.txt")).thenReturn(List.of(version));
+        when(storageService.loadFile("files/abc.txt", false)).thenAnswer(invocation -> new ByteArrayInputStream(content));
+
+        assertFalse(legacyMigrationService.migrate("files/abc.txt"));
+
+        assertEquals("files/abc.txt", file.getStorageKey());
+        assertEquals("files/abc.txt", version.getStorageKey());
+        verify(chunkService, never()).commitChunks(anyString(), anyInt(), anyList());
+        verify(storageService, never()).deleteFile(anyString());
+        // 未以 GZIP 魔数开头的内容没有其他解码方式可试
+        verify(storageService, times(1)).loadFile("files/abc.txt", false);
+    }
+
+    private FileEntity legacyFile(String fileId, int version) {
+        FileEntity file = new FileEntity();
+        file.setFileId(fileId);
+        file.setUserId("u1");
+        file.setName("abc.txt");
+        file.setDirectoryPath("/");
+        file.setStorageKey("files/abc.txt");
+        file.setFileSize((long) content.length);
+        file.setContentHash(DigestUtils.sha256Hex(content));
+        file.setVersion(version);
+        return file;
+    }
+
+    private FileVersion legacyVersion(String fileId, int number) {
+        FileVersion version = new FileVersion();
+        version.setFileId(fileId);
+        version.setVersionNumber(number);
+        version.setStorageKey("files/abc.txt");
+        version.setFileSize(content.length);
+        version.setContentHash(DigestUtils.sha256Hex(content));
+        return version;
+    }
+}
@@ -0,0 +1,90 @@
+package com.clouddisk.service;
+
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.repository.FileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * RecycleBinService 单元测试
+ * 测试过期清理的分批与按用户分组、清空回收站
+ */
+@ExtendWith(MockitoExtension.class)
+class RecycleBinServiceTest {
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileService fileService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private RecycleBinService recycleBinService;
+
+    @BeforeEach
+    void setUp() {
+        recycleBinService = new RecycleBinService(fileRepository, fileService, transactionManager, 30, 10);
+    }
+
+    @Test
+    void purgeExpiredShouldGroupByUserUntilNoneLeft() {
+        FileEntity a1 = trashed("u1");
+        FileEntity a2 = trashed("u1");
+        FileEntity b1 = trashed("u2");
+        when(fileRepository.findTop500ByTrashedAtBeforeOrderByTrashedAtAsc(any(Instant.class)))
+                .thenReturn(List.of(a1, b1, a2))
+                .thenReturn(List.of());
+
+        recycleBinService.purgeExpired();
+
+        verify(fileService).purge("u1", List.of(a1, a2));
+        verify(fileService).purge("u2", List.of(b1));
+        verify(fileRepository, times(2)).findTop500ByTrashedAtBeforeOrderByTrashedAtAsc(any(Instant.class));
+    }
+
+    @Test
+    void purgeExpiredShouldStopAtBatchLimit() {
+        when(fileRepository.findTop500ByTrashedAtBeforeOrderByTrashedAtAsc(any(Instant.class)))
+                .thenReturn(List.of(trashed("u1")));
+
+        recycleBinService.purgeExpired();
+
+        verify(fileService, times(10)).purge(eq("u1"), anyList());
+    }
+
+    @Test
+    void emptyTrashShouldPurgeInBatches() {
+        FileEntity first = trashed("u1");
+        FileEntity second = trashed("u1");
+        when(fileRepository.findByUserIdAndTrashedAtIsNotNullOrderByTrashedAtDesc(eq("u1"), any()))
+                .thenReturn(List.of(first, second))
+                .thenReturn(List.of());
+
+        assertEquals(2, recycleBinService.emptyTrash("u1"));
+        verify(fileService).purge("u1", List.of(first, second));
+    }
+
+    private FileEntity trashed(String userId) {
+        FileEntity entity = new FileEntity();
+        entity.setFileId(UUID.randomUUID().toString());
+        entity.setUserId(userId);
+        entity.setName("f");
+        entity.setDirectoryPath(DirectoryTreeService.trashPath(entity.getFileId()));
+        entity.setTrashedAt(Instant.now().minusSeconds(86400L * 31));
+        return entity;
+    }
+}
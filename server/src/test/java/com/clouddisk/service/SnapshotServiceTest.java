@@ -0,0 +1,71 @@
+package com.clouddisk.service;
+
+import com.clouddisk.dto.SnapshotEntryDto;
+import com.clouddisk.repository.FileRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * SnapshotService 单元测试
+ * 测试 NDJSON 快照的行格式与游标
+ */
+@ExtendWith(MockitoExtension.class)
+class SnapshotServiceTest {
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private ChangeJournalService changeJournalService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private SnapshotService snapshotService;
+
+    @BeforeEach
+    void setUp() {
+        snapshotService = new SnapshotService(fileRepository, changeJournalService, objectMapper, transactionManager);
+    }
+
+    @Test
+    void writeSnapshotShouldEmitHeaderEntriesAndEnd() throws Exception {
+        when(changeJournalService.currentCursor("user-1")).thenReturn("42");
+        when(fileRepository.streamSnapshot("user-1")).thenReturn(Stream.of(
+                new SnapshotEntryDto("d1", null, "/", "docs", true, 0L, null, 1, Instant.now()),
+                new SnapshotEntryDto("f1", "d1", "/docs", "a.txt", false, 10L, "hash", 3, Instant.now())));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshotService.writeSnapshot("user-1", out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(4, lines.length);
+        JsonNode header = objectMapper.readTree(lines[0]);
+        assertEquals("header", header.get("kind").asText());
+        assertEquals("42", header.get("cursor").asText());
+        JsonNode file = objectMapper.readTree(lines[2]);
+        assertEquals("entry", file.get("kind").asText());
+        assertEquals("/docs/a.txt", file.get("path").asText());
+        assertEquals(3, file.get("version").asInt());
+        JsonNode end = objectMapper.readTree(lines[3]);
+        assertEquals("end", end.get("kind").asText());
+        assertEquals(2, end.get("count").asInt());
+    }
+}
@@ -0,0 +1,164 @@
+package com.clouddisk.service;
+
+import com.clouddisk.config.VersionRetentionProperties;
+import com.clouddisk.entity.FileEntity;
+import com.clouddisk.entity.FileVersion;
+import com.clouddisk.repository.FileRepository;
+import com.clouddisk.repository.FileVersionRepository;
+import com.clouddisk.storage.StorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * VersionRetentionService 单元测试
+ * 测试保留最近版本、保留天数、逐级稀疏化与按路径匹配规则
+ */
+@ExtendWith(MockitoExtension.class)
+class VersionRetentionServiceTest {
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileVersionRepository fileVersionRepository;
+
+    @Mock
+    private ChunkService chunkService;
+
+    @Mock
+    private StorageService storageService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private VersionRetentionProperties properties;
+    private VersionRetentionService versionRetentionService;
+
+    private final Instant now = Instant.parse("2024-06-01T12:30:00Z");
+
+    @BeforeEach
+    void setUp() {
+        properties = new VersionRetentionProperties();
+        versionRetentionService = new VersionRetentionService(fileRepository, fileVersionRepository, chunkService,
+                storageService, properties, transactionManager);
+    }
+
+    @Test
+    void selectPrunableShouldKeepLastAndThinOlderVersions() {
+        VersionRetentionProperties.Policy policy = policy(2, 0, true);
+        List<FileVersion> versions = new ArrayList<>();
+        // 10..7 在同一小时内，6 与 5 在同一天，4 与 3 在同一周
+        versions.add(version(10, now.minus(Duration.ofMinutes(1))));
+        versions.add(version(9, now.minus(Duration.ofMinutes(2))));
+        versions.add(version(8, now.minus(Duration.ofMinutes(3))));
+        versions.add(version(7, now.minus(Duration.ofMinutes(4))));
+        versions.add(version(6, now.minus(Duration.ofDays(3))));
+        versions.add(version(5, now.minus(Duration.ofDays(3)).minus(Duration.ofMinutes(5))));
+        versions.add(version(4, Instant.parse("2024-01-03T10:00:00Z")));
+        versions.add(version(3, Instant.parse("2024-01-03T09:00:00Z")));
+
+        Set<Integer> prunable = VersionRetentionService.selectPrunable(versions, 10, policy, now);
+
+        assertEquals(Set.of(8, 7, 5, 3), prunable);
+    }
+
+    @Test
+    void selectPrunableShouldDropVersionsOlderThanMaxAgeButNeverCurrent() {
+        VersionRetentionProperties.Policy policy = policy(1, 7, false);
+        List<FileVersion> versions = List.of(
+                version(5, now.minus(Duration.ofDays(1))),
+                version(4, now.minus(Duration.ofDays(2))),
+                version(3, now.minus(Duration.ofDays(10))),
+                version(2, now.minus(Duration.ofDays(20))));
+
+        // 恢复后当前版本号可能不是最新记录
+        assertEquals(Set.of(2), VersionRetentionService.selectPrunable(versions, 3, policy, now));
+    }
+
+    @Test
+    void policyForShouldUseFirstMatchingRule() {
+        VersionRetentionProperties.Rule logs = new VersionRetentionProperties.Rule();
+        logs.setPathPattern("/**/*.log");
+        logs.setKeepLast(3);
+        VersionRetentionProperties.Rule vip = new VersionRetentionProperties.Rule();
+        vip.setUserId("vip");
+        vip.setKeepLast(100);
+        properties.setRules(List.of(logs, vip));
+
+        assertSame(logs, versionRetentionService.policyFor(file("vip", "/var/app", "server.log")));
+        assertSame(vip, versionRetentionService.policyFor(file("vip", "/docs", "a.docx")));
+        assertSame(properties.getDefaults(), versionRetentionService.policyFor(file("u1", "/docs", "a.docx")));
+    }
+
+    @Test
+    void pruneVersionsShouldDoNothingUnlessExplicitlyEnabled() {
+        versionRetentionService.pruneVersions();
+
+        verifyNoInteractions(fileRepository, fileVersionRepository, chunkService, storageService);
+    }
+
+    @Test
+    void pruneVersionsShouldReleaseChunksAndDeleteRowsInBatches() {
+        properties.setEnabled(true);
+        properties.setDefaults(policy(1, 30, true));
+        FileEntity file = file("u1", "/", "app.log");
+        file.setVersion(3);
+        when(fileVersionRepository.findFileIdsWithMoreVersionsThan(eq(""), eq(1L), any()))
+                .thenReturn(List.of(file.getFileId()));
+        when(fileVersionRepository.findFileIdsWithMoreVersionsThan(eq(file.getFileId()), eq(1L), any()))
+                .thenReturn(List.of());
+        when(fileRepository.findAllById(List.of(file.getFileId()))).thenReturn(List.of(file));
+        FileVersion legacy = version(1, now);
+        legacy.setStorageKey("legacy-key");
+        when(fileVersionRepository.findByFileIdInOrderByFileIdAscVersionNumberDesc(List.of(file.getFileId())))
+                .thenReturn(List.of(version(3, Instant.now()), version(2, Instant.now()), legacy));
+        when(fileRepository.findStorageKeysInUse(List.of("legacy-key"))).thenReturn(List.of());
+        when(fileVersionRepository.findStorageKeysInUse(List.of("legacy-key"))).thenReturn(List.of());
+
+        versionRetentionService.pruneVersions();
+
+        verify(chunkService).releaseVersionChunks(file.getFileId(), Set.of(1, 2));
+        verify(fileVersionRepository).deleteByFileIdAndVersionNumberIn(file.getFileId(), Set.of(1, 2));
+        verify(storageService).deleteFile("legacy-key");
+    }
+
+    private VersionRetentionProperties.Policy policy(int keepLast, int maxAgeDays, boolean thinning) {
+        VersionRetentionProperties.Policy policy = new VersionRetentionProperties.Policy();
+        policy.setKeepLast(keepLast);
+        policy.setMaxAgeDays(maxAgeDays);
+        policy.setThinning(thinning);
+        return policy;
+    }
+
+    private FileVersion version(int number, Instant createdAt) {
+        FileVersion version = new FileVersion();
+        version.setFileId("file-1");
+        version.setVersionNumber(number);
+        version.setStorageKey("chunked");
+        version.setCreatedAt(createdAt);
+        return version;
+    }
+
+    private FileEntity file(String userId, String directoryPath, String name) {
+        FileEntity file = new FileEntity();
+        file.setFileId("file-1");
+        file.setUserId(userId);
+        file.setDirectoryPath(directoryPath);
+        file.setName(name);
+        return file;
+    }
+}
@@ -0,0 +1,88 @@
+package com.clouddisk.storage;
+
+import com.aliyun.oss.ClientErrorCode;
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.clouddisk.concurrent.AdaptiveConcurrencyLimiter;
+import com.clouddisk.exception.StorageObjectNotFoundException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * LimitingStorageService 单元测试
+ * 测试只有超时与服务端错误才收缩并发上限，调用方错误只归还许可
+ */
+@ExtendWith(MockitoExtension.class)
+class LimitingStorageServiceTest {
+
+    @Mock
+    private StorageService delegate;
+
+    private final AdaptiveConcurrencyLimiter readLimiter = limiter("read");
+    private final AdaptiveConcurrencyLimiter writeLimiter = limiter("write");
+
+    @Test
+    void notFoundShouldNotShrinkReadLimit() {
+        when(delegate.loadFile("chunks/a", false))
+                .thenThrow(new StorageObjectNotFoundException("chunks/a", oss(OSSErrorCode.NO_SUCH_KEY)));
+
+        assertThrows(StorageObjectNotFoundException.class, () -> service().loadFile("chunks/a", false));
+
+        assertEquals(8, readLimiter.getLimit());
+        assertEquals(0, readLimiter.getInFlight());
+    }
+
+    @Test
+    void serverErrorShouldShrinkReadLimit() {
+        when(delegate.loadFile("chunks/a", false))
+                .thenThrow(new RuntimeException("OSS 文件加载失败", oss(OSSErrorCode.INTERNAL_ERROR)));
+
+        assertThrows(RuntimeException.class, () -> service().loadFile("chunks/a", false));
+
+        assertEquals(4, readLimiter.getLimit());
+        assertEquals(8, writeLimiter.getLimit());
+    }
+
+    @Test
+    void socketTimeoutShouldShrinkWriteLimit() {
+        byte[] data = {1, 2, 3};
+        when(delegate.storeBytes(data, "chunks/", "a.chunk", false)).thenThrow(new RuntimeException("上传失败",
+                new ClientException("read timed out", ClientErrorCode.SOCKET_TIMEOUT, "req-1")));
+
+        assertThrows(RuntimeException.class, () -> service().storeBytes(data, "chunks/", "a.chunk", false));
+
+        assertEquals(4, writeLimiter.getLimit());
+        assertEquals(0, writeLimiter.getInFlight());
+    }
+
+    @Test
+    void clientErrorsShouldOnlyReleasePermit() {
+        doThrow(new RuntimeException("OSS 文件删除失败", oss(OSSErrorCode.ACCESS_DENIED)))
+                .when(delegate).deleteFile("chunks/a");
+        doThrow(new IllegalArgumentException("非法的存储键")).when(delegate).deleteFile("");
+
+        assertThrows(RuntimeException.class, () -> service().deleteFile("chunks/a"));
+        assertThrows(IllegalArgumentException.class, () -> service().deleteFile(""));
+
+        assertEquals(8, writeLimiter.getLimit());
+        assertEquals(0, writeLimiter.getInFlight());
+    }
+
+    private LimitingStorageService service() {
+        return new LimitingStorageService(delegate, readLimiter, writeLimiter);
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(String name) {
+        return new AdaptiveConcurrencyLimiter(name, 8, 2, 64, 10, 100, 0.5, 2.0, 1);
+    }
+
+    private static OSSException oss(String errorCode) {
+        return new OSSException("error", errorCode, "req-1", "host", null, null, "GET");
+    }
+}
@@ -0,0 +1,192 @@
+package com.clouddisk.storage;
+
+import com.aliyun.oss.ClientErrorCode;
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.clouddisk.exception.ServerBusyException;
+import com.clouddisk.exception.StorageObjectNotFoundException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ResilientStorageService 单元测试
+ * 测试对冲令牌预算、对冲在调用线程外执行、缓存兜底以及读写熔断隔离
+ */
+@ExtendWith(MockitoExtension.class)
+class ResilientStorageServiceTest {
+
+    private static final String KEY = "chunks/ab/abc.chunk";
+    private static final byte[] DATA = {1, 2, 3};
+
+    @Mock
+    private StorageService delegate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void hedgesShouldBeLimitedByTokenBudget() throws Exception {
+        ResilientStorageService service = service(settings(true, 0.05, 2));
+        String testThread = Thread.currentThread().getName();
+        List<String> slowPrimaryThreads = new CopyOnWriteArrayList<>();
+        when(delegate.loadFile("chunks/fast", false)).thenAnswer(invocation -> stream());
+        when(delegate.loadFile("chunks/slow", false)).thenAnswer(invocation -> {
+            if (isHedgeThread()) {
+                return stream();
+            }
+            slowPrimaryThreads.add(Thread.currentThread().getName());
+            Thread.sleep(150);
+            return stream();
+        });
+
+        // 70 次读取积累 3.5 个令牌，同时填满延迟样本
+        for (int i = 0; i < 70; i++) {
+            read(service, "chunks/fast");
+        }
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(DATA, read(service, "chunks/slow"));
+        }
+
+        assertEquals(3, meterRegistry.counter("storage.hedge.issued").count());
+        assertEquals(List.of(testThread, testThread, testThread, testThread), slowPrimaryThreads);
+        verify(delegate, times(7)).loadFile("chunks/slow", false);
+    }
+
+    @Test
+    void hedgeWinShouldAbortBlockedPrimary() throws Exception {
+        ResilientStorageService service = service(settings(true, 1.0, 2));
+        CountDownLatch primaryClosed = new CountDownLatch(1);
+        when(delegate.loadFile("chunks/fast", false)).thenAnswer(invocation -> stream());
+        when(delegate.loadFile(KEY, false)).thenAnswer(invocation -> {
+            if (isHedgeThread()) {
+                return stream();
+            }
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    try {
+                        if (!primaryClosed.await(10, TimeUnit.SECONDS)) {
+                            throw new IOException("primary never closed");
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IOException("stream closed");
+                }
+
+                @Override
+                public void close() {
+                    primaryClosed.countDown();
+                }
+            };
+        });
+        for (int i = 0; i < 60; i++) {
+            read(service, "chunks/fast");
+        }
+
+        long start = System.nanoTime();
+        assertArrayEquals(DATA, read(service, KEY));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(0, primaryClosed.getCount());
+        assertEquals(1, meterRegistry.counter("storage.hedge.won").count());
+    }
+
+    @Test
+    void fallbackCacheShouldServeAfterTransientFailureAndWhileOpen() throws Exception {
+        ResilientStorageService service = service(settings(false, 0, 1));
+        when(delegate.loadFile(KEY, false))
+                .thenAnswer(invocation -> stream())
+                .thenThrow(new RuntimeException("OSS 文件加载失败",
+                        new ClientException("connect timed out", ClientErrorCode.CONNECTION_TIMEOUT, "req-1")));
+
+        assertArrayEquals(DATA, read(service, KEY));
+        assertArrayEquals(DATA, read(service, KEY));
+        assertEquals(1, breakerOpen("read"));
+        // 熔断期间命中缓存，不再访问下游
+        assertArrayEquals(DATA, read(service, KEY));
+        assertThrows(ServerBusyException.class, () -> service.loadFile("chunks/other", false));
+
+        assertEquals(2, meterRegistry.counter("storage.fallback.hits").count());
+        verify(delegate, times(2)).loadFile(KEY, false);
+    }
+
+    @Test
+    void notFoundShouldNotOpenBreakerOrUseCache() throws Exception {
+        ResilientStorageService service = service(settings(false, 0, 2));
+        when(delegate.loadFile(KEY, false))
+                .thenAnswer(invocation -> stream())
+                .thenThrow(new StorageObjectNotFoundException(KEY, oss(OSSErrorCode.NO_SUCH_KEY)));
+        read(service, KEY);
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(StorageObjectNotFoundException.class, () -> service.loadFile(KEY, false));
+        }
+
+        assertEquals(0, breakerOpen("read"));
+        assertEquals(0, meterRegistry.counter("storage.fallback.hits").count());
+    }
+
+    @Test
+    void writeFailuresShouldNotBlockReads() throws Exception {
+        ResilientStorageService service = service(settings(false, 0, 2));
+        when(delegate.storeBytes(DATA, "chunks/", "a.chunk", false))
+                .thenThrow(new RuntimeException("OSS 上传失败", oss(OSSErrorCode.INTERNAL_ERROR)));
+        when(delegate.loadFile(KEY, false)).thenAnswer(invocation -> stream());
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(RuntimeException.class, () -> service.storeBytes(DATA, "chunks/", "a.chunk", false));
+        }
+
+        assertThrows(ServerBusyException.class, () -> service.storeBytes(DATA, "chunks/", "a.chunk", false));
+        assertEquals(1, breakerOpen("write"));
+        assertEquals(0, breakerOpen("read"));
+        assertArrayEquals(DATA, read(service, KEY));
+        verify(delegate, times(2)).storeBytes(DATA, "chunks/", "a.chunk", false);
+    }
+
+    private ResilientStorageService service(ResilientStorageService.Settings settings) {
+        return new ResilientStorageService(delegate, settings, meterRegistry);
+    }
+
+    private static ResilientStorageService.Settings settings(boolean hedge, double budgetRatio, int failureThreshold) {
+        return new ResilientStorageService.Settings(hedge, 0.95, 20, budgetRatio, 4,
+                failureThreshold, 60_000, 1024 * 1024);
+    }
+
+    private double breakerOpen(String lane) {
+        return meterRegistry.get("storage.breaker.open").tag("lane", lane).gauge().value();
+    }
+
+    private static byte[] read(ResilientStorageService service, String key) throws IOException {
+        try (InputStream in = service.loadFile(key, false)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static InputStream stream() {
+        return new ByteArrayInputStream(DATA);
+    }
+
+    private static boolean isHedgeThread() {
+        return Thread.currentThread().getName().startsWith("storage-hedge-");
+    }
+
+    private static OSSException oss(String errorCode) {
+        return new OSSException("error", errorCode, "req-1", "host", null, null, "GET");
+    }
+}